@@ -0,0 +1,80 @@
+package mapconstruction.benchmark.jmh;
+
+import mapconstruction.algorithms.bundles.graph.GeneratingRTSemiWeakFDLabelledGraph;
+import mapconstruction.algorithms.bundles.sweep.FurthestEndpointSweep;
+import mapconstruction.algorithms.distance.SegmentRTree;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.Trajectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Base of the benchmarks on synthetic trajectories, parameterised by the number of trajectories, the number of
+ * points per trajectory and epsilon.
+ * <p>
+ * The trajectories are generated once per trial, see {@link SyntheticTrajectories}. Direction is ignored
+ * throughout, as in the evolution diagram.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class AbstractTrajectoryBenchmark {
+
+    /**
+     * Ratio between lambda and epsilon, as used by the evolution diagram.
+     */
+    public static final double LAMBDA_FACTOR = 2;
+
+    @Param({"50", "200"})
+    public int count;
+
+    @Param({"100", "500"})
+    public int points;
+
+    @Param({"10", "30"})
+    public double epsilon;
+
+    protected List<Trajectory> trajectories;
+
+    @Setup(Level.Trial)
+    public void generateTrajectories() {
+        trajectories = SyntheticTrajectories.generate(count, points, 42);
+    }
+
+    protected double lambda() {
+        return epsilon * LAMBDA_FACTOR;
+    }
+
+    /**
+     * The trajectories followed by their reverses, the trajectories the representatives are compared against.
+     */
+    protected List<Trajectory> concatenated() {
+        return Stream.concat(trajectories.stream(), trajectories.stream().map(Trajectory::reverse)).collect(Collectors.toList());
+    }
+
+    /**
+     * Generates all bundles at epsilon with each trajectory as representative, without removing lambda-subbundles.
+     */
+    protected Set<Bundle> generateBundles() {
+        List<Trajectory> concatenated = concatenated();
+        SegmentRTree rTree = GeneratingRTSemiWeakFDLabelledGraph.indexSegments(concatenated);
+
+        Set<Bundle> bundles = new LinkedHashSet<>();
+        for (Trajectory representative : trajectories) {
+            FurthestEndpointSweep sweep = new FurthestEndpointSweep(
+                    new GeneratingRTSemiWeakFDLabelledGraph(epsilon, representative, concatenated, rTree), lambda());
+            sweep.initialize();
+            bundles.addAll(sweep.sweep());
+        }
+        return bundles;
+    }
+}
@@ -0,0 +1,36 @@
+package mapconstruction.benchmark.jmh;
+
+import mapconstruction.algorithms.bundles.KLSubbundleAlgorithm;
+import mapconstruction.algorithms.representative.Forces;
+import mapconstruction.trajectories.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.Set;
+
+/**
+ * Benchmarks {@link Forces#representativeTrajectory} on all bundles found at epsilon.
+ */
+public class ForcesBenchmark extends AbstractTrajectoryBenchmark {
+
+    private Set<Bundle> bundles;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        bundles = new KLSubbundleAlgorithm(epsilon, lambda(), true, false).run(trajectories);
+    }
+
+    /**
+     * @return total number of points of the representatives
+     */
+    @Benchmark
+    public int representativeTrajectory() {
+        int points = 0;
+        for (Bundle b : bundles) {
+            points += Forces.representativeTrajectory(b.getSubtrajectories(), b.getOriginalRepresentative(), epsilon,
+                    null, null, null, null).size();
+        }
+        return points;
+    }
+}
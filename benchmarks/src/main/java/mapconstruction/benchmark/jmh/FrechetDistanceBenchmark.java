@@ -0,0 +1,52 @@
+package mapconstruction.benchmark.jmh;
+
+import mapconstruction.algorithms.distance.frechet.SemiWeakFrechetDistance;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Benchmarks {@link SemiWeakFrechetDistance} on consecutive pairs of trajectories, and on all pairs.
+ */
+public class FrechetDistanceBenchmark extends AbstractTrajectoryBenchmark {
+
+    private final SemiWeakFrechetDistance distance = new SemiWeakFrechetDistance();
+
+    /**
+     * Computes the distance between each trajectory and the next one.
+     *
+     * @return number of pairs within epsilon
+     */
+    @Benchmark
+    public int compute() {
+        int within = 0;
+        for (int i = 0; i + 1 < trajectories.size(); i++) {
+            if (distance.compute(trajectories.get(i), trajectories.get(i + 1)) <= epsilon) {
+                within++;
+            }
+        }
+        return within;
+    }
+
+    /**
+     * Decides for each trajectory and the next one whether they are within epsilon.
+     *
+     * @return number of pairs within epsilon
+     */
+    @Benchmark
+    public int isWithin() {
+        int within = 0;
+        for (int i = 0; i + 1 < trajectories.size(); i++) {
+            if (distance.isWithin(trajectories.get(i), trajectories.get(i + 1), epsilon)) {
+                within++;
+            }
+        }
+        return within;
+    }
+
+    /**
+     * Computes the distances between all pairs of trajectories.
+     */
+    @Benchmark
+    public double[][] computeAll() {
+        return distance.computeAll(trajectories, trajectories);
+    }
+}
@@ -0,0 +1,40 @@
+package mapconstruction.benchmark.jmh;
+
+import mapconstruction.algorithms.bundles.graph.GeneratingRTSemiWeakFDLabelledGraph;
+import mapconstruction.algorithms.distance.SegmentRTree;
+import mapconstruction.trajectories.Trajectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.List;
+
+/**
+ * Benchmarks {@link GeneratingRTSemiWeakFDLabelledGraph#addLayer()}, building the free space of every trajectory
+ * against all trajectories and their reverses.
+ */
+public class FreeSpaceBenchmark extends AbstractTrajectoryBenchmark {
+
+    private List<Trajectory> concatenated;
+    private SegmentRTree rTree;
+
+    @Setup(Level.Trial)
+    public void indexSegments() {
+        concatenated = concatenated();
+        rTree = GeneratingRTSemiWeakFDLabelledGraph.indexSegments(concatenated);
+    }
+
+    /**
+     * @return total number of cells in the free spaces
+     */
+    @Benchmark
+    public long addLayer() {
+        long cells = 0;
+        for (Trajectory representative : trajectories) {
+            GeneratingRTSemiWeakFDLabelledGraph graph = new GeneratingRTSemiWeakFDLabelledGraph(epsilon, representative, concatenated, rTree);
+            graph.addLayer();
+            cells += graph.numCells();
+        }
+        return cells;
+    }
+}
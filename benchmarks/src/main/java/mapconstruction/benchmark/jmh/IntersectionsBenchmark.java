@@ -0,0 +1,48 @@
+package mapconstruction.benchmark.jmh;
+
+import mapconstruction.algorithms.diagram.EvolutionDiagram;
+import mapconstruction.algorithms.diagram.EvolutionDiagramBuilder;
+import mapconstruction.algorithms.maps.intersections.ComputeIntersections;
+import mapconstruction.web.config.DatasetConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import static mapconstruction.GUI.datastorage.DataStorage.STORAGE;
+import static mapconstruction.algorithms.maps.intersections.TrajectoryBundleCombiner.TBCombiner;
+
+/**
+ * Benchmarks {@link ComputeIntersections#getIntersections()}, which reads the bundles from the global storage.
+ * <p>
+ * The evolution diagram is built on the additive epsilon levels epsilon, 2 epsilon, ..., 4 epsilon, and the storage
+ * is filled with the bundles at their best epsilon, as after computing the diagram in the application.
+ */
+public class IntersectionsBenchmark extends AbstractTrajectoryBenchmark {
+
+    @Setup(Level.Trial)
+    public void fillStorage() {
+        EvolutionDiagram diagram = EvolutionDiagramBuilder.additive(epsilon, LAMBDA_FACTOR, epsilon, 4 * epsilon, true, k -> k + 1)
+                .run(trajectories);
+
+        STORAGE.setDatasetConfig(new DatasetConfig());
+        STORAGE.setTrajectories(trajectories);
+        STORAGE.setEvolutionDiagram(diagram);
+        STORAGE.setBundlesWithClasses(diagram.bundlesWithClassesAtBest());
+    }
+
+    /**
+     * Computes the intersections with a fresh index of the trajectories in the bundles, as in
+     * {@link mapconstruction.algorithms.maps.ComputeRoadNetwork}.
+     *
+     * @return number of intersections
+     */
+    @Benchmark
+    public int getIntersections() {
+        TBCombiner.initialize();
+        try {
+            return ComputeIntersections.getIntersections().size();
+        } finally {
+            TBCombiner.destroy();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package mapconstruction.benchmark.jmh;
+
+import mapconstruction.algorithms.bundles.graph.GeneratingRTSemiWeakFDLabelledGraph;
+import mapconstruction.algorithms.distance.RTree;
+import mapconstruction.algorithms.distance.SegmentRTree;
+import mapconstruction.trajectories.Trajectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks window queries on the segments of all trajectories and their reverses, with a window of size
+ * 2 epsilon around every point, as done when building the free space. Compares the generic {@link RTree} with the
+ * {@link SegmentRTree} used by the free space.
+ */
+public class RTreeBenchmark extends AbstractTrajectoryBenchmark {
+
+    private RTree<Line2D, Integer> rTree;
+    private SegmentRTree segmentRTree;
+
+    @Setup(Level.Trial)
+    public void index() {
+        List<Trajectory> concatenated = concatenated();
+        Map<Line2D, Integer> segments = new HashMap<>();
+        int i = 0;
+        for (Trajectory t : concatenated) {
+            for (Line2D edge : t.edges()) {
+                segments.put(edge, i++);
+            }
+            i++;
+        }
+        rTree = new RTree<>(10, segments);
+        segmentRTree = GeneratingRTSemiWeakFDLabelledGraph.indexSegments(concatenated);
+    }
+
+    /**
+     * @return total number of segments found
+     */
+    @Benchmark
+    public long windowQuery() {
+        long found = 0;
+        for (Trajectory t : trajectories) {
+            for (Point2D p : t.points()) {
+                found += rTree.windowQuery(p.getX() - epsilon, p.getY() - epsilon, p.getX() + epsilon, p.getY() + epsilon).size();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return total number of segments found
+     */
+    @Benchmark
+    public long segmentWindowQuery() {
+        long found = 0;
+        for (Trajectory t : trajectories) {
+            for (Point2D p : t.points()) {
+                found += segmentRTree.windowQuery(p.getX() - epsilon, p.getY() - epsilon, p.getX() + epsilon, p.getY() + epsilon).length;
+            }
+        }
+        return found;
+    }
+}
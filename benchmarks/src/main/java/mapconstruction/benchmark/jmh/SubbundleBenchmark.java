@@ -0,0 +1,44 @@
+package mapconstruction.benchmark.jmh;
+
+import mapconstruction.algorithms.bundles.KLSubbundleAlgorithm;
+import mapconstruction.trajectories.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Benchmarks {@link KLSubbundleAlgorithm#removeLambdaSubbundles(Set, double)} on all bundles generated at epsilon.
+ * The removal modifies the bundles it is given, so it runs on a fresh copy each invocation.
+ */
+public class SubbundleBenchmark extends AbstractTrajectoryBenchmark {
+
+    private Set<Bundle> generated;
+    private Set<Bundle> bundles;
+    private KLSubbundleAlgorithm algorithm;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        generated = generateBundles();
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() {
+        bundles = new LinkedHashSet<>(generated);
+        algorithm = new KLSubbundleAlgorithm(epsilon, lambda(), true, false);
+        // initializes the recorded merges
+        algorithm.run(Collections.emptyList());
+    }
+
+    /**
+     * @return number of bundles left
+     */
+    @Benchmark
+    public int removeLambdaSubbundles() {
+        algorithm.removeLambdaSubbundles(bundles, lambda());
+        return bundles.size();
+    }
+}
@@ -0,0 +1,52 @@
+package mapconstruction.benchmark.jmh;
+
+import mapconstruction.algorithms.bundles.graph.GeneratingRTSemiWeakFDLabelledGraph;
+import mapconstruction.algorithms.bundles.sweep.FurthestEndpointSweep;
+import mapconstruction.algorithms.distance.SegmentRTree;
+import mapconstruction.trajectories.Trajectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks {@link FurthestEndpointSweep#sweep()} over the free space of every trajectory. The free spaces are
+ * built and their events collected before each invocation, so only the sweep itself is measured.
+ */
+public class SweepBenchmark extends AbstractTrajectoryBenchmark {
+
+    private List<Trajectory> concatenated;
+    private SegmentRTree rTree;
+    private List<FurthestEndpointSweep> sweeps;
+
+    @Setup(Level.Trial)
+    public void indexSegments() {
+        concatenated = concatenated();
+        rTree = GeneratingRTSemiWeakFDLabelledGraph.indexSegments(concatenated);
+    }
+
+    @Setup(Level.Invocation)
+    public void initializeSweeps() {
+        sweeps = new ArrayList<>(trajectories.size());
+        for (Trajectory representative : trajectories) {
+            FurthestEndpointSweep sweep = new FurthestEndpointSweep(
+                    new GeneratingRTSemiWeakFDLabelledGraph(epsilon, representative, concatenated, rTree), lambda());
+            sweep.initialize();
+            sweeps.add(sweep);
+        }
+    }
+
+    /**
+     * @return total number of bundles found
+     */
+    @Benchmark
+    public int sweep() {
+        int bundles = 0;
+        for (FurthestEndpointSweep sweep : sweeps) {
+            bundles += sweep.sweep().size();
+        }
+        return bundles;
+    }
+}
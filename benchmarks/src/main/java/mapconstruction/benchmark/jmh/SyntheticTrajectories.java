@@ -0,0 +1,92 @@
+package mapconstruction.benchmark.jmh;
+
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Trajectory;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of synthetic trajectories for the benchmarks.
+ * <p>
+ * The trajectories follow the streets of a square grid, like vehicles sampled by GPS: each starts at a random
+ * crossing, moves a fixed distance per sample along its street with Gaussian noise, and turns at random at the
+ * crossings. Trajectories sharing a street form bundles, so the output behaves like a real dataset for all parts
+ * of the pipeline. Generation is deterministic for a given seed.
+ */
+public class SyntheticTrajectories {
+
+    /**
+     * Distance between two parallel streets, in meters.
+     */
+    public static final double BLOCK_SIZE = 100;
+
+    /**
+     * Number of blocks along each side of the grid.
+     */
+    public static final int BLOCKS = 10;
+
+    /**
+     * Distance between two samples, in meters.
+     */
+    public static final double SAMPLE_DISTANCE = 10;
+
+    /**
+     * Standard deviation of the noise on each sample, in meters.
+     */
+    public static final double NOISE = 3;
+
+    private static final int[][] DIRECTIONS = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+
+    private SyntheticTrajectories() {
+    }
+
+    /**
+     * Generates trajectories on the street grid.
+     *
+     * @param count  number of trajectories
+     * @param points number of points per trajectory
+     * @param seed   seed of the random generator
+     * @return the trajectories, labelled by their index
+     */
+    public static List<Trajectory> generate(int count, int points, long seed) {
+        Random random = new Random(seed);
+        int samplesPerBlock = (int) Math.round(BLOCK_SIZE / SAMPLE_DISTANCE);
+
+        List<Trajectory> trajectories = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            // position in samples along the grid
+            int x = random.nextInt(BLOCKS + 1) * samplesPerBlock;
+            int y = random.nextInt(BLOCKS + 1) * samplesPerBlock;
+            int direction = random.nextInt(DIRECTIONS.length);
+
+            List<Point2D> trajectory = new ArrayList<>(points);
+            for (int i = 0; i < points; i++) {
+                trajectory.add(new Point2D.Double(
+                        x * SAMPLE_DISTANCE + random.nextGaussian() * NOISE,
+                        y * SAMPLE_DISTANCE + random.nextGaussian() * NOISE));
+
+                if (x % samplesPerBlock == 0 && y % samplesPerBlock == 0) {
+                    // at a crossing, go straight or turn, but stay on the grid
+                    do {
+                        direction = (direction + random.nextInt(3) + 3) % DIRECTIONS.length;
+                    } while (!onGrid(x + DIRECTIONS[direction][0] * samplesPerBlock, y + DIRECTIONS[direction][1] * samplesPerBlock, samplesPerBlock));
+                }
+                x += DIRECTIONS[direction][0];
+                y += DIRECTIONS[direction][1];
+            }
+
+            FullTrajectory t = new FullTrajectory(trajectory);
+            t.setLabel("synthetic" + k);
+            trajectories.add(t);
+        }
+        return trajectories;
+    }
+
+    private static boolean onGrid(int x, int y, int samplesPerBlock) {
+        int max = BLOCKS * samplesPerBlock;
+        return x >= 0 && x <= max && y >= 0 && y <= max;
+    }
+}
@@ -10,6 +10,7 @@ import mapconstruction.GUI.filter.TriPredicate;
 import mapconstruction.GUI.listeners.*;
 import mapconstruction.algorithms.diagram.EvolutionDiagram;
 import mapconstruction.algorithms.maps.mapping.RoadMap;
+import mapconstruction.algorithms.representative.BundlePropertyCalculator;
 import mapconstruction.algorithms.representative.CutEnd;
 import mapconstruction.attributes.BundleClassAttributes;
 import mapconstruction.log.Log;
@@ -55,7 +56,7 @@ public enum DataStorage {
     /**
      * Progress of the algorithm
      */
-    private int progressAlgorithm;
+    private volatile int progressAlgorithm;
     /**
      * Information of the dataset
      */
@@ -199,9 +200,11 @@ public enum DataStorage {
      *
      * @param bundlesWithClasses
      */
-    public synchronized void setBundlesWithClasses(BiMap<Bundle, Integer> bundlesWithClasses) {
-        this.allBundlesWithClassesUnfiltered = HashBiMap.create(bundlesWithClasses);
-        postprocessAllBundles();
+    public void setBundlesWithClasses(BiMap<Bundle, Integer> bundlesWithClasses) {
+        synchronized (this) {
+            this.allBundlesWithClassesUnfiltered = HashBiMap.create(bundlesWithClasses);
+            postprocessAllBundles();
+        }
         computeSomeBundleProperties();
     }
 
@@ -307,30 +310,23 @@ public enum DataStorage {
 
     /**
      * Function is called by setBundlesWithClasses, which is the last function called in ComputeEvolutionDiagram.
-     */
-    private synchronized void computeSomeBundleProperties(){
+     * <p>
+     * The properties are calculated in parallel on a snapshot of the bundles, without holding the lock of the storage.
+     * Bundles that already have their properties are skipped.
+     */
+    private void computeSomeBundleProperties(){
+        Set<Bundle> displayed;
+        Map<Bundle, Double> bestEpsilons = new LinkedHashMap<>();
+        synchronized (this) {
+            displayed = new LinkedHashSet<>(this.displayedBundlesWithClasses.keySet());
+            this.allBundlesWithClasses.forEach((b, bundleClass) -> bestEpsilons.put(b, evolutionDiagram.getBestEpsilon(bundleClass)));
+        }
+
         // First we cut off the bundle ends to make sure they are fitting well.
-        CutEnd.cutOffBundlesEndsForSet(this.displayedBundlesWithClasses.keySet());
+        CutEnd.cutOffBundlesEndsForSet(displayed);
         // Then we calculate the bundle properties.
         System.out.println("DataStorage - Computing all bundle properties.");
-        long start = System.currentTimeMillis();
-
-        for (Bundle b : this.allBundlesWithClasses.keySet()) {
-            b.calculateForceProperties();
-        }
-
-        long end = System.currentTimeMillis();
-
-        Log.log(LogLevel.INFO, "ForceRepresentative", "Calculated forcerep for no bundles: %d", this.allBundlesWithClasses.keySet().size());
-        Log.log(LogLevel.INFO, "ForceRepresentative", "Force representative time: %d ms", end - start);
-        start = System.currentTimeMillis();
-
-        for (Bundle b : this.allBundlesWithClasses.keySet()) {
-            b.calculateTurnProperties();
-        }
-
-        end = System.currentTimeMillis();
-        Log.log(LogLevel.INFO, "TurnRepresentative", "Turn detection time: %d ms", end - start);
+        BundlePropertyCalculator.calculate(bestEpsilons, this::setProgressAlgorithm);
     }
 
 
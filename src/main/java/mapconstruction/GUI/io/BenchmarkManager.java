@@ -1,6 +1,7 @@
 package mapconstruction.GUI.io;
 
 import mapconstruction.benchmark.BundleRenderer;
+import mapconstruction.benchmark.Histogram;
 import mapconstruction.benchmark.Timing;
 import mapconstruction.log.Log;
 import mapconstruction.log.LogLevel;
@@ -33,14 +34,19 @@ public class BenchmarkManager {
         this.saveStats(name, date, timings, null);
     }
 
+    public void saveStats(String name, Date date, Timing timings, Map<String, Set<Bundle>> results) {
+        this.saveStats(name, date, timings, results, null);
+    }
+
     /**
-     * Given the timings and bundle results of an algorithm, create a statistical summary and save it to a file.
+     * Given the timings, counters and bundle results of an algorithm, create a statistical summary and save it to a
+     * file.
      */
-    public void saveStats(String name, Date date, Timing timings, Map<String, Set<Bundle>> results) {
+    public void saveStats(String name, Date date, Timing timings, Map<String, Set<Bundle>> results, Map<String, Long> counters) {
         String subPath = name + '/' + DATES.format(date);
         createDirectoryIfAbsent(subPath);
 
-        Map<String, Object> stats = makeStats(timings, results);
+        Map<String, Object> stats = makeStats(timings, results, counters);
 
         DumperOptions options = new DumperOptions();
         options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
@@ -112,9 +118,12 @@ public class BenchmarkManager {
     /**
      * Preprocessor for YAML creation for the result statistics.
      */
-    private Map<String, Object> makeStats(Timing timings, Map<String, Set<Bundle>> results) {
+    private Map<String, Object> makeStats(Timing timings, Map<String, Set<Bundle>> results, Map<String, Long> counters) {
         Map<String, Object> t = new TreeMap<>();
         t.put("timings", makeTimings(timings));
+        if (counters != null && !counters.isEmpty()) {
+            t.put("counters", new TreeMap<>(counters));
+        }
         if (results != null) {
             List<Object> b = results.entrySet().stream().map(e -> {
                 Map<String, Object> c = new TreeMap<>();
@@ -127,21 +136,39 @@ public class BenchmarkManager {
     }
 
     /**
-     * Preprocessor for YAML creation for the timings.
+     * Preprocessor for YAML creation for the timings. Timings that ran more than once also report the number of runs
+     * and percentiles of the duration of a run.
      */
     private Map<String, Object> makeTimings(Timing timings) {
-        Map<String,Object> t = new TreeMap<>((t1, t2) -> (t1.equals("splits") ? 1 : 0) + (t2.equals("splits") ? -1 : 0));
+        // title first, splits last
+        Map<String, Object> t = new LinkedHashMap<>();
         long duration = timings.getDuration();
         long minutes = duration / 60000;
         long seconds = (duration % 60000) / 1000;
         long millis = duration % 1000;
-        t.put(timings.getTitle(), String.format("%d:%02d.%d", minutes, seconds, millis));
-        if (!timings.getSubtimings().isEmpty()) {
-            List<Object> subtimings = new ArrayList<>();
-            timings.getSubtimings().forEach(s -> subtimings.add(makeTimings(s)));
-            t.put("splits", subtimings);
+        t.put(timings.getTitle(), String.format("%d:%02d.%03d", minutes, seconds, millis));
+        if (timings.getCount() > 1) {
+            Histogram histogram = timings.getHistogram();
+            Map<String, Object> runs = new LinkedHashMap<>();
+            runs.put("count", histogram.getCount());
+            runs.put("mean", formatNanos((long) histogram.getMean()));
+            runs.put("p50", formatNanos(histogram.getValueAtPercentile(50)));
+            runs.put("p90", formatNanos(histogram.getValueAtPercentile(90)));
+            runs.put("p99", formatNanos(histogram.getValueAtPercentile(99)));
+            runs.put("max", formatNanos(histogram.getMax()));
+            t.put("runs", runs);
+        }
+        Collection<Timing> subtimings = timings.getSubtimings();
+        if (!subtimings.isEmpty()) {
+            List<Object> splits = new ArrayList<>();
+            subtimings.forEach(s -> splits.add(makeTimings(s)));
+            t.put("splits", splits);
         }
         return t;
     }
 
+    private static String formatNanos(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+
 }
@@ -0,0 +1,567 @@
+package mapconstruction.GUI.io;
+
+import com.google.common.base.Preconditions;
+import mapconstruction.algorithms.diagram.EvolutionDiagram;
+import mapconstruction.algorithms.maps.ComputeRoadNetwork;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.Trajectory;
+import mapconstruction.trajectories.TrajectoryTable;
+import mapconstruction.util.BinaryUtil;
+import mapconstruction.web.config.DatasetConfig;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary file format of a saved state.
+ * <p>
+ * The file starts with a header holding a magic number, the format version and a directory with the offset and
+ * length of each section. The sections are, in order:
+ * <ul>
+ * <li>the dataset config,</li>
+ * <li>the original and preprocessed trajectories, as a chunk of a {@link TrajectoryTable} followed by the ids of the
+ * trajectories in both lists,</li>
+ * <li>the evolution diagram, as a chunk of the table with the bundles and the subtrajectories they add, followed by
+ * the states of the diagram as arrays of ids,</li>
+ * <li>the road network computer, Java serialised, with the trajectories and bundles in the table replaced by their
+ * ids. This section is absent if there is no road network.</li>
+ * </ul>
+ * Sections are memory mapped when read, and can be read one by one: the trajectories are usable before the diagram
+ * is read. Files written by earlier versions, which were a sequence of Java serialised objects, do not start with the
+ * magic number, see {@link #isSavedStateFile(File)}. They are still read by {@link #open(File)}, completely when opened.
+ */
+public class SavedStateFile {
+
+    /**
+     * Version of the format written. Files with an earlier version are read as well, files with a later version can
+     * not be read.
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    /**
+     * Earliest version of the format that stores the turn related properties of bundles. They are calculated again
+     * for bundles read from an earlier version.
+     */
+    private static final int TURN_PROPERTIES_VERSION = 2;
+
+    private static final byte[] MAGIC = "BBMCSAVE".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Identifiers of the sections.
+     */
+    private static final int CONFIG = 1;
+    private static final int TRAJECTORIES = 2;
+    private static final int DIAGRAM = 3;
+    private static final int ROAD_NETWORK = 4;
+
+    private static final int MAX_SECTIONS = 4;
+
+    /**
+     * Size of the header: magic, version, number of sections and for each section its id, offset and length.
+     */
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 4 + MAX_SECTIONS * (4 + 8 + 8);
+
+    private SavedStateFile() {
+    }
+
+    /**
+     * Whether the file is a saved state in this format, rather than a Java serialised saved state.
+     *
+     * @param file the file to check
+     * @throws IOException if the file can not be read.
+     */
+    public static boolean isSavedStateFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            return Arrays.equals(magic, MAGIC);
+        } catch (EOFException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a saved state. The file is first written next to the target, and then moved in place.
+     *
+     * @param file                 the file to write
+     * @param config               config of the dataset
+     * @param originalTrajectories trajectories as read from the dataset
+     * @param trajectories         trajectories after preprocessing
+     * @param diagram              evolution diagram, may be null
+     * @param roadNetwork          road network computer, may be null
+     * @throws IOException              if writing fails.
+     * @throws IllegalArgumentException if a trajectory or bundle has a type that can not be stored.
+     */
+    public static void write(File file, DatasetConfig config, List<Trajectory> originalTrajectories,
+                             List<Trajectory> trajectories, EvolutionDiagram diagram,
+                             ComputeRoadNetwork roadNetwork) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile("savedstate", ".tmp", directory);
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+                Writer writer = new Writer(channel);
+                TrajectoryTable table = new TrajectoryTable();
+
+                writer.begin(CONFIG);
+                BinaryUtil.writeString(writer.out, config.getSystem());
+                writer.out.writeDouble(config.getZone());
+                BinaryUtil.writeString(writer.out, config.getHemisphere());
+                BinaryUtil.writeString(writer.out, config.getPath());
+                writer.out.writeBoolean(config.isWalkingDataset());
+                writer.end();
+
+                writer.begin(TRAJECTORIES);
+                int[] originalIds = originalTrajectories.stream().mapToInt(table::add).toArray();
+                int[] trajectoryIds = trajectories.stream().mapToInt(table::add).toArray();
+                table.write(writer.out);
+                writer.out.writeInt(originalIds.length);
+                BinaryUtil.writeInts(writer.out, originalIds, 0, originalIds.length);
+                writer.out.writeInt(trajectoryIds.length);
+                BinaryUtil.writeInts(writer.out, trajectoryIds, 0, trajectoryIds.length);
+                writer.end();
+
+                if (diagram != null) {
+                    writer.begin(DIAGRAM);
+                    diagram.addBundlesTo(table);
+                    table.write(writer.out);
+                    diagram.write(writer.out, table);
+                    writer.end();
+                }
+
+                if (roadNetwork != null) {
+                    writer.begin(ROAD_NETWORK);
+                    try (ObjectOutputStream out = new TableObjectOutputStream(new NonClosingOutputStream(writer.out), table)) {
+                        out.writeObject(roadNetwork);
+                    }
+                    writer.end();
+                }
+
+                writer.writeHeader();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Opens a saved state for reading. Saved states written by earlier versions as a sequence of Java serialised
+     * objects are read completely.
+     *
+     * @param file the saved state
+     * @return reader of the sections of the file
+     * @throws IOException if the file can not be read, or is not a saved state of a supported version.
+     */
+    public static Reader open(File file) throws IOException {
+        if (!isSavedStateFile(file)) {
+            return Reader.readSerialized(file);
+        }
+        return new Reader(file);
+    }
+
+    /**
+     * Writes the sections of a file one after the other, after the space reserved for the header.
+     */
+    private static final class Writer {
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final int[] ids = new int[MAX_SECTIONS];
+        private final long[] offsets = new long[MAX_SECTIONS];
+        private final long[] lengths = new long[MAX_SECTIONS];
+        private int numSections;
+
+        Writer(FileChannel channel) throws IOException {
+            this.channel = channel;
+            channel.position(HEADER_SIZE);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        }
+
+        void begin(int id) throws IOException {
+            out.flush();
+            ids[numSections] = id;
+            offsets[numSections] = channel.position();
+        }
+
+        void end() throws IOException {
+            out.flush();
+            lengths[numSections] = channel.position() - offsets[numSections];
+            numSections++;
+        }
+
+        void writeHeader() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.putInt(numSections);
+            for (int k = 0; k < numSections; k++) {
+                header.putInt(ids[k]);
+                header.putLong(offsets[k]);
+                header.putLong(lengths[k]);
+            }
+            header.rewind();
+            channel.write(header, 0);
+        }
+    }
+
+    /**
+     * Reader of the sections of a saved state. Sections are memory mapped when they are read.
+     * <p>
+     * The trajectories must be read before the diagram, and the diagram before the road network, as they refer to
+     * the trajectories and bundles read before. Reading a section reads the sections it depends on if needed.
+     * <p>
+     * A saved state in the earlier format is read when it is opened, the reader then has no file.
+     */
+    public static final class Reader implements Closeable {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final long[] offsets = new long[MAX_SECTIONS + 1];
+        private final long[] lengths = new long[MAX_SECTIONS + 1];
+        private final TrajectoryTable table = new TrajectoryTable();
+        private final int version;
+
+        /**
+         * Config and road network of a saved state in the earlier format.
+         */
+        private final DatasetConfig serializedConfig;
+        private final ComputeRoadNetwork serializedRoadNetwork;
+
+        private List<Trajectory> originalTrajectories;
+        private List<Trajectory> trajectories;
+        private EvolutionDiagram diagram;
+        private boolean diagramRead;
+
+        private Reader(DatasetConfig config, List<Trajectory> originalTrajectories, List<Trajectory> trajectories,
+                       EvolutionDiagram diagram, ComputeRoadNetwork roadNetwork) {
+            this.file = null;
+            this.channel = null;
+            this.version = FORMAT_VERSION;
+            this.serializedConfig = config;
+            this.serializedRoadNetwork = roadNetwork;
+            this.originalTrajectories = originalTrajectories;
+            this.trajectories = trajectories;
+            this.diagram = diagram;
+            this.diagramRead = true;
+        }
+
+        /**
+         * Reads a saved state stored as a sequence of serialised objects: the dataset config, the original and
+         * preprocessed trajectories, the diagram and the road network computer. Anything after these is ignored.
+         */
+        @SuppressWarnings("unchecked")
+        private static Reader readSerialized(File in) throws IOException {
+            try (ObjectInputStream reader = new ObjectInputStream(new BufferedInputStream(new FileInputStream(in)))) {
+                DatasetConfig config = (DatasetConfig) reader.readObject();
+                List<Trajectory> originalTrajectories = (List<Trajectory>) reader.readObject();
+                List<Trajectory> trajectories = (List<Trajectory>) reader.readObject();
+                EvolutionDiagram diagram = (EvolutionDiagram) reader.readObject();
+                ComputeRoadNetwork roadNetwork = (ComputeRoadNetwork) reader.readObject();
+                if (config == null || originalTrajectories == null || trajectories == null) {
+                    throw new IOException("Corrupt saved state: " + in);
+                }
+                return new Reader(config, originalTrajectories, trajectories, diagram, roadNetwork);
+            } catch (ClassNotFoundException | ClassCastException ex) {
+                throw new IOException("Corrupt saved state: " + in, ex);
+            }
+        }
+
+        private Reader(File in) throws IOException {
+            this.serializedConfig = null;
+            this.serializedRoadNetwork = null;
+            this.file = new RandomAccessFile(in, "r");
+            this.channel = file.getChannel();
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && channel.read(header) >= 0) {
+                    // keep reading
+                }
+                header.flip();
+                if (header.remaining() < HEADER_SIZE) {
+                    throw new IOException("Not a saved state: " + in);
+                }
+                byte[] magic = new byte[MAGIC.length];
+                header.get(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException("Not a saved state: " + in);
+                }
+                version = header.getInt();
+                if (version < 1 || version > FORMAT_VERSION) {
+                    throw new IOException("Unsupported saved state version " + version + ": " + in);
+                }
+                int numSections = header.getInt();
+                if (numSections < 0 || numSections > MAX_SECTIONS) {
+                    throw new IOException("Corrupt saved state: " + in);
+                }
+                Arrays.fill(offsets, -1);
+                for (int k = 0; k < numSections; k++) {
+                    int id = header.getInt();
+                    long offset = header.getLong();
+                    long length = header.getLong();
+                    if (id < 1 || id > MAX_SECTIONS || offset < HEADER_SIZE || length < 0 || offset + length > channel.size()) {
+                        throw new IOException("Corrupt saved state: " + in);
+                    }
+                    offsets[id] = offset;
+                    lengths[id] = length;
+                }
+            } catch (IOException ex) {
+                file.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Maps the section with the given id, null if the file does not have it.
+         */
+        private ByteBuffer section(int id) throws IOException {
+            if (offsets[id] < 0) {
+                return null;
+            }
+            if (lengths[id] > Integer.MAX_VALUE) {
+                throw new IOException("Section too large: " + lengths[id]);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, offsets[id], lengths[id]);
+        }
+
+        /**
+         * Reads the config of the dataset.
+         *
+         * @throws IOException if the section is missing or can not be read.
+         */
+        public DatasetConfig readDatasetConfig() throws IOException {
+            if (channel == null) {
+                return serializedConfig;
+            }
+            ByteBuffer in = requireSection(CONFIG);
+            try {
+                DatasetConfig config = new DatasetConfig();
+                config.setSystem(BinaryUtil.readString(in));
+                config.setZone(in.getDouble());
+                config.setHemisphere(BinaryUtil.readString(in));
+                config.setPath(BinaryUtil.readString(in));
+                config.setWalkingDataset(in.get() != 0);
+                return config;
+            } catch (RuntimeException ex) {
+                throw new IOException("Corrupt dataset config", ex);
+            }
+        }
+
+        /**
+         * Reads the original and preprocessed trajectories, if they were not read yet.
+         *
+         * @throws IOException if the section is missing or can not be read.
+         */
+        public void readTrajectories() throws IOException {
+            if (trajectories != null) {
+                return;
+            }
+            ByteBuffer in = requireSection(TRAJECTORIES);
+            try {
+                table.read(in, version >= TURN_PROPERTIES_VERSION);
+                originalTrajectories = trajectoryList(BinaryUtil.readInts(in, in.getInt()));
+                trajectories = trajectoryList(BinaryUtil.readInts(in, in.getInt()));
+            } catch (RuntimeException ex) {
+                throw new IOException("Corrupt trajectories", ex);
+            }
+        }
+
+        private List<Trajectory> trajectoryList(int[] ids) {
+            List<Trajectory> result = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                Preconditions.checkState(id >= 0 && id < table.numTrajectories(), "Unknown trajectory: %s", id);
+                result.add(table.getTrajectory(id));
+            }
+            return result;
+        }
+
+        /**
+         * Gets the trajectories as read from the dataset, null if the trajectories were not read yet.
+         */
+        public List<Trajectory> getOriginalTrajectories() {
+            return originalTrajectories;
+        }
+
+        /**
+         * Gets the preprocessed trajectories, null if the trajectories were not read yet.
+         */
+        public List<Trajectory> getTrajectories() {
+            return trajectories;
+        }
+
+        /**
+         * Reads the evolution diagram, reading the trajectories first if needed.
+         *
+         * @return the diagram, null if the saved state has no diagram.
+         * @throws IOException if the section can not be read.
+         */
+        public EvolutionDiagram readDiagram() throws IOException {
+            if (diagramRead) {
+                return diagram;
+            }
+            readTrajectories();
+            ByteBuffer in = section(DIAGRAM);
+            if (in != null) {
+                try {
+                    table.read(in, version >= TURN_PROPERTIES_VERSION);
+                    diagram = EvolutionDiagram.read(in, table);
+                } catch (RuntimeException ex) {
+                    throw new IOException("Corrupt evolution diagram", ex);
+                }
+            }
+            diagramRead = true;
+            return diagram;
+        }
+
+        /**
+         * Reads the road network computer, reading the diagram first if needed.
+         *
+         * @return the road network computer, null if the saved state has none.
+         * @throws IOException if the section can not be read.
+         */
+        public ComputeRoadNetwork readRoadNetwork() throws IOException {
+            if (channel == null) {
+                return serializedRoadNetwork;
+            }
+            readDiagram();
+            ByteBuffer in = section(ROAD_NETWORK);
+            if (in == null) {
+                return null;
+            }
+            try (ObjectInputStream reader = new TableObjectInputStream(new ByteBufferInputStream(in), table)) {
+                return (ComputeRoadNetwork) reader.readObject();
+            } catch (ClassNotFoundException | RuntimeException ex) {
+                throw new IOException("Corrupt road network", ex);
+            }
+        }
+
+        private ByteBuffer requireSection(int id) throws IOException {
+            ByteBuffer in = section(id);
+            if (in == null) {
+                throw new IOException("Missing section " + id);
+            }
+            return in;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Reference to a trajectory or bundle in the table, replacing it in the serialised road network.
+     */
+    private static final class TableReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean bundle;
+        private final int id;
+
+        TableReference(boolean bundle, int id) {
+            this.bundle = bundle;
+            this.id = id;
+        }
+    }
+
+    private static final class TableObjectOutputStream extends ObjectOutputStream {
+        private final TrajectoryTable table;
+
+        TableObjectOutputStream(OutputStream out, TrajectoryTable table) throws IOException {
+            super(out);
+            this.table = table;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            int id;
+            if (obj instanceof Trajectory && (id = table.indexOf((Trajectory) obj)) >= 0) {
+                return new TableReference(false, id);
+            }
+            if (obj instanceof Bundle && (id = table.indexOf((Bundle) obj)) >= 0) {
+                return new TableReference(true, id);
+            }
+            return obj;
+        }
+    }
+
+    private static final class TableObjectInputStream extends ObjectInputStream {
+        private final TrajectoryTable table;
+
+        TableObjectInputStream(InputStream in, TrajectoryTable table) throws IOException {
+            super(in);
+            this.table = table;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            if (obj instanceof TableReference) {
+                TableReference reference = (TableReference) obj;
+                return reference.bundle ? table.getBundle(reference.id) : table.getTrajectory(reference.id);
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Stream writing to another stream, without closing it.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Stream reading the remaining bytes of a buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
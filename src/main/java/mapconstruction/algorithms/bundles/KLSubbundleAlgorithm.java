@@ -4,13 +4,15 @@ import com.google.common.collect.*;
 import mapconstruction.algorithms.bundles.graph.GeneratingQTSemiWeakFDLabelledGraph;
 import mapconstruction.algorithms.bundles.graph.GeneratingRTSemiWeakFDLabelledGraph;
 import mapconstruction.algorithms.bundles.graph.GeneratingSemiWeakFDLabelledGraph;
+import mapconstruction.algorithms.bundles.graph.IncrementalFreeSpace;
 import mapconstruction.algorithms.bundles.graph.representation.Event;
 import mapconstruction.algorithms.bundles.sweep.FurthestEndpointSweep;
 import mapconstruction.algorithms.bundles.sweep.KLSweepline;
 import mapconstruction.algorithms.distance.KdTree;
 import mapconstruction.algorithms.distance.QuadTree;
-import mapconstruction.algorithms.distance.RTree;
+import mapconstruction.algorithms.distance.SegmentRTree;
 import mapconstruction.benchmark.Benchmark;
+import mapconstruction.exceptions.AlgorithmAbortedException;
 import mapconstruction.log.Log;
 import mapconstruction.log.LogLevel;
 import mapconstruction.trajectories.Bundle;
@@ -21,9 +23,16 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static mapconstruction.GUI.datastorage.ConstantsStorage.ALGOCONSTANTS;
+
 public class KLSubbundleAlgorithm extends BundleGenerationAlgorithm {
 
     private static final String LOGTAG = "KL-Subbundle";
@@ -31,18 +40,50 @@ public class KLSubbundleAlgorithm extends BundleGenerationAlgorithm {
     private double epsilon;
     private double lambda;
 
-    private Map<Bundle, Bundle> merges;
+    /**
+     * Whether the bundles of the different representatives are generated concurrently.
+     */
+    private final boolean parallel;
+
+    /**
+     * Free space shared with runs for other epsilons, null if the free space is computed from scratch.
+     */
+    private IncrementalFreeSpace freeSpace;
 
+    private Map<Bundle, Bundle> merges = new HashMap<>();
+
+    /**
+     * Creates the algorithm generating the bundles of the representatives one after the other.
+     */
     public KLSubbundleAlgorithm(double epsilon, double lambda, boolean ignoreDirection) {
+        this(epsilon, lambda, ignoreDirection, false);
+    }
+
+    /**
+     * @param parallel whether to generate the bundles of each representative on a pool of
+     *                 {@code ALGOCONSTANTS.getNumThreads()} workers. The result is identical to the sequential run.
+     */
+    public KLSubbundleAlgorithm(double epsilon, double lambda, boolean ignoreDirection, boolean parallel) {
         super(ignoreDirection);
         this.epsilon = epsilon;
         this.lambda = lambda;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Uses the given free space, shared with runs for other values of epsilon, instead of computing the free space
+     * from scratch. It is only used if it was built for the trajectories of the run and supports its epsilon.
+     *
+     * @param freeSpace shared free space, or null to compute the free space from scratch.
+     */
+    public void setFreeSpace(IncrementalFreeSpace freeSpace) {
+        this.freeSpace = freeSpace;
     }
 
     @Override
     protected Set<Bundle> runAlgorithm(List<Trajectory> trajectories) {
         Set<Bundle> bundles;
-//        try (Timing _t = Benchmark.parallel("epsilon %.0f", epsilon)) {
+//        try (Timing.Span _t = Benchmark.parallel("epsilon %.0f", epsilon)) {
             Log.log(LogLevel.STATUS, LOGTAG, "Generating all bundles");
             Log.log(LogLevel.INFO, LOGTAG, "Parameters for Generating bundles: eps=%.2f, ignoreDir=%b", epsilon, ignoreDirection);
 
@@ -102,6 +143,10 @@ public class KLSubbundleAlgorithm extends BundleGenerationAlgorithm {
     }
 
     private Set<Bundle> generateAllBundlesRT(List<Trajectory> trajectories) {
+        if (freeSpace != null && freeSpace.supports(trajectories, ignoreDirection, epsilon)) {
+            return generateAllBundlesIncremental(trajectories);
+        }
+
         Set<Bundle> results = new LinkedHashSet<>();
 
         List<Trajectory> representatives = new ArrayList<>(trajectories);
@@ -110,20 +155,36 @@ public class KLSubbundleAlgorithm extends BundleGenerationAlgorithm {
         }
 
 
-        Map<Line2D, Integer> values = new HashMap<>();
-        int i = 0;
-        for (Trajectory t : trajectories) {
-            for (Line2D segment : t.edges()) {
-                values.put(segment, i);
-                i++;
-            }
-            i++;
+        SegmentRTree rTree = GeneratingRTSemiWeakFDLabelledGraph.indexSegments(trajectories);
+
+        final List<Trajectory> concatenated = trajectories;
+        return generateBundles(representatives, representative -> new GeneratingRTSemiWeakFDLabelledGraph(epsilon, representative, concatenated, rTree));
+    }
+
+    /**
+     * Generates the bundles using the shared free space, which already contains the (reversed) trajectories and the
+     * RTree on their segments.
+     */
+    private Set<Bundle> generateAllBundlesIncremental(List<Trajectory> trajectories) {
+        final IncrementalFreeSpace shared = freeSpace;
+        return generateBundles(new ArrayList<>(trajectories), representative -> new GeneratingRTSemiWeakFDLabelledGraph(epsilon, representative, shared));
+    }
+
+    /**
+     * Generates the bundles of all representatives, each using the free space created by the given factory.
+     */
+    private Set<Bundle> generateBundles(List<Trajectory> representatives, Function<Trajectory, GeneratingSemiWeakFDLabelledGraph> graphs) {
+        Set<Bundle> results = new LinkedHashSet<>();
+
+        int numThreads = Math.min(ALGOCONSTANTS.getNumThreads(), representatives.size());
+        if (parallel && numThreads > 1) {
+            generateBundlesParallel(representatives, graphs, numThreads, results);
+            return results;
         }
-        RTree<Line2D, Integer> rTree = new RTree<>(10, values);
 
         for (Trajectory representative : representatives) {
-            GeneratingRTSemiWeakFDLabelledGraph freeSpace = new GeneratingRTSemiWeakFDLabelledGraph(epsilon, representative, trajectories, rTree);
-            KLSweepline klSweepline = new FurthestEndpointSweep(freeSpace, lambda);
+            GeneratingSemiWeakFDLabelledGraph graph = graphs.apply(representative);
+            KLSweepline klSweepline = new FurthestEndpointSweep(graph, lambda);
             Benchmark.push("init");
             klSweepline.initialize();
             Benchmark.split("sweep");
@@ -135,6 +196,45 @@ public class KLSubbundleAlgorithm extends BundleGenerationAlgorithm {
         return results;
     }
 
+    /**
+     * Generates the bundles of all representatives on a fixed pool of workers. The factory must be safe to use
+     * concurrently, the graphs share only read-only state.
+     * <p>
+     * The per-representative results are added to {@code results} in the order of the representatives,
+     * such that the outcome is identical to the sequential run.
+     */
+    private void generateBundlesParallel(List<Trajectory> representatives, Function<Trajectory, GeneratingSemiWeakFDLabelledGraph> graphs,
+                                         int numThreads, Set<Bundle> results) {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Set<Bundle>>> futures = new ArrayList<>(representatives.size());
+            for (Trajectory representative : representatives) {
+                futures.add(executor.submit(Benchmark.inherit(() -> {
+                    KLSweepline klSweepline = new FurthestEndpointSweep(graphs.apply(representative), lambda);
+                    klSweepline.initialize();
+                    return klSweepline.sweep();
+                })));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                checkAbort();
+                results.addAll(futures.get(i).get());
+                setProgress(50 * (i + 1) / futures.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AlgorithmAbortedException("Bundle generation interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private Set<Bundle> generateAllBundlesQT(List<Trajectory> trajectories) {
         Set<Bundle> results = new LinkedHashSet<>();
         // find bounds of the problem
@@ -260,6 +360,18 @@ public class KLSubbundleAlgorithm extends BundleGenerationAlgorithm {
         resultSet.addAll(bundles);
     }
 
+    /**
+     * Removes all bundles that are a lambda-subbundle of a larger bundle, recording into which bundle they merged.
+     * <p>
+     * Bundles are processed in order of decreasing size, then decreasing length. Each bundle that has not been merged
+     * yet absorbs all remaining bundles that are a lambda-subbundle of it.
+     * <p>
+     * A lambda-subbundle b2 of b1 must have, for each of its subtrajectories, a subtrajectory of b1 on the same
+     * trajectory. Hence we index each bundle by the trajectory of one of its subtrajectories, the one occurring in the
+     * fewest bundles, and only check the bundles indexed by a trajectory of b1. The candidates of a bundle are
+     * independent of each other and are checked concurrently if this algorithm runs in parallel. The result is
+     * identical to checking all pairs.
+     */
     public void removeLambdaSubbundles(Set<Bundle> bundles, double lambda) {
         // Comparator to sort bundles lexicograpgically,
         // first by decreasing size, then by decreasing length.
@@ -271,37 +383,153 @@ public class KLSubbundleAlgorithm extends BundleGenerationAlgorithm {
                 .sorted(compSizeLengthLex)
                 .collect(Collectors.toCollection(ArrayList::new));
 
-        for (Bundle b1 : bundleList) {
-            if (merges.containsKey(b1)) continue;
+        Map<String, int[]> index = indexByRarestTrajectory(bundleList);
+        // Bundles without subtrajectories are a subbundle of any bundle.
+        int[] unconstrained = index.getOrDefault(null, new int[0]);
 
-            // Find all bundles that are a subbundle of the current bundle
-            for (Bundle b2 : bundleList) {
-                if (b1 == b2 || b2.size() > b1.size() || merges.containsKey(b2)) continue;
+        int numThreads = parallel ? ALGOCONSTANTS.getNumThreads() : 1;
+        ExecutorService executor = null;
+        if (numThreads > 1) {
+            executor = Executors.newFixedThreadPool(numThreads);
+            // Lazily computed edges are shared between the workers, compute them beforehand.
+            bundleList.forEach(b -> b.getOriginalRepresentative().edges().forEach(e -> {}));
+        }
 
-                // FurthestEndpointSweep already filters same-rep bundles.
-                if (b1.getOriginalRepresentative().getParent().getUndirectionalLabel().equals(b2.getOriginalRepresentative().getParent().getUndirectionalLabel())) continue;
-//                if (b1.getOriginalRepresentative().getUndirectionalLabel().equals(b2.getOriginalRepresentative().getUndirectionalLabel())) continue;
+        try {
+            boolean[] seen = new boolean[bundleList.size()];
+            for (int i = 0; i < bundleList.size(); i++) {
+                Bundle b1 = bundleList.get(i);
+                if (merges.containsKey(b1)) continue;
 
-                // if the endpoints are not close enough
-                // if (!b1.getOriginalRepresentative().hasAsLambdaEndpoints(b2.getOriginalRepresentative(), 2*epsilon + lambda)) continue;
-                // boolean wouldSkip = !b1.getOriginalRepresentative().hasAsLambdaEndpoints(b2.getOriginalRepresentative(), 2*epsilon + lambda);
-                if (!b1.getOriginalRepresentative().hasAsLambdaSimilar(b2.getOriginalRepresentative(), 2*epsilon)) continue;
+                // Collect the candidates, in order of the sorted list.
+                List<Integer> candidates = new ArrayList<>();
+                for (Subtrajectory sub : b1.getSubtrajectories()) {
+                    addCandidates(index.get(sub.getParent().getUndirectionalLabel()), seen, candidates);
+                }
+                addCandidates(unconstrained, seen, candidates);
+                candidates.forEach(j -> seen[j] = false);
+                candidates.sort(Integer::compareTo);
+                candidates.removeIf(j -> merges.containsKey(bundleList.get(j)));
+
+                // Find all bundles that are a subbundle of the current bundle
+                boolean[] subbundle = checkSubbundles(b1, bundleList, candidates, lambda, executor, numThreads);
+                for (int k = 0; k < candidates.size(); k++) {
+                    if (subbundle[k]) {
+                        // b2 is a lambda subbundle of b1
+                        Bundle b2 = bundleList.get(candidates.get(k));
+                        merges.put(b2, b1);
+                        bundles.remove(b2);
+                    }
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
 
-                if (b1.hasAsLambdaSubBundle(b2, lambda, false)) {
-                    // b2 is a lambda subbundle of b1
-                    merges.put(b2, b1);
-                    bundles.remove(b2);
+    /**
+     * Indexes each bundle by the undirectional label of the trajectory of one of its subtrajectories, picking the
+     * trajectory that occurs in the fewest bundles. Bundles without subtrajectories are indexed by {@code null}.
+     *
+     * @return mapping from label to the ascending positions of the bundles in the list.
+     */
+    private Map<String, int[]> indexByRarestTrajectory(List<Bundle> bundleList) {
+        Map<String, Integer> frequency = new HashMap<>();
+        for (Bundle b : bundleList) {
+            for (Subtrajectory sub : b.getSubtrajectories()) {
+                frequency.merge(sub.getParent().getUndirectionalLabel(), 1, Integer::sum);
+            }
+        }
+
+        Map<String, List<Integer>> lists = new HashMap<>();
+        for (int j = 0; j < bundleList.size(); j++) {
+            String key = null;
+            for (Subtrajectory sub : bundleList.get(j).getSubtrajectories()) {
+                String label = sub.getParent().getUndirectionalLabel();
+                if (key == null || frequency.get(label) < frequency.get(key)) {
+                    key = label;
                 }
             }
+            lists.computeIfAbsent(key, k -> new ArrayList<>()).add(j);
+        }
+
+        Map<String, int[]> index = new HashMap<>();
+        lists.forEach((key, list) -> index.put(key, list.stream().mapToInt(Integer::intValue).toArray()));
+        return index;
+    }
+
+    private void addCandidates(int[] positions, boolean[] seen, List<Integer> candidates) {
+        if (positions == null) return;
+        for (int j : positions) {
+            if (!seen[j]) {
+                seen[j] = true;
+                candidates.add(j);
+            }
         }
     }
 
+    /**
+     * Checks for each candidate whether it is a lambda-subbundle of b1, splitting the candidates over the workers of
+     * the executor if there are enough of them.
+     */
+    private boolean[] checkSubbundles(Bundle b1, List<Bundle> bundleList, List<Integer> candidates, double lambda,
+                                      ExecutorService executor, int numThreads) {
+        boolean[] result = new boolean[candidates.size()];
+        if (executor == null || candidates.size() < 4 * numThreads) {
+            checkSubbundles(b1, bundleList, candidates, lambda, result, 0, candidates.size());
+            return result;
+        }
+
+        int chunk = (candidates.size() + numThreads - 1) / numThreads;
+        List<Future<?>> futures = new ArrayList<>(numThreads);
+        for (int from = 0; from < candidates.size(); from += chunk) {
+            final int start = from;
+            final int end = Math.min(candidates.size(), from + chunk);
+            futures.add(executor.submit(() -> checkSubbundles(b1, bundleList, candidates, lambda, result, start, end)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AlgorithmAbortedException("Subbundle removal interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        return result;
+    }
+
+    private void checkSubbundles(Bundle b1, List<Bundle> bundleList, List<Integer> candidates, double lambda,
+                                 boolean[] result, int from, int to) {
+        int checks = 0;
+        for (int k = from; k < to; k++) {
+            Bundle b2 = bundleList.get(candidates.get(k));
+            if (b1 == b2 || b2.size() > b1.size()) continue;
+
+            // FurthestEndpointSweep already filters same-rep bundles.
+            if (b1.getOriginalRepresentative().getParent().getUndirectionalLabel().equals(b2.getOriginalRepresentative().getParent().getUndirectionalLabel())) continue;
+
+            // if the endpoints are not close enough
+            if (!b1.getOriginalRepresentative().hasAsLambdaSimilar(b2.getOriginalRepresentative(), 2*epsilon)) continue;
+
+            result[k] = b1.hasAsLambdaSubBundle(b2, lambda, false);
+            checks++;
+        }
+        Benchmark.count("lambda checks", checks);
+    }
+
     public void removeLambdaSubbundlesRT(Set<Bundle> bundles, double lambda) {
         // Comparator to sort bundles lexicograpgically,
         // first by decreasing size, then by decreasing length.
         Comparator<Bundle> compSizeDec = (b1, b2) -> Integer.compare(b2.size(), b1.size());
         Comparator<Bundle> compSizeLengthLex = compSizeDec.thenComparing(Comparator.comparingDouble(Bundle::continuousLength).reversed());
-        Comparator<Bundle> compSizeLengthUnique = compSizeLengthLex.thenComparing(Bundle::hashCode);
 
         // Sort all the bundles.
         List<Bundle> bundleList = bundles.stream()
@@ -332,12 +560,16 @@ public class KLSubbundleAlgorithm extends BundleGenerationAlgorithm {
 //                rTree.insert(path, b);
 //            }
 //        });
-        RTree<Line2D,Bundle> rTree = new RTree<>(30);
-        bundleList.forEach(b -> {
-            b.getOriginalRepresentative().edges().forEach(e -> {
-                rTree.insert(e, b);
-            });
-        });
+        // index the representative edges by the position of their bundle in the sorted list
+        List<Line2D> edges = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int k = 0; k < bundleList.size(); k++) {
+            for (Line2D e : bundleList.get(k).getOriginalRepresentative().edges()) {
+                edges.add(e);
+                positions.add(k);
+            }
+        }
+        SegmentRTree rTree = new SegmentRTree(30, edges, positions.stream().mapToInt(Integer::intValue).toArray());
 
         for (Bundle b1 : bundleList) {
             if (merges.containsKey(b1)) continue;
@@ -345,9 +577,10 @@ public class KLSubbundleAlgorithm extends BundleGenerationAlgorithm {
             Point2D p = b1.getOriginalRepresentative().getPoint(0);
             double r = 2*epsilon;
             Benchmark.push("window");
-            Set<Bundle> candidates = rTree.windowQuery(p.getX() - r, p.getY() - r, p.getX() + r, p.getY() + r, new TreeSet<>(compSizeLengthUnique));
+            int[] candidates = rTree.windowQuery(p.getX() - r, p.getY() - r, p.getX() + r, p.getY() + r);
             Benchmark.pop();
-            for (Bundle b2 : candidates) {
+            for (int k : candidates) {
+                Bundle b2 = bundleList.get(k);
                 if (b1 == b2 || merges.containsKey(b2)) continue;
 
                 if (!b1.getOriginalRepresentative().hasAsLambdaSimilar(b2.getOriginalRepresentative(), 2*epsilon)) continue;
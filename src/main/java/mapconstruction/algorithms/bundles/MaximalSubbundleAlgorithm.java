@@ -107,7 +107,7 @@ public class MaximalSubbundleAlgorithm extends BundleGenerationAlgorithm {
     @Override
     public Set<Bundle> runAlgorithm(List<Trajectory> trajectories) {
         Set<Bundle> bundles;
-//        try (Timing _t = Benchmark.parallel("epsilon %.0f", epsilon)) {
+//        try (Timing.Span _t = Benchmark.parallel("epsilon %.0f", epsilon)) {
             Log.log(LogLevel.STATUS, LOGTAG, "Finding all maximal lambda-subbundles");
 
             Log.log(LogLevel.STATUS, LOGTAG, "Generating all bundles");
@@ -1,6 +1,5 @@
 package mapconstruction.algorithms.bundles.graph;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import com.google.common.collect.TreeRangeSet;
 import mapconstruction.trajectories.Trajectory;
@@ -28,7 +27,7 @@ public class DiscreteFDLabelledGraph extends LabelledGraph {
      * The label indicated the lowest reachable x-coordinate from that cell.
      * Outgoing edges are ordered from top to bottom
      */
-    private Map<Integer, Map<Integer, List<LabelledEdge>>> labelledGraph;
+    private final PackedLabelledGraph labelledGraph;
     private int graphMin;
     private int graphMax;
 
@@ -36,7 +35,7 @@ public class DiscreteFDLabelledGraph extends LabelledGraph {
 
     public DiscreteFDLabelledGraph(Trajectory concatenated, TreeRangeSet<Integer> existing, double epsilon) {
         super(concatenated, epsilon);
-        this.labelledGraph = new HashMap<>();
+        this.labelledGraph = new PackedLabelledGraph();
         this.existing = existing;
         graphMin = 0;
         graphMax = -1;
@@ -52,23 +51,18 @@ public class DiscreteFDLabelledGraph extends LabelledGraph {
         int cy = yt; // current j coord (vertical)
 
         while (cx > 0) {
-            List<LabelledEdge> edges = labelledGraph.get(cx).get(cy);
+            int numEdges = labelledGraph.edgeCount(cx, cy);
             Vertex target = null;
 
             // Instead of picking the topmost, we pick the bottom most edge as long as possible.
             // This ensures we make the cluster curves as
             // long as possible
-            Iterator<LabelledEdge> it;
             int fcy = cy;
-            if (forbidden.stream().anyMatch(r -> r.isConnected(Range.closed(fcy - 1, fcy)))) {
-                it = edges.iterator();
-            } else {
-                it = Lists.reverse(edges).iterator();
-            }
-            while (it.hasNext()) {
-                LabelledEdge e = it.next();
-                if (e.getLabel() <= s) {
-                    target = e.getTarget();
+            boolean topDown = forbidden.stream().anyMatch(r -> r.isConnected(Range.closed(fcy - 1, fcy)));
+            for (int k = 0; k < numEdges; k++) {
+                int e = labelledGraph.edge(cx, cy, topDown ? k : numEdges - 1 - k);
+                if (labelledGraph.label(cx, e) <= s) {
+                    target = new Vertex(labelledGraph.targetX(cx, e), labelledGraph.targetY(cx, e));
                     break;
                 }
             }
@@ -90,8 +84,6 @@ public class DiscreteFDLabelledGraph extends LabelledGraph {
     @Override
     public void addColumn() {
         int i = ++graphMax;
-        HashMap<Integer, List<LabelledEdge>> map = new HashMap<>();
-        labelledGraph.put(i, map);
         if (iRange == null || !iRange.contains(i)) {
             iRange = this.existing.rangeContaining(i);
         }
@@ -110,73 +102,64 @@ public class DiscreteFDLabelledGraph extends LabelledGraph {
                 continue;
             }
 
-            ArrayList<LabelledEdge> edges = new ArrayList<>();
-            tryAddLeftEdge(i, j, starti, edges);
-            tryAddBottomLeftEdge(i, j, starti, startj, edges);
-            tryAddBottomEdge(i, j, startj, edges);
-
-            map.put(j, edges);
+            labelledGraph.addCell(i, j);
+            tryAddLeftEdge(i, j, starti);
+            tryAddBottomLeftEdge(i, j, starti, startj);
+            tryAddBottomEdge(i, j, startj);
         }
     }
 
     /**
-     * Creates a labelled edge from (si, sj) to (ti, tj). Tries to find the
+     * Adds a labelled edge from (si, sj) to (ti, tj). Tries to find the
      * correct label from the current content of the graph.
      */
-    private LabelledEdge createEdge(int si, int sj, int ti, int tj) {
-        // get edges of target
-        List<LabelledEdge> tedges = labelledGraph.get(ti).get(tj);
-        // find smallest label
-        int label = tedges.stream()
-                .mapToInt(LabelledEdge::getLabel) // get all labels of outgoin edges
-                .min() // find maximum
-                .orElse(ti); // x coord of target if it has no outgoing edges
-
-        return new LabelledEdge(si, sj, ti, tj, label);
+    private void addEdge(int si, int sj, int ti, int tj) {
+        // find smallest label of the outgoing edges of target
+        int e = labelledGraph.minLabelEdge(ti, tj);
+        // x coord of target if it has no outgoing edges
+        int label = e == PackedLabelledGraph.NONE ? ti : labelledGraph.label(ti, e);
+
+        labelledGraph.addEdge(si, sj, ti, tj, label);
     }
 
     /**
-     * Tries to create the edge to the left of (i, j) and add it to the list of
-     * edges.
+     * Tries to create the edge to the left of (i, j) and add it to the graph.
      *
      * @param i
      * @param j
      * @param boundary
-     * @param edges
      */
-    private void tryAddLeftEdge(int i, int j, int boundary, List<LabelledEdge> edges) {
+    private void tryAddLeftEdge(int i, int j, int boundary) {
         if (i > boundary && isFree(i - 1, j)) {
-            edges.add(createEdge(i, j, i - 1, j));
+            addEdge(i, j, i - 1, j);
         }
     }
 
     /**
      * Tries to create the edge to the bottom-left of (i, j) and add it to the
-     * list of edges.
+     * graph.
      *
      * @param i
      * @param j
      * @param jBoundary
-     * @param edges
      */
-    private void tryAddBottomLeftEdge(int i, int j, int iBoundary, int jBoundary, List<LabelledEdge> edges) {
+    private void tryAddBottomLeftEdge(int i, int j, int iBoundary, int jBoundary) {
         if (i > iBoundary && j > jBoundary && isFree(i - 1, j - 1)) {
-            edges.add(createEdge(i, j, i - 1, j - 1));
+            addEdge(i, j, i - 1, j - 1);
         }
     }
 
     /**
-     * Tries to create the edge to the bottom of (i, j) and add it to the list
-     * of edges.
+     * Tries to create the edge to the bottom of (i, j) and add it to the
+     * graph.
      *
      * @param i
      * @param j
      * @param boundary
-     * @param edges
      */
-    private void tryAddBottomEdge(int i, int j, int boundary, List<LabelledEdge> edges) {
+    private void tryAddBottomEdge(int i, int j, int boundary) {
         if (j > boundary && isFree(i, j - 1)) {
-            edges.add(createEdge(i, j, i, j - 1));
+            addEdge(i, j, i, j - 1);
         }
     }
 
@@ -199,14 +182,10 @@ public class DiscreteFDLabelledGraph extends LabelledGraph {
     @Override
     public void removeColumn() {
         int min = graphMin++;
-        labelledGraph.remove(min);
+        labelledGraph.removeColumn(min);
 
         // Remove all outgoing edges of next
-        for (List<LabelledEdge> list : labelledGraph.getOrDefault(min + 1, new HashMap<>()).values()) {
-            if (list != null) {
-                list.clear();
-            }
-        }
+        labelledGraph.clearEdges(min + 1);
     }
 
     /**
@@ -238,44 +217,4 @@ public class DiscreteFDLabelledGraph extends LabelledGraph {
 
     }
 
-    /**
-     * Helper class representing a n edge in the labelled graph.
-     */
-    private static class LabelledEdge {
-
-        private final Vertex source;
-        private final Vertex target;
-        private final int label;
-
-        public LabelledEdge(Vertex source, Vertex target, int label) {
-            this.source = source;
-            this.target = target;
-            this.label = label;
-        }
-
-        public LabelledEdge(int si, int sj, int ti, int tj, int label) {
-            this.source = new Vertex(si, sj);
-            this.target = new Vertex(ti, tj);
-            this.label = label;
-        }
-
-        public Vertex getSource() {
-            return source;
-        }
-
-        public Vertex getTarget() {
-            return target;
-        }
-
-        public int getLabel() {
-            return label;
-        }
-
-        @Override
-        public String toString() {
-            return "LabelledEdge{" + "source=" + source + ", target=" + target + ", label=" + label + '}';
-        }
-
-    }
-
 }
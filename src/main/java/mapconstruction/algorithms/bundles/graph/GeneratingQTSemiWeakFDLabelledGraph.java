@@ -1,6 +1,5 @@
 package mapconstruction.algorithms.bundles.graph;
 
-import mapconstruction.algorithms.bundles.graph.representation.LabelledEdge;
 import mapconstruction.algorithms.distance.QuadTree;
 import mapconstruction.trajectories.Trajectory;
 
@@ -44,11 +43,9 @@ public class GeneratingQTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
                         int x = vertexGraphCoord(i);
                         int y = edgeGraphCoord(j);
                         if (isFree(x, y)) {
-                            ArrayList<LabelledEdge> edges = new ArrayList<>();
-                            tryVertAddLeftEdge(x, y, edges);
-                            tryVertAddBottomEdge(x, y, edges);
-                            if (edges.size() > 0) {
-                                labelledGraph.put(x, y, edges);
+                            tryVertAddLeftEdge(x, y);
+                            tryVertAddBottomEdge(x, y);
+                            if (labelledGraph.firstEdge(x, y) != PackedLabelledGraph.NONE) {
                                 previous.add(j);
                             }
                         }
@@ -58,11 +55,9 @@ public class GeneratingQTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
                         x = edgeGraphCoord(i - 1);
                         y = vertexGraphCoord(j + 1);
                         if (isFree(x, y)) {
-                            ArrayList<LabelledEdge> edges = new ArrayList<>();
-                            tryHorAddLeftEdge(x, y, edges);
-                            tryHorAddBottomEdge(x, y, edges);
-                            if (edges.size() > 0) {
-                                labelledGraph.put(x, y, edges);
+                            tryHorAddLeftEdge(x, y);
+                            tryHorAddBottomEdge(x, y);
+                            if (labelledGraph.firstEdge(x, y) != PackedLabelledGraph.NONE) {
                                 // insert new j (if needed) at the correct location
                                 if (iter.hasNext()) {
                                     if (iter.next() > j + 1) {
@@ -116,11 +111,9 @@ public class GeneratingQTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
                 int x = vertexGraphCoord(i);
                 int y = edgeGraphCoord(j - 1);
                 if (isFree(x, y)) {
-                    ArrayList<LabelledEdge> edges = new ArrayList<>();
-                    tryVertAddLeftEdge(x, y, edges);
-                    tryVertAddBottomEdge(x, y, edges);
-                    if (edges.size() > 0) {
-                        labelledGraph.put(x, y, edges);
+                    tryVertAddLeftEdge(x, y);
+                    tryVertAddBottomEdge(x, y);
+                    if (labelledGraph.firstEdge(x, y) != PackedLabelledGraph.NONE) {
                         free.add(j - 1);
                     }
                 }
@@ -132,12 +125,8 @@ public class GeneratingQTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
                 x = edgeGraphCoord(i - 1);
                 y = vertexGraphCoord(j);
                 if (isFree(x, y)) {
-                    ArrayList<LabelledEdge> edges = new ArrayList<>();
-                    tryHorAddLeftEdge(x, y, edges);
-                    tryHorAddBottomEdge(x, y, edges);
-                    if (edges.size() > 0) {
-                        labelledGraph.put(x, y, edges);
-                    }
+                    tryHorAddLeftEdge(x, y);
+                    tryHorAddBottomEdge(x, y);
                 }
             }
         }
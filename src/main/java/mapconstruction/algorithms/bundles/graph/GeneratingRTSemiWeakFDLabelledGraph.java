@@ -1,8 +1,7 @@
 package mapconstruction.algorithms.bundles.graph;
 
-import mapconstruction.algorithms.bundles.graph.representation.LabelledEdge;
 import mapconstruction.algorithms.bundles.graph.representation.Vertex;
-import mapconstruction.algorithms.distance.RTree;
+import mapconstruction.algorithms.distance.SegmentRTree;
 import mapconstruction.trajectories.Trajectory;
 
 import java.awt.geom.Line2D;
@@ -13,11 +12,70 @@ import java.util.stream.Collectors;
 
 public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLabelledGraph {
 
-    private RTree<Line2D, Integer> rTree;
+    private SegmentRTree rTree;
 
-    public GeneratingRTSemiWeakFDLabelledGraph(double epsilon, Trajectory representative, List<Trajectory> concatenated, RTree<Line2D, Integer> rTree) {
+    /**
+     * Precomputed cells of the representative, null if the RTree is queried directly.
+     */
+    private IncrementalFreeSpace.Cells cells;
+
+    /**
+     * Interior points of the trajectories in the concatenation.
+     */
+    private final long[] interior;
+
+    /**
+     * Rows of the current layer whose horizontal cell is reachable, and the range of words in use.
+     */
+    private final long[] reachable;
+    private int minReachWord = Integer.MAX_VALUE;
+    private int maxReachWord = -1;
+
+    public GeneratingRTSemiWeakFDLabelledGraph(double epsilon, Trajectory representative, List<Trajectory> concatenated, SegmentRTree rTree) {
         super(epsilon, representative, concatenated);
         this.rTree = rTree;
+        this.interior = interiorPoints(this.concatenated);
+        this.reachable = new long[interior.length];
+    }
+
+    /**
+     * Creates the graph from a free space shared between epsilons, thresholding its precomputed cells at the given
+     * epsilon instead of querying the RTree.
+     *
+     * @param epsilon        epsilon, at most the maximum epsilon of the free space
+     * @param representative one of the trajectories of the free space
+     * @param freeSpace      shared free space
+     */
+    public GeneratingRTSemiWeakFDLabelledGraph(double epsilon, Trajectory representative, IncrementalFreeSpace freeSpace) {
+        super(epsilon, representative, freeSpace.getOffsets(), freeSpace.getPoints());
+        this.rTree = freeSpace.getRTree();
+        this.cells = freeSpace.getCells(representative);
+        this.interior = interiorPoints(this.concatenated);
+        this.reachable = new long[interior.length];
+    }
+
+    /**
+     * Builds the RTree on the segments of the given trajectories, as used by this graph. Each segment maps to the
+     * index of its first point in the concatenation of the trajectories.
+     *
+     * @param concatenated trajectories to compare against, in order of concatenation
+     * @return RTree on the segments
+     */
+    public static SegmentRTree indexSegments(List<Trajectory> concatenated) {
+        List<Line2D> segments = new ArrayList<>();
+        for (Trajectory t : concatenated) {
+            segments.addAll(t.edges());
+        }
+        int[] values = new int[segments.size()];
+        int i = 0;
+        int k = 0;
+        for (Trajectory t : concatenated) {
+            for (int e = 0; e < t.numEdges(); e++) {
+                values[k++] = i++;
+            }
+            i++;
+        }
+        return new SegmentRTree(10, segments, values);
     }
 
     public void addColumn() {
@@ -49,12 +107,8 @@ public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
                         int x = vertexGraphCoord(i);
                         int y = edgeGraphCoord(j);
                         if (isFree(x, y)) {
-                            ArrayList<LabelledEdge> edges = new ArrayList<>();
-                            tryVertAddLeftEdge(x, y, edges);
-                            tryVertAddBottomEdge(x, y, edges);
-                            if (edges.size() > 0) {
-                                labelledGraph.put(x, y, edges);
-                            }
+                            tryVertAddLeftEdge(x, y);
+                            tryVertAddBottomEdge(x, y);
                             previous++;
                         }
                         if (j >= jMax) continue;
@@ -63,11 +117,9 @@ public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
                         x = edgeGraphCoord(i - 1);
                         y = vertexGraphCoord(j + 1);
                         if (isFree(x, y)) {
-                            ArrayList<LabelledEdge> edges = new ArrayList<>();
-                            tryHorAddLeftEdge(x, y, edges);
-                            tryHorAddBottomEdge(x, y, edges);
-                            if (edges.size() > 0) {
-                                labelledGraph.put(x, y, edges);
+                            tryHorAddLeftEdge(x, y);
+                            tryHorAddBottomEdge(x, y);
+                            if (labelledGraph.firstEdge(x, y) != PackedLabelledGraph.NONE) {
                                 // insert new j (if needed) at the correct location, move pointer back to current index.
                                 if (!iter.hasNext() || query.get(iter.nextIndex()) > j + 1) {
                                     iter.add(j + 1);
@@ -81,71 +133,115 @@ public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
         }
     }
 
+    /**
+     * Builds the labelled graph layer by layer, one layer per edge i of the representative.
+     * <p>
+     * A layer first adds the left edges of all free cells near point i, which only point to the previous layer. The
+     * horizontal cells that obtained an edge are reachable, and reachability is propagated upwards along each
+     * trajectory through the bottom edges. Reachable rows are kept in a bitset over the concatenated trajectory and
+     * processed in ascending order, so each cell's bottom target is complete before it is used.
+     */
     public void addLayer() {
-        int x, y;
-
         for (int i = 0; i < representative.numEdges(); i++) {
-            Set<Integer> query = queryS(i);
-            Map<Integer, List<Integer>> candidates = new HashMap<>();
+            if (cells == null) {
+                for (int j : queryS(i)) {
+                    addLeftEdges(i, j, isFree(vertexGraphCoord(i + 1), edgeGraphCoord(j)),
+                            isFree(edgeGraphCoord(i), vertexGraphCoord(j + 1)));
+                }
+            } else {
+                for (int k = 0; k < cells.numSegments(i); k++) {
+                    if (cells.isNear(i, k, epsilon)) {
+                        addLeftEdges(i, cells.segment(i, k), cells.isVerticalFree(i, k, epsilon), cells.isHorizontalFree(i, k, epsilon));
+                    }
+                }
+            }
+            addBottomEdges(i);
+        }
+    }
 
-            for (int j : query) {
-                x = vertexGraphCoord(i + 1);
-                y = edgeGraphCoord(j);
+    /**
+     * Adds the cells of layer i on segment j and point j + 1, and their left edges.
+     * Marks point j + 1 as reachable if its horizontal cell obtained an edge.
+     */
+    private void addLeftEdges(int i, int j, boolean verticalFree, boolean horizontalFree) {
+        int x = vertexGraphCoord(i + 1);
+        int y = edgeGraphCoord(j);
+        if (verticalFree) {
+            labelledGraph.addCell(x, y);
+            tryVertAddLeftEdge(x, y);
+        }
+
+        x = edgeGraphCoord(i);
+        y = vertexGraphCoord(j + 1);
+        // if j+1 strictly fits the trajectory at j, it may become reachable
+        if (horizontalFree && isInterior(j + 1)) {
+            labelledGraph.addCell(x, y);
+            if (tryHorAddLeftEdge(x, y)) {
+                setReachable(j + 1);
+            }
+        }
+    }
+
+    /**
+     * Adds the bottom edges of layer i to all reachable horizontal cells, in ascending order, propagating
+     * reachability upwards. Clears the reachable rows.
+     */
+    private void addBottomEdges(int i) {
+        for (int w = minReachWord; w <= maxReachWord; w++) {
+            while (reachable[w] != 0) {
+                int j = (w << 6) + Long.numberOfTrailingZeros(reachable[w]);
+                reachable[w] &= reachable[w] - 1;
+
+                int x = vertexGraphCoord(i + 1);
+                int y = edgeGraphCoord(j);
                 if (isFree(x, y)) {
-                    List<LabelledEdge> edges = getEdges(x, y);
-                    tryVertAddLeftEdge(x, y, edges);
+                    labelledGraph.addCell(x, y);
+                    tryVertAddBottomEdge(x, y);
                 }
-
                 x = edgeGraphCoord(i);
                 y = vertexGraphCoord(j + 1);
                 if (isFree(x, y)) {
-                    Map.Entry<Integer, Trajectory> index = concatenated.floorEntry(j);
-                    // if j+1 strictly fits the trajectory at j, add it to the candidates
-                    if (j + 1 < index.getKey() + index.getValue().numEdges()) {
-                        List<LabelledEdge> edges = getEdges(x, y);
-                        tryHorAddLeftEdge(x, y, edges);
-                        if (edges.size() > 0) {
-                            // add (x,y) as candidate
-                            List<Integer> candidate = getCandidate(candidates, index.getKey());
-                            candidate.add(j + 1);
-                        }
+                    labelledGraph.addCell(x, y);
+                    tryHorAddBottomEdge(x, y);
+                    if (labelledGraph.firstEdge(x, y) != PackedLabelledGraph.NONE && isInterior(j + 1)) {
+                        setReachable(j + 1);
                     }
                 }
             }
+        }
+        minReachWord = Integer.MAX_VALUE;
+        maxReachWord = -1;
+    }
 
-            for (List<Integer> candidate : candidates.values()) {
-                candidate.sort(Integer::compareTo);
-//                List<Integer> candidate = new ArrayList<>(c);
-                ListIterator<Integer> iter = candidate.listIterator();
-                while (iter.hasNext()) {
-                    // don't check whether it fits the corresponding trajectory, do that on insertion only
-                    int j = iter.next();
-
-                    x = vertexGraphCoord(i + 1);
-                    y = edgeGraphCoord(j);
-                    if (isFree(x, y)) {
-                        List<LabelledEdge> edges = getEdges(x, y);
-                        tryVertAddBottomEdge(x, y, edges);
-                    }
-                    x = edgeGraphCoord(i);
-                    y = vertexGraphCoord(j + 1);
-                    if (isFree(x, y)) {
-                        List<LabelledEdge> edges = getEdges(x, y);
-                        tryHorAddBottomEdge(x, y, edges);
-                        if (edges.size() > 0) {
-                            Map.Entry<Integer,Trajectory> index = concatenated.floorEntry(j);
-                            if (j + 1 < index.getKey() + index.getValue().numEdges()) {
-                                // insert new j (if needed) at the correct location, move pointer back to current index.
-                                if (!iter.hasNext() || candidate.get(iter.nextIndex()) > j + 1) {
-                                    iter.add(j + 1);
-                                    iter.previous();
-                                }
-                            }
-                        }
-                    }
-                }
+    private void setReachable(int j) {
+        int w = j >> 6;
+        reachable[w] |= 1L << j;
+        minReachWord = Math.min(minReachWord, w);
+        maxReachWord = Math.max(maxReachWord, w);
+    }
+
+    /**
+     * Whether point j of the concatenation is neither the first nor the last point of its trajectory.
+     */
+    private boolean isInterior(int j) {
+        return (interior[j >> 6] & (1L << j)) != 0;
+    }
+
+    /**
+     * Computes the bitset of points of the concatenation that are neither the first nor the last point of their
+     * trajectory.
+     */
+    private static long[] interiorPoints(TreeMap<Integer, Trajectory> concatenated) {
+        int numPoints = concatenated.isEmpty() ? 0 : concatenated.lastKey() + concatenated.lastEntry().getValue().numPoints();
+        long[] interior = new long[(numPoints + 63) >> 6];
+        for (Map.Entry<Integer, Trajectory> entry : concatenated.entrySet()) {
+            int from = entry.getKey() + 1;
+            int to = entry.getKey() + entry.getValue().numEdges();
+            for (int j = from; j < to; j++) {
+                interior[j >> 6] |= 1L << j;
             }
         }
+        return interior;
     }
 
     private List<Integer> linearMerge(List<Integer> first, List<Integer> second) {
@@ -166,33 +262,21 @@ public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
     }
 
     private List<Integer> query(int i, int threshold) {
-        Point2D p = representative.getPoint(i);
-        Set<Integer> result = rTree.windowQuery(p.getX() - epsilon, p.getY() - epsilon, p.getX() + epsilon, p.getY() + epsilon);
-        if (result.size() < threshold) {
-            return result.stream().sorted().collect(Collectors.toList());
+        int[] result = queryS(i);
+        if (result.length < threshold) {
+            return Arrays.stream(result).boxed().collect(Collectors.toList());
         }
         return null;
     }
 
-    private Set<Integer> queryS(int i) {
+    /**
+     * Gets the segments near point i of the representative, in ascending order.
+     */
+    private int[] queryS(int i) {
         Point2D p = representative.getPoint(i);
         return rTree.windowQuery(p.getX() - epsilon, p.getY() - epsilon, p.getX() + epsilon, p.getY() + epsilon);
     }
 
-    private List<LabelledEdge> getEdges(int x, int y) {
-        if (!labelledGraph.contains(x, y)) {
-            labelledGraph.put(x, y, new ArrayList<>(2));
-        }
-        return labelledGraph.get(x, y);
-    }
-
-    private List<Integer> getCandidate(Map<Integer, List<Integer>> candidates, int index) {
-        if (!candidates.containsKey(index)) {
-            candidates.put(index, new ArrayList<>());
-        }
-        return candidates.get(index);
-    }
-
     private List<Integer> getFree(int i) {
         List<Integer> free = new ArrayList<>();
 
@@ -242,12 +326,8 @@ public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
                 int x = vertexGraphCoord(i);
                 int y = edgeGraphCoord(j - 1);
                 if (isFree(x, y)) {
-                    ArrayList<LabelledEdge> edges = new ArrayList<>();
-                    tryVertAddLeftEdge(x, y, edges);
-                    tryVertAddBottomEdge(x, y, edges);
-                    if (edges.size() > 0) {
-                        labelledGraph.put(x, y, edges);
-                    }
+                    tryVertAddLeftEdge(x, y);
+                    tryVertAddBottomEdge(x, y);
                     free ++;
                 }
 
@@ -258,12 +338,8 @@ public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
                 x = edgeGraphCoord(i - 1);
                 y = vertexGraphCoord(j);
                 if (isFree(x, y)) {
-                    ArrayList<LabelledEdge> edges = new ArrayList<>();
-                    tryHorAddLeftEdge(x, y, edges);
-                    tryHorAddBottomEdge(x, y, edges);
-                    if (edges.size() > 0) {
-                        labelledGraph.put(x, y, edges);
-                    }
+                    tryHorAddLeftEdge(x, y);
+                    tryHorAddBottomEdge(x, y);
                 }
             }
         }
@@ -311,16 +387,15 @@ public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
 
     private void addVertex(int i) {
         Point2D p = representative.getPoint(i);
-        Set<Integer> indices = rTree.windowQuery(p.getX() - epsilon, p.getY() - epsilon, p.getX() + epsilon, p.getY() + epsilon, new TreeSet<>());
+        int[] indices = rTree.windowQuery(p.getX() - epsilon, p.getY() - epsilon, p.getX() + epsilon, p.getY() + epsilon);
         for (int j : indices) {
             // try to add edges from a vertical segment
             int x = vertexGraphCoord(i);
             int y = edgeGraphCoord(j);
             if (isFree(x, y)) {
-                ArrayList<LabelledEdge> edges = new ArrayList<>();
-                tryVertAddLeftEdge(x, y, edges);
-                tryVertAddBottomEdge(x, y, edges);
-                labelledGraph.put(x, y, edges);
+                labelledGraph.addCell(x, y);
+                tryVertAddLeftEdge(x, y);
+                tryVertAddBottomEdge(x, y);
             }
         }
     }
@@ -328,7 +403,7 @@ public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
     private void addEdge(int i) {
         Line2D s = representative.getEdge(i - 1);
         Rectangle2D b = s.getBounds();
-        Set<Integer> indices = rTree.windowQuery(b.getMinX() - epsilon, b.getMinY() - epsilon, b.getMaxX() + epsilon, b.getMaxY() + epsilon, new TreeSet<>());
+        int[] indices = rTree.windowQuery(b.getMinX() - epsilon, b.getMinY() - epsilon, b.getMaxX() + epsilon, b.getMaxY() + epsilon);
         for (int j : indices) {
             // don't try to add edges to the 'top' of the diagram
             Integer jMin = concatenated.floorKey(j);
@@ -338,10 +413,9 @@ public class GeneratingRTSemiWeakFDLabelledGraph extends GeneratingSemiWeakFDLab
             int x = edgeGraphCoord(i - 1);
             int y = vertexGraphCoord(j);
             if (isFree(x, y)) {
-                ArrayList<LabelledEdge> edges = new ArrayList<>();
-                tryHorAddLeftEdge(x, y, edges);
-                tryHorAddBottomEdge(x, y, edges);
-                labelledGraph.put(x, y, edges);
+                labelledGraph.addCell(x, y);
+                tryHorAddLeftEdge(x, y);
+                tryHorAddBottomEdge(x, y);
             }
         }
     }
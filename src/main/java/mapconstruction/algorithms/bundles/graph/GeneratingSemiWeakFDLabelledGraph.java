@@ -1,11 +1,7 @@
 package mapconstruction.algorithms.bundles.graph;
 
-import com.google.common.base.Preconditions;
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Range;
-import com.google.common.collect.Table;
 import mapconstruction.algorithms.bundles.graph.representation.Event;
-import mapconstruction.algorithms.bundles.graph.representation.LabelledEdge;
 import mapconstruction.algorithms.bundles.graph.representation.Vertex;
 import mapconstruction.algorithms.distance.DistanceMatrix;
 import mapconstruction.benchmark.Benchmark;
@@ -29,6 +25,9 @@ import java.util.List;
  * <p>
  * Additionally this representation provides means to collect a queue of sweepline events after having discovered the
  * (partial) labelled graph.
+ * <p>
+ * The graph is kept in a {@link PackedLabelledGraph}. Cells that are the source of a path not (yet) extended by any
+ * other cell, the endpoints, are marked in that same store.
  *
  * @author Jorren
  */
@@ -39,11 +38,9 @@ public class GeneratingSemiWeakFDLabelledGraph /*extends LabelledGraph*/ impleme
 //    private List<Trajectory> concatenated;
 TreeMap<Integer, Trajectory> concatenated;
 
-    final Table<Integer, Integer, List<LabelledEdge>> labelledGraph;
+    final PackedLabelledGraph labelledGraph;
     private DistanceMatrix dm;
 
-    private Set<Vertex> endpoints;
-
     public GeneratingSemiWeakFDLabelledGraph(double epsilon, Trajectory representative, List<Trajectory> concatenated) {
         this.epsilon = epsilon;
         this.representative = representative;
@@ -55,10 +52,22 @@ TreeMap<Integer, Trajectory> concatenated;
             points.addAll(t.points());
         }
 
-        dm = new DistanceMatrix(representative, new FullTrajectory(points));
-        labelledGraph = HashBasedTable.create();
+        dm = new DistanceMatrix(representative, new FullTrajectory(points), epsilon);
+        labelledGraph = new PackedLabelledGraph();
+    }
 
-        endpoints = new HashSet<>();
+    /**
+     * Creates the graph on an already concatenated set of trajectories.
+     *
+     * @param concatenated mapping from the index of the first point of each trajectory to the trajectory
+     * @param points       all points of the concatenated trajectories
+     */
+    GeneratingSemiWeakFDLabelledGraph(double epsilon, Trajectory representative, TreeMap<Integer, Trajectory> concatenated, FullTrajectory points) {
+        this.epsilon = epsilon;
+        this.representative = representative;
+        this.concatenated = concatenated;
+        dm = new DistanceMatrix(representative, points, epsilon);
+        labelledGraph = new PackedLabelledGraph();
     }
 
     public OptionalInt findStart(int s, int t, int yt, Collection<Range<Integer>> forbidden) {
@@ -75,10 +84,9 @@ TreeMap<Integer, Trajectory> concatenated;
                     int x = vertexGraphCoord(i);
                     int y = edgeGraphCoord(j - 1);
                     if (isFree(x, y)) {
-                        ArrayList<LabelledEdge> edges = new ArrayList<>();
-                        tryVertAddLeftEdge(x, y, edges);
-                        tryVertAddBottomEdge(x, y, edges);
-                        labelledGraph.put(x, y, edges);
+                        labelledGraph.addCell(x, y);
+                        tryVertAddLeftEdge(x, y);
+                        tryVertAddBottomEdge(x, y);
                     }
 
                     // don't try to add edges to the 'top' of the diagram
@@ -88,10 +96,9 @@ TreeMap<Integer, Trajectory> concatenated;
                     x = edgeGraphCoord(i - 1);
                     y = vertexGraphCoord(j);
                     if (isFree(x, y)) {
-                        ArrayList<LabelledEdge> edges = new ArrayList<>();
-                        tryHorAddLeftEdge(x, y, edges);
-                        tryHorAddBottomEdge(x, y, edges);
-                        labelledGraph.put(x, y, edges);
+                        labelledGraph.addCell(x, y);
+                        tryHorAddLeftEdge(x, y);
+                        tryHorAddBottomEdge(x, y);
                     }
                 }
             }
@@ -99,69 +106,66 @@ TreeMap<Integer, Trajectory> concatenated;
         Benchmark.pop();
     }
 
+    /**
+     * Number of cells of the free space added to the graph.
+     */
+    public int numCells() {
+        return labelledGraph.numCells();
+    }
+
     public void removeColumn() {
 
     }
 
     @Override
     public SortedSet<Event> collectEvents() {
-        Map<Vertex, Set<Vertex>> events = new HashMap<>();
         SortedSet<Event> result = new TreeSet<>();
 
-        for (Vertex t : endpoints) {
-            t = findVerticalEdge(t); // find first vertical edge in path
-            if (t == null) continue;
+        labelledGraph.forEachMarked((x, y) -> {
+            Vertex t = findVerticalEdge(x, y); // find first vertical edge in path
+            if (t == null) return;
 
-            List<LabelledEdge> edges = labelledGraph.get(t.x(), t.y());
             // only add longest
-            if (edges != null) {
+            int edge = labelledGraph.minLabelEdge(t.x(), t.y());
+            if (edge != PackedLabelledGraph.NONE) {
                 Vertex b = t.toSubtrajectoryEnd();
-                edges.stream().min(Comparator.comparingInt(LabelledEdge::getLabel)).ifPresent(edge -> {
-                    Vertex a = edge.getOrigin().toSubtrajectoryStart();
-                    result.add(new Event(a, b, true));
-                    result.add(new Event(a, b, false));
-                });
+                Vertex a = new Vertex(labelledGraph.originX(t.x(), edge), labelledGraph.originY(t.x(), edge)).toSubtrajectoryStart();
+                result.add(new Event(a, b, true));
+                result.add(new Event(a, b, false));
             }
-
-//            if (edges != null && !edges.isEmpty()) {
-//                Vertex b = t.toSubtrajectoryEnd();
-//                for (LabelledEdge edge : edges) {
-//                    Vertex a = edge.getOrigin().toSubtrajectoryStart();
-//                    result.add(new Event(a, b, true));
-//                    result.add(new Event(a, b, false));
-//                }
-//            }
-        }
+        });
         return result;
     }
 
     public String getGraph() {
         StringBuilder out = new StringBuilder("[\n");
-        for (Table.Cell<Integer,Integer,List<LabelledEdge>> cell : this.labelledGraph.cellSet()) {
-            if (!cell.getValue().isEmpty()) {
-                out.append("(").append(cell.getColumnKey()).append(",").append(cell.getRowKey()).append("): ");;
-                for (LabelledEdge edge : cell.getValue()) {
-                    out.append(edge.getTarget()).append(" -> ").append(edge.getSource()).append(", ");
+        labelledGraph.forEachCell((x, y) -> {
+            int edge = labelledGraph.firstEdge(x, y);
+            if (edge != PackedLabelledGraph.NONE) {
+                out.append("(").append(y).append(",").append(x).append("): ");
+                for (; edge != PackedLabelledGraph.NONE; edge = labelledGraph.nextEdge(x, edge)) {
+                    out.append(new Vertex(labelledGraph.targetX(x, edge), labelledGraph.targetY(x, edge)))
+                            .append(" -> ").append(new Vertex(x, y)).append(", ");
                 }
                 out.append("\n");
             }
-
-        }
+        });
         out.append("]");
 
         return out.toString();
     }
 
-    private Vertex findVerticalEdge(Vertex t) {
-        while (!isVerticalGridEdge(t)) {
-            List<LabelledEdge> edges = labelledGraph.get(t.x(), t.y());
-            if (!edges.isEmpty()) {
-                t = edges.get(0).getTarget();
-            } else {
+    private Vertex findVerticalEdge(int x, int y) {
+        while (!isEven(x)) {
+            int edge = labelledGraph.firstEdge(x, y);
+            if (edge == PackedLabelledGraph.NONE) {
                 return null;
             }
+            int tx = labelledGraph.targetX(x, edge);
+            y = labelledGraph.targetY(x, edge);
+            x = tx;
         }
-        return t;
+        return new Vertex(x, y);
     }
 
     /**
@@ -286,92 +290,81 @@ TreeMap<Integer, Trajectory> concatenated;
             // x is singleton [i,i]
             // This means y is an interval [j, j+1].
             // We compare the ith point to the jth edge
-            return dm.getPointEdgeDistance(low(x), low(y)) <= epsilon;
+            return dm.isPointEdgeFree(low(x), low(y), epsilon);
         } else {
             // y is singleton [j,j]
             // This means x is an interval [i, i + 1].
             // We compare the ith edge to the jth point
-            return dm.getEdgePointDistance(low(x), low(y)) <= epsilon;
+            return dm.isEdgePointFree(low(x), low(y), epsilon);
         }
 
     }
 
-    void tryVertAddLeftEdge(int x, int y, List<LabelledEdge> edges) {
-        Vertex target = verticalGridEdge(low(x) - 1, low(y));
+    boolean tryVertAddLeftEdge(int x, int y) {
+        int tx = vertexGraphCoord(low(x) - 1);
+        int ty = edgeGraphCoord(low(y));
         // Check whether there is a free path from (x,y) to target.
-        if (isFree(target)) {
-            edges.add(createEdgeToVertical(new Vertex(x, y), target));
-        }
+        return isFree(tx, ty) && addEdgeToVertical(x, y, tx, ty);
     }
 
-    void tryVertAddBottomEdge(int x, int y, List<LabelledEdge> edges) {
-        Vertex target = horizontalGridEdge(low(x) - 1, low(y));
+    boolean tryVertAddBottomEdge(int x, int y) {
+        int tx = edgeGraphCoord(low(x) - 1);
+        int ty = vertexGraphCoord(low(y));
         // Check whether there is a free path from (x,y) to target.
-        if (isFree(target)) {
-            Optional<LabelledEdge> opt = createEdgeToHorizontal(new Vertex(x, y), target);
-            opt.ifPresent(edges::add);
-        }
+        return isFree(tx, ty) && addEdgeToHorizontal(x, y, tx, ty);
     }
 
-    void tryHorAddLeftEdge(int x, int y, List<LabelledEdge> edges) {
-        Vertex target = verticalGridEdge(low(x), low(y) - 1);
+    boolean tryHorAddLeftEdge(int x, int y) {
+        int tx = vertexGraphCoord(low(x));
+        int ty = edgeGraphCoord(low(y) - 1);
         // Check whether there is a free path from (x,y) to target.
-        if (isFree(target)) {
-            edges.add(createEdgeToVertical(new Vertex(x, y), target));
-        }
+        return isFree(tx, ty) && addEdgeToVertical(x, y, tx, ty);
     }
 
-    void tryHorAddBottomEdge(int x, int y, List<LabelledEdge> edges) {
-        Vertex target = horizontalGridEdge(low(x), low(y) - 1);
+    boolean tryHorAddBottomEdge(int x, int y) {
+        int tx = edgeGraphCoord(low(x));
+        int ty = vertexGraphCoord(low(y) - 1);
         // Check whether there is a free path from (x,y) to target.
-        if (isFree(target)) {
-            Optional<LabelledEdge> opt = createEdgeToHorizontal(new Vertex(x, y), target);
-            opt.ifPresent(edges::add);
-        }
+        return isFree(tx, ty) && addEdgeToHorizontal(x, y, tx, ty);
     }
 
     /**
-     * Creates a labelled edge from source to target, where target is a vertex
+     * Adds a labelled edge from source (x, y) to target (tx, ty), where target is a vertex
      * representing a vertical grid edge.
      */
-    private LabelledEdge createEdgeToVertical(Vertex source, Vertex target) {
-        // get edges of target
-        List<LabelledEdge> tedges = labelledGraph.get(target.x(), target.y());
-        if (tedges == null) tedges = new ArrayList<>();
-
-        // Find the labelled edge with the 'maximum' (smallest x) label.
-        Optional<LabelledEdge> min = tedges.stream().min(Comparator.comparingInt(LabelledEdge::getLabel));
+    private boolean addEdgeToVertical(int x, int y, int tx, int ty) {
+        // Find the labelled edge of the target with the 'maximum' (smallest x) label.
+        int min = labelledGraph.minLabelEdge(tx, ty);
         // if no such edge exists, make target the new origin.
-        int label = min.map(LabelledEdge::getLabel).orElse(low(target.x()));
-        Vertex origin = min.map(LabelledEdge::getOrigin).orElse(target);
+        int label = min == PackedLabelledGraph.NONE ? low(tx) : labelledGraph.label(tx, min);
+        int ox = min == PackedLabelledGraph.NONE ? tx : labelledGraph.originX(tx, min);
+        int oy = min == PackedLabelledGraph.NONE ? ty : labelledGraph.originY(tx, min);
 
         // update endpoints
-        endpoints.remove(target);
-        endpoints.add(source);
+        labelledGraph.setMarked(tx, ty, false);
+        labelledGraph.setMarked(x, y, true);
 
-        return new LabelledEdge(source, target, label, origin);
+        labelledGraph.addEdge(x, y, tx, ty, label, ox, oy);
+        return true;
     }
 
     /**
-     * Creates a labelled edge from source to target, where target is a vertex
+     * Adds a labelled edge from source (x, y) to target (tx, ty), where target is a vertex
      * representing a horizontal grid edge.
      */
-    private Optional<LabelledEdge> createEdgeToHorizontal(Vertex source, Vertex target) {
-        // get edges of target
-        List<LabelledEdge> tedges = labelledGraph.get(target.x(), target.y());
-        if (tedges == null) tedges = new ArrayList<>();
-
-        Optional<LabelledEdge> min = tedges.stream().min(Comparator.comparingInt(LabelledEdge::getLabel));
-        if (!min.isPresent()) {
+    private boolean addEdgeToHorizontal(int x, int y, int tx, int ty) {
+        int min = labelledGraph.minLabelEdge(tx, ty);
+        if (min == PackedLabelledGraph.NONE) {
             // target has no outgoing edges. Do not add edge to prevent dead ends.
-            return Optional.empty();
+            return false;
         }
 
         // update endpoints
-        endpoints.remove(target);
-        endpoints.add(source);
+        labelledGraph.setMarked(tx, ty, false);
+        labelledGraph.setMarked(x, y, true);
 
-        return Optional.of(new LabelledEdge(source, target, min.get().getLabel(), min.get().getOrigin()));
+        labelledGraph.addEdge(x, y, tx, ty, labelledGraph.label(tx, min), labelledGraph.originX(tx, min), labelledGraph.originY(tx, min));
+        return true;
     }
 
     public Trajectory getRepresentative() {
@@ -410,25 +403,22 @@ TreeMap<Integer, Trajectory> concatenated;
     }
 
     private Vertex backpass(Vertex start, int lower, int higher) {
-        while (start.x() > higher) {
-            Vertex target = null;
-            List<LabelledEdge> edges = labelledGraph.get(start.x(), start.y());
-            if (edges == null) {
-                return null;
-            }
-            for (LabelledEdge edge : edges) {
-                if (edge.getOrigin().x() <= lower) {
-                    target = edge.getTarget();
-                    break;
-                }
+        int x = start.x();
+        int y = start.y();
+        while (x > higher) {
+            int edge = labelledGraph.firstEdge(x, y);
+            while (edge != PackedLabelledGraph.NONE && labelledGraph.originX(x, edge) > lower) {
+                edge = labelledGraph.nextEdge(x, edge);
             }
 
-            if (target == null) {
+            if (edge == PackedLabelledGraph.NONE) {
                 return null;
             }
-            start = target;
+            int tx = labelledGraph.targetX(x, edge);
+            y = labelledGraph.targetY(x, edge);
+            x = tx;
         }
-        return start;
+        return x == start.x() ? start : new Vertex(x, y);
     }
 
     /**
@@ -0,0 +1,263 @@
+package mapconstruction.algorithms.bundles.graph;
+
+import mapconstruction.algorithms.distance.DistanceMatrix;
+import mapconstruction.algorithms.distance.SegmentRTree;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Trajectory;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Free space of a fixed set of trajectories that is shared between runs for different values of epsilon, up to a
+ * maximum epsilon.
+ * <p>
+ * A cell that is free for some epsilon is free for every larger epsilon. Hence, for each representative we compute
+ * once, at the maximum epsilon, which segments are near each of its points, and store the critical epsilon of the
+ * cells involved: the point-segment distance at which they become free. The free space for any smaller epsilon is
+ * then obtained by thresholding, without querying the RTree or recomputing distances.
+ * <p>
+ * The concatenated trajectories (including reversed copies when ignoring direction) and the RTree on their segments
+ * are built once as well, and shared by all runs.
+ * <p>
+ * Instances are thread-safe. Note that the stored cells are kept for the lifetime of this object, trading memory for
+ * time.
+ */
+public class IncrementalFreeSpace {
+
+    /**
+     * Trajectories as given, these are the representatives.
+     */
+    private final List<Trajectory> trajectories;
+
+    /**
+     * Whether reversed copies of the trajectories are included.
+     */
+    private final boolean ignoreDirection;
+
+    /**
+     * Largest epsilon supported.
+     */
+    private final double maxEpsilon;
+
+    /**
+     * Trajectories to compare against, the given trajectories followed by their reverses if ignoring direction.
+     */
+    private final List<Trajectory> concatenated;
+
+    /**
+     * RTree on the segments of the concatenated trajectories, mapping to the index of the first point of the segment
+     * in the concatenation.
+     */
+    private final SegmentRTree rTree;
+
+    /**
+     * Mapping from the index of the first point in the concatenation to the trajectory.
+     */
+    private final TreeMap<Integer, Trajectory> offsets;
+
+    /**
+     * All points of the concatenated trajectories.
+     */
+    private final FullTrajectory points;
+
+    /**
+     * Index of each representative in {@code trajectories}.
+     */
+    private final Map<Trajectory, Integer> indices;
+
+    /**
+     * Lazily computed cells per representative.
+     */
+    private final AtomicReferenceArray<Cells> cells;
+
+    public IncrementalFreeSpace(List<Trajectory> trajectories, boolean ignoreDirection, double maxEpsilon) {
+        this.trajectories = new ArrayList<>(trajectories);
+        this.ignoreDirection = ignoreDirection;
+        this.maxEpsilon = maxEpsilon;
+
+        if (ignoreDirection) {
+            this.concatenated = Stream.concat(trajectories.stream(), trajectories.stream().map(Trajectory::reverse)).collect(Collectors.toList());
+        } else {
+            this.concatenated = new ArrayList<>(trajectories);
+        }
+
+        List<Point2D> allPoints = new ArrayList<>();
+        offsets = new TreeMap<>();
+        for (Trajectory t : concatenated) {
+            offsets.put(allPoints.size(), t);
+            allPoints.addAll(t.points());
+        }
+        this.rTree = GeneratingRTSemiWeakFDLabelledGraph.indexSegments(concatenated);
+        this.points = new FullTrajectory(allPoints);
+
+        this.indices = new IdentityHashMap<>();
+        for (int k = 0; k < trajectories.size(); k++) {
+            indices.putIfAbsent(trajectories.get(k), k);
+        }
+        this.cells = new AtomicReferenceArray<>(trajectories.size());
+    }
+
+    /**
+     * Whether this free space can be used for the given run.
+     *
+     * @param trajectories    trajectories of the run
+     * @param ignoreDirection whether the run ignores direction
+     * @param epsilon         epsilon of the run
+     * @return whether the run uses the same trajectories, in the same order, and epsilon is supported.
+     */
+    public boolean supports(List<Trajectory> trajectories, boolean ignoreDirection, double epsilon) {
+        if (this.ignoreDirection != ignoreDirection || epsilon > maxEpsilon || trajectories.size() != this.trajectories.size()) {
+            return false;
+        }
+        for (int k = 0; k < trajectories.size(); k++) {
+            if (trajectories.get(k) != this.trajectories.get(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public double getMaxEpsilon() {
+        return maxEpsilon;
+    }
+
+    /**
+     * Gets the trajectories to compare the representatives against.
+     */
+    public List<Trajectory> getConcatenated() {
+        return Collections.unmodifiableList(concatenated);
+    }
+
+    public SegmentRTree getRTree() {
+        return rTree;
+    }
+
+    TreeMap<Integer, Trajectory> getOffsets() {
+        return offsets;
+    }
+
+    FullTrajectory getPoints() {
+        return points;
+    }
+
+    /**
+     * Gets the cells of the given representative, computing them if needed.
+     *
+     * @param representative one of the trajectories this free space was built for.
+     * @return cells of the representative
+     * @throws IllegalArgumentException if the representative is not one of the trajectories.
+     */
+    public Cells getCells(Trajectory representative) {
+        Integer index = indices.get(representative);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown representative " + representative);
+        }
+        Cells result = cells.get(index);
+        if (result == null) {
+            cells.compareAndSet(index, null, new Cells(representative));
+            result = cells.get(index);
+        }
+        return result;
+    }
+
+    /**
+     * Cells of the free space of a single representative that can become free for some epsilon up to the maximum.
+     * <p>
+     * For each point i of the representative (except the last) we store the segments j of the concatenation that
+     * are near point i, together with the critical epsilons of the vertical cell (point i + 1, segment j) and of the
+     * horizontal cell (segment i, point j + 1). The segments of a point are addressed by their position k.
+     */
+    public final class Cells {
+
+        private final Trajectory representative;
+
+        /**
+         * Per point of the representative, the segments near it at the maximum epsilon, in ascending order.
+         */
+        private final int[][] segments;
+
+        /**
+         * Per point of the representative and segment, the critical epsilons of the cells.
+         */
+        private final double[][] vertical;
+        private final double[][] horizontal;
+
+        private Cells(Trajectory representative) {
+            this.representative = representative;
+            int n = representative.numEdges();
+            segments = new int[n][];
+            vertical = new double[n][];
+            horizontal = new double[n][];
+
+            DistanceMatrix dm = new DistanceMatrix(representative, points);
+            for (int i = 0; i < n; i++) {
+                Point2D p = representative.getPoint(i);
+                segments[i] = rTree.windowQuery(p.getX() - maxEpsilon, p.getY() - maxEpsilon,
+                        p.getX() + maxEpsilon, p.getY() + maxEpsilon);
+                vertical[i] = new double[segments[i].length];
+                horizontal[i] = new double[segments[i].length];
+                for (int k = 0; k < segments[i].length; k++) {
+                    int j = segments[i][k];
+                    vertical[i][k] = dm.getPointEdgeDistance(i + 1, j);
+                    horizontal[i][k] = dm.getEdgePointDistance(i, j + 1);
+                }
+            }
+        }
+
+        public Trajectory getRepresentative() {
+            return representative;
+        }
+
+        /**
+         * Number of segments near point i at the maximum epsilon.
+         */
+        public int numSegments(int i) {
+            return segments[i].length;
+        }
+
+        /**
+         * Index of the k-th segment near point i.
+         */
+        public int segment(int i, int k) {
+            return segments[i][k];
+        }
+
+        /**
+         * Whether the k-th segment near point i would be returned by the RTree window query around point i with the
+         * given epsilon. Uses the same test as that query.
+         *
+         * @param i       index of a point of the representative, not the last
+         * @param k       position of the segment
+         * @param epsilon epsilon, at most the maximum epsilon
+         */
+        public boolean isNear(int i, int k, double epsilon) {
+            double x1 = representative.getX(i) - epsilon;
+            double y1 = representative.getY(i) - epsilon;
+            double x2 = representative.getX(i) + epsilon;
+            double y2 = representative.getY(i) + epsilon;
+
+            int j = segments[i][k];
+            return SegmentRTree.windowIntersectsLine(x1, y1, x2 - x1, y2 - y1,
+                    points.getX(j), points.getY(j), points.getX(j + 1), points.getY(j + 1));
+        }
+
+        /**
+         * Whether the vertical cell (point i + 1, k-th segment near point i) is free for the given epsilon.
+         */
+        public boolean isVerticalFree(int i, int k, double epsilon) {
+            return vertical[i][k] <= epsilon;
+        }
+
+        /**
+         * Whether the horizontal cell (segment i, end point of the k-th segment near point i) is free for the given
+         * epsilon.
+         */
+        public boolean isHorizontalFree(int i, int k, double epsilon) {
+            return horizontal[i][k] <= epsilon;
+        }
+    }
+}
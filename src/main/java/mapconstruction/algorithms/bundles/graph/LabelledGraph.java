@@ -31,7 +31,7 @@ public abstract class LabelledGraph {
     protected double epsilon;
 
     protected LabelledGraph(Trajectory concatenated, double epsilon) {
-        this.dm = new DistanceMatrix(concatenated, concatenated);
+        this.dm = new DistanceMatrix(concatenated, concatenated, epsilon);
         this.epsilon = epsilon;
     }
 
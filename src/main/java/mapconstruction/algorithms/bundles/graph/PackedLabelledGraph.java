@@ -0,0 +1,427 @@
+package mapconstruction.algorithms.bundles.graph;
+
+import java.util.Arrays;
+
+/**
+ * Compact, array-backed storage of a labelled graph on a free space diagram.
+ * <p>
+ * Replaces a {@code Table<Integer, Integer, List<LabelledEdge>>}. Vertices (cells) are grouped per x-coordinate into
+ * columns. Each column is an open-addressed hash table on the y-coordinate, and the outgoing edges of all cells in
+ * a column are stored in a single packed {@code int[]} holding (target x, target y, label, origin x, origin y) per
+ * edge. The edges of a cell form a linked list in insertion order, so iteration order equals the order in which the
+ * edges were added.
+ * <p>
+ * Edges are addressed by column-local handles, which are only valid in combination with the x-coordinate of the
+ * cell they were obtained from. No objects are allocated per cell or per edge.
+ * <p>
+ * Columns are kept in a ring buffer indexed by x-coordinate, which only grows when the span of the live columns
+ * exceeds its capacity. A graph that adds columns on the right and removes them on the left, as done by a sweep line,
+ * therefore uses memory proportional to its window rather than to the total number of columns. Removed columns are
+ * recycled.
+ */
+public class PackedLabelledGraph {
+
+    /**
+     * Handle returned when no (further) edge exists.
+     */
+    public static final int NONE = -1;
+
+    /**
+     * Ring buffer of columns, the column with x-coordinate x is stored at {@code x & (columns.length - 1)}.
+     */
+    private Column[] columns;
+
+    /**
+     * Bounds on the x-coordinates of the live columns.
+     */
+    private int minX;
+    private int maxX;
+
+    /**
+     * Last removed column, reused for the next new column.
+     */
+    private Column spare;
+
+    public PackedLabelledGraph() {
+        this.columns = new Column[16];
+        this.minX = 0;
+        this.maxX = -1;
+    }
+
+    /**
+     * Whether the cell (x, y) has been added to the graph, possibly without outgoing edges.
+     */
+    public boolean contains(int x, int y) {
+        Column column = column(x);
+        return column != null && column.find(y) >= 0;
+    }
+
+    /**
+     * Number of cells in the live columns.
+     */
+    public int numCells() {
+        int count = 0;
+        for (Column column : columns) {
+            if (column != null) {
+                count += column.size;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds the cell (x, y) to the graph, if not present yet.
+     */
+    public void addCell(int x, int y) {
+        getOrCreateColumn(x).findOrCreate(y);
+    }
+
+    /**
+     * Appends an edge from cell (x, y) to the target (tx, ty) with the given label and origin.
+     * The cell is added if not present yet.
+     */
+    public void addEdge(int x, int y, int tx, int ty, int label, int ox, int oy) {
+        getOrCreateColumn(x).addEdge(y, tx, ty, label, ox, oy);
+    }
+
+    /**
+     * Appends an edge without an origin.
+     */
+    public void addEdge(int x, int y, int tx, int ty, int label) {
+        addEdge(x, y, tx, ty, label, 0, 0);
+    }
+
+    /**
+     * Gets a handle to the first outgoing edge of (x, y), or {@link #NONE}.
+     */
+    public int firstEdge(int x, int y) {
+        Column column = column(x);
+        if (column == null) return NONE;
+        int cell = column.find(y);
+        return cell < 0 ? NONE : column.heads[cell];
+    }
+
+    /**
+     * Gets a handle to the edge following the given edge of a cell in column x, or {@link #NONE}.
+     */
+    public int nextEdge(int x, int edge) {
+        return column(x).next[edge];
+    }
+
+    /**
+     * Number of outgoing edges of (x, y).
+     */
+    public int edgeCount(int x, int y) {
+        int count = 0;
+        for (int e = firstEdge(x, y); e != NONE; e = nextEdge(x, e)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Gets a handle to the k-th outgoing edge of (x, y), or {@link #NONE}.
+     */
+    public int edge(int x, int y, int k) {
+        int e = firstEdge(x, y);
+        for (int i = 0; i < k && e != NONE; i++) {
+            e = nextEdge(x, e);
+        }
+        return e;
+    }
+
+    /**
+     * Gets a handle to the first outgoing edge of (x, y) having the smallest label, or {@link #NONE}.
+     */
+    public int minLabelEdge(int x, int y) {
+        int min = NONE;
+        for (int e = firstEdge(x, y); e != NONE; e = nextEdge(x, e)) {
+            if (min == NONE || label(x, e) < label(x, min)) {
+                min = e;
+            }
+        }
+        return min;
+    }
+
+    public int targetX(int x, int edge) {
+        return column(x).edges[Column.STRIDE * edge];
+    }
+
+    public int targetY(int x, int edge) {
+        return column(x).edges[Column.STRIDE * edge + 1];
+    }
+
+    public int label(int x, int edge) {
+        return column(x).edges[Column.STRIDE * edge + 2];
+    }
+
+    public int originX(int x, int edge) {
+        return column(x).edges[Column.STRIDE * edge + 3];
+    }
+
+    public int originY(int x, int edge) {
+        return column(x).edges[Column.STRIDE * edge + 4];
+    }
+
+    /**
+     * Marks or unmarks the cell (x, y). Marking adds the cell if not present yet, unmarking an absent cell is a no-op.
+     */
+    public void setMarked(int x, int y, boolean marked) {
+        if (marked) {
+            Column column = getOrCreateColumn(x);
+            column.marked[column.findOrCreate(y)] = true;
+        } else {
+            Column column = column(x);
+            int cell = column == null ? -1 : column.find(y);
+            if (cell >= 0) {
+                column.marked[cell] = false;
+            }
+        }
+    }
+
+    /**
+     * Visits all marked cells, in order of x-coordinate.
+     */
+    public void forEachMarked(CellVisitor visitor) {
+        for (int x = minX; x <= maxX; x++) {
+            Column column = column(x);
+            if (column == null) continue;
+            for (int cell = 0; cell < column.size; cell++) {
+                if (column.marked[cell]) {
+                    visitor.visit(x, column.ys[cell]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits all cells, in order of x-coordinate and insertion.
+     */
+    public void forEachCell(CellVisitor visitor) {
+        for (int x = minX; x <= maxX; x++) {
+            Column column = column(x);
+            if (column == null) continue;
+            for (int cell = 0; cell < column.size; cell++) {
+                visitor.visit(x, column.ys[cell]);
+            }
+        }
+    }
+
+    /**
+     * Removes all cells and edges with the given x-coordinate.
+     */
+    public void removeColumn(int x) {
+        Column column = column(x);
+        if (column == null) return;
+
+        columns[x & (columns.length - 1)] = null;
+        spare = column;
+        if (x == minX) {
+            while (minX <= maxX && column(minX) == null) {
+                minX++;
+            }
+        }
+        if (x == maxX) {
+            while (maxX >= minX && column(maxX) == null) {
+                maxX--;
+            }
+        }
+    }
+
+    /**
+     * Removes the outgoing edges of all cells with the given x-coordinate, but keeps the cells.
+     */
+    public void clearEdges(int x) {
+        Column column = column(x);
+        if (column != null) {
+            column.clearEdges();
+        }
+    }
+
+    private Column column(int x) {
+        if (x < 0) return null;
+        Column column = columns[x & (columns.length - 1)];
+        return column != null && column.x == x ? column : null;
+    }
+
+    private Column getOrCreateColumn(int x) {
+        Column column = column(x);
+        if (column != null) {
+            return column;
+        }
+        if (x < 0) {
+            throw new IndexOutOfBoundsException("Negative column " + x);
+        }
+
+        boolean empty = minX > maxX;
+        int low = empty ? x : Math.min(minX, x);
+        int high = empty ? x : Math.max(maxX, x);
+        if (high - low >= columns.length) {
+            grow(high - low + 1);
+        }
+
+        if (spare != null) {
+            column = spare;
+            spare = null;
+            column.reset(x);
+        } else {
+            column = new Column(x);
+        }
+        columns[x & (columns.length - 1)] = column;
+        minX = low;
+        maxX = high;
+        return column;
+    }
+
+    /**
+     * Grows the ring buffer such that it can hold the given span of columns.
+     */
+    private void grow(int span) {
+        int capacity = columns.length;
+        while (capacity < span) {
+            capacity *= 2;
+        }
+        Column[] grown = new Column[capacity];
+        for (Column column : columns) {
+            if (column != null) {
+                grown[column.x & (capacity - 1)] = column;
+            }
+        }
+        columns = grown;
+    }
+
+    /**
+     * Callback for visiting cells without boxing coordinates.
+     */
+    public interface CellVisitor {
+        void visit(int x, int y);
+    }
+
+    /**
+     * Single column of the graph.
+     */
+    private static final class Column {
+
+        static final int STRIDE = 5;
+
+        // x-coordinate of the column
+        int x;
+
+        // open-addressed table from y to cell index, -1 for empty slots
+        int[] slots;
+        // per cell: y-coordinate, first and last edge and mark
+        int[] ys;
+        int[] heads;
+        int[] tails;
+        boolean[] marked;
+        int size;
+
+        // packed edges and their successors
+        int[] edges;
+        int[] next;
+        int numEdges;
+
+        Column(int x) {
+            this.x = x;
+            slots = new int[8];
+            Arrays.fill(slots, -1);
+            ys = new int[4];
+            heads = new int[4];
+            tails = new int[4];
+            marked = new boolean[4];
+            edges = new int[STRIDE * 4];
+            next = new int[4];
+        }
+
+        int find(int y) {
+            int mask = slots.length - 1;
+            for (int i = hash(y) & mask; ; i = (i + 1) & mask) {
+                int cell = slots[i];
+                if (cell < 0) return -1;
+                if (ys[cell] == y) return cell;
+            }
+        }
+
+        int findOrCreate(int y) {
+            int mask = slots.length - 1;
+            int i = hash(y) & mask;
+            for (; slots[i] >= 0; i = (i + 1) & mask) {
+                if (ys[slots[i]] == y) return slots[i];
+            }
+
+            if (size == ys.length) {
+                int capacity = 2 * size;
+                ys = Arrays.copyOf(ys, capacity);
+                heads = Arrays.copyOf(heads, capacity);
+                tails = Arrays.copyOf(tails, capacity);
+                marked = Arrays.copyOf(marked, capacity);
+            }
+            int cell = size++;
+            ys[cell] = y;
+            heads[cell] = NONE;
+            tails[cell] = NONE;
+            slots[i] = cell;
+
+            // keep the load factor below 1/2
+            if (2 * size > slots.length) {
+                rehash(2 * slots.length);
+            }
+            return cell;
+        }
+
+        void addEdge(int y, int tx, int ty, int label, int ox, int oy) {
+            int cell = findOrCreate(y);
+            if (numEdges == next.length) {
+                next = Arrays.copyOf(next, 2 * numEdges);
+                edges = Arrays.copyOf(edges, STRIDE * 2 * numEdges);
+            }
+            int e = numEdges++;
+            int base = STRIDE * e;
+            edges[base] = tx;
+            edges[base + 1] = ty;
+            edges[base + 2] = label;
+            edges[base + 3] = ox;
+            edges[base + 4] = oy;
+            next[e] = NONE;
+
+            if (heads[cell] == NONE) {
+                heads[cell] = e;
+            } else {
+                next[tails[cell]] = e;
+            }
+            tails[cell] = e;
+        }
+
+        void reset(int x) {
+            this.x = x;
+            Arrays.fill(slots, -1);
+            Arrays.fill(marked, 0, size, false);
+            size = 0;
+            numEdges = 0;
+        }
+
+        void clearEdges() {
+            Arrays.fill(heads, 0, size, NONE);
+            Arrays.fill(tails, 0, size, NONE);
+            numEdges = 0;
+        }
+
+        private void rehash(int capacity) {
+            slots = new int[capacity];
+            Arrays.fill(slots, -1);
+            int mask = capacity - 1;
+            for (int cell = 0; cell < size; cell++) {
+                int i = hash(ys[cell]) & mask;
+                while (slots[i] >= 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = cell;
+            }
+        }
+
+        private static int hash(int y) {
+            int h = y * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -327,12 +327,12 @@ public class SemiWeakFDLabelledGraph extends LabelledGraph {
             // x is singleton [i,i]
             // This means y is an interval [j, j+1].
             // We compare the ith point to the jth edge
-            return dm.getPointEdgeDistance(x.lowerEndpoint(), y.lowerEndpoint()) <= epsilon;
+            return dm.isPointEdgeFree(x.lowerEndpoint(), y.lowerEndpoint(), epsilon);
         } else {
             // y is singleton [j,j]
             // This means x is an interval [i, i + 1].
             // We compare the ith edge to the jth point
-            return dm.getEdgePointDistance(x.lowerEndpoint(), y.lowerEndpoint()) <= epsilon;
+            return dm.isEdgePointFree(x.lowerEndpoint(), y.lowerEndpoint(), epsilon);
         }
 
     }
@@ -1,11 +1,10 @@
 package mapconstruction.algorithms.bundles.graph;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
-import com.google.common.collect.Table;
+import mapconstruction.algorithms.distance.SegmentRTree;
 import mapconstruction.trajectories.Trajectory;
 
+import java.awt.geom.Point2D;
 import java.util.*;
 
 /**
@@ -24,7 +23,7 @@ import java.util.*;
 public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
 
     /**
-     * 2D table representing the labelled graph.
+     * Packed 2D table representing the labelled graph.
      * <p>
      * Vertices of the graph correspond to grid-edges of the free space diagram.
      * The vertices are indexed using integers as follows
@@ -42,7 +41,7 @@ public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
      * leftmost/bottommost point of an edge. Outgoing edges are ordered from top
      * to bottom
      */
-    private final Table<Integer, Integer, List<LabelledEdge>> labelledGraph;
+    private final PackedLabelledGraph labelledGraph;
 
     /**
      * Range set containing the start og ranges where the trajectories in the
@@ -57,18 +56,29 @@ public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
      */
     private final boolean[] borderCheck;
 
+    /**
+     * Spatial index on the edges of the concatenated trajectory, mapping to the
+     * index of the edge. Used to restrict the rows visited when adding a column
+     * to those that may be free. Null if the trajectory has no edges.
+     */
+    private final SegmentRTree edgeIndex;
+
     int graphMin;
     int graphMax;
 
     public SemiWeakFDLabelledGraphIntBased(Trajectory concatenated, Set<Range<Integer>> borders, double epsilon) {
         super(concatenated, epsilon);
-        labelledGraph = HashBasedTable.create();
+        labelledGraph = new PackedLabelledGraph();
         graphMin = 0;
         graphMax = -1;
         borderCheck = new boolean[concatenated.numPoints()];
         borders.stream().mapToInt(r -> r.lowerEndpoint())
                 .filter(i -> i >= 0)
                 .forEach(i -> borderCheck[i] = true);
+
+        int[] edges = new int[concatenated.numEdges()];
+        Arrays.setAll(edges, j -> j);
+        edgeIndex = edges.length == 0 ? null : new SegmentRTree(10, concatenated.edges(), edges);
         //this.borders = borders.stream().map(r -> r.lowerEndpoint()).collect(Collectors.toCollection(() -> Sets.newHashSetWithExpectedSize(borders.size())));
     }
 
@@ -91,24 +101,19 @@ public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
         }
 
         while (low(current.x()) >= 0) {
-            List<LabelledEdge> edges = labelledGraph.get(current.x(), current.y());
+            int x = current.x();
+            int numEdges = labelledGraph.edgeCount(x, current.y());
             Vertex target = null;
 
             // Instead of picking the topmost, we pick the bottom most edge as long as possible.
             // This ensures we make the cluster curves as
             // long as possible
-            Iterator<LabelledEdge> it;
-
             int upy = up(current.y());
-            if (forbidden.stream().anyMatch(r -> r.lowerEndpoint() <= upy && upy <= r.upperEndpoint() + 1)) {
-                it = edges.iterator();
-            } else {
-                it = Lists.reverse(edges).iterator();
-            }
-            while (it.hasNext()) {
-                LabelledEdge e = it.next();
-                if (e.getLabel() <= s) {
-                    target = e.getTarget();
+            boolean topDown = forbidden.stream().anyMatch(r -> r.lowerEndpoint() <= upy && upy <= r.upperEndpoint() + 1);
+            for (int k = 0; k < numEdges; k++) {
+                int e = labelledGraph.edge(x, current.y(), topDown ? k : numEdges - 1 - k);
+                if (labelledGraph.label(x, e) <= s) {
+                    target = new Vertex(labelledGraph.targetX(x, e), labelledGraph.targetY(x, e));
                     break;
                 }
             }
@@ -239,18 +244,16 @@ public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
          */
         int i = ++graphMax;
 
-        for (int j = 0; j < getTotalNumPoints(); j++) {
+        for (int j : candidateRows(i)) {
             // Handle horizontal edges
             int x = edgeGraphCoord(i - 1);
             int y = vertexGraphCoord(j);
             if (isFree(x, y)) {
 
                 // curent cell is in free space.
-                ArrayList<LabelledEdge> edges = new ArrayList<>();
-                tryHorAddLeftEdge(x, y, edges);
-                tryHorAddBottomEdge(x, y, edges);
-
-                labelledGraph.put(x, y, edges);
+                labelledGraph.addCell(x, y);
+                tryHorAddLeftEdge(x, y);
+                tryHorAddBottomEdge(x, y);
             }
 
             if (j < getTotalNumPoints() - 1) {
@@ -258,11 +261,9 @@ public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
                 y = edgeGraphCoord(j);
                 if (isFree(x, y)) {
                     // curent cell isin free space.
-                    ArrayList<LabelledEdge> edges = new ArrayList<>();
-                    tryVertAddLeftEdge(x, y, edges);
-                    tryVertAddBottomEdge(x, y, edges);
-
-                    labelledGraph.put(x, y, edges);
+                    labelledGraph.addCell(x, y);
+                    tryVertAddLeftEdge(x, y);
+                    tryVertAddBottomEdge(x, y);
                 }
 
             }
@@ -271,89 +272,127 @@ public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
 
     }
 
-    private void tryVertAddLeftEdge(int x, int y, List<LabelledEdge> edges) {
+    /**
+     * Gets, in ascending order, the rows j that may contain a free cell in
+     * column i. That is, a free horizontal grid edge (i - 1, j) or a free
+     * vertical grid edge (i, j).
+     * <p>
+     * Both require point j or edge j to be within distance epsilon of the
+     * edge from point i - 1 to point i, hence edge j - 1 or edge j intersects
+     * the bounding box of that edge, extended by epsilon.
+     *
+     * @param i column
+     * @return superset of the rows containing a free cell in column i
+     */
+    int[] candidateRows(int i) {
+        int n = getTotalNumPoints();
+        if (edgeIndex == null || i < 0 || i >= n) {
+            // Nothing to prune with, visit all rows.
+            int[] rows = new int[n];
+            for (int j = 0; j < n; j++) {
+                rows[j] = j;
+            }
+            return rows;
+        }
+
+        Point2D p = dm.getT1().getPoint(i);
+        Point2D q = i > 0 ? dm.getT1().getPoint(i - 1) : p;
+        // small slack to be robust against rounding in the distance computations
+        double r = epsilon + 1e-9 * (1 + epsilon);
+        int[] edges = edgeIndex.windowQuery(
+                Math.min(p.getX(), q.getX()) - r, Math.min(p.getY(), q.getY()) - r,
+                Math.max(p.getX(), q.getX()) + r, Math.max(p.getY(), q.getY()) + r);
+
+        // edges are ascending, so rows j and j + 1 are merged in a single pass
+        int[] rows = new int[2 * edges.length];
+        int size = 0;
+        for (int j : edges) {
+            if (size == 0 || rows[size - 1] != j) {
+                rows[size++] = j;
+            }
+            rows[size++] = j + 1;
+        }
+        return Arrays.copyOf(rows, size);
+    }
+
+    private void tryVertAddLeftEdge(int x, int y) {
 
         // Target
         Vertex target = verticalGridEdge(low(x) - 1, low(y));
         // Make sure we do not cross boundary, and target must be free
         if (!crossesBorder(edgeGraphCoord(low(x) - 1)) && isFree(target)) {
-            edges.add(createEdgeToVertical(new Vertex(x, y), target));
+            addEdgeToVertical(x, y, target);
         }
     }
 
-    private void tryVertAddBottomEdge(int x, int y, List<LabelledEdge> edges) {
+    private void tryVertAddBottomEdge(int x, int y) {
         // Target
         Vertex target = horizontalGridEdge(low(x) - 1, low(y));
 
         // Make sure we do not cross boundary, and target must be free
         if (isFree(target)) {
-            Optional<LabelledEdge> opt = createEdgeToHorizontal(new Vertex(x, y), target);
-
-            if (opt.isPresent()) {
-                edges.add(opt.get());
-            }
+            addEdgeToHorizontal(x, y, target);
         }
     }
 
-    private void tryHorAddLeftEdge(int x, int y, List<LabelledEdge> edges) {
+    private void tryHorAddLeftEdge(int x, int y) {
         // Target
         Vertex target = verticalGridEdge(low(x), low(y) - 1);
 
         // Make sure we do not cross boundary, and target must be free
         if (isFree(target)) {
-            edges.add(createEdgeToVertical(new Vertex(x, y), target));
+            addEdgeToVertical(x, y, target);
         }
     }
 
-    private void tryHorAddBottomEdge(int x, int y, List<LabelledEdge> edges) {
+    private void tryHorAddBottomEdge(int x, int y) {
         // Target
 
         Vertex target = horizontalGridEdge(low(x), low(y) - 1);
 
         // Make sure we do not cross boundary, and target must be free
         if (!crossesBorder(edgeGraphCoord(low(y) - 1)) && isFree(target)) {
-            Optional<LabelledEdge> opt = createEdgeToHorizontal(new Vertex(x, y), target);
-
-            if (opt.isPresent()) {
-                edges.add(opt.get());
-            }
+            addEdgeToHorizontal(x, y, target);
         }
     }
 
     /**
-     * Creates a labelled edge from source to target, where target is a vertex
+     * Smallest label of the outgoing edges of the given vertex, or {@code Integer.MAX_VALUE} if it has none.
+     */
+    private int minLabel(Vertex v) {
+        int e = labelledGraph.minLabelEdge(v.x(), v.y());
+        return e == PackedLabelledGraph.NONE ? Integer.MAX_VALUE : labelledGraph.label(v.x(), e);
+    }
+
+    /**
+     * Adds a labelled edge from (x, y) to target, where target is a vertex
      * representing a vertical grid edge.
      */
-    private LabelledEdge createEdgeToVertical(Vertex source, Vertex target) {
-        // get edges of target
-        List<LabelledEdge> tedges = labelledGraph.get(target.x(), target.y());
-        // find smallest label
-        int label = tedges.stream()
-                .mapToInt(LabelledEdge::getLabel) // get all labels of outgoin edges
-                .min() // find maximum
-                .orElse(low(target.x())); // x coord of target if it has no outgoing edges
-
-        return new LabelledEdge(source, target, label);
+    private void addEdgeToVertical(int x, int y, Vertex target) {
+        // find smallest label of the outgoing edges of target,
+        // x coord of target if it has no outgoing edges
+        int label = minLabel(target);
+        if (label == Integer.MAX_VALUE) {
+            label = low(target.x());
+        }
+
+        labelledGraph.addEdge(x, y, target.x(), target.y(), label);
     }
 
     /**
-     * Creates a labelled edge from source to target, where target is a vertex
+     * Adds a labelled edge from (x, y) to target, where target is a vertex
      * representing a horizontal grid edge.
      */
-    private Optional<LabelledEdge> createEdgeToHorizontal(Vertex source, Vertex target) {
-        // get edges of target
-        List<LabelledEdge> tedges = labelledGraph.get(target.x(), target.y());
-        // find smallest label
-        OptionalInt label = tedges.stream()
-                .mapToInt(LabelledEdge::getLabel) // get all labels of outgoin edges
-                .min(); // find minimum
-
-        if (!label.isPresent()) {
+    private void addEdgeToHorizontal(int x, int y, Vertex target) {
+        // find smallest label of the outgoing edges of target
+        int label = minLabel(target);
+
+        if (label == Integer.MAX_VALUE) {
             // target has no outgoing edges. Do not add edge to prevent getting stuck
-            return Optional.empty();
+            return;
         }
 
-        return Optional.of(new LabelledEdge(source, target, label.getAsInt()));
+        labelledGraph.addEdge(x, y, target.x(), target.y(), label);
     }
 
     @Override
@@ -365,9 +404,9 @@ public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
 
         int min = graphMin++;
         // Remove vertical
-        labelledGraph.row(vertexGraphCoord(min)).clear();
+        labelledGraph.removeColumn(vertexGraphCoord(min));
         // Remove horizontal
-        labelledGraph.row(edgeGraphCoord(min - 1)).clear();
+        labelledGraph.removeColumn(edgeGraphCoord(min - 1));
 
     }
 
@@ -402,12 +441,12 @@ public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
             // x is singleton [i,i]
             // This means y is an interval [j, j+1].
             // We compare the ith point to the jth edge
-            return dm.getPointEdgeDistance(low(x), low(y)) <= epsilon;
+            return dm.isPointEdgeFree(low(x), low(y), epsilon);
         } else {
             // y is singleton [j,j]
             // This means x is an interval [i, i + 1].
             // We compare the ith edge to the jth point
-            return dm.getEdgePointDistance(low(x), low(y)) <= epsilon;
+            return dm.isEdgePointFree(low(x), low(y), epsilon);
         }
 
     }
@@ -467,44 +506,4 @@ public class SemiWeakFDLabelledGraphIntBased extends LabelledGraph {
 
     }
 
-    /**
-     * Helper class representing a n edge in the labelled graph.
-     */
-    private static class LabelledEdge {
-
-        private final Vertex source;
-        private final Vertex target;
-        private final int label;
-
-        public LabelledEdge(Vertex source, Vertex target, int label) {
-            this.source = source;
-            this.target = target;
-            this.label = label;
-        }
-
-        public LabelledEdge(int si, int sj, int ti, int tj, int label) {
-            this.source = new Vertex(si, sj);
-            this.target = new Vertex(ti, tj);
-            this.label = label;
-        }
-
-        public Vertex getSource() {
-            return source;
-        }
-
-        public Vertex getTarget() {
-            return target;
-        }
-
-        public int getLabel() {
-            return label;
-        }
-
-        @Override
-        public String toString() {
-            return "LabelledEdge{" + "source=" + source + ", target=" + target + ", label=" + label + '}';
-        }
-
-    }
-
 }
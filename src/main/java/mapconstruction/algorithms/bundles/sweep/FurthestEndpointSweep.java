@@ -16,6 +16,12 @@ public class FurthestEndpointSweep extends KLSweepline {
     private SortedSet<Event> eventQueue;
     private double lambda;
 
+    /**
+     * Number of bundles created and lambda-subbundle checks done, for benchmarking.
+     */
+    private long bundlesCreated;
+    private long lambdaChecks;
+
     public FurthestEndpointSweep(GeneratingSemiWeakFDLabelledGraph freeSpace, double lambda) {
         super(freeSpace);
         this.lambda = lambda;
@@ -26,6 +32,9 @@ public class FurthestEndpointSweep extends KLSweepline {
         // generate free space and extract events
         Benchmark.push("freespace");
         freeSpace.addColumn();
+        if (Benchmark.isEnabled()) {
+            Benchmark.count("free space cells", freeSpace.numCells());
+        }
         Benchmark.split("collect");
         eventQueue = freeSpace.collectEvents();
         Benchmark.pop();
@@ -36,6 +45,7 @@ public class FurthestEndpointSweep extends KLSweepline {
         Map<Trajectory, Edge> status = new HashMap<>();
         TreeSet<Edge> edges = new TreeSet<>();
         Set<Bundle> results = new HashSet<>();
+        ResultIndex index = new ResultIndex();
 
         int high = -1;
         for (Event e : eventQueue) {
@@ -67,7 +77,7 @@ public class FurthestEndpointSweep extends KLSweepline {
                             // create bundle
                             Bundle b = makeBundle(representative, partialBundle, low, e.t.x());
                             // add bundle and update results
-                            updateBundles(results, b);
+                            updateBundles(results, index, b);
 
                             low = current.sx();
                         }
@@ -77,7 +87,7 @@ public class FurthestEndpointSweep extends KLSweepline {
                     // create bundle
                     Bundle b = makeBundle(representative, partialBundle, low, e.t.x());
                     // update
-                    updateBundles(results, b);
+                    updateBundles(results, index, b);
 
                     high = e.t.x();
                 }
@@ -85,6 +95,8 @@ public class FurthestEndpointSweep extends KLSweepline {
                 edges.remove(new Edge(e.s, e.t));
             }
         }
+        Benchmark.count("bundles created", bundlesCreated);
+        Benchmark.count("lambda checks", lambdaChecks);
         return results;
     }
 
@@ -107,6 +119,7 @@ public class FurthestEndpointSweep extends KLSweepline {
                 }
             }
         }
+        bundlesCreated++;
         return new UndirectionalBundle(candidates.values(), new Subtrajectory(representative, s, t));
     }
 
@@ -114,17 +127,115 @@ public class FurthestEndpointSweep extends KLSweepline {
      * Update the set of resulting bundles by adding b if there is no bundle overlapping b already present.
      * When b is added, any bundles overlapped by b are removed from the set.
      * In this instance we take 'overlap' somewhat loosely and also look at lambda-subbundles.
+     * <p>
+     * The index must contain exactly the bundles in the results, and is used to only check bundles that share
+     * trajectories with b.
      */
-    private void updateBundles(Set<Bundle> results, Bundle b) {
+    private void updateBundles(Set<Bundle> results, ResultIndex index, Bundle b) {
         // TODO check correctness of lambda-subbundles. Used to be c.covers(b) and b.covers(r).
         if (b.size() >= kMin) {
-            Optional<Bundle> b2 = results.stream().filter(c -> c.hasAsLambdaSubBundle(b, lambda)).findFirst();
-            if (!b2.isPresent()) {
+            boolean covered = index.candidateSuperBundles(b).stream().anyMatch(c -> isLambdaSubBundle(c, b));
+            if (!covered) {
                 // remove all bundles covered by 'b'
-                results.stream().filter(r -> b.hasAsLambdaSubBundle(r, lambda)).collect(Collectors.toList()).forEach(results::remove);
+                List<Bundle> subBundles = index.candidateSubBundles(b).stream().filter(r -> isLambdaSubBundle(b, r)).collect(Collectors.toList());
+                for (Bundle r : subBundles) {
+                    results.remove(r);
+                    index.remove(r);
+                }
                 // add b to the result set
                 results.add(b);
+                index.add(b);
+            }
+        }
+    }
+
+    /**
+     * Whether b is a lambda-subbundle of c.
+     */
+    private boolean isLambdaSubBundle(Bundle c, Bundle b) {
+        lambdaChecks++;
+        return c.hasAsLambdaSubBundle(b, lambda);
+    }
+
+    /**
+     * Index on the bundles of the result set by the trajectories they contain.
+     * <p>
+     * A lambda-subbundle r of c has, for each of its subtrajectories, a subtrajectory of c on the same trajectory,
+     * and is at most as large. Hence bundles that may contain a bundle b must contain each trajectory of b, and bundles
+     * that may be contained in b must have their first trajectory in b.
+     */
+    private static class ResultIndex {
+
+        /**
+         * Bundles per undirectional trajectory label.
+         */
+        private final Map<String, Set<Bundle>> byLabel = new HashMap<>();
+
+        /**
+         * Bundles per undirectional label of their first subtrajectory.
+         */
+        private final Map<String, Set<Bundle>> byKey = new HashMap<>();
+
+        void add(Bundle b) {
+            for (String label : labels(b)) {
+                byLabel.computeIfAbsent(label, l -> new HashSet<>()).add(b);
             }
+            byKey.computeIfAbsent(key(b), l -> new HashSet<>()).add(b);
+        }
+
+        void remove(Bundle b) {
+            for (String label : labels(b)) {
+                Set<Bundle> bundles = byLabel.get(label);
+                bundles.remove(b);
+                if (bundles.isEmpty()) byLabel.remove(label);
+            }
+            Set<Bundle> bundles = byKey.get(key(b));
+            bundles.remove(b);
+            if (bundles.isEmpty()) byKey.remove(key(b));
+        }
+
+        /**
+         * Bundles that are at least as large as b and contain the trajectory of b occurring in the fewest bundles.
+         */
+        List<Bundle> candidateSuperBundles(Bundle b) {
+            Set<Bundle> rarest = null;
+            for (String label : labels(b)) {
+                Set<Bundle> bundles = byLabel.getOrDefault(label, Collections.emptySet());
+                if (rarest == null || bundles.size() < rarest.size()) {
+                    rarest = bundles;
+                }
+            }
+            if (rarest == null) {
+                return Collections.emptyList();
+            }
+            return rarest.stream().filter(c -> c.size() >= b.size()).collect(Collectors.toList());
+        }
+
+        /**
+         * Bundles that are at most as large as b and whose first trajectory is in b.
+         */
+        List<Bundle> candidateSubBundles(Bundle b) {
+            List<Bundle> candidates = new ArrayList<>();
+            for (String label : labels(b)) {
+                for (Bundle r : byKey.getOrDefault(label, Collections.emptySet())) {
+                    if (r.size() <= b.size()) {
+                        candidates.add(r);
+                    }
+                }
+            }
+            return candidates;
+        }
+
+        private static Set<String> labels(Bundle b) {
+            Set<String> labels = new HashSet<>();
+            for (Subtrajectory sub : b.getSubtrajectories()) {
+                labels.add(sub.getParent().getUndirectionalLabel());
+            }
+            return labels;
+        }
+
+        private static String key(Bundle b) {
+            return b.getSubtrajectories().iterator().next().getParent().getUndirectionalLabel();
         }
     }
 
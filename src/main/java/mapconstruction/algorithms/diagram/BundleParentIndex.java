@@ -0,0 +1,88 @@
+package mapconstruction.algorithms.diagram;
+
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.Subtrajectory;
+import mapconstruction.trajectories.Trajectory;
+
+import java.util.*;
+
+/**
+ * Index on a fixed sequence of bundles by the parent trajectories of their subtrajectories.
+ * <p>
+ * Both (lambda-)subbundle checks require every subtrajectory of the subbundle to have the same parent as some
+ * subtrajectory of the superbundle, or its reverse when direction is ignored. The index therefore returns a superset
+ * of the bundles that can be in such a relation, identified by their position in the sequence, so callers can visit
+ * them in the original order.
+ */
+class BundleParentIndex {
+
+    /**
+     * Indexed bundles, in order.
+     */
+    private final List<Bundle> bundles;
+
+    /**
+     * Positions of the bundles per parent trajectory, in ascending order.
+     */
+    private final Map<Trajectory, List<Integer>> byParent;
+
+    /**
+     * Positions of the bundles without subtrajectories, which are candidates for every query.
+     */
+    private final List<Integer> empty;
+
+    /**
+     * Builds the index.
+     *
+     * @param bundles   bundles to index, in order
+     * @param firstOnly whether to index a bundle only by the parent of one of its subtrajectories, which suffices
+     *                  when queries are done with all subtrajectories of the other bundle.
+     */
+    BundleParentIndex(Collection<Bundle> bundles, boolean firstOnly) {
+        this.bundles = new ArrayList<>(bundles);
+        this.byParent = new HashMap<>();
+        this.empty = new ArrayList<>();
+        for (int k = 0; k < this.bundles.size(); k++) {
+            Set<Subtrajectory> subs = this.bundles.get(k).getSubtrajectories();
+            if (subs.isEmpty()) {
+                empty.add(k);
+            }
+            for (Subtrajectory sub : subs) {
+                List<Integer> positions = byParent.computeIfAbsent(sub.getParent(), p -> new ArrayList<>());
+                if (positions.isEmpty() || positions.get(positions.size() - 1) != k) {
+                    positions.add(k);
+                }
+                if (firstOnly) break;
+            }
+        }
+    }
+
+    /**
+     * Gets the bundle at the given position.
+     */
+    Bundle get(int position) {
+        return bundles.get(position);
+    }
+
+    /**
+     * Gets the positions of the bundles having a subtrajectory whose parent equals the parent of one of the given
+     * subtrajectories or its reverse. If no subtrajectories are given, all positions are returned, as every bundle
+     * has an empty bundle as subbundle.
+     *
+     * @param subtrajectories subtrajectories to look up
+     * @return distinct positions, in ascending order
+     */
+    int[] candidates(Collection<Subtrajectory> subtrajectories) {
+        BitSet found = new BitSet(bundles.size());
+        if (subtrajectories.isEmpty()) {
+            found.set(0, bundles.size());
+        }
+        empty.forEach(found::set);
+        for (Subtrajectory sub : subtrajectories) {
+            Trajectory parent = sub.getParent();
+            byParent.getOrDefault(parent, Collections.emptyList()).forEach(found::set);
+            byParent.getOrDefault(parent.reverse(), Collections.emptyList()).forEach(found::set);
+        }
+        return found.stream().toArray();
+    }
+}
@@ -0,0 +1,404 @@
+package mapconstruction.algorithms.diagram;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import mapconstruction.log.Log;
+import mapconstruction.log.LogLevel;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Subtrajectory;
+import mapconstruction.trajectories.Trajectory;
+import mapconstruction.trajectories.UndirectionalBundle;
+
+import java.awt.geom.Point2D;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Cache of the bundles and merges generated for an epsilon level, keyed by the trajectories, epsilon, lambda and
+ * whether direction is ignored.
+ * <p>
+ * Epsilon and lambda are rounded to {@link #KEY_RESOLUTION}, so levels computed through different arithmetic share
+ * an entry. The trajectories are identified by a fingerprint of their labels and points, but not their ids, so a
+ * dataset loaded again with the same preprocessing hits the same entries.
+ * <p>
+ * Entries store the subtrajectories of the bundles by the index of their parent in the list of trajectories, and are
+ * rebuilt against the trajectories of the run on each hit. The memory tier evicts the least recently used entries
+ * once the total number of stored subtrajectories exceeds the maximum weight. The optional disk tier keeps every
+ * entry as a file in the given directory.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class BundleResultCache {
+
+    /**
+     * Default maximum number of subtrajectories kept in memory.
+     */
+    public static final long DEFAULT_MAX_WEIGHT = 2_000_000;
+
+    /**
+     * Resolution of epsilon and lambda in the keys.
+     */
+    public static final double KEY_RESOLUTION = 1e-6;
+
+    /**
+     * Version of the file format of the disk tier, files with another version are ignored.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String LOGTAG = "BundleCache";
+
+    private final Cache<Key, Level> memory;
+
+    /**
+     * Directory of the disk tier, null if there is none.
+     */
+    private final File directory;
+
+    /**
+     * Creates a cache without disk tier.
+     *
+     * @param maxWeight maximum number of subtrajectories kept in memory
+     */
+    public BundleResultCache(long maxWeight) {
+        this(maxWeight, null);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxWeight maximum number of subtrajectories kept in memory
+     * @param directory directory of the disk tier, created if absent, or null to keep entries in memory only.
+     * @throws IllegalArgumentException if {@code maxWeight < 0}
+     */
+    public BundleResultCache(long maxWeight, File directory) {
+        Preconditions.checkArgument(maxWeight >= 0, "maxWeight < 0");
+        this.memory = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((Key key, Level level) -> level.weight())
+                .build();
+        this.directory = directory;
+    }
+
+    /**
+     * Computes the fingerprint identifying the given trajectories, in order. Only the labels given to the trajectories
+     * are used, not the labels made up from their ids.
+     */
+    public static long fingerprint(List<Trajectory> trajectories) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(trajectories.size());
+        for (Trajectory t : trajectories) {
+            String label = t instanceof FullTrajectory ? ((FullTrajectory) t).getRawLabel() : null;
+            hasher.putBoolean(label != null);
+            if (label != null) {
+                hasher.putUnencodedChars(label);
+            }
+            hasher.putInt(t.numPoints());
+            for (Point2D p : t.points()) {
+                hasher.putDouble(p.getX());
+                hasher.putDouble(p.getY());
+            }
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * Gets the bundles and merges of a level, if cached.
+     *
+     * @param fingerprint     fingerprint of the trajectories
+     * @param trajectories    trajectories of the run
+     * @param epsilon         epsilon of the level
+     * @param lambda          lambda of the level
+     * @param ignoreDirection whether direction is ignored
+     * @return new bundles equal to the cached ones, in the original order, and a new mutable map of merges, or
+     * null if the level is not cached.
+     */
+    Result get(long fingerprint, List<Trajectory> trajectories, double epsilon, double lambda, boolean ignoreDirection) {
+        Key key = new Key(fingerprint, epsilon, lambda, ignoreDirection);
+        Level level = memory.getIfPresent(key);
+        if (level == null && directory != null) {
+            level = read(key);
+            if (level != null) {
+                memory.put(key, level);
+            }
+        }
+        return level == null ? null : level.decode(trajectories);
+    }
+
+    /**
+     * Stores the bundles and merges of a level. Levels with bundles that cannot be rebuilt from the trajectories are
+     * not stored.
+     *
+     * @param fingerprint     fingerprint of the trajectories
+     * @param trajectories    trajectories of the run
+     * @param epsilon         epsilon of the level
+     * @param lambda          lambda of the level
+     * @param ignoreDirection whether direction is ignored
+     * @param bundles         bundles of the level
+     * @param merges          merges of the level
+     */
+    void put(long fingerprint, List<Trajectory> trajectories, double epsilon, double lambda, boolean ignoreDirection, Set<Bundle> bundles, Map<Bundle, Bundle> merges) {
+        Level level = Level.encode(trajectories, bundles, merges);
+        if (level == null) {
+            Log.log(LogLevel.WARNING, LOGTAG, "Cannot cache the bundles for eps=%.2f", epsilon);
+            return;
+        }
+        Key key = new Key(fingerprint, epsilon, lambda, ignoreDirection);
+        memory.put(key, level);
+        if (directory != null) {
+            write(key, level);
+        }
+    }
+
+    /**
+     * Removes all entries from memory. Entries on disk are kept.
+     */
+    public void clear() {
+        memory.invalidateAll();
+    }
+
+    private File file(Key key) {
+        return new File(directory, String.format("%016x_%d_%d_%s.bcache", key.fingerprint, key.epsilon, key.lambda, key.ignoreDirection ? "u" : "d"));
+    }
+
+    private Level read(Key key) {
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            return (Level) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            Log.log(LogLevel.WARNING, LOGTAG, "Failed to read cached bundles %s: %s", file, ex.toString());
+            return null;
+        }
+    }
+
+    private void write(Key key, Level level) {
+        File file = file(key);
+        try {
+            Files.createDirectories(directory.toPath());
+            // write to a temporary file first, so readers never see a partial entry
+            File tmp = File.createTempFile("bundles", ".tmp", directory);
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeObject(level);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Log.log(LogLevel.WARNING, LOGTAG, "Failed to write cached bundles %s: %s", file, ex.toString());
+        }
+    }
+
+    /**
+     * Key of an epsilon level, with epsilon and lambda rounded to the key resolution.
+     */
+    private static final class Key {
+        final long fingerprint;
+        final long epsilon;
+        final long lambda;
+        final boolean ignoreDirection;
+
+        Key(long fingerprint, double epsilon, double lambda, boolean ignoreDirection) {
+            this.fingerprint = fingerprint;
+            this.epsilon = Math.round(epsilon / KEY_RESOLUTION);
+            this.lambda = Math.round(lambda / KEY_RESOLUTION);
+            this.ignoreDirection = ignoreDirection;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fingerprint, epsilon, lambda, ignoreDirection);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return fingerprint == other.fingerprint && epsilon == other.epsilon && lambda == other.lambda && ignoreDirection == other.ignoreDirection;
+        }
+    }
+
+    /**
+     * Bundles and merges of a level, with the subtrajectories stored by the index of their parent.
+     * <p>
+     * The first {@code numResults} bundles are the result of the level, in order, the others only occur in merges.
+     * The subtrajectories of bundle b are stored from {@code offsets[b]} to {@code offsets[b + 1]}, starting with
+     * the representative if the bundle has one.
+     */
+    private static final class Level implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final byte BUNDLE = 0;
+        private static final byte UNDIRECTIONAL = 1;
+        private static final byte UNDIRECTIONAL_WITH_REPRESENTATIVE = 2;
+        private static final byte BUNDLE_WITH_REPRESENTATIVE = 3;
+
+        private final int numResults;
+        private final byte[] kinds;
+        private final int[] offsets;
+
+        /**
+         * Per subtrajectory, twice the index of its parent, plus one if the parent is reversed.
+         */
+        private final int[] parents;
+        private final double[] from;
+        private final double[] to;
+
+        private final int[] mergedFrom;
+        private final int[] mergedInto;
+
+        private Level(int numResults, byte[] kinds, int[] offsets, int[] parents, double[] from, double[] to, int[] mergedFrom, int[] mergedInto) {
+            this.numResults = numResults;
+            this.kinds = kinds;
+            this.offsets = offsets;
+            this.parents = parents;
+            this.from = from;
+            this.to = to;
+            this.mergedFrom = mergedFrom;
+            this.mergedInto = mergedInto;
+        }
+
+        int weight() {
+            return parents.length + kinds.length;
+        }
+
+        /**
+         * Encodes the given level, or returns null if a bundle has an unknown type or a subtrajectory whose parent is
+         * neither one of the trajectories nor its reverse.
+         */
+        static Level encode(List<Trajectory> trajectories, Set<Bundle> bundles, Map<Bundle, Bundle> merges) {
+            Map<Trajectory, Integer> parentIds = new HashMap<>();
+            for (int k = trajectories.size() - 1; k >= 0; k--) {
+                parentIds.put(trajectories.get(k), 2 * k);
+                parentIds.put(trajectories.get(k).reverse(), 2 * k + 1);
+            }
+
+            // number the bundles, results first
+            Map<Bundle, Integer> numbers = new IdentityHashMap<>();
+            List<Bundle> table = new ArrayList<>(bundles);
+            for (int k = 0; k < table.size(); k++) {
+                numbers.put(table.get(k), k);
+            }
+            int[] mergedFrom = new int[merges.size()];
+            int[] mergedInto = new int[merges.size()];
+            int m = 0;
+            for (Map.Entry<Bundle, Bundle> merge : merges.entrySet()) {
+                mergedFrom[m] = numbers.computeIfAbsent(merge.getKey(), b -> { table.add(b); return table.size() - 1; });
+                mergedInto[m] = numbers.computeIfAbsent(merge.getValue(), b -> { table.add(b); return table.size() - 1; });
+                m++;
+            }
+
+            byte[] kinds = new byte[table.size()];
+            int[] offsets = new int[table.size() + 1];
+            List<Subtrajectory> subs = new ArrayList<>();
+            for (int k = 0; k < table.size(); k++) {
+                Bundle b = table.get(k);
+                Subtrajectory representative = b.getOriginalRepresentative();
+                if (b.getClass() == UndirectionalBundle.class) {
+                    kinds[k] = representative == null ? UNDIRECTIONAL : UNDIRECTIONAL_WITH_REPRESENTATIVE;
+                } else if (b.getClass() == Bundle.class) {
+                    kinds[k] = representative == null ? BUNDLE : BUNDLE_WITH_REPRESENTATIVE;
+                } else {
+                    return null;
+                }
+                if (representative != null) {
+                    subs.add(representative);
+                }
+                subs.addAll(b.getSubtrajectories());
+                offsets[k + 1] = subs.size();
+            }
+
+            int[] parents = new int[subs.size()];
+            double[] from = new double[subs.size()];
+            double[] to = new double[subs.size()];
+            for (int k = 0; k < subs.size(); k++) {
+                Integer parent = parentIds.get(subs.get(k).getParent());
+                if (parent == null) {
+                    return null;
+                }
+                parents[k] = parent;
+                from[k] = subs.get(k).getFromIndex();
+                to[k] = subs.get(k).getToIndex();
+            }
+            return new Level(bundles.size(), kinds, offsets, parents, from, to, mergedFrom, mergedInto);
+        }
+
+        /**
+         * Rebuilds the bundles and merges against the given trajectories.
+         */
+        Result decode(List<Trajectory> trajectories) {
+            Trajectory[] reverses = new Trajectory[trajectories.size()];
+            Bundle[] table = new Bundle[kinds.length];
+            for (int b = 0; b < kinds.length; b++) {
+                boolean hasRepresentative = kinds[b] == UNDIRECTIONAL_WITH_REPRESENTATIVE || kinds[b] == BUNDLE_WITH_REPRESENTATIVE;
+                Subtrajectory representative = null;
+                List<Subtrajectory> subs = new ArrayList<>(offsets[b + 1] - offsets[b]);
+                for (int k = offsets[b]; k < offsets[b + 1]; k++) {
+                    int index = parents[k] / 2;
+                    Trajectory parent = trajectories.get(index);
+                    if (parents[k] % 2 == 1) {
+                        if (reverses[index] == null) {
+                            reverses[index] = parent.reverse();
+                        }
+                        parent = reverses[index];
+                    }
+                    Subtrajectory sub = new Subtrajectory(parent, from[k], to[k]);
+                    if (hasRepresentative && k == offsets[b]) {
+                        representative = sub;
+                    } else {
+                        subs.add(sub);
+                    }
+                }
+                if (kinds[b] == UNDIRECTIONAL || kinds[b] == UNDIRECTIONAL_WITH_REPRESENTATIVE) {
+                    table[b] = UndirectionalBundle.create(subs, representative);
+                } else {
+                    table[b] = Bundle.create(subs, representative);
+                }
+            }
+
+            Set<Bundle> bundles = new LinkedHashSet<>(Arrays.asList(table).subList(0, numResults));
+            Map<Bundle, Bundle> merges = new LinkedHashMap<>();
+            for (int m = 0; m < mergedFrom.length; m++) {
+                merges.put(table[mergedFrom[m]], table[mergedInto[m]]);
+            }
+            return new Result(bundles, merges);
+        }
+    }
+
+    /**
+     * Bundles and merges of a level, as returned by the cache.
+     */
+    static final class Result {
+
+        private final Set<Bundle> bundles;
+        private final Map<Bundle, Bundle> merges;
+
+        private Result(Set<Bundle> bundles, Map<Bundle, Bundle> merges) {
+            this.bundles = bundles;
+            this.merges = merges;
+        }
+
+        Set<Bundle> getBundles() {
+            return bundles;
+        }
+
+        Map<Bundle, Bundle> getMerges() {
+            return merges;
+        }
+    }
+}
@@ -4,8 +4,13 @@ import com.google.common.collect.*;
 import mapconstruction.GUI.filter.TriPredicate;
 import mapconstruction.attributes.BundleAttribute;
 import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.TrajectoryTable;
+import mapconstruction.util.BinaryUtil;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
@@ -459,4 +464,106 @@ public class EvolutionDiagram implements Serializable {
         return Collections.unmodifiableSet(birthMoments.keySet());
     }
 
+    /**
+     * Writes the diagram in binary form, with the bundles of all states as ids in the given table.
+     * The bundles are added to the table, which must be written before the diagram.
+     *
+     * @param out   output to write to
+     * @param table table of the bundles
+     * @throws IOException if writing fails.
+     */
+    public void write(DataOutput out, TrajectoryTable table) throws IOException {
+        out.writeInt(states.size());
+        for (Entry<Double, DiagramState> entry : states.entrySet()) {
+            DiagramState state = entry.getValue();
+            out.writeDouble(entry.getKey());
+
+            out.writeInt(state.getBundleClasses().size());
+            for (Bundle b : state.getBundleClasses().keySet()) {
+                out.writeInt(table.indexOf(b));
+            }
+            for (int bundleClass : state.getBundleClasses().values()) {
+                out.writeInt(bundleClass);
+            }
+            out.writeInt(state.getBirths().size());
+            for (int bundleClass : state.getBirths()) {
+                out.writeInt(bundleClass);
+            }
+            out.writeInt(state.getMerges().size());
+            for (Entry<Integer, Integer> merge : state.getMerges().entrySet()) {
+                out.writeInt(merge.getKey());
+                out.writeInt(merge.getValue());
+            }
+        }
+        writeMoments(out, birthMoments);
+        writeMoments(out, mergeMoments);
+    }
+
+    /**
+     * Adds the bundles of all states to the given table, in the order they are written by
+     * {@link #write(DataOutput, TrajectoryTable)}.
+     *
+     * @param table table to add the bundles to
+     */
+    public void addBundlesTo(TrajectoryTable table) {
+        for (DiagramState state : states.values()) {
+            state.getBundleClasses().keySet().forEach(table::add);
+        }
+    }
+
+    /**
+     * Reads a diagram written by {@link #write(DataOutput, TrajectoryTable)}.
+     *
+     * @param in    buffer positioned at the start of the diagram
+     * @param table table containing the bundles of the diagram
+     * @return the diagram
+     */
+    public static EvolutionDiagram read(ByteBuffer in, TrajectoryTable table) {
+        EvolutionDiagram diagram = new EvolutionDiagram();
+        int numStates = in.getInt();
+        for (int s = 0; s < numStates; s++) {
+            double epsilon = in.getDouble();
+
+            int n = in.getInt();
+            int[] bundles = BinaryUtil.readInts(in, n);
+            int[] classes = BinaryUtil.readInts(in, n);
+            BiMap<Bundle, Integer> bundleClasses = HashBiMap.create(n);
+            for (int k = 0; k < n; k++) {
+                bundleClasses.put(table.getBundle(bundles[k]), classes[k]);
+            }
+            Set<Integer> births = new HashSet<>();
+            for (int bundleClass : BinaryUtil.readInts(in, in.getInt())) {
+                births.add(bundleClass);
+            }
+            int[] merged = BinaryUtil.readInts(in, 2 * in.getInt());
+            Map<Integer, Integer> merges = new HashMap<>();
+            for (int k = 0; k < merged.length; k += 2) {
+                merges.put(merged[k], merged[k + 1]);
+            }
+            diagram.addState(epsilon, new DiagramState(bundleClasses, births, merges));
+        }
+        readMoments(in, diagram.birthMoments);
+        readMoments(in, diagram.mergeMoments);
+        return diagram;
+    }
+
+    private static void writeMoments(DataOutput out, Map<Integer, Double> moments) throws IOException {
+        out.writeInt(moments.size());
+        for (int bundleClass : moments.keySet()) {
+            out.writeInt(bundleClass);
+        }
+        for (double epsilon : moments.values()) {
+            out.writeDouble(epsilon);
+        }
+    }
+
+    private static void readMoments(ByteBuffer in, Map<Integer, Double> moments) {
+        int n = in.getInt();
+        int[] classes = BinaryUtil.readInts(in, n);
+        double[] epsilons = BinaryUtil.readDoubles(in, n);
+        for (int k = 0; k < n; k++) {
+            moments.put(classes[k], epsilons[k]);
+        }
+    }
+
 }
@@ -5,10 +5,10 @@ import com.google.common.collect.HashBiMap;
 import mapconstruction.algorithms.AbstractTrajectoryAlgorithm;
 import mapconstruction.algorithms.bundles.BundleGenerationAlgorithm;
 import mapconstruction.algorithms.bundles.KLSubbundleAlgorithm;
+import mapconstruction.algorithms.bundles.graph.IncrementalFreeSpace;
 import mapconstruction.algorithms.bundles.MaximalSubbundleAlgorithm;
 import mapconstruction.algorithms.bundles.graph.GeneratingSemiWeakFDLabelledGraph;
 import mapconstruction.algorithms.bundles.sweep.FurthestEndpointSweep;
-import mapconstruction.algorithms.distance.KdTree;
 import mapconstruction.benchmark.Benchmark;
 import mapconstruction.exceptions.AlgorithmAbortedException;
 import mapconstruction.log.Log;
@@ -24,6 +24,7 @@ import java.util.Map.Entry;
 import java.util.concurrent.*;
 import java.util.function.DoubleUnaryOperator;
 import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
 
 import static mapconstruction.GUI.datastorage.ConstantsStorage.ALGOCONSTANTS;
 
@@ -83,9 +84,9 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
      */
     private int nextClassNumber = 0;
     /**
-     * Algorithm used to generate the bundles in each step.
+     * Computes the bundles of the epsilon levels of the current run.
      */
-    private BundleGenerationAlgorithm algo;
+    private LevelScheduler levels;
     private Set<Bundle> encounteredBundles;
     //To save data to avoid recomputation of the sets in digdeep
     //private MultiKeyMap savedsweeplines=new MultiKeyMap();
@@ -94,6 +95,16 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
     private Map<Double, Set<Bundle>> savedmaxbun = new TreeMap<Double,Set<Bundle>>();
     private Map<Double, Map<Bundle,Bundle>> savedmaxmerge = new TreeMap<Double, Map<Bundle,Bundle>>();
 
+    /**
+     * Free space shared by the bundle algorithms of all epsilons of a run, built for the maximum epsilon.
+     */
+    private IncrementalFreeSpace freeSpace;
+
+    /**
+     * Bundles and merges of the epsilon levels computed so far, shared by the main levels and digdeep.
+     */
+    private BundleResultCache resultCache = new BundleResultCache(BundleResultCache.DEFAULT_MAX_WEIGHT);
+
 
     /**
      * Constructs a diagram builder with the given parameters
@@ -152,7 +163,10 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
     }
 
     /**
-     * Build the diagram for the given list of trajectories in parallel
+     * Build the diagram for the given list of trajectories in parallel, without looking for hidden stable bundles.
+     * <p>
+     * Epsilon levels are computed concurrently, with at most a fixed number of levels in flight. Each level is
+     * processed into the diagram, in order of epsilon, as soon as it and all smaller levels are done.
      *
      * @param trajectories
      * @return
@@ -169,61 +183,28 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
             Log.log(LogLevel.STATUS, LOGTAG, "Starting to build diagram, extending an existing one");
             epsilon = nextEpsilon.applyAsDouble(diagram.getEpsilons().last());
             for (double e : diagram.getEpsilons()) {
-                encounteredBundles.addAll(diagram.getBundleClasses(epsilon).keySet());
+                encounteredBundles.addAll(diagram.getBundleClasses(e).keySet());
             }
             nextClassNumber = diagram.numClasses();
         }
 
         Log.log(LogLevel.INFO, LOGTAG, "Parameters for evolution diagram: lambdaFactor=%.2f, incr=%.2f, incrType=%s, minEps=%.2f, maxEps=%.2f, ignoreDir=%b", lambdaFactor, incrementer, incrType.name(), minEps, maxEps, ignoreDirection);
 
-        // Assign all remaining threads to subtasks, keep one free for the current thread.
-        ExecutorService executor = Executors.newFixedThreadPool(ALGOCONSTANTS.getNumThreads() - 1);
-//        CompletionService<String> manager = new ExecutorCompletionService<>(executor);
-
-//        Map<Double, Future<String>> results = new HashMap();
-        Map<Double,Future<Pair<Set<Bundle>, Map<Bundle, Bundle>>>> results = new LinkedHashMap<>();
-
-        Log.log(LogLevel.STATUS, LOGTAG, "Starting Threads to find all bundles.");
-        Benchmark.push("Bundle generation");
-
-        trajectories = Collections.synchronizedList(trajectories);
-
-        // start workers to compute bundles
-        while (epsilon <= maxEps /*&& result.size() > 1*/ && !aborted) {
-            try {
-                Callable<Pair<Set<Bundle>, Map<Bundle, Bundle>>> worker = new FindAllBundles(trajectories,
-//                        new MaximalSubbundleAlgorithm(epsilon, epsilon * lambdaFactor, this.ignoreDirection, kStep)
-                        new KLSubbundleAlgorithm(epsilon, epsilon * lambdaFactor, this.ignoreDirection)
-                );
-                results.put(epsilon, executor.submit(worker));
-
-                // proper incrementing
-                if (epsilon < maxEps && nextEpsilon.applyAsDouble(epsilon) > maxEps) {
-                    epsilon = maxEps;
-                } else {
-                    epsilon = nextEpsilon.applyAsDouble(epsilon);
+        Benchmark.push("Evolution diagram");
+        freeSpace = createFreeSpace(trajectories);
+        int numThreads = Math.max(1, ALGOCONSTANTS.getNumThreads());
+        try (LevelScheduler scheduler = new LevelScheduler(trajectories, numThreads)) {
+            levels = scheduler;
+            Map<Double, Future<Pair<Set<Bundle>, Map<Bundle, Bundle>>>> pending = new HashMap<>();
+            double submitted = epsilon;
+            while (epsilon <= maxEps && !aborted) {
+                // keep the next levels in flight
+                while (submitted <= maxEps && pending.size() < numThreads) {
+                    pending.put(submitted, scheduler.submit(submitted));
+                    submitted = nextLevel(submitted);
                 }
 
-                setProgress((int) (100 * epsilon / (maxEps - minEps + 1) / 2));
-            } catch (AlgorithmAbortedException ex) {
-                // algorithm aborted return partial diagram
-                Log.log(LogLevel.WARNING, LOGTAG, "Algorithm aborted. Showing partial diagram");
-                break;
-            }
-        }
-
-        Benchmark.split("Evolution diagram");
-
-        for (Map.Entry<Double,Future<Pair<Set<Bundle>, Map<Bundle, Bundle>>>> fep : results.entrySet()) {
-            try {
-//                String fp = ffp.get();
-//
-//                ObjectInputStream ois;
-//                ois = new ObjectInputStream(new FileInputStream(fp));
-//                Pair<Set<Bundle>, Map<Bundle, Bundle>> p = (Pair<Set<Bundle>, Map<Bundle, Bundle>>) ois.readObject();
-//                ois.close();
-                epsilon = fep.getKey();
-                Pair<Set<Bundle>, Map<Bundle, Bundle>> p = fep.getValue().get();
+                Pair<Set<Bundle>, Map<Bundle, Bundle>> p = scheduler.get(pending.remove(epsilon));
 
                 Log.log(LogLevel.INFO, LOGTAG, "Starting processBundles bundl=%d eps=%f", p.k.size(), epsilon);
 
@@ -232,28 +213,16 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
                 // Add the state
                 Log.log(LogLevel.INFO, LOGTAG, "Got processBundles births=%d merges=%d", state.getBirths().size(), state.getMerges().size());
 
-                diagram.addState(epsilon, state);
+                addState(diagram, epsilon, state);
 
-                for (int c : state.getBirths()) {
-                    // Process birth moments
-                    diagram.addBirthMoment(c, epsilon);
-                }
-
-                for (int c : state.getMerges().keySet()) {
-                    // Process merges
-                    diagram.addMergeMoment(c, epsilon);
-                }
-
-                encounteredBundles.addAll(state.getBundleClasses().keySet());
-
-                setProgress((int) (100 * epsilon / (maxEps - minEps + 1) / 2) + 50);
-            } catch (AlgorithmAbortedException | InterruptedException e) {
-                // algorithm aborted return partial diagram
-                Log.log(LogLevel.WARNING, LOGTAG, "Algorithm aborted. Showing partial diagram");
-                break;
-            } catch (Exception e) {
-                e.printStackTrace();
+                setProgress((int) (100 * epsilon / (maxEps - minEps + 1)));
+                epsilon = nextLevel(epsilon);
             }
+        } catch (AlgorithmAbortedException ex) {
+            // algorithm aborted return partial diagram
+            Log.log(LogLevel.WARNING, LOGTAG, "Algorithm aborted. Showing partial diagram");
+        } finally {
+            levels = null;
         }
 
         Benchmark.pop();
@@ -265,8 +234,14 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
         return diagram;
     }
 
+    /**
+     * Builds the diagram, computing the epsilon levels concurrently if multiple threads are available.
+     */
     @Override
     public EvolutionDiagram runAlgorithm(List<Trajectory> trajectories) {
+        if (ALGOCONSTANTS.getNumThreads() > 1) {
+            return runAlgorithmPipelined(trajectories);
+        }
         return runAlgorithmSequential(trajectories);
     }
 
@@ -278,6 +253,43 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
      * @return
      */
     public EvolutionDiagram runAlgorithmSequential(List<Trajectory> trajectories) {
+        try (LevelScheduler scheduler = new LevelScheduler(trajectories, 0)) {
+            levels = scheduler;
+            return buildDiagram(trajectories, scheduler, 0);
+        } finally {
+            levels = null;
+        }
+    }
+
+    /**
+     * Build the diagram for the given list of trajectories, with the same result as
+     * {@link #runAlgorithmSequential(List)}.
+     * <p>
+     * The bundles of the next epsilon levels are computed concurrently while the current level is processed, with at
+     * most one level per thread in flight. The levels needed to look for hidden stable bundles are computed
+     * concurrently as well. If aborted early, returns a partial diagram.
+     *
+     * @param trajectories
+     * @return
+     */
+    public EvolutionDiagram runAlgorithmPipelined(List<Trajectory> trajectories) {
+        int numThreads = Math.max(1, ALGOCONSTANTS.getNumThreads());
+        try (LevelScheduler scheduler = new LevelScheduler(trajectories, numThreads)) {
+            levels = scheduler;
+            return buildDiagram(trajectories, scheduler, numThreads);
+        } finally {
+            levels = null;
+        }
+    }
+
+    /**
+     * Builds the diagram, looking for hidden stable bundles between the epsilon levels.
+     *
+     * @param trajectories trajectories
+     * @param scheduler    computes the bundles of the levels
+     * @param lookahead    number of levels to compute ahead of the current level
+     */
+    private EvolutionDiagram buildDiagram(List<Trajectory> trajectories, LevelScheduler scheduler, int lookahead) {
         EvolutionDiagram diagram = initialDiagram;
 
         double epsilon;
@@ -289,7 +301,7 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
             Log.log(LogLevel.STATUS, LOGTAG, "Starting to build diagram, extending an existing one");
             epsilon = nextEpsilon.applyAsDouble(diagram.getEpsilons().last());
             for (double e : diagram.getEpsilons()) {
-                encounteredBundles.addAll(diagram.getBundleClasses(epsilon).keySet());
+                encounteredBundles.addAll(diagram.getBundleClasses(e).keySet());
             }
             nextClassNumber = diagram.numClasses();
         }
@@ -314,14 +326,22 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
 
         Log.log(LogLevel.INFO, LOGTAG, "Parameters for evolution diagram: lambdaFactor=%.2f, incr=%.2f, incrType=%s, minEps=%.2f, maxEps=%.2f, ignoreDir=%b", lambdaFactor, incrementer, incrType.name(), minEps, maxEps, ignoreDirection);
 
+        freeSpace = createFreeSpace(trajectories);
+
+        // levels computed ahead of the current one
+        Map<Double, Future<Pair<Set<Bundle>, Map<Bundle, Bundle>>>> pending = new HashMap<>();
+        double submitted = epsilon;
+
         while (epsilon <= maxEps /*&& result.size() > 1*/ && !aborted) {
 
             try {
                 if (!new_result.isEmpty()) {
                     new_result.clear();
                 }
-                BundleGenerationAlgorithm lambdaAlgo = new KLSubbundleAlgorithm(epsilon, epsilon * lambdaFactor, this.ignoreDirection);
-                algo = lambdaAlgo;
+                while (submitted <= maxEps && pending.size() < Math.max(1, lookahead)) {
+                    pending.put(submitted, scheduler.submit(submitted));
+                    submitted = nextLevel(submitted);
+                }
                 Set<Bundle> q = new HashSet<Bundle>();
                 if (epsilon > 2*minEps && !digdeepresults.subMap(epsilon/4,epsilon/2).isEmpty() && digdeepresults.subMap(epsilon/4,epsilon/2).lastKey() != new Double(epsilon/4)){
 
@@ -330,7 +350,8 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
                 }
                 Log.log(LogLevel.STATUS, LOGTAG, "Finding all bundles.");
                 // finding all bundles for a fixed epsilon
-                B = algo.run(trajectories);
+                Pair<Set<Bundle>, Map<Bundle, Bundle>> level = scheduler.get(pending.remove(epsilon));
+                B = level.k;
                 for (Bundle b : B) {
                     Bundle i = CheckContinious(mergeSet(pr_result,stable),b,-1,epsilon);
 
@@ -360,7 +381,7 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
                 }
                 // go further to see if the left bundles in pr_result are stable
                 //for (Bundle b : pr_result) {
-                Map<Bundle, Bundle> merges = lambdaAlgo.getMerges();
+                Map<Bundle, Bundle> merges = level.v;
 
 
                 //}
@@ -448,12 +469,7 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
                 toBeRemoved.clear();
 
                 setProgress((int) (100 * epsilon / (maxEps - minEps + 1)));
-                // proper incrementing
-                if (epsilon < maxEps && nextEpsilon.applyAsDouble(epsilon) > maxEps) {
-                    epsilon = maxEps;
-                } else {
-                    epsilon = nextEpsilon.applyAsDouble(epsilon);
-                }
+                epsilon = nextLevel(epsilon);
                 Log.log(LogLevel.STATUS, LOGTAG, "Next Epsilon");
 /*
                 if (epsilon < maxEps && state.getBundleClasses().size() <= 1) {
@@ -484,17 +500,7 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
             }
             Log.log(LogLevel.STATUS, LOGTAG, "Building state");
             DiagramState state = processBundles(r.getBundles(), r.getMerges(), key, diagram);
-            diagram.addState(key, state);
-            for (int c : state.getBirths()) {
-                // Process birth moments
-                diagram.addBirthMoment(c, key);
-            }
-
-            for (int c : state.getMerges().keySet()) {
-                // Process merges
-                diagram.addMergeMoment(c, key);
-            }
-            encounteredBundles.addAll(state.getBundleClasses().keySet());
+            addState(diagram, key, state);
         }
 
         setProgress(100);
@@ -502,6 +508,64 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
         return diagram;
     }
 
+    /**
+     * Creates the free space shared by all epsilons up to the maximum epsilon, or null if the maximum is unbounded.
+     */
+    private IncrementalFreeSpace createFreeSpace(List<Trajectory> trajectories) {
+        if (Double.isInfinite(maxEps) || Double.isNaN(maxEps)) {
+            return null;
+        }
+        return new IncrementalFreeSpace(trajectories, ignoreDirection, maxEps);
+    }
+
+    /**
+     * Creates the bundle algorithm for the given epsilon, using the shared free space.
+     */
+    private KLSubbundleAlgorithm createBundleAlgorithm(double epsilon, boolean parallel) {
+        KLSubbundleAlgorithm bundleAlgo = new KLSubbundleAlgorithm(epsilon, epsilon * lambdaFactor, this.ignoreDirection, parallel);
+        bundleAlgo.setFreeSpace(freeSpace);
+        return bundleAlgo;
+    }
+
+    /**
+     * Sets the cache used for the bundles and merges of the epsilon levels. The cache can be shared with other
+     * builders to reuse levels between runs.
+     *
+     * @param resultCache cache to use
+     * @throws NullPointerException if {@code resultCache == null}
+     */
+    public void setResultCache(BundleResultCache resultCache) {
+        this.resultCache = Objects.requireNonNull(resultCache, "resultCache == null");
+    }
+
+    /**
+     * Gets the epsilon level following the given one, which is clamped to the maximum epsilon.
+     */
+    private double nextLevel(double epsilon) {
+        // proper incrementing
+        if (epsilon < maxEps && nextEpsilon.applyAsDouble(epsilon) > maxEps) {
+            return maxEps;
+        }
+        return nextEpsilon.applyAsDouble(epsilon);
+    }
+
+    /**
+     * Adds the state of the given level to the diagram, with its births and merges.
+     */
+    private void addState(EvolutionDiagram diagram, double epsilon, DiagramState state) {
+        diagram.addState(epsilon, state);
+        for (int c : state.getBirths()) {
+            // Process birth moments
+            diagram.addBirthMoment(c, epsilon);
+        }
+
+        for (int c : state.getMerges().keySet()) {
+            // Process merges
+            diagram.addMergeMoment(c, epsilon);
+        }
+        encounteredBundles.addAll(state.getBundleClasses().keySet());
+    }
+
     /**
      * Finds the hidden stable bundles
      * and return the updated stable set of bundles
@@ -524,30 +588,24 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
         Map<Bundle, Bundle> merges1;
 
 
-        if (savedmaxbun.containsKey(e1)){
-            S1 = savedmaxbun.get(e1);
-            merges1 = savedmaxmerge.get(e1);
+        // compute both levels at once if they are not known yet
+        LevelScheduler scheduler = levels != null ? levels : new LevelScheduler(trajectories, 0);
+        Future<Pair<Set<Bundle>, Map<Bundle, Bundle>>> pending1 = savedmaxbun.containsKey(e1) ? null : scheduler.submit(e1);
+        Future<Pair<Set<Bundle>, Map<Bundle, Bundle>>> pending2 = savedmaxbun.containsKey(e2) || e2 == e1 ? null : scheduler.submit(e2);
+        if (pending1 != null) {
+            Pair<Set<Bundle>, Map<Bundle, Bundle>> level = scheduler.get(pending1);
+            savedmaxbun.put(e1, level.k);
+            savedmaxmerge.put(e1, level.v);
         }
-        else {
-            BundleGenerationAlgorithm bundleAlgo1;
-            bundleAlgo1 = new KLSubbundleAlgorithm(e1, e1 * lambdaFactor, this.ignoreDirection);
-            S1 = bundleAlgo1.run(trajectories);
-            savedmaxbun.put(e1, S1);
-            merges1 = bundleAlgo1.getMerges();
-            savedmaxmerge.put(e1,merges1);
-        }
-        if (savedmaxbun.containsKey(e2)){
-            S2 = savedmaxbun.get(e2);
-            merges2 = savedmaxmerge.get(e2);
-        }
-        else {
-            BundleGenerationAlgorithm bundleAlgo2;
-            bundleAlgo2 = new KLSubbundleAlgorithm(e2, e2 * lambdaFactor, this.ignoreDirection);
-            S2 = bundleAlgo2.run(trajectories);
-            savedmaxbun.put(e2, S2);
-            merges2 = bundleAlgo2.getMerges();
-            savedmaxmerge.put(e2,merges2);
+        S1 = savedmaxbun.get(e1);
+        merges1 = savedmaxmerge.get(e1);
+        if (pending2 != null) {
+            Pair<Set<Bundle>, Map<Bundle, Bundle>> level = scheduler.get(pending2);
+            savedmaxbun.put(e2, level.k);
+            savedmaxmerge.put(e2, level.v);
         }
+        S2 = savedmaxbun.get(e2);
+        merges2 = savedmaxmerge.get(e2);
 
         for (Bundle b : pr_results) {
 
@@ -765,17 +823,12 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
         } else {
             // Get the previous state
             DiagramState previousState = diagram.getPrevious(epsilon);
-            KdTree<Bundle> kdQuery = new KdTree<>(4);
-//            kdQuery.insertAll(previousState.getBundleClasses().keySet(), (k -> {
-//                Subtrajectory r = k.getOriginalRepresentative();
-//                Point2D s = r.getFirstPoint();
-//                Point2D t = r.getLastPoint();
-//                return Arrays.asList(s.getX(), s.getY(), t.getX(), t.getY());
-//            }));
+            // Candidate old bundles by parent trajectory, in iteration order of the previous state
+            BundleParentIndex previousIndex = new BundleParentIndex(previousState.getBundleClasses().keySet(), true);
 
             for (Bundle bunNew : result) {
 
-                boolean isContinuation = tryFindContinuation(previousState, bunNew, bundleClasses, kdQuery, epsilon);
+                boolean isContinuation = tryFindContinuation(previousState, bunNew, bundleClasses, previousIndex, epsilon);
 
                 if (!isContinuation && !encounteredBundles.contains(bunNew)) {
                     // No old bundle found that the new one continues.
@@ -800,8 +853,12 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
 
             Log.log(LogLevel.STATUS, "processBundles", "mergedClasses size %d", mergedClasses.size());
 
-            for (int c : mergedClasses) {
-                tryFindMerge(previousState, c, bundleClasses, epsilon, merges, bundleMerges);
+            if (!mergedClasses.isEmpty()) {
+                BundleParentIndex classIndex = new BundleParentIndex(bundleClasses.keySet(), false);
+                BundleParentIndex mergeIndex = new BundleParentIndex(bundleMerges.keySet(), false);
+                for (int c : mergedClasses) {
+                    tryFindMerge(previousState, c, bundleClasses, classIndex, epsilon, merges, bundleMerges, mergeIndex);
+                }
 
             }
 
@@ -810,15 +867,17 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
         return new DiagramState(bundleClasses, births, merges);
     }
 
-    private void tryFindMerge(DiagramState previousState, int bundleClass, BiMap<Bundle, Integer> bundleClasses, double epsilon, Map<Integer, Integer> merges, Map<Bundle, Bundle> bundleMerges) {
+    private void tryFindMerge(DiagramState previousState, int bundleClass, BiMap<Bundle, Integer> bundleClasses, BundleParentIndex classIndex, double epsilon, Map<Integer, Integer> merges, Map<Bundle, Bundle> bundleMerges, BundleParentIndex mergeIndex) {
         // Find into which classes the bundles have merged.
 
         Bundle mergedBundle = previousState.getBundleClasses().inverse().get(bundleClass);
+        // Every subtrajectory of the merged bundle must be matched, so one of them suffices to find the candidates
+        Collection<Subtrajectory> lookup = mergedBundle.getSubtrajectories().stream().limit(1).collect(Collectors.toList());
         // find other class
-        for (Entry<Bundle, Integer> bunClassPair : bundleClasses.entrySet()) {
+        for (int k : classIndex.candidates(lookup)) {
             // Candidate
-            Bundle otherBundle = bunClassPair.getKey();
-            int otherClass = bunClassPair.getValue();
+            Bundle otherBundle = classIndex.get(k);
+            int otherClass = bundleClasses.get(otherBundle);
             if (otherBundle.hasAsLambdaSubBundle(mergedBundle, epsilon * lambdaFactor)) {
                 // We allow a decrease of size
                 merges.put(bundleClass, otherClass);
@@ -827,9 +886,9 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
         }
         // Another attempt to find merges
         // find find correct bundle in bundle merges
-        for (Entry<Bundle, Bundle> entry : bundleMerges.entrySet()) {
-            Bundle from = entry.getKey();
-            Bundle to = entry.getValue();
+        for (int k : mergeIndex.candidates(lookup)) {
+            Bundle from = mergeIndex.get(k);
+            Bundle to = bundleMerges.get(from);
             if (from.hasAsLambdaSubBundle(mergedBundle, epsilon * lambdaFactor)) {
                 // Find proper class
                 while (!bundleClasses.containsKey(to) && bundleMerges.containsKey(to)) {
@@ -854,11 +913,15 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
         Log.log(LogLevel.WARNING, LOGTAG, "No merge found!");
     }
 
-    private boolean tryFindContinuation(DiagramState previousState, Bundle bunNew, BiMap<Bundle, Integer> bundleClasses, KdTree<Bundle> kdQuery, double epsilon) {
-//        Subtrajectory representative = bunNew.getOriginalRepresentative();
-//        Point2D s = representative.getFirstPoint();
-//        Point2D t = representative.getLastPoint();
-        Set<Bundle> candidates = previousState.getBundleClasses().keySet(); // kdQuery.rangeQuery(2 * epsilon, s.getX(), s.getY(), t.getX(), t.getY());
+    private boolean tryFindContinuation(DiagramState previousState, Bundle bunNew, BiMap<Bundle, Integer> bundleClasses, BundleParentIndex previousIndex, double epsilon) {
+        // Only old bundles sharing a parent trajectory with the new bundle can be a (lambda) subbundle of it
+        List<Bundle> candidates = new ArrayList<>();
+        for (int k : previousIndex.candidates(bunNew.getSubtrajectories())) {
+            Bundle bunOld = previousIndex.get(k);
+            if (bunNew.size() == bunOld.size()) {
+                candidates.add(bunOld);
+            }
+        }
 
         // For every new bundle, we have to check to every previous bundle
         // whether it is a continuation of a previous bundle.
@@ -911,7 +974,123 @@ public class EvolutionDiagramBuilder extends AbstractTrajectoryAlgorithm<Evoluti
     @Override
     public void abort() {
         super.abort(); //To change body of generated methods, choose Tools | Templates.
-        algo.abort();
+        LevelScheduler scheduler = levels;
+        if (scheduler != null) {
+            scheduler.abort();
+        }
+    }
+
+    /**
+     * Computes the bundles of epsilon levels, looking them up in the result cache first.
+     * <p>
+     * With worker threads, levels are computed concurrently as soon as they are submitted, each level generating its
+     * bundles sequentially. Without worker threads, a level is computed on the calling thread when its result is
+     * requested, generating its bundles in parallel if configured.
+     */
+    private final class LevelScheduler implements AutoCloseable {
+
+        private final List<Trajectory> trajectories;
+
+        /**
+         * Fingerprint of the trajectories in the result cache.
+         */
+        private final long fingerprint;
+
+        /**
+         * Workers, null if levels are computed on the calling thread.
+         */
+        private final ExecutorService executor;
+
+        /**
+         * Algorithms currently running, to abort them.
+         */
+        private final Set<BundleGenerationAlgorithm> running = ConcurrentHashMap.newKeySet();
+
+        /**
+         * @param trajectories trajectories to generate the bundles for
+         * @param numThreads   number of worker threads, 0 to compute levels on the calling thread
+         */
+        LevelScheduler(List<Trajectory> trajectories, int numThreads) {
+            this.trajectories = trajectories;
+            this.fingerprint = BundleResultCache.fingerprint(trajectories);
+            this.executor = numThreads > 0 ? Executors.newFixedThreadPool(numThreads) : null;
+        }
+
+        /**
+         * Submits the computation of the bundles and merges of the given level.
+         */
+        Future<Pair<Set<Bundle>, Map<Bundle, Bundle>>> submit(double epsilon) {
+            BundleGenerationAlgorithm bundleAlgo = createBundleAlgorithm(epsilon, executor == null && ALGOCONSTANTS.getNumThreads() > 1);
+            FindAllBundles worker = new FindAllBundles(trajectories, bundleAlgo);
+            Callable<Pair<Set<Bundle>, Map<Bundle, Bundle>>> task = Benchmark.inherit(() -> {
+                running.add(bundleAlgo);
+                try {
+                    if (aborted) {
+                        throw new AlgorithmAbortedException();
+                    }
+                    BundleResultCache.Result cached = resultCache.get(fingerprint, trajectories, epsilon, epsilon * lambdaFactor, ignoreDirection);
+                    if (cached != null) {
+                        return new Pair<>(cached.getBundles(), cached.getMerges());
+                    }
+                    // the algorithm clears its abort flag when it starts, so check again for an abort in the meantime
+                    if (aborted) {
+                        throw new AlgorithmAbortedException();
+                    }
+                    Pair<Set<Bundle>, Map<Bundle, Bundle>> level = worker.call();
+                    resultCache.put(fingerprint, trajectories, epsilon, epsilon * lambdaFactor, ignoreDirection, level.k, level.v);
+                    return level;
+                } finally {
+                    running.remove(bundleAlgo);
+                }
+            });
+            if (executor == null) {
+                return new FutureTask<>(task);
+            }
+            return executor.submit(task);
+        }
+
+        /**
+         * Waits for the result of a submitted level, computing it on the calling thread if there are no workers.
+         *
+         * @throws AlgorithmAbortedException if the computation was aborted or interrupted.
+         */
+        Pair<Set<Bundle>, Map<Bundle, Bundle>> get(Future<Pair<Set<Bundle>, Map<Bundle, Bundle>>> level) {
+            if (level instanceof FutureTask && executor == null) {
+                ((FutureTask<?>) level).run();
+            }
+            try {
+                return level.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AlgorithmAbortedException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        /**
+         * Aborts all running algorithms.
+         */
+        void abort() {
+            running.forEach(BundleGenerationAlgorithm::abort);
+        }
+
+        /**
+         * Stops the workers, cancelling levels that were not needed.
+         */
+        @Override
+        public void close() {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
     }
 
     /**
@@ -11,12 +11,23 @@ import java.awt.geom.Point2D;
  * Distance matrix between two trajectories.
  * <p>
  * Does not explicitly store all the distances, as that costs too much memory,
- * but it is calculated every query.
+ * but it is calculated every query. To make queries cheap, the coordinates of
+ * both trajectories are copied into flat arrays on construction, so distances
+ * are computed without allocating points or edges.
+ * <p>
+ * Optionally, whether cells are free with respect to a fixed epsilon is
+ * memoised in bitsets, see {@link #DistanceMatrix(Trajectory, Trajectory, double)}.
  *
  * @author Roel
  */
 public class DistanceMatrix {
 
+    /**
+     * Maximum number of cells per kind (point-edge and edge-point) for which
+     * free bits are memoised. Larger matrices are not memoised.
+     */
+    private static final long MAX_CACHED_CELLS = 1L << 26;
+
     /**
      * First trajectory, populating the first index of the matrix.
      */
@@ -27,6 +38,33 @@ public class DistanceMatrix {
      */
     private final Trajectory t2;
 
+    /**
+     * Coordinates of the points of the first trajectory.
+     */
+    private final double[] xs1;
+    private final double[] ys1;
+
+    /**
+     * Coordinates of the points of the second trajectory.
+     */
+    private final double[] xs2;
+    private final double[] ys2;
+
+    /**
+     * Epsilon for which free bits are memoised, NaN if nothing is memoised.
+     */
+    private final double cacheEpsilon;
+
+    /**
+     * Memoised free bits of point-edge and edge-point cells. Rows are indexed by
+     * the index into the first trajectory and allocated on first use. A cell
+     * is memoised if its known bit is set.
+     */
+    private final long[][] pointEdgeKnown;
+    private final long[][] pointEdgeFree;
+    private final long[][] edgePointKnown;
+    private final long[][] edgePointFree;
+
     /**
      * Computes the discrete distance matrix for the given the two trajectories.
      * <p>
@@ -37,10 +75,59 @@ public class DistanceMatrix {
      * @throws NullPointerException if one of the trajectories is {@code null}.
      */
     public DistanceMatrix(Trajectory t1, Trajectory t2) {
+        this(t1, t2, Double.NaN);
+    }
+
+    /**
+     * Computes the discrete distance matrix for the given the two trajectories,
+     * memoising whether cells are free for the given epsilon.
+     * <p>
+     * Memoisation only applies to {@link #isPointEdgeFree(int, int, double)}
+     * and {@link #isEdgePointFree(int, int, double)} queries with exactly the
+     * given epsilon, and is skipped if the matrix is too large.
+     *
+     * @param t1      first trajectory
+     * @param t2      second trajectory
+     * @param epsilon epsilon to memoise free bits for, NaN to disable memoisation.
+     * @throws NullPointerException if one of the trajectories is {@code null}.
+     */
+    public DistanceMatrix(Trajectory t1, Trajectory t2, double epsilon) {
         Preconditions.checkNotNull(t1, "t1 == null");
         Preconditions.checkNotNull(t2, "t2 == null");
         this.t1 = t1;
         this.t2 = t2;
+
+        int n1 = t1.numPoints();
+        xs1 = new double[n1];
+        ys1 = new double[n1];
+        for (int i = 0; i < n1; i++) {
+            Point2D p = t1.getPoint(i);
+            xs1[i] = p.getX();
+            ys1[i] = p.getY();
+        }
+
+        int n2 = t2.numPoints();
+        xs2 = new double[n2];
+        ys2 = new double[n2];
+        for (int j = 0; j < n2; j++) {
+            Point2D p = t2.getPoint(j);
+            xs2[j] = p.getX();
+            ys2[j] = p.getY();
+        }
+
+        if (!Double.isNaN(epsilon) && (long) n1 * n2 <= MAX_CACHED_CELLS) {
+            this.cacheEpsilon = epsilon;
+            pointEdgeKnown = new long[n1][];
+            pointEdgeFree = new long[n1][];
+            edgePointKnown = new long[n1][];
+            edgePointFree = new long[n1][];
+        } else {
+            this.cacheEpsilon = Double.NaN;
+            pointEdgeKnown = null;
+            pointEdgeFree = null;
+            edgePointKnown = null;
+            edgePointFree = null;
+        }
     }
 
     /**
@@ -76,11 +163,9 @@ public class DistanceMatrix {
      * @throws IndexOutOfBoundsException if NOT {@code 0 <= i < getT1.numPoints && 0 <= j < getT2.numPoints}
      */
     public double getPointDistance(int i, int j) {
-        Preconditions.checkPositionIndex(i, t1.numPoints(), "i");
-        Preconditions.checkPositionIndex(j, t2.numPoints(), "j");
-        final Point2D p1 = t1.getPoint(i);
-        final Point2D p2 = t2.getPoint(j);
-        return p1.distance(p2);
+        double dx = xs2[j] - xs1[i];
+        double dy = ys2[j] - ys1[i];
+        return Math.sqrt(dx * dx + dy * dy);
     }
 
     /**
@@ -156,11 +241,7 @@ public class DistanceMatrix {
      * @throws IndexOutOfBoundsException if NOT {@code 0 <= pi < getT1.numPoints  && 0 <= ej < getT2.numEdges}
      */
     public double getPointEdgeDistance(int pi, int ej) {
-        Preconditions.checkPositionIndex(pi, t1.numPoints(), "pi");
-        Preconditions.checkPositionIndex(ej, t2.numEdges(), "ej");
-        final Line2D edge = t2.getEdge(ej);
-        final Point2D point = t1.getPoint(pi);
-        return edge.ptSegDist(point);
+        return Math.sqrt(ptSegDistSq(xs2[ej], ys2[ej], xs2[ej + 1], ys2[ej + 1], xs1[pi], ys1[pi]));
     }
 
     /**
@@ -177,11 +258,107 @@ public class DistanceMatrix {
      * @throws IndexOutOfBoundsException if NOT {@code 0 <= ei < getT1.numEdges  && 0 <= pj < getT2.numPoints}
      */
     public double getEdgePointDistance(int ei, int pj) {
-        Preconditions.checkPositionIndex(ei, t1.numEdges(), "ei");
-        Preconditions.checkPositionIndex(pj, t2.numPoints(), "pj");
-        final Line2D edge = t1.getEdge(ei);
-        final Point2D point = t2.getPoint(pj);
-        return edge.ptSegDist(point);
+        return Math.sqrt(ptSegDistSq(xs1[ei], ys1[ei], xs1[ei + 1], ys1[ei + 1], xs2[pj], ys2[pj]));
+    }
+
+    /**
+     * Returns whether the distance between the i-th point of the first
+     * trajectory and the j-th edge of the second trajectory is at most epsilon.
+     * <p>
+     * Equivalent to {@code getPointEdgeDistance(pi, ej) <= epsilon}, but
+     * memoised if epsilon is the epsilon given on construction.
+     *
+     * @param pi      point index of first trajectory
+     * @param ej      edge index of second trajectory
+     * @param epsilon maximum distance
+     * @return whether the cell is free
+     * @throws IndexOutOfBoundsException if NOT {@code 0 <= pi < getT1.numPoints  && 0 <= ej < getT2.numEdges}
+     */
+    public boolean isPointEdgeFree(int pi, int ej, double epsilon) {
+        if (epsilon != cacheEpsilon) {
+            return getPointEdgeDistance(pi, ej) <= epsilon;
+        }
+        long[] known = pointEdgeKnown[pi];
+        if (known == null) {
+            known = pointEdgeKnown[pi] = new long[bitsetSize(xs2.length)];
+            pointEdgeFree[pi] = new long[known.length];
+        }
+        long[] free = pointEdgeFree[pi];
+        long bit = 1L << ej;
+        if ((known[ej >> 6] & bit) == 0) {
+            if (getPointEdgeDistance(pi, ej) <= epsilon) {
+                free[ej >> 6] |= bit;
+            }
+            known[ej >> 6] |= bit;
+        }
+        return (free[ej >> 6] & bit) != 0;
+    }
+
+    /**
+     * Returns whether the distance between the i-th edge of the first
+     * trajectory and the j-th point of the second trajectory is at most epsilon.
+     * <p>
+     * Equivalent to {@code getEdgePointDistance(ei, pj) <= epsilon}, but
+     * memoised if epsilon is the epsilon given on construction.
+     *
+     * @param ei      edge index of first trajectory
+     * @param pj      point index of second trajectory
+     * @param epsilon maximum distance
+     * @return whether the cell is free
+     * @throws IndexOutOfBoundsException if NOT {@code 0 <= ei < getT1.numEdges  && 0 <= pj < getT2.numPoints}
+     */
+    public boolean isEdgePointFree(int ei, int pj, double epsilon) {
+        if (epsilon != cacheEpsilon) {
+            return getEdgePointDistance(ei, pj) <= epsilon;
+        }
+        long[] known = edgePointKnown[ei];
+        if (known == null) {
+            known = edgePointKnown[ei] = new long[bitsetSize(xs2.length)];
+            edgePointFree[ei] = new long[known.length];
+        }
+        long[] free = edgePointFree[ei];
+        long bit = 1L << pj;
+        if ((known[pj >> 6] & bit) == 0) {
+            if (getEdgePointDistance(ei, pj) <= epsilon) {
+                free[pj >> 6] |= bit;
+            }
+            known[pj >> 6] |= bit;
+        }
+        return (free[pj >> 6] & bit) != 0;
+    }
+
+    private static int bitsetSize(int bits) {
+        return (bits + 63) >> 6;
+    }
+
+    /**
+     * Squared distance from point (px, py) to the segment from (x1, y1) to
+     * (x2, y2). Performs the same computation as {@link Line2D#ptSegDistSq},
+     * such that results are identical.
+     */
+    private static double ptSegDistSq(double x1, double y1, double x2, double y2, double px, double py) {
+        x2 -= x1;
+        y2 -= y1;
+        px -= x1;
+        py -= y1;
+        double dotprod = px * x2 + py * y2;
+        double projlenSq;
+        if (dotprod <= 0.0) {
+            // point lies before the first endpoint
+            projlenSq = 0.0;
+        } else {
+            px = x2 - px;
+            py = y2 - py;
+            dotprod = px * x2 + py * y2;
+            if (dotprod <= 0.0) {
+                // point lies beyond the second endpoint
+                projlenSq = 0.0;
+            } else {
+                projlenSq = dotprod * dotprod / (x2 * x2 + y2 * y2);
+            }
+        }
+        double lenSq = px * px + py * py - projlenSq;
+        return lenSq < 0 ? 0 : lenSq;
     }
 
 }
@@ -0,0 +1,324 @@
+package mapconstruction.algorithms.distance;
+
+import com.google.common.base.Preconditions;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Static R-tree on line segments with int values, bulk loaded using Sort-Tile-Recursive.
+ * <p>
+ * Unlike {@link RTree}, all segments and nodes are packed into primitive arrays and queries do not allocate
+ * result sets. A segment is reported by a window query if it intersects the window, using the same test as
+ * {@link RTree#windowQuery(double, double, double, double)}, so both trees report the same segments.
+ * <p>
+ * Nodes are stored level by level, starting with the leaves. The children of a node form a contiguous range of
+ * segments (for leaves) or nodes (otherwise).
+ */
+public class SegmentRTree {
+
+    /**
+     * Coordinates (x1, y1, x2, y2) of the segments, in leaf order.
+     */
+    private final double[] segments;
+
+    /**
+     * Values of the segments, in leaf order.
+     */
+    private final int[] values;
+
+    /**
+     * Bounding boxes (minX, minY, maxX, maxY) of the nodes.
+     */
+    private final double[] bounds;
+
+    /**
+     * Range of children of each node.
+     */
+    private final int[] childFrom;
+    private final int[] childTo;
+
+    /**
+     * Number of leaves, nodes with index below this number are leaves.
+     */
+    private final int numLeaves;
+
+    /**
+     * Index of the root, -1 if the tree is empty.
+     */
+    private final int root;
+
+    /**
+     * Builds the tree on the given segments.
+     *
+     * @param nodeCapacity maximum number of children per node, at least 2
+     * @param segments     segments to index
+     * @param values       value of each segment
+     * @throws IllegalArgumentException if the capacity is too small or the number of values does not match.
+     */
+    public SegmentRTree(int nodeCapacity, List<? extends Line2D> segments, int[] values) {
+        Preconditions.checkArgument(nodeCapacity >= 2, "nodeCapacity < 2");
+        Preconditions.checkArgument(segments.size() == values.length, "segments.size() != values.length");
+        int n = segments.size();
+
+        // Sort-Tile-Recursive: sort on x, cut into vertical slices, sort each slice on y.
+        Integer[] order = new Integer[n];
+        for (int k = 0; k < n; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(centerX(segments.get(a)), centerX(segments.get(b))));
+        int leaves = (n + nodeCapacity - 1) / nodeCapacity;
+        int sliceSize = nodeCapacity * (int) Math.ceil(Math.sqrt(leaves));
+        for (int from = 0; from < n; from += sliceSize) {
+            Arrays.sort(order, from, Math.min(n, from + sliceSize), (a, b) -> Double.compare(centerY(segments.get(a)), centerY(segments.get(b))));
+        }
+
+        this.segments = new double[4 * n];
+        this.values = new int[n];
+        for (int k = 0; k < n; k++) {
+            Line2D segment = segments.get(order[k]);
+            this.segments[4 * k] = segment.getX1();
+            this.segments[4 * k + 1] = segment.getY1();
+            this.segments[4 * k + 2] = segment.getX2();
+            this.segments[4 * k + 3] = segment.getY2();
+            this.values[k] = values[order[k]];
+        }
+
+        // count the nodes on all levels
+        int numNodes = 0;
+        for (int level = leaves; level > 1; level = (level + nodeCapacity - 1) / nodeCapacity) {
+            numNodes += level;
+        }
+        numNodes += n == 0 ? 0 : 1;
+
+        this.numLeaves = leaves;
+        this.bounds = new double[4 * numNodes];
+        this.childFrom = new int[numNodes];
+        this.childTo = new int[numNodes];
+
+        // leaves
+        for (int node = 0; node < leaves; node++) {
+            childFrom[node] = node * nodeCapacity;
+            childTo[node] = Math.min(n, (node + 1) * nodeCapacity);
+            bounds[4 * node] = Double.POSITIVE_INFINITY;
+            bounds[4 * node + 1] = Double.POSITIVE_INFINITY;
+            bounds[4 * node + 2] = Double.NEGATIVE_INFINITY;
+            bounds[4 * node + 3] = Double.NEGATIVE_INFINITY;
+            for (int k = childFrom[node]; k < childTo[node]; k++) {
+                include(node, Math.min(this.segments[4 * k], this.segments[4 * k + 2]), Math.min(this.segments[4 * k + 1], this.segments[4 * k + 3]),
+                        Math.max(this.segments[4 * k], this.segments[4 * k + 2]), Math.max(this.segments[4 * k + 1], this.segments[4 * k + 3]));
+            }
+        }
+
+        // internal levels, grouping consecutive nodes of the level below
+        int levelFrom = 0;
+        int levelTo = leaves;
+        while (levelTo - levelFrom > 1) {
+            int next = levelTo;
+            for (int child = levelFrom; child < levelTo; child += nodeCapacity) {
+                childFrom[next] = child;
+                childTo[next] = Math.min(levelTo, child + nodeCapacity);
+                bounds[4 * next] = Double.POSITIVE_INFINITY;
+                bounds[4 * next + 1] = Double.POSITIVE_INFINITY;
+                bounds[4 * next + 2] = Double.NEGATIVE_INFINITY;
+                bounds[4 * next + 3] = Double.NEGATIVE_INFINITY;
+                for (int c = childFrom[next]; c < childTo[next]; c++) {
+                    include(next, bounds[4 * c], bounds[4 * c + 1], bounds[4 * c + 2], bounds[4 * c + 3]);
+                }
+                next++;
+            }
+            levelFrom = levelTo;
+            levelTo = next;
+        }
+        this.root = n == 0 ? -1 : levelFrom;
+    }
+
+    /**
+     * Number of segments in the tree.
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Visits the values of all segments intersecting the window [x1, x2] x [y1, y2], in no particular order.
+     * A value is visited once per segment having it.
+     *
+     * @param visitor called with the value of each segment found
+     */
+    public void forEachInWindow(double x1, double y1, double x2, double y2, IntConsumer visitor) {
+        if (root < 0) return;
+        visit(root, x1, y1, x2 - x1, y2 - y1, visitor);
+    }
+
+    /**
+     * Visits the values of all segments intersecting the segment (x1, y1)-(x2, y2), in no particular order.
+     * The intersection test is {@link Line2D#linesIntersect(double, double, double, double, double, double, double, double)}
+     * of the stored segment with the query segment, and the query does not allocate.
+     *
+     * @param visitor called with the value of each segment found
+     */
+    public void forEachIntersectingSegment(double x1, double y1, double x2, double y2, IntConsumer visitor) {
+        if (root < 0) return;
+        visitSegment(root, x1, y1, x2, y2, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), visitor);
+    }
+
+    /**
+     * Gets the distinct values of all segments intersecting the window [x1, x2] x [y1, y2], in ascending order.
+     *
+     * @return sorted values of the segments found
+     */
+    public int[] windowQuery(double x1, double y1, double x2, double y2) {
+        IntBuffer buffer = new IntBuffer();
+        forEachInWindow(x1, y1, x2, y2, buffer);
+        int[] result = Arrays.copyOf(buffer.data, buffer.size);
+        Arrays.sort(result);
+
+        // remove duplicates
+        int size = 0;
+        for (int k = 0; k < result.length; k++) {
+            if (size == 0 || result[size - 1] != result[k]) {
+                result[size++] = result[k];
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Whether the segment (x1, y1)-(x2, y2) intersects the window with corner (x, y), width w and height h. This is the
+     * test of {@link Rectangle2D#intersectsLine(double, double, double, double)} on a {@code Rectangle2D.Double}, and
+     * the test used by the window queries, without allocating the window.
+     */
+    public static boolean windowIntersectsLine(double x, double y, double w, double h,
+                                               double x1, double y1, double x2, double y2) {
+        int out1;
+        int out2 = outcode(x, y, w, h, x2, y2);
+        if (out2 == 0) {
+            return true;
+        }
+        // Clip the first end point to the window until it is inside, as Rectangle2D does.
+        while ((out1 = outcode(x, y, w, h, x1, y1)) != 0) {
+            if ((out1 & out2) != 0) {
+                return false;
+            }
+            if ((out1 & (Rectangle2D.OUT_LEFT | Rectangle2D.OUT_RIGHT)) != 0) {
+                double clipX = x;
+                if ((out1 & Rectangle2D.OUT_RIGHT) != 0) {
+                    clipX += w;
+                }
+                y1 = y1 + (clipX - x1) * (y2 - y1) / (x2 - x1);
+                x1 = clipX;
+            } else {
+                double clipY = y;
+                if ((out1 & Rectangle2D.OUT_BOTTOM) != 0) {
+                    clipY += h;
+                }
+                x1 = x1 + (clipY - y1) * (x2 - x1) / (y2 - y1);
+                y1 = clipY;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Outcode of the point with respect to the window, as {@link Rectangle2D.Double#outcode(double, double)}.
+     */
+    private static int outcode(double x, double y, double w, double h, double px, double py) {
+        int out = 0;
+        if (w <= 0) {
+            out |= Rectangle2D.OUT_LEFT | Rectangle2D.OUT_RIGHT;
+        } else if (px < x) {
+            out |= Rectangle2D.OUT_LEFT;
+        } else if (px > x + w) {
+            out |= Rectangle2D.OUT_RIGHT;
+        }
+        if (h <= 0) {
+            out |= Rectangle2D.OUT_TOP | Rectangle2D.OUT_BOTTOM;
+        } else if (py < y) {
+            out |= Rectangle2D.OUT_TOP;
+        } else if (py > y + h) {
+            out |= Rectangle2D.OUT_BOTTOM;
+        }
+        return out;
+    }
+
+    private void visit(int node, double x, double y, double w, double h, IntConsumer visitor) {
+        if (!intersects(node, x, y, w, h)) return;
+
+        if (node < numLeaves) {
+            for (int k = childFrom[node]; k < childTo[node]; k++) {
+                if (windowIntersectsLine(x, y, w, h, segments[4 * k], segments[4 * k + 1], segments[4 * k + 2], segments[4 * k + 3])) {
+                    visitor.accept(values[k]);
+                }
+            }
+        } else {
+            for (int child = childFrom[node]; child < childTo[node]; child++) {
+                visit(child, x, y, w, h, visitor);
+            }
+        }
+    }
+
+    private void visitSegment(int node, double x1, double y1, double x2, double y2,
+                              double minX, double minY, double maxX, double maxY, IntConsumer visitor) {
+        if (maxX < bounds[4 * node] || maxY < bounds[4 * node + 1] ||
+                minX > bounds[4 * node + 2] || minY > bounds[4 * node + 3]) {
+            return;
+        }
+
+        if (node < numLeaves) {
+            for (int k = childFrom[node]; k < childTo[node]; k++) {
+                if (Line2D.linesIntersect(segments[4 * k], segments[4 * k + 1], segments[4 * k + 2], segments[4 * k + 3], x1, y1, x2, y2)) {
+                    visitor.accept(values[k]);
+                }
+            }
+        } else {
+            for (int child = childFrom[node]; child < childTo[node]; child++) {
+                visitSegment(child, x1, y1, x2, y2, minX, minY, maxX, maxY, visitor);
+            }
+        }
+    }
+
+    /**
+     * Whether the bounding box of the node intersects the window, boundaries included.
+     */
+    private boolean intersects(int node, double x, double y, double w, double h) {
+        return x + w >= bounds[4 * node] &&
+                y + h >= bounds[4 * node + 1] &&
+                x <= bounds[4 * node + 2] &&
+                y <= bounds[4 * node + 3];
+    }
+
+    private void include(int node, double minX, double minY, double maxX, double maxY) {
+        bounds[4 * node] = Math.min(bounds[4 * node], minX);
+        bounds[4 * node + 1] = Math.min(bounds[4 * node + 1], minY);
+        bounds[4 * node + 2] = Math.max(bounds[4 * node + 2], maxX);
+        bounds[4 * node + 3] = Math.max(bounds[4 * node + 3], maxY);
+    }
+
+    private static double centerX(Line2D segment) {
+        return (segment.getX1() + segment.getX2()) / 2;
+    }
+
+    private static double centerY(Line2D segment) {
+        return (segment.getY1() + segment.getY2()) / 2;
+    }
+
+    /**
+     * Growable int array collecting query results.
+     */
+    private static final class IntBuffer implements IntConsumer {
+        int[] data = new int[16];
+        int size;
+
+        @Override
+        public void accept(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * size);
+            }
+            data[size++] = value;
+        }
+    }
+}
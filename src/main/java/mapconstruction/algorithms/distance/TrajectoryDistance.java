@@ -2,6 +2,8 @@ package mapconstruction.algorithms.distance;
 
 import mapconstruction.trajectories.Trajectory;
 
+import java.util.List;
+
 /**
  * Interface for ways to compute the distance between two trajectories
  */
@@ -16,4 +18,21 @@ public interface TrajectoryDistance {
      */
     double compute(Trajectory t1, Trajectory t2);
 
+    /**
+     * Computes the distances between all pairs of trajectories from the two lists.
+     *
+     * @param trajectories1 first list of trajectories
+     * @param trajectories2 second list of trajectories
+     * @return matrix with at [i][j] the distance between the ith trajectory of the first list and the jth of the second.
+     */
+    default double[][] computeAll(List<? extends Trajectory> trajectories1, List<? extends Trajectory> trajectories2) {
+        double[][] result = new double[trajectories1.size()][trajectories2.size()];
+        for (int i = 0; i < trajectories1.size(); i++) {
+            for (int j = 0; j < trajectories2.size(); j++) {
+                result[i][j] = compute(trajectories1.get(i), trajectories2.get(j));
+            }
+        }
+        return result;
+    }
+
 }
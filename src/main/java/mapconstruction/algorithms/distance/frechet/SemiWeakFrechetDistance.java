@@ -1,11 +1,15 @@
 package mapconstruction.algorithms.distance.frechet;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
+import com.google.common.base.Preconditions;
 import mapconstruction.algorithms.distance.DistanceMatrix;
 import mapconstruction.algorithms.distance.TrajectoryDistance;
 import mapconstruction.trajectories.Trajectory;
 
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static mapconstruction.GUI.datastorage.ConstantsStorage.ALGOCONSTANTS;
+
 /**
  * Computer for the Semi-weak Frechét distance between two given trajectories.
  * <p>
@@ -21,97 +25,195 @@ import mapconstruction.trajectories.Trajectory;
  * <p>
  * If the number of points in T1 is n and of T2 is m, then the distance is
  * <p>
- * min(F[v(n - 1),e(m - 1)], F[e(n - 2),v(m - 1)]) (assuming zero indexing).
+ * min(F[v(n - 1),e(m - 2)], F[e(n - 2),v(m - 1)]) (assuming zero indexing).
+ * <p>
+ * Cells in row v(i) only depend on row e(i - 1) and v(i - 1), so the table is
+ * filled row by row keeping a single row of each kind.
  *
  * @author Roel
  */
 public class SemiWeakFrechetDistance implements TrajectoryDistance {
 
     /**
-     * Offset used for indexing. The ith vertex coordinate will be
-     * 2i*INDEX_OFFSET, the jth edge coordinate (2j + 1)*INDEX_OFFSET
+     * Minimum number of cells, summed over all pairs, for which
+     * {@link #computeAll(List, List)} runs in parallel.
+     */
+    private static final long PARALLEL_CELLS = 1L << 18;
+
+    /**
+     * Minimum number of cells for which {@link #computeAll(List, List)} runs in parallel.
+     */
+    private final long parallelCells;
+
+    public SemiWeakFrechetDistance() {
+        this(PARALLEL_CELLS);
+    }
+
+    /**
+     * @param parallelCells minimum number of cells, summed over all pairs, for which
+     *                      {@link #computeAll(List, List)} runs in parallel.
      */
-    private static final int INDEX_OFFSET = 1;
+    SemiWeakFrechetDistance(long parallelCells) {
+        this.parallelCells = parallelCells;
+    }
 
+    /**
+     * Computes the semi-weak Frechét distance between the two given trajectories.
+     *
+     * @param t1 first trajectory
+     * @param t2 second trajectory
+     * @return the distance
+     * @throws IllegalArgumentException if a trajectory has less than two points.
+     */
     @Override
     public double compute(Trajectory t1, Trajectory t2) {
         final int n = t1.numPoints();
         final int m = t2.numPoints();
+        checkSize(n, m);
 
         // compute distances.
         final DistanceMatrix distanceMatrix = new DistanceMatrix(t1, t2);
 
-        final Table<Integer, Integer, Double> frechetTable = HashBasedTable.create(2 * n, 2 * m);
+        // ev[j] holds F[e(i), v(j)], ve[j] holds F[v(i), e(j)] for the current row i.
+        // Before being overwritten they hold the value of row i - 1.
+        final double[] ev = new double[m];
+        final double[] ve = new double[m - 1];
 
         // we fill the table row by row, starting with a vertex-y-coordinate, and then alternating.
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < m; j++) {
+                // F[e(i - 1), v(j)]
+                final double evBelow = ev[j];
+
                 // handle coordinates (e(i), v(j))
                 if (i < n - 1) {
-                    // Compute minimum of bottom left adjacent cells.
-                    double min = Double.MAX_VALUE;
-                    if (j > 0) {
-                        min = Math.min(min, frechetTable.get(v(i), e(j - 1)));
-                        min = Math.min(min, frechetTable.get(e(i), v(j - 1)));
-                    }
                     double dist = distanceMatrix.getEdgePointDistance(i, j);
-
-                    double value;
                     if (j == 0) {
                         // base case
-                        value = dist;
+                        ev[j] = dist;
                     } else {
-                        value = Math.max(min, dist);
+                        // minimum of bottom left adjacent cells.
+                        ev[j] = Math.max(Math.min(ve[j - 1], ev[j - 1]), dist);
                     }
-
-                    frechetTable.put(e(i), v(j), value);
                 }
 
                 // handle coordinates (v(i), e(j))
                 if (j < m - 1) {
-                    // Compute minimum of bottom left adjacent cells.
-                    double min = Double.MAX_VALUE;
-                    if (i > 0) {
-                        min = Math.min(min, frechetTable.get(v(i - 1), e(j)));
-                        min = Math.min(min, frechetTable.get(e(i - 1), v(j)));
-                    }
                     double dist = distanceMatrix.getPointEdgeDistance(i, j);
-
-                    double value;
                     if (i == 0) {
                         // base case
-                        value = dist;
+                        ve[j] = dist;
                     } else {
-                        value = Math.max(min, dist);
+                        // minimum of bottom left adjacent cells.
+                        ve[j] = Math.max(Math.min(ve[j], evBelow), dist);
                     }
-
-                    frechetTable.put(v(i), e(j), value);
                 }
-
             }
         }
-        final double d1 = frechetTable.get(v(n - 1), e(m - 2));
-        final double d2 = frechetTable.get(e(n - 2), v(m - 1));
-        final double result = Math.min(d1, d2);
-        return result;
-
+        // ev still holds row n - 2
+        final double d1 = ve[m - 2];
+        final double d2 = ev[m - 1];
+        return Math.min(d1, d2);
     }
 
     /**
-     * Gets the ith vertex coordinate
+     * Decides whether the semi-weak Frechét distance between the two given
+     * trajectories is at most epsilon.
+     * <p>
+     * Equivalent to {@code compute(t1, t2) <= epsilon}, but only tracks
+     * which cells are reachable, and stops as soon as no path can reach the
+     * end of the table anymore.
      *
-     * @param i
+     * @param t1      first trajectory
+     * @param t2      second trajectory
+     * @param epsilon maximum distance
+     * @return whether the distance is at most epsilon.
+     * @throws IllegalArgumentException if a trajectory has less than two points.
      */
-    private int v(int i) {
-        return 2 * i * INDEX_OFFSET;
+    public boolean isWithin(Trajectory t1, Trajectory t2, double epsilon) {
+        final int n = t1.numPoints();
+        final int m = t2.numPoints();
+        checkSize(n, m);
+
+        final DistanceMatrix distanceMatrix = new DistanceMatrix(t1, t2);
+
+        // the path must end in one of the final cells
+        if (distanceMatrix.getPointEdgeDistance(n - 1, m - 2) > epsilon
+                && distanceMatrix.getEdgePointDistance(n - 2, m - 1) > epsilon) {
+            return false;
+        }
+
+        // Paths may start at any free cell (e(i), v(0)). After the last of these,
+        // a row without reachable cells means no path reaches the end, except
+        // for the last row, as the path may end in the row before.
+        int lastStart = -1;
+        for (int i = 0; i < n - 1; i++) {
+            if (distanceMatrix.getEdgePointDistance(i, 0) <= epsilon) {
+                lastStart = i;
+            }
+        }
+
+        final boolean[] ev = new boolean[m];
+        final boolean[] ve = new boolean[m - 1];
+
+        for (int i = 0; i < n; i++) {
+            boolean any = false;
+            for (int j = 0; j < m; j++) {
+                final boolean evBelow = ev[j];
+
+                if (i < n - 1) {
+                    ev[j] = (j == 0 || ve[j - 1] || ev[j - 1])
+                            && distanceMatrix.getEdgePointDistance(i, j) <= epsilon;
+                    any |= ev[j];
+                }
+
+                if (j < m - 1) {
+                    ve[j] = (i == 0 || ve[j] || evBelow)
+                            && distanceMatrix.getPointEdgeDistance(i, j) <= epsilon;
+                    any |= ve[j];
+                }
+            }
+            if (!any && i >= lastStart && i < n - 1) {
+                return false;
+            }
+        }
+        return ve[m - 2] || ev[m - 1];
     }
 
     /**
-     * Gets the ith edge coordinate
+     * Computes the distances between all pairs of trajectories from the two
+     * lists.
+     * <p>
+     * If the total amount of work is large enough and more than one thread is
+     * configured, the rows of the matrix are computed in parallel on the
+     * common fork-join pool. The trajectories are only read.
      *
-     * @param i
+     * @param trajectories1 first list of trajectories
+     * @param trajectories2 second list of trajectories
+     * @return matrix with at [i][j] the distance between the ith trajectory
+     * of the first list and the jth of the second.
      */
-    private int e(int i) {
-        return (2 * i + 1) * INDEX_OFFSET;
+    @Override
+    public double[][] computeAll(List<? extends Trajectory> trajectories1, List<? extends Trajectory> trajectories2) {
+        final double[][] result = new double[trajectories1.size()][trajectories2.size()];
+
+        long points1 = trajectories1.stream().mapToLong(Trajectory::numPoints).sum();
+        long points2 = trajectories2.stream().mapToLong(Trajectory::numPoints).sum();
+        IntStream rows = IntStream.range(0, trajectories1.size());
+        if (ALGOCONSTANTS.getNumThreads() > 1 && trajectories1.size() > 1 && points1 * points2 >= parallelCells) {
+            rows = rows.parallel();
+        }
+        rows.forEach(i -> computeRow(trajectories1.get(i), trajectories2, result[i]));
+        return result;
+    }
+
+    private void computeRow(Trajectory t1, List<? extends Trajectory> trajectories2, double[] row) {
+        for (int j = 0; j < row.length; j++) {
+            row[j] = compute(t1, trajectories2.get(j));
+        }
+    }
+
+    private static void checkSize(int n, int m) {
+        Preconditions.checkArgument(n >= 2 && m >= 2, "Trajectories must have at least two points, got %s and %s", n, m);
     }
 }
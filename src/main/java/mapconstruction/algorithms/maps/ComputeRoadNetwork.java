@@ -21,6 +21,7 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.Function;
 
 import static mapconstruction.GUI.datastorage.ConstantsStorage.ALGOCONSTANTS;
 import static mapconstruction.GUI.datastorage.DataStorage.STORAGE;
@@ -52,14 +53,29 @@ public class ComputeRoadNetwork implements Serializable {
     private RoadMap roadMap;
 
     /**
-     * The class that adds RoadSections to the RoadMap.
+     * The class that adds RoadSections to the RoadMap, only used while drawing the streets.
      */
-    private DrawOnRoadMap drawOnRoadMap;
+    private transient DrawOnRoadMap drawOnRoadMap;
+
+    /**
+     * Index on the intersections, used while computing the indexes at which the bundles meet the intersections.
+     */
+    private transient IntersectionIndex intersectionIndex;
 
     /**
      * Initiates the computation of the RoadNetwork
      */
     public ComputeRoadNetwork() {
+        this(IntersectionIndex::new);
+    }
+
+    /**
+     * Initiates the computation of the RoadNetwork, looking up the intersections near the bundles in the index created
+     * by the given function.
+     *
+     * @param indexFactory creates the index on the computed intersections
+     */
+    ComputeRoadNetwork(Function<List<Intersection>, IntersectionIndex> indexFactory) {
         System.out.println("[RoadNetwork] Using " + STORAGE.getDisplayedBundles().size() + " bundles");
 
         // Run algorithms
@@ -79,6 +95,7 @@ public class ComputeRoadNetwork implements Serializable {
 
         // The list of all calculated intersections
         INTERSECTION_STORAGE.setIntersections(intersections);
+        intersectionIndex = indexFactory.apply(intersections);
 
         start = System.currentTimeMillis();
         // Second we should get all the representative index at which point we cross the intersection, for every bundle
@@ -91,6 +108,7 @@ public class ComputeRoadNetwork implements Serializable {
         //      2C. At this point we assume we caught all bundles that actually 'hit' the intersection.
         //      Therefore we now only have to check whether the endings of the bundles also hit a specific intersection.
         computeAllIntersectionIndexesByBundlesEndings();
+        intersectionIndex = null;
 
         // Third, we set for each intersection which bundles cross this intersection, at which index and what the
         //      next and previous intersection are.
@@ -221,7 +239,7 @@ public class ComputeRoadNetwork implements Serializable {
         for (Intersection intersection1 : INTERSECTION_STORAGE.getIntersections()) {
             // First we get the nearbyIntersections.
             List<Intersection> nearbyIntersections = new ArrayList<>();
-            for (Intersection intersection2 : INTERSECTION_STORAGE.getIntersections()) {
+            for (Intersection intersection2 : intersectionIndex.getIntersectionsNear(intersection1.getLocation(), 200)) {
                 if (intersection1 != intersection2 &&
                         intersection1.getLocation().distance(intersection2.getLocation()) < 200) {
                     nearbyIntersections.add(intersection2);
@@ -233,7 +251,7 @@ public class ComputeRoadNetwork implements Serializable {
             Set<Bundle> allBundlesAroundIntersection1 = new HashSet<>(intersection1.getAllBundlesAroundIntersection());
             for (Bundle bundle : intersection1.getAllBundlesAroundIntersection()) {
                 Representative bundleRep = bundle.getRepresentative();
-                double index1 = GeometryUtil.getIndexOfTrajectoryClosestToPoint(bundleRep, intersection1.getLocation());
+                double index1 = intersectionIndex.getClosestIndex(bundleRep, intersection1);
                 Point2D location = GeometryUtil.getTrajectoryDecimalPoint(bundleRep, index1);
 
                 double distanceFromInt1 = intersection1.getLocation().distance(location);
@@ -249,7 +267,7 @@ public class ComputeRoadNetwork implements Serializable {
                         continue;
                     }
 
-                    double index2 = GeometryUtil.getIndexOfTrajectoryClosestToPoint(bundleRep, intersection2.getLocation());
+                    double index2 = intersectionIndex.getClosestIndex(bundleRep, intersection2);
                     Point2D location2 = GeometryUtil.getTrajectoryDecimalPoint(bundleRep, index2);
                     // If the distance from the rep to the intersection2 is also larger, than we skip.
                     if (location2.distance(intersection2.getLocation()) > 25) {
@@ -298,7 +316,7 @@ public class ComputeRoadNetwork implements Serializable {
         Representative bundleRep = bundle.getRepresentative();
         double repIndex;
         if (range == null) {
-            repIndex = GeometryUtil.getIndexOfTrajectoryClosestToPoint(bundleRep, location);
+            repIndex = intersectionIndex.getClosestIndex(bundleRep, intersection);
         } else {
             // Prevent infinite recursion.
             if (DoubleMath.fuzzyEquals(range.lowerEndpoint(), range.upperEndpoint(), 1E-5)) {
@@ -391,7 +409,11 @@ public class ComputeRoadNetwork implements Serializable {
         Intersection closestExtensionIntersection = null;
         double closestIntersectionIndexOnSubRep = 0.0;
 
-        for (Intersection intersection : INTERSECTION_STORAGE.getIntersections()) {
+        Point2D first = subRep.getPoint(0);
+        Point2D last = subRep.getPoint(subRep.numPoints() - 1);
+        List<Intersection> candidates = intersectionIndex.getIntersectionsNear(
+                new Line2D.Double(first, last).getBounds2D(), maxTrajectoryExtension);
+        for (Intersection intersection : candidates) {
             Point2D location = intersection.getLocation();
 
             // Just to prevent doing a load of work for nothing..
@@ -460,7 +482,8 @@ public class ComputeRoadNetwork implements Serializable {
      * is an intersection within reach.
      */
     private void computeForWholeRepExceptEndingsIfNearIntersection(Subtrajectory subRep) {
-        for (Intersection intersection : INTERSECTION_STORAGE.getIntersections()) {
+        // Intersections further away than the maximum distance of 20 meters are never within reach.
+        for (Intersection intersection : intersectionIndex.getIntersectionsNear(subRep, 20)) {
             computeForASubRepIfNearIntersection(subRep, intersection);
         }
     }
@@ -0,0 +1,114 @@
+package mapconstruction.algorithms.maps;
+
+import mapconstruction.algorithms.maps.intersections.containers.Intersection;
+import mapconstruction.trajectories.Representative;
+import mapconstruction.trajectories.Trajectory;
+import mapconstruction.util.GeometryUtil;
+import mapconstruction.util.GridIndex;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+
+/**
+ * Index on the intersections of the road network, used while connecting the bundles to the intersections.
+ * <p>
+ * The intersections are put in a grid on their location, so the intersections near a location or a part of a
+ * representative are found without scanning all intersections. The index of the point of a representative closest
+ * to an intersection is memoised, as several passes project the same representative onto the same intersection.
+ * The locations of the intersections must not change while the index is used.
+ */
+class IntersectionIndex {
+
+    /**
+     * Size of the grid cells, in meters.
+     */
+    private static final double CELL_SIZE = 200;
+
+    private final List<Intersection> intersections;
+    private final Point2D[] locations;
+    private final GridIndex grid;
+
+    /**
+     * Index of the closest point on a representative, per representative and intersection. Intersections are equal
+     * by location only, so both are compared by identity.
+     */
+    private final Map<Representative, Map<Intersection, Double>> closestIndexes = new IdentityHashMap<>();
+
+    /**
+     * Builds the index on the given intersections.
+     *
+     * @param intersections the intersections, with their final location.
+     */
+    IntersectionIndex(List<Intersection> intersections) {
+        this.intersections = new ArrayList<>(intersections);
+        this.locations = new Point2D[intersections.size()];
+        this.grid = new GridIndex(CELL_SIZE);
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = intersections.get(i).getLocation();
+            grid.add(locations[i].getX(), locations[i].getY(), i);
+        }
+    }
+
+    /**
+     * Gets the intersections that may be within the given distance of the location, in the order of the list of
+     * intersections. This includes all intersections within the distance.
+     */
+    List<Intersection> getIntersectionsNear(Point2D location, double distance) {
+        return getIntersectionsInBox(location.getX() - distance, location.getY() - distance,
+                location.getX() + distance, location.getY() + distance);
+    }
+
+    /**
+     * Gets the intersections within the given distance of the rectangle in both coordinates, in the order of the list
+     * of intersections.
+     */
+    List<Intersection> getIntersectionsNear(Rectangle2D rectangle, double distance) {
+        return getIntersectionsInBox(rectangle.getMinX() - distance, rectangle.getMinY() - distance,
+                rectangle.getMaxX() + distance, rectangle.getMaxY() + distance);
+    }
+
+    /**
+     * Gets the intersections that may be within the given distance of the trajectory, in the order of the list of
+     * intersections. This includes all intersections within the distance.
+     */
+    List<Intersection> getIntersectionsNear(Trajectory t, double distance) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < t.numPoints(); i++) {
+            minX = Math.min(minX, t.getX(i));
+            minY = Math.min(minY, t.getY(i));
+            maxX = Math.max(maxX, t.getX(i));
+            maxY = Math.max(maxY, t.getY(i));
+        }
+        return getIntersectionsInBox(minX - distance, minY - distance, maxX + distance, maxY + distance);
+    }
+
+    private List<Intersection> getIntersectionsInBox(double minX, double minY, double maxX, double maxY) {
+        List<Integer> found = new ArrayList<>();
+        grid.forEachInBox(minX, minY, maxX, maxY, i -> {
+            Point2D location = locations[i];
+            if (location.getX() >= minX && location.getX() <= maxX && location.getY() >= minY && location.getY() <= maxY) {
+                found.add(i);
+            }
+        });
+        Collections.sort(found);
+
+        List<Intersection> result = new ArrayList<>(found.size());
+        for (int i : found) {
+            result.add(intersections.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the index of the point on the representative closest to the intersection, as computed by
+     * {@link GeometryUtil#getIndexOfTrajectoryClosestToPoint}.
+     */
+    double getClosestIndex(Representative rep, Intersection intersection) {
+        return closestIndexes.computeIfAbsent(rep, r -> new IdentityHashMap<>())
+                .computeIfAbsent(intersection, i -> GeometryUtil.getIndexOfTrajectoryClosestToPoint(rep, i.getLocation()));
+    }
+}
@@ -5,6 +5,8 @@ import mapconstruction.algorithms.maps.intersections.containers.IntersectionPoin
 import mapconstruction.trajectories.Representative;
 import mapconstruction.trajectories.Subtrajectory;
 import mapconstruction.util.GeometryUtil;
+import mapconstruction.util.GridIndex;
+import mapconstruction.util.UnionFind;
 
 import java.awt.geom.Point2D;
 import java.util.*;
@@ -14,8 +16,18 @@ import static mapconstruction.GUI.datastorage.DataStorage.STORAGE;
 public class ComputeIntersectionClusters {
 
 
+    /**
+     * Maximum distance between two merge compatible intersection points in the same cluster.
+     */
+    private static final double MAX_MERGE_DISTANCE = 50;
+
     /**
      * Merge similar intersections, such that each intersection is only represented by one object
+     * <p>
+     * Two intersection points end up in the same cluster if they are connected by a chain of merge compatible
+     * intersection points, each within {@value #MAX_MERGE_DISTANCE} meters of the next. The points are indexed in a
+     * grid with cells of that size, so only nearby points are tested for compatibility, and clusters are joined in a
+     * union-find structure.
      *
      * @param mergedInts,     the list where we add the final merged intersection objects to
      * @param roadPointsInts, the intersections found with the help of RoadPoints
@@ -24,50 +36,57 @@ public class ComputeIntersectionClusters {
     static void mergeSimilarPairs(List<IntersectionCluster> mergedInts,
                                   List<IntersectionPoint> roadPointsInts,
                                   List<IntersectionPoint> turnInts) {
-        // Run some nice algorithm to merge similar ones
         List<IntersectionPoint> allIntersectionsPoints = new ArrayList<>();
         allIntersectionsPoints.addAll(roadPointsInts);
         allIntersectionsPoints.addAll(turnInts);
 
-        for (IntersectionPoint intP1 : allIntersectionsPoints) {
-            Set<IntersectionCluster> clustersToMergeWith = new HashSet<>();
-            for (IntersectionCluster cluster : mergedInts) {
-                for (IntersectionPoint intP2 : cluster.getAllIntersectionPoints()) {
-                    if (intP2.getLocation().distance(intP1.getLocation()) > 50) {
-                        continue;
-                    }
-                    if (areIntersectionPointsMergeCompatible(intP1, intP2)) {
-                        clustersToMergeWith.add(cluster);
-                        break;
-                    }
-                }
+        int n = allIntersectionsPoints.size();
+        List<Set<Subtrajectory>> bundle1Subs = new ArrayList<>(n);
+        List<Set<Subtrajectory>> bundle2Subs = new ArrayList<>(n);
+        for (IntersectionPoint intP : allIntersectionsPoints) {
+            bundle1Subs.add(intP.getLongBundle1().getNonReverseSubtrajectories());
+            bundle2Subs.add(intP.getLongBundle2().getNonReverseSubtrajectories());
+        }
 
-            }
-            if (clustersToMergeWith.size() == 0) {
-                mergedInts.add(new IntersectionCluster(intP1));
-            } else if (clustersToMergeWith.size() == 1) {
-                clustersToMergeWith.forEach(v -> v.addNewIntersectionPoint(intP1));
-            } else {  // clustersToMergeWith > 1
-                Iterator<IntersectionCluster> clusterIterator = clustersToMergeWith.iterator();
-                IntersectionCluster mainCluster = clusterIterator.next();
-                mainCluster.addNewIntersectionPoint(intP1);
-
-                while (clusterIterator.hasNext()) {
-                    IntersectionCluster cluster = clusterIterator.next();
-                    mainCluster.mergeWithOtherCluster(cluster);
-                    mergedInts.remove(cluster);
+        // Each point is compared with the points before it, as when adding the points one by one.
+        UnionFind clusters = new UnionFind(n);
+        GridIndex grid = new GridIndex(MAX_MERGE_DISTANCE);
+        for (int i = 0; i < n; i++) {
+            final int i1 = i;
+            Point2D location = allIntersectionsPoints.get(i).getLocation();
+            grid.forEachNear(location.getX(), location.getY(), i2 -> {
+                if (clusters.connected(i1, i2) ||
+                        allIntersectionsPoints.get(i2).getLocation().distance(location) > MAX_MERGE_DISTANCE) {
+                    return;
                 }
-            }
+                if (areIntersectionPointsMergeCompatible(bundle1Subs.get(i1), bundle2Subs.get(i1),
+                        bundle1Subs.get(i2), bundle2Subs.get(i2))) {
+                    clusters.union(i1, i2);
+                }
+            });
+            grid.add(location.getX(), location.getY(), i);
         }
 
+        // Clusters are ordered by their first point, the points of a cluster in the order they were given.
+        Map<Integer, IntersectionCluster> clusterOfRoot = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            IntersectionPoint intP = allIntersectionsPoints.get(i);
+            IntersectionCluster cluster = clusterOfRoot.get(clusters.find(i));
+            if (cluster == null) {
+                cluster = new IntersectionCluster(intP);
+                clusterOfRoot.put(clusters.find(i), cluster);
+                mergedInts.add(cluster);
+            } else {
+                cluster.addNewIntersectionPoint(intP);
+            }
+        }
     }
 
-    private static boolean areIntersectionPointsMergeCompatible(IntersectionPoint intP1, IntersectionPoint intP2) {
-        Set<Subtrajectory> P1B1subs = intP1.getLongBundle1().getNonReverseSubtrajectories();
-        Set<Subtrajectory> P1B2subs = intP1.getLongBundle2().getNonReverseSubtrajectories();
-        Set<Subtrajectory> P2B1subs = intP2.getLongBundle1().getNonReverseSubtrajectories();
-        Set<Subtrajectory> P2B2subs = intP2.getLongBundle2().getNonReverseSubtrajectories();
-
+    /**
+     * Whether two intersection points are merge compatible, given the nonReverse subtrajectories of their bundles.
+     */
+    private static boolean areIntersectionPointsMergeCompatible(Set<Subtrajectory> P1B1subs, Set<Subtrajectory> P1B2subs,
+                                                                Set<Subtrajectory> P2B1subs, Set<Subtrajectory> P2B2subs) {
         if (checkForOverlaps(P1B1subs, P1B2subs, P2B1subs, P2B2subs)) {
             return true;
         }
@@ -4,6 +4,8 @@ import mapconstruction.algorithms.maps.intersections.containers.Intersection;
 import mapconstruction.algorithms.maps.intersections.containers.IntersectionCluster;
 import mapconstruction.trajectories.Bundle;
 import mapconstruction.util.GeometryUtil;
+import mapconstruction.util.GridIndex;
+import mapconstruction.util.UnionFind;
 
 import java.awt.geom.Point2D;
 import java.util.*;
@@ -31,91 +33,165 @@ public class ComputeIntersections {
         return intersections;
     }
 
+    /**
+     * Maximum distance between two clusters of the same intersection.
+     */
+    private static final double MAX_CLUSTER_DISTANCE = 50;
+
     /**
      * Calculates the merging of intersectionClusters into actual intersections.
+     * <p>
+     * A cluster belongs to the same intersection as an earlier cluster within {@value #MAX_CLUSTER_DISTANCE} meters
+     * if both clusters have a bundle in common, and the clusters are close on the largest such bundle. The clusters
+     * are indexed in a grid on their location, and the intersections are the connected components of this relation,
+     * kept in a union-find structure.
+     *
      * @param clusters, all found intersectionClusters
-     * @return all intersectionsClusters merged into intersections.
+     * @return all intersectionsClusters merged into intersections, in the order of their first cluster.
      */
-    private static List<Intersection> calculateIntersection(List<IntersectionCluster> clusters){
-        List<Intersection> allIntersections = new ArrayList<>();
-
-        for (IntersectionCluster cluster1: clusters) {
-            Set<Bundle> bundlesAtCluster1 = cluster1.getAllBundlesAroundThisCluster();
-
-            Boolean merged = false;
-
-            Set<Intersection> intersectionsCluster1HasToMergeWith = new HashSet<>();
-            for (Intersection intersection : allIntersections){
-                for (IntersectionCluster cluster2: intersection.getAllIntersectionClusters()){
-                    if (cluster1.equals(cluster2)){
-                        continue;
-                    }
-
-                    if (cluster1.getLocation().distance(cluster2.getLocation()) > 50){
-                        continue;
-                    }
-                    Set<Bundle> bundlesAtCluster2 = cluster2.getAllBundlesAroundThisCluster();
-                    Set<Bundle> bundlesInBothClusters = new HashSet<>(bundlesAtCluster2);
-                    bundlesInBothClusters.retainAll(bundlesAtCluster1);
-
-                    List<Bundle> filteredBundles = new ArrayList<>(bundlesInBothClusters);
-                    IntersectionUtil.filterOutBundlesWithAToSmallRep(filteredBundles, cluster1.getLocation(), 15.0, true);
-                    IntersectionUtil.filterOutBundlesWithAToSmallRep(filteredBundles, cluster2.getLocation(), 15.0, true);
-
-                    bundlesInBothClusters = new HashSet<>(filteredBundles);
-
-                    if (bundlesInBothClusters.size() == 0){
-//                        System.out.println("The unexpected happened. There must be a 6-way intersection??");
-                        continue;
-                    }
-
-                    Bundle largestBundle = IntersectionUtil.getLargestBundle(bundlesInBothClusters);
-
-                    Point2D cluster1OnLargestBundle = GeometryUtil.getPointOnTrajectoryClosestToOtherPoint(
-                            largestBundle.getRepresentative(), cluster1.getLocation());
-                    Point2D cluster2OnLargestBundle = GeometryUtil.getPointOnTrajectoryClosestToOtherPoint(
-                            largestBundle.getRepresentative(), cluster2.getLocation());
+    static List<Intersection> calculateIntersection(List<IntersectionCluster> clusters){
+        int n = clusters.size();
+        List<Set<Bundle>> bundlesAtClusters = new ArrayList<>(n);
+        List<Map<Bundle, Boolean>> bundleRepsAroundClusters = new ArrayList<>(n);
+        for (IntersectionCluster cluster : clusters) {
+            bundlesAtClusters.add(cluster.getAllBundlesAroundThisCluster());
+            bundleRepsAroundClusters.add(new HashMap<>());
+        }
 
-                    if (cluster1OnLargestBundle.distance(cluster2OnLargestBundle) < 15){
-                        intersectionsCluster1HasToMergeWith.add(intersection);
-                        break;
-                    }
+        UnionFind intersections = new UnionFind(n);
+        GridIndex grid = new GridIndex(MAX_CLUSTER_DISTANCE);
+        for (int i = 0; i < n; i++) {
+            final int i1 = i;
+            IntersectionCluster cluster1 = clusters.get(i);
+            grid.forEachNear(cluster1.getLocation().getX(), cluster1.getLocation().getY(), i2 -> {
+                if (intersections.connected(i1, i2)) {
+                    return;
                 }
-            }
+                IntersectionCluster cluster2 = clusters.get(i2);
+                if (cluster1.getLocation().distance(cluster2.getLocation()) > MAX_CLUSTER_DISTANCE) {
+                    return;
+                }
+                if (areClustersOfSameIntersection(cluster1, bundlesAtClusters.get(i1), bundleRepsAroundClusters.get(i1),
+                        cluster2, bundlesAtClusters.get(i2), bundleRepsAroundClusters.get(i2))) {
+                    intersections.union(i1, i2);
+                }
+            });
+            grid.add(cluster1.getLocation().getX(), cluster1.getLocation().getY(), i);
+        }
 
-            // Check where we have to add our cluster1 into
-            if (intersectionsCluster1HasToMergeWith.size() == 0){
-                allIntersections.add(new Intersection(cluster1));
-            } else if (intersectionsCluster1HasToMergeWith.size() == 1){
-                intersectionsCluster1HasToMergeWith.forEach(v -> v.addNewIntersectionCluster(cluster1));
+        List<Intersection> allIntersections = new ArrayList<>();
+        Map<Integer, Intersection> intersectionOfRoot = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Intersection intersection = intersectionOfRoot.get(intersections.find(i));
+            if (intersection == null) {
+                intersection = new Intersection(clusters.get(i));
+                intersectionOfRoot.put(intersections.find(i), intersection);
+                allIntersections.add(intersection);
             } else {
-                Iterator<Intersection> intersectionIterator = intersectionsCluster1HasToMergeWith.iterator();
-                Intersection mainIntersection = intersectionIterator.next();
-                mainIntersection.addNewIntersectionCluster(cluster1);
-
-                while (intersectionIterator.hasNext()) {
-                    Intersection intersection = intersectionIterator.next();
-                    mainIntersection.mergeWithAnotherIntersection(intersection, null);
-                    allIntersections.remove(intersection);
-                }
+                intersection.addNewIntersectionCluster(clusters.get(i));
             }
         }
         return allIntersections;
     }
 
-    private static List<Intersection> mergeBasedOnFinalLocation(List<Intersection> intersections, double mergeDistance){
-        List<Intersection> intersectionList = new ArrayList<>(intersections);
+    /**
+     * Checks whether two nearby clusters belong to the same intersection.
+     *
+     * @param bundlesAtCluster1,       bundles around cluster1
+     * @param bundleRepsAroundCluster1, for bundles tested before, whether their representative continues for 15 meters
+     *                                 both ways from cluster1
+     */
+    private static boolean areClustersOfSameIntersection(IntersectionCluster cluster1, Set<Bundle> bundlesAtCluster1,
+                                                         Map<Bundle, Boolean> bundleRepsAroundCluster1,
+                                                         IntersectionCluster cluster2, Set<Bundle> bundlesAtCluster2,
+                                                         Map<Bundle, Boolean> bundleRepsAroundCluster2) {
+        Set<Bundle> bundlesInBothClusters = new HashSet<>();
+        for (Bundle b : bundlesAtCluster2) {
+            if (bundlesAtCluster1.contains(b) &&
+                    hasRepAroundLocation(b, cluster1.getLocation(), bundleRepsAroundCluster1) &&
+                    hasRepAroundLocation(b, cluster2.getLocation(), bundleRepsAroundCluster2)) {
+                bundlesInBothClusters.add(b);
+            }
+        }
+
+        if (bundlesInBothClusters.size() == 0){
+//            System.out.println("The unexpected happened. There must be a 6-way intersection??");
+            return false;
+        }
+
+        Bundle largestBundle = IntersectionUtil.getLargestBundle(bundlesInBothClusters);
+
+        Point2D cluster1OnLargestBundle = GeometryUtil.getPointOnTrajectoryClosestToOtherPoint(
+                largestBundle.getRepresentative(), cluster1.getLocation());
+        Point2D cluster2OnLargestBundle = GeometryUtil.getPointOnTrajectoryClosestToOtherPoint(
+                largestBundle.getRepresentative(), cluster2.getLocation());
 
-        for (int i = 0; i < intersectionList.size(); i++){
-            Intersection int1 = intersectionList.get(i);
+        return cluster1OnLargestBundle.distance(cluster2OnLargestBundle) < 15;
+    }
 
-            for (int j = i + 1; j < intersectionList.size(); j++){
-                Intersection int2 = intersectionList.get(j);
+    /**
+     * Whether the representative of the bundle continues for 15 meters both ways from the location, as tested by
+     * {@link IntersectionUtil#filterOutBundlesWithAToSmallRep}. Results are memoised per cluster location.
+     */
+    private static boolean hasRepAroundLocation(Bundle b, Point2D location, Map<Bundle, Boolean> memo) {
+        return memo.computeIfAbsent(b, k -> {
+            List<Bundle> bundles = new ArrayList<>(Collections.singletonList(k));
+            IntersectionUtil.filterOutBundlesWithAToSmallRep(bundles, location, 15.0, true);
+            return !bundles.isEmpty();
+        });
+    }
 
-                if (int1.getLocation().distance(int2.getLocation()) < mergeDistance){
-                    int1.mergeWithAnotherIntersection(int2, int2.getLocation());
-                    intersectionList.remove(j);
-                    j--;
+    /**
+     * Merges intersections whose final locations are closer than the merge distance.
+     * <p>
+     * Each intersection in turn absorbs the later intersections close to its current location, in order. The
+     * location can change when absorbing an intersection with a better location score, after which the remaining
+     * intersections are compared with the new location. The locations are indexed in a grid, so only nearby
+     * intersections are compared.
+     */
+    static List<Intersection> mergeBasedOnFinalLocation(List<Intersection> intersections, double mergeDistance){
+        int n = intersections.size();
+        Point2D[] locations = new Point2D[n];
+        GridIndex grid = new GridIndex(mergeDistance);
+        for (int i = 0; i < n; i++) {
+            locations[i] = intersections.get(i).getLocation();
+            grid.add(locations[i].getX(), locations[i].getY(), i);
+        }
+
+        boolean[] merged = new boolean[n];
+        List<Intersection> intersectionList = new ArrayList<>();
+        for (int i = 0; i < n; i++){
+            if (merged[i]) {
+                continue;
+            }
+            Intersection int1 = intersections.get(i);
+            intersectionList.add(int1);
+
+            int from = i + 1;
+            boolean locationChanged = true;
+            while (locationChanged) {
+                locationChanged = false;
+                Point2D location = int1.getLocation();
+                List<Integer> candidates = new ArrayList<>();
+                final int first = from;
+                grid.forEachNear(location.getX(), location.getY(), j -> {
+                    if (j >= first && !merged[j]) {
+                        candidates.add(j);
+                    }
+                });
+                Collections.sort(candidates);
+
+                for (int j : candidates) {
+                    if (location.distance(locations[j]) < mergeDistance) {
+                        int1.mergeWithAnotherIntersection(intersections.get(j), locations[j]);
+                        merged[j] = true;
+                        if (int1.getLocation() != location) {
+                            // continue with the later intersections, using the new location
+                            from = j + 1;
+                            locationChanged = true;
+                            break;
+                        }
+                    }
                 }
             }
         }
@@ -124,4 +200,4 @@ public class ComputeIntersections {
 
     }
 
-}
\ No newline at end of file
+}
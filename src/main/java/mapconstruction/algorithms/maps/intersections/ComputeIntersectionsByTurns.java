@@ -8,6 +8,7 @@ import mapconstruction.trajectories.Representative;
 import mapconstruction.trajectories.Subtrajectory;
 import mapconstruction.trajectories.Trajectory;
 import mapconstruction.util.GeometryUtil;
+import mapconstruction.util.GridIndex;
 
 import java.awt.geom.Point2D;
 import java.util.*;
@@ -53,41 +54,51 @@ public class ComputeIntersectionsByTurns {
 
     /**
      * This function maps turns together that have similar properties.
+     * <p>
+     * Each turn is added to the cluster of every earlier distinguished turn that is close to it and has similar
+     * angles, or else becomes a distinguished turn itself. Distinguished turns are indexed in a grid on their
+     * location, so a turn is only compared with the distinguished turns in the neighbouring cells.
      *
      * @param allBundles, all the bundles where we get the turns from.
-     * @return all the turns clustered into lists.
+     * @return all the turns clustered into lists, in the order of their distinguished turn.
      */
     public static List<List<Turn>> getTurnClusters(Set<Bundle> allBundles) {
-        HashMap<Turn, List<Turn>> distinguishedTurns = new HashMap<>();
-
         // Cluster settings. Turns have to remain in this bound for them to be able to be considered the same cluster.
         double maxTurnDistance = 20;
         double maxAngleDiff = 15;
 
+        List<Turn> distinguishedTurns = new ArrayList<>();
+        List<List<Turn>> turnClusters = new ArrayList<>();
+        GridIndex grid = new GridIndex(maxTurnDistance);
+
         for (Bundle b : allBundles) {
             List<Turn> bTurns = b.getAllTurns();
             for (Turn t1 : bTurns) {
-                boolean merged = false;
-                for (Turn t2 : distinguishedTurns.keySet()) {
-                    if (t1.getTurnLocation().distance(t2.getTurnLocation()) < maxTurnDistance &&
+                Point2D location = t1.getTurnLocation();
+                boolean[] merged = {false};
+                grid.forEachNear(location.getX(), location.getY(), i -> {
+                    Turn t2 = distinguishedTurns.get(i);
+                    if (location.distance(t2.getTurnLocation()) < maxTurnDistance &&
                             GeometryUtil.getAbsoluteAngleDifference(
                                     t1.getTurnIncomingAngle(), t2.getTurnIncomingAngle()) < maxAngleDiff &&
                             GeometryUtil.getAbsoluteAngleDifference(
                                     t1.getTurnOutgoingAngle(), t2.getTurnOutgoingAngle()) < maxAngleDiff) {
                         // We have a similar turn here.
-                        distinguishedTurns.get(t2).add(t1);
-                        merged = true;
+                        turnClusters.get(i).add(t1);
+                        merged[0] = true;
                     }
-                }
-                if (!merged) {
+                });
+                if (!merged[0]) {
                     List<Turn> justThisTurn = new ArrayList<>();
                     justThisTurn.add(t1);
-                    distinguishedTurns.put(t1, justThisTurn);
+                    grid.add(location.getX(), location.getY(), distinguishedTurns.size());
+                    distinguishedTurns.add(t1);
+                    turnClusters.add(justThisTurn);
                 }
             }
         }
 
-        return new ArrayList<>(distinguishedTurns.values());
+        return turnClusters;
     }
 
     /**
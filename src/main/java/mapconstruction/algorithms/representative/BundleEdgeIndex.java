@@ -0,0 +1,158 @@
+package mapconstruction.algorithms.representative;
+
+import mapconstruction.algorithms.distance.SegmentRTree;
+import mapconstruction.trajectories.Subtrajectory;
+
+import java.awt.geom.Line2D;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Index on the edges of the subtrajectories of a bundle, used to find the edges crossed by the perpendicular lines
+ * of the force representative.
+ * <p>
+ * The edges are numbered consecutively, subtrajectory by subtrajectory in iteration order, so sorting edges by
+ * number gives the order of a scan over all subtrajectories. The coordinates of the edges are kept in a primitive
+ * array and, for large bundles, indexed by a {@link SegmentRTree}, so a query only touches the edges near the query
+ * segment.
+ */
+public class BundleEdgeIndex {
+
+    private final List<Subtrajectory> subtrajectories;
+
+    /**
+     * Number of the first edge of each subtrajectory, followed by the total number of edges.
+     */
+    private final int[] firstEdge;
+
+    /**
+     * Coordinates (x1, y1, x2, y2) of the edges.
+     */
+    private final double[] edges;
+
+    /**
+     * Index on the edges, null if there are too few edges for it to pay off.
+     */
+    private final SegmentRTree rTree;
+
+    /**
+     * Minimum number of edges for which the R-tree is built, below this queries test all edges.
+     */
+    static final int MIN_INDEXED_EDGES = 256;
+
+    /**
+     * Builds the index on the edges of the given subtrajectories.
+     *
+     * @param subtrajectories the subtrajectories of the bundle
+     */
+    public BundleEdgeIndex(Collection<Subtrajectory> subtrajectories) {
+        this.subtrajectories = new ArrayList<>(subtrajectories);
+        this.firstEdge = new int[this.subtrajectories.size() + 1];
+
+        List<Line2D> segments = new ArrayList<>();
+        for (int s = 0; s < this.subtrajectories.size(); s++) {
+            firstEdge[s] = segments.size();
+            Subtrajectory sub = this.subtrajectories.get(s);
+            for (int j = 0; j < sub.numPoints() - 1; j++) {
+                segments.add(sub.getEdge(j));
+            }
+        }
+        firstEdge[this.subtrajectories.size()] = segments.size();
+
+        this.edges = new double[4 * segments.size()];
+        int[] values = new int[segments.size()];
+        for (int e = 0; e < segments.size(); e++) {
+            Line2D segment = segments.get(e);
+            edges[4 * e] = segment.getX1();
+            edges[4 * e + 1] = segment.getY1();
+            edges[4 * e + 2] = segment.getX2();
+            edges[4 * e + 3] = segment.getY2();
+            values[e] = e;
+        }
+        this.rTree = segments.size() >= MIN_INDEXED_EDGES ? new SegmentRTree(10, segments, values) : null;
+    }
+
+    /**
+     * Gets the indexed subtrajectories, in the order of their edge numbers.
+     */
+    public List<Subtrajectory> getSubtrajectories() {
+        return Collections.unmodifiableList(subtrajectories);
+    }
+
+    /**
+     * Gets the number of the first edge of the subtrajectory with the given index. For the number of
+     * subtrajectories, this is the total number of edges.
+     */
+    public int getFirstEdge(int subtrajectory) {
+        return firstEdge[subtrajectory];
+    }
+
+    /**
+     * Gets the index of the subtrajectory the given edge belongs to.
+     */
+    public int getSubtrajectoryOf(int edge) {
+        int s = Arrays.binarySearch(firstEdge, edge);
+        if (s < 0) {
+            return -s - 2;
+        }
+        // skip subtrajectories without edges
+        while (firstEdge[s + 1] == edge) {
+            s++;
+        }
+        return s;
+    }
+
+    public double getX1(int edge) {
+        return edges[4 * edge];
+    }
+
+    public double getY1(int edge) {
+        return edges[4 * edge + 1];
+    }
+
+    public double getX2(int edge) {
+        return edges[4 * edge + 2];
+    }
+
+    public double getY2(int edge) {
+        return edges[4 * edge + 3];
+    }
+
+    /**
+     * Gets the edges intersecting the line segment (x1, y1)-(x2, y2), as {@link Line2D#intersectsLine(Line2D)} of
+     * that segment would report them.
+     *
+     * @return the numbers of the edges found, in ascending order.
+     */
+    public int[] findIntersectingEdges(double x1, double y1, double x2, double y2) {
+        EdgeBuffer buffer = new EdgeBuffer();
+        if (rTree == null) {
+            for (int e = 0; e < firstEdge[subtrajectories.size()]; e++) {
+                if (Line2D.linesIntersect(edges[4 * e], edges[4 * e + 1], edges[4 * e + 2], edges[4 * e + 3], x1, y1, x2, y2)) {
+                    buffer.accept(e);
+                }
+            }
+            return Arrays.copyOf(buffer.data, buffer.size);
+        }
+        rTree.forEachIntersectingSegment(x1, y1, x2, y2, buffer);
+        int[] result = Arrays.copyOf(buffer.data, buffer.size);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Growable int array collecting query results.
+     */
+    private static final class EdgeBuffer implements IntConsumer {
+        int[] data = new int[16];
+        int size;
+
+        @Override
+        public void accept(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * size);
+            }
+            data[size++] = value;
+        }
+    }
+}
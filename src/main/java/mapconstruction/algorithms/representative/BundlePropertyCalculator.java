@@ -0,0 +1,111 @@
+package mapconstruction.algorithms.representative;
+
+import com.google.common.collect.BiMap;
+import mapconstruction.algorithms.diagram.EvolutionDiagram;
+import mapconstruction.exceptions.AlgorithmAbortedException;
+import mapconstruction.log.Log;
+import mapconstruction.log.LogLevel;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.Subtrajectory;
+import mapconstruction.trajectories.Trajectory;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import static mapconstruction.GUI.datastorage.ConstantsStorage.ALGOCONSTANTS;
+
+/**
+ * Calculates the force and turn related properties of bundles.
+ * <p>
+ * The properties of a bundle only depend on the bundle and its best epsilon, so bundles are processed concurrently
+ * using {@code ALGOCONSTANTS.getNumThreads()} workers, without accessing the storage. The properties are memoised in
+ * the bundles, so bundles that already have them, for example from a saved state, are skipped.
+ */
+public class BundlePropertyCalculator {
+
+    private static final String LOGTAG = "BundleProperties";
+
+    /**
+     * Calculates the properties of the given bundles of the diagram, at the best epsilon of their class.
+     *
+     * @param diagram            evolution diagram the bundles belong to
+     * @param bundlesWithClasses bundles with their class in the diagram
+     * @param progress           receives the percentage of bundles done, may be called from any thread.
+     */
+    public static void calculate(EvolutionDiagram diagram, BiMap<Bundle, Integer> bundlesWithClasses, IntConsumer progress) {
+        Map<Bundle, Double> bestEpsilons = new LinkedHashMap<>();
+        bundlesWithClasses.forEach((b, bundleClass) -> bestEpsilons.put(b, diagram.getBestEpsilon(bundleClass)));
+        calculate(bestEpsilons, progress);
+    }
+
+    /**
+     * Calculates the properties of the given bundles.
+     *
+     * @param bestEpsilons bundles with their best epsilon
+     * @param progress     receives the percentage of bundles done, may be called from any thread.
+     */
+    public static void calculate(Map<Bundle, Double> bestEpsilons, IntConsumer progress) {
+        long start = System.currentTimeMillis();
+        List<Map.Entry<Bundle, Double>> entries = new ArrayList<>(bestEpsilons.entrySet());
+        AtomicInteger done = new AtomicInteger();
+
+        int numThreads = Math.min(ALGOCONSTANTS.getNumThreads(), entries.size());
+        if (numThreads <= 1) {
+            for (Map.Entry<Bundle, Double> entry : entries) {
+                calculate(entry.getKey(), entry.getValue(), done, entries.size(), progress);
+            }
+        } else {
+            // Lazily computed edges are shared between the workers, compute them beforehand.
+            Set<Trajectory> parents = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Map.Entry<Bundle, Double> entry : entries) {
+                for (Subtrajectory sub : entry.getKey().getSubtrajectories()) {
+                    sub.edges().forEach(e -> {});
+                    if (parents.add(sub.getParent())) {
+                        sub.getParent().edges().forEach(e -> {});
+                    }
+                }
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                List<Future<?>> futures = new ArrayList<>(entries.size());
+                for (Map.Entry<Bundle, Double> entry : entries) {
+                    futures.add(executor.submit(() -> calculate(entry.getKey(), entry.getValue(), done, entries.size(), progress)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AlgorithmAbortedException("Bundle property calculation interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        long end = System.currentTimeMillis();
+        Log.log(LogLevel.INFO, LOGTAG, "Calculated properties for no bundles: %d", entries.size());
+        Log.log(LogLevel.INFO, LOGTAG, "Bundle properties time: %d ms", end - start);
+    }
+
+    private static void calculate(Bundle b, double bestEps, AtomicInteger done, int total, IntConsumer progress) {
+        b.calculateForceProperties(bestEps);
+        b.calculateTurnProperties();
+
+        int count = done.incrementAndGet();
+        if (count * 100L / total != (count - 1) * 100L / total) {
+            progress.accept((int) (count * 100L / total));
+        }
+    }
+}
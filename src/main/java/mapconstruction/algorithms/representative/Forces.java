@@ -41,6 +41,22 @@ public class Forces {
                                                          List<Point2D> listOfOrthogonal,
                                                          List<Point2D> listOfACLines,
                                                          List<List<OrthogonalIntersection>> listOfIntersectionsWithAngles) {
+        return representativeTrajectory(new BundleEdgeIndex(trajectories), representative, epsilon,
+                listOfForceSteps, listOfOrthogonal, listOfACLines, listOfIntersectionsWithAngles);
+    }
+
+    /**
+     * Calculates the force representative for a bundle, given an index on the edges of its subtrajectories.
+     *
+     * @param edgeIndex, index on the edges of the subtrajectories of the bundle.
+     * @see #representativeTrajectory(Set, Subtrajectory, double, List, List, List, List)
+     */
+    public static List<Point2D> representativeTrajectory(BundleEdgeIndex edgeIndex, Subtrajectory representative,
+                                                         double epsilon,
+                                                         List<List<Point2D>> listOfForceSteps,
+                                                         List<Point2D> listOfOrthogonal,
+                                                         List<Point2D> listOfACLines,
+                                                         List<List<OrthogonalIntersection>> listOfIntersectionsWithAngles) {
 
         /* The representative points */
         List<Point2D> representativePoints = new ArrayList<>();
@@ -52,7 +68,7 @@ public class Forces {
 
         /* Creating a list of subtrajectories without representative */
         List<Subtrajectory> subtrajectoriesWithoutRepresentative = new ArrayList<>();
-        for (Subtrajectory sub : trajectories) {
+        for (Subtrajectory sub : edgeIndex.getSubtrajectories()) {
             if (!sub.equals(representative)) {
                 subtrajectoriesWithoutRepresentative.add(sub);
             }
@@ -81,7 +97,7 @@ public class Forces {
             Line2D perpACThroughB = getLongPerpendicularOnACThroughB(ABCline, filteredRepPoints.get(i));
 
             List<OrthogonalIntersection> intersectionsWithDeltaAngles =
-                    findIntersections(trajectories, perpACThroughB, ABCline, currentPoint);
+                    findIntersections(edgeIndex, perpACThroughB, ABCline, currentPoint);
 
             // Only populate these when their variables are initialized
             if (listOfACLines != null) {
@@ -353,51 +369,73 @@ public class Forces {
      * For a given edge AC and it's perpendicular line through B, find all edges of the trajectories that
      * intersect with the perpendicular line through B. For every intersection get the intersection point and the angle
      * between the edge and edge AC.
+     * <p>
+     * Only the edges found by the index are tested, in the order of the subtrajectories, and the tests work on the
+     * coordinates directly.
      *
-     * @param trajectories      the subtrajectories which points will be on a perpendicular line of OriginalAC.
+     * @param edgeIndex         index on the edges of the subtrajectories which points will be on a perpendicular line
+     *                          of OriginalAC.
      * @param perpendicularLine the
      * @param originalAC        the line where we take the perpendicular lines of which we later on check intersection with
      * @return List of pairs from Point2D to Doubles.
      */
-    private static List<OrthogonalIntersection> findIntersections(Set<Subtrajectory> trajectories,
+    private static List<OrthogonalIntersection> findIntersections(BundleEdgeIndex edgeIndex,
                                                                   Line2D perpendicularLine,
                                                                   Line2D originalAC,
                                                                   Point2D originalPoint) {
         List<OrthogonalIntersection> intersectionsWithAngels = new ArrayList<>();
 
-        for (Subtrajectory sub : trajectories) {
+        double px = perpendicularLine.getX1();
+        double py = perpendicularLine.getY1();
+        double ux = perpendicularLine.getX2() - px;
+        double uy = perpendicularLine.getY2() - py;
+        double originalDirection = GeometryUtil.getDirectionInDegrees(originalAC);
+
+        int[] edges = edgeIndex.findIntersectingEdges(px, py, perpendicularLine.getX2(), perpendicularLine.getY2());
+        int k = 0;
+        while (k < edges.length) {
+            int subIndex = edgeIndex.getSubtrajectoryOf(edges[k]);
+            int firstEdge = edgeIndex.getFirstEdge(subIndex);
+            int end = edgeIndex.getFirstEdge(subIndex + 1);
+
             double minDistance = Double.MAX_VALUE;
             double minimumAngleFound = 180;
-            Point2D minimumAnglePoint = null;
-            int edgeIndex = -1;
-            for (int j = 0; j < sub.numPoints() - 1; j++) {
-                if (perpendicularLine.intersectsLine(sub.getEdge(j))) {
-                    Point2D intersectionPoint = GeometryUtil.intersectionPoint(perpendicularLine, sub.getEdge(j));
-                    if (intersectionPoint != null) {
-                        double differenceAngle =
-                                GeometryUtil.getHeadingDirectionDifference(sub.getEdge(j), originalAC);
-
-                        double distance = sub.getEdge(j).ptSegDist(originalPoint);
-                        if (distance < minDistance && differenceAngle < 90) {
-                            minimumAnglePoint = intersectionPoint;
-                            minimumAngleFound = differenceAngle;
-                            edgeIndex = j;
-                            minDistance = distance;
-                        }
-//                        if (differenceAngle < minimumAngleFound) {
-//                            minimumAnglePoint = intersectionPoint;
-//                            minimumAngleFound = differenceAngle;
-//                            edgeIndex = j;
-//                        }
-                    } else {
-//                        This is not really an error. It's quite often possible we can't find this..
-//                        System.out.println("Error Forces.calculateForceStep. Not able to find the intersection");
-                    }
+            double minimumAngleX = 0;
+            double minimumAngleY = 0;
+            int edgeIndexFound = -1;
+            for (; k < edges.length && edges[k] < end; k++) {
+                int e = edges[k];
+                double qx = edgeIndex.getX1(e);
+                double qy = edgeIndex.getY1(e);
+                double rx = edgeIndex.getX2(e);
+                double ry = edgeIndex.getY2(e);
+                double vx = rx - qx;
+                double vy = ry - qy;
+
+                // Intersection of the lines, as in GeometryUtil.intersectionPoint
+                double denom = vy * ux - vx * uy;
+                if (DoubleMath.fuzzyCompare(denom, 0, 1E-6) == 0) {
+                    // This is not really an error. It's quite often possible we can't find this..
+                    continue;
+                }
+                double alpha = (ux * (py - qy) + uy * (qx - px)) / denom;
+
+                double differenceAngle = GeometryUtil.getAbsoluteAngleDifference(
+                        GeometryUtil.getDirectionInDegrees(qx, qy, rx, ry), originalDirection);
+
+                double distance = Line2D.ptSegDist(qx, qy, rx, ry, originalPoint.getX(), originalPoint.getY());
+                if (distance < minDistance && differenceAngle < 90) {
+                    minimumAngleX = qx + alpha * vx;
+                    minimumAngleY = qy + alpha * vy;
+                    minimumAngleFound = differenceAngle;
+                    edgeIndexFound = e - firstEdge;
+                    minDistance = distance;
                 }
             }
             if (minimumAngleFound != 180) {
-                intersectionsWithAngels.add(
-                        new OrthogonalIntersection(minimumAnglePoint, minimumAngleFound, sub, edgeIndex)
+                intersectionsWithAngels.add(new OrthogonalIntersection(
+                        new Point2D.Double(minimumAngleX, minimumAngleY), minimumAngleFound,
+                        edgeIndex.getSubtrajectories().get(subIndex), edgeIndexFound)
                 );
             }
         }
@@ -436,6 +436,14 @@ public class Turn implements Serializable {
         return subtrajectoryTurnParts;
     }
 
+    public List<Subtrajectory> getTrajectoriesIncluded() {
+        return trajectoriesIncluded;
+    }
+
+    public List<Range<Integer>> getTrajectoriesRanges() {
+        return trajectoriesRanges;
+    }
+
     public Point2D getAveragePoint() {
         return averagePoint;
     }
@@ -6,26 +6,45 @@ import mapconstruction.log.LogLevel;
 import mapconstruction.trajectories.Bundle;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Global benchmark of an algorithm run, collecting timings, counters and results.
+ * <p>
+ * Timings are pushed and popped on a stack per thread, and recorded into a single aggregate tree of {@link Timing}s.
+ * A thread starts at the root of the tree, or at the timing that was current when a task was wrapped using
+ * {@link #inherit(Callable)}, so work done on worker threads is attributed to the part of the algorithm that
+ * submitted it. All methods are safe to call from any thread and do nothing when no benchmark is running.
+ */
 public class Benchmark {
 
     private static String name;
     private static BenchmarkManager instance;
-    private static Timing current;
+    private static volatile Timing root;
+    private static long startNanos;
     private static Map<String, Set<Bundle>> result;
-    private static boolean enabled;
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static volatile boolean enabled;
     private static Thread memMonitor = null;
 
+    /**
+     * Timing stack of the current thread.
+     */
+    private static final ThreadLocal<Scope> scopes = new ThreadLocal<>();
+
     /**
      * Start a new global benchmark, overrides any existing benchmarks.
      */
-    public static void start(BenchmarkManager bm, String n) {
+    public static synchronized void start(BenchmarkManager bm, String n) {
         name = n;
         instance = bm;
         // preserve order of insertion
-        result = new LinkedHashMap<>();
-        current = new Timing("Global");
-        current.time();
+        result = Collections.synchronizedMap(new LinkedHashMap<>());
+        counters.clear();
+        root = new Timing("Global");
+        startNanos = System.nanoTime();
         enabled = true;
         if (memMonitor != null && !memMonitor.isAlive()) memMonitor.start();
 
@@ -35,10 +54,10 @@ public class Benchmark {
     /**
      * Stop benchmarking, usually called at the end of a benchmarked algorithm.
      */
-    public static void stop() {
+    public static synchronized void stop() {
         if (!enabled) return;
         while (pop()) {}
-        current.time();
+        root.record(System.nanoTime() - startNanos);
         if (memMonitor != null) memMonitor.interrupt();
 
         Log.log(LogLevel.INFO, "Benchmark", "Completed benchmark of bundling algorithm at %s", new Date());
@@ -47,15 +66,19 @@ public class Benchmark {
     /**
      * Report all findings to the configured benchmark folder.
      */
-    public static void report() {
+    public static synchronized void report() {
         if (!enabled) return;
         Date now = new Date();
+        Map<String, Set<Bundle>> results;
+        synchronized (result) {
+            results = new LinkedHashMap<>(result);
+        }
         // create yaml
-        for (Map.Entry<String, Set<Bundle>> result : result.entrySet()) {
+        for (Map.Entry<String, Set<Bundle>> result : results.entrySet()) {
             // create image
             instance.saveSnapshot(name, now, result.getKey(), result.getValue());
         }
-        instance.saveStats(name, now, current, result);
+        instance.saveStats(name, now, root, results, getCounters());
 
         Log.log(LogLevel.INFO, "Benchmark", "Saved benchmark results to %s/%s", name, now);
 
@@ -67,39 +90,44 @@ public class Benchmark {
     }
 
     /**
-     * Push a new sub-benchmark onto the timings stack
+     * Whether a benchmark is running.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Push a new sub-benchmark onto the timings stack of the current thread
      */
     public static void push(String format, Object... arguments) {
         if (!enabled) return;
         String name = String.format(format, arguments);
+        Scope scope = scope();
         // create and start a nested timing
-        current = current.addSubtiming(name);
-        current.time();
+        Timing timing = scope.current().addSubtiming(name);
+        scope.frames.push(timing.start());
     }
 
     /**
-     * Pop from a sub-benchmark on the timings stack
+     * Pop from a sub-benchmark on the timings stack of the current thread
      */
     public static boolean pop() {
-        if (enabled && current.hasParent()) {
-            current.time(); // pause child timer
-            current = current.getParent();
-            return true;
-        }
-        return false;
+        if (!enabled) return false;
+        Scope scope = scope();
+        if (scope.frames.isEmpty()) return false;
+        scope.frames.pop().close();
+        return true;
     }
 
     /**
      * Create a new parallel timing, which doesn't stop the parent and needs to be closed upon its own. Additionally,
      * a parallel subtiming can be automatically terminated by wrapping it inside a try-catch block.
      */
-    public static Timing parallel(String format, Object... arguments) {
+    public static Timing.Span parallel(String format, Object... arguments) {
         if (!enabled) return null;
         String name = String.format(format, arguments);
         // create an unbound subtiming and start it
-        Timing subtiming = current.addSubtiming(name);
-        subtiming.time();
-        return subtiming;
+        return scope().current().addSubtiming(name).start();
     }
 
     /**
@@ -111,6 +139,53 @@ public class Benchmark {
         }
     }
 
+    /**
+     * Wraps a task such that the timings it pushes, on whichever thread it runs, are nested in the timing that is
+     * current on the calling thread.
+     */
+    public static <T> Callable<T> inherit(Callable<T> task) {
+        if (!enabled) return task;
+        Scope parent = scope();
+        Timing base = parent.current();
+        return () -> {
+            Scope previous = scopes.get();
+            scopes.set(new Scope(parent.root, base));
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    scopes.remove();
+                } else {
+                    scopes.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the given amount to a named counter, such as the number of free space cells visited.
+     */
+    public static void count(String counter, long delta) {
+        if (!enabled) return;
+        counters.computeIfAbsent(counter, c -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Gets a snapshot of all counters, by name.
+     */
+    public static Map<String, Long> getCounters() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((counter, value) -> snapshot.put(counter, value.sum()));
+        return snapshot;
+    }
+
+    /**
+     * Gets the root of the aggregate tree of timings of the current benchmark, null if none was started.
+     */
+    public static Timing getTimings() {
+        return root;
+    }
+
     /**
      * Report a new (named) result. Used for example when reporting for multiple epsilon.
      */
@@ -119,6 +194,40 @@ public class Benchmark {
         result.put(name, bundles);
     }
 
+    /**
+     * Gets the timing stack of the current thread, starting a new one at the root if the benchmark was restarted.
+     */
+    private static Scope scope() {
+        Timing r = root;
+        Scope scope = scopes.get();
+        if (scope == null || scope.root != r) {
+            scope = new Scope(r, r);
+            scopes.set(scope);
+        }
+        return scope;
+    }
+
+    /**
+     * Timing stack of a thread.
+     */
+    private static final class Scope {
+        final Timing root;
+        /**
+         * Timing the stack is nested in.
+         */
+        final Timing base;
+        final Deque<Timing.Span> frames = new ArrayDeque<>();
+
+        Scope(Timing root, Timing base) {
+            this.root = root;
+            this.base = base;
+        }
+
+        Timing current() {
+            return frames.isEmpty() ? base : frames.peek().getTiming();
+        }
+    }
+
     public static void memMonitor() {
         memMonitor(false);
     }
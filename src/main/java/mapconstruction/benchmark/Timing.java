@@ -1,49 +1,82 @@
 package mapconstruction.benchmark;
 
-import org.yaml.snakeyaml.DumperOptions;
-import org.yaml.snakeyaml.introspector.Property;
-import org.yaml.snakeyaml.nodes.Node;
-import org.yaml.snakeyaml.nodes.NodeTuple;
-import org.yaml.snakeyaml.nodes.Tag;
-import org.yaml.snakeyaml.representer.Represent;
-import org.yaml.snakeyaml.representer.Representer;
-
-import java.beans.Transient;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
-public class Timing implements AutoCloseable {
+/**
+ * Node in the aggregate tree of timings, accumulating all runs of a named part of an algorithm.
+ * <p>
+ * Runs may be recorded concurrently from multiple threads, in which case the duration is the sum of the durations
+ * of all runs and can exceed the wall-clock time. The distribution of the durations of single runs is kept in a
+ * histogram.
+ */
+public class Timing {
 
-    private String title;
-    private boolean isRunning;
-    // duration in ms
-    private long duration;
+    private final String title;
 
-    private Timing parent;
-    private Collection<Timing> subtimings;
+    private final Timing parent;
+
+    /**
+     * Subtimings by title, in order of creation. Guarded by itself.
+     */
+    private final Map<String, Timing> subtimings;
+
+    // total duration in ns
+    private final LongAdder duration;
+
+    // durations of single runs in ns
+    private final Histogram histogram;
 
     public Timing(String title) {
+        this(title, null);
+    }
+
+    private Timing(String title, Timing parent) {
         this.title = title;
-        this.duration = 0;
-        this.subtimings = new ArrayList<>();
+        this.parent = parent;
+        this.subtimings = new LinkedHashMap<>();
+        this.duration = new LongAdder();
+        this.histogram = new Histogram();
     }
 
     public String getTitle() {
         return title;
     }
 
+    /**
+     * Total duration of all runs, in milliseconds.
+     */
     public long getDuration() {
-        return isRunning ? System.currentTimeMillis() - duration : duration;
+        return getDurationNanos() / 1_000_000;
     }
 
-    public Timing getParent() {
-        return parent;
+    /**
+     * Total duration of all runs, in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return duration.sum();
     }
 
-    public void setParent(Timing parent) {
-        this.parent = parent;
+    /**
+     * Number of runs recorded.
+     */
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    /**
+     * Distribution of the durations of single runs, in nanoseconds.
+     */
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    public Timing getParent() {
+        return parent;
     }
 
     public boolean hasParent() {
@@ -51,53 +84,63 @@ public class Timing implements AutoCloseable {
     }
 
     /**
-     * Switches between 'running' and 'paused'. On first occurrence the duration is set to the current time.
-     * With the second occurrence we can then compute the duration. On a third occurrence we set it back to the
-     * current time with the duration subtracted, such that on the next occurrence it will contain the sum of durations.
+     * Records a run with the given duration.
+     *
+     * @param nanos duration in nanoseconds
      */
-    public void time() {
-        this.isRunning = !this.isRunning;
-        this.duration = System.currentTimeMillis() - this.duration;
-
-        if (!this.isRunning) {
-            subtimings.forEach(Timing::close);
-        }
+    public void record(long nanos) {
+        duration.add(nanos);
+        histogram.record(nanos);
     }
 
     /**
-     * Add a new subtiming and update its references to the current timing
+     * Starts a run, which is recorded when the returned span is closed.
      */
-    public Timing addSubtiming(String title) {
-        Timing subtiming = getSubtiming(title);
-        if (subtiming == null) {
-            subtiming = new Timing(title);
-            subtimings.add(subtiming);
-            subtiming.setParent(this);
-        }
-        return subtiming;
+    public Span start() {
+        return new Span(this);
     }
 
-    private Timing getSubtiming(String title) {
-        for (Timing subtiming : subtimings) {
-            if (title.equals(subtiming.title)) {
-                return subtiming;
-            }
+    /**
+     * Gets the subtiming with the given title, adding it if absent.
+     */
+    public Timing addSubtiming(String title) {
+        synchronized (subtimings) {
+            return subtimings.computeIfAbsent(title, t -> new Timing(t, this));
         }
-        return null;
     }
 
+    /**
+     * Gets a snapshot of the subtimings, in order of creation.
+     */
     public Collection<Timing> getSubtimings() {
-        return subtimings;
+        synchronized (subtimings) {
+            return new ArrayList<>(subtimings.values());
+        }
     }
 
-
     /**
-     * Force stop the current timer, will call {@link Benchmark#stop()} when still running.
+     * Single run of a timing, recorded once on close.
      */
-    @Override
-    public void close() {
-        if (this.isRunning) {
-            time();
+    public static final class Span implements AutoCloseable {
+
+        private final Timing timing;
+        private final long start;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Span(Timing timing) {
+            this.timing = timing;
+            this.start = System.nanoTime();
+        }
+
+        public Timing getTiming() {
+            return timing;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                timing.record(System.nanoTime() - start);
+            }
         }
     }
 }
@@ -38,6 +38,11 @@ public class Bundle implements Serializable {
      * Mapping of subtrajectories by their id
      */
     private final Map<String, Subtrajectory> namedTrajectories;
+
+    /**
+     * Named subtrajectories sorted by the undirectional id of their parent. Created on demand.
+     */
+    private transient volatile IdIndex idIndex;
     /**
      * Remember hashcode.
      */
@@ -79,6 +84,12 @@ public class Bundle implements Serializable {
     private List<Turn> turns;  // Actual turns                                                  # required for computation using getAllTurns()
     private List<Turn> sortedTurns;  // Sorted the turns based on occurrence close to the UFR.  # value of JSON representation
     private List<Point2D> mergedForceRepresentative;  // Merged the UFR with turns.             # used in getRepresentative()
+    /**
+     * Whether the force and turn related properties were calculated for the best epsilon of this bundle.
+     * Stored with the bundle, such that they are not recalculated for a saved state.
+     */
+    private boolean forcePropertiesCalculated;
+    private boolean turnPropertiesCalculated;
 
     /**
      * The newly created representative
@@ -416,23 +427,45 @@ public class Bundle implements Serializable {
     }
 
     /**
-     * Calculates all the properties required.
+     * Calculates all the properties required, using the best epsilon of the class of this bundle in the storage.
      */
     @JsonIgnore
     public void calculateForceProperties() {
-        if (unmergedForceRepresentative == null || unmergedForceRepresentative.size() == 0) {
-            calculateForceRelatedProperties();
+        if (!hasForceProperties()) {
+            int bundleClass = STORAGE.getClassFromBundle(this);
+            calculateForceProperties(bundleClass == -1 ? Double.NaN : STORAGE.getEvolutionDiagram().getBestEpsilon(bundleClass));
         }
     }
+
+    /**
+     * Calculates all the properties required, using the given best epsilon of this bundle. Does not access the
+     * storage.
+     *
+     * @param bestEps best epsilon of the class of this bundle, NaN if the bundle has no class.
+     */
     @JsonIgnore
-    public void calculateTurnProperties(){
-        if (mergedForceRepresentative == null || mergedForceRepresentative.size() == 0) {
+    public synchronized void calculateForceProperties(double bestEps) {
+        if (!hasForceProperties()) {
+            calculateForceRelatedProperties(bestEps);
+        }
+    }
+
+    @JsonIgnore
+    public synchronized void calculateTurnProperties(){
+        if (!turnPropertiesCalculated) {
             calculateTurnRelatedProperties();
         }
     }
 
+    /**
+     * Whether the force properties were calculated for the class of this bundle.
+     */
+    private synchronized boolean hasForceProperties() {
+        return forcePropertiesCalculated || (unmergedForceRepresentative != null && unmergedForceRepresentative.size() > 0);
+    }
+
     @JsonIgnore
-    private synchronized void calculateForceRelatedProperties() {
+    private synchronized void calculateForceRelatedProperties(double bestEps) {
         if (debugBundleForceProperties) {
             listOfForceSteps = new ArrayList<>();
             listOfACLines = new ArrayList<>();
@@ -440,13 +473,14 @@ public class Bundle implements Serializable {
             listOfIntersectionsWithAngles = new ArrayList<>();
         }
 
-        int bundleClass = STORAGE.getClassFromBundle(this);
-
         /* Calculate the unmerged force representativeSubtrajectory */
-        if (bundleClass != -1) {
-            double bestEps = STORAGE.getEvolutionDiagram().getBestEpsilon(bundleClass);
-            unmergedForceRepresentative = Forces.representativeTrajectory(trajectories, representativeSubtrajectory, bestEps,
+        if (!Double.isNaN(bestEps)) {
+            BundleEdgeIndex edgeIndex = new BundleEdgeIndex(trajectories);
+            unmergedForceRepresentative = Forces.representativeTrajectory(edgeIndex, representativeSubtrajectory, bestEps,
                     listOfForceSteps, listOfPerpendicularLines, listOfACLines, listOfIntersectionsWithAngles);
+            forcePropertiesCalculated = true;
+            // the turns are merged into the force representative, so merge them into the new one
+            turnPropertiesCalculated = false;
         } else {
             unmergedForceRepresentative = new ArrayList<>();
         }
@@ -533,6 +567,7 @@ public class Bundle implements Serializable {
                     turns, unmergedForceRepresentative
             );
         }
+        turnPropertiesCalculated = true;
     }
 
     @JsonProperty
@@ -618,12 +653,37 @@ public class Bundle implements Serializable {
         // For all of the trajectories T1 in other
         // we have to find a matching T2 trajectory in this
         // meaning that
-        // T1 is a lambda subtrajectory of T2
-        return other.getSubtrajectories().stream()
-                .allMatch(t1 -> {
-                    Subtrajectory t2 = this.getTrajectoryByName(t1.getParent().getUndirectionalLabel());
-                    return t2 != null && trajectoryHasAsLambdaSubtrajectory(t2, t1, lambda);
-                });
+        // T1 is a lambda subtrajectory of T2.
+        // T2 is the trajectory with the same undirectional label, found by merging the sorted ids of both bundles.
+        IdIndex sup = this.getIdIndex();
+        IdIndex sub = other.getIdIndex();
+        if (sub.ids.length < other.size()) {
+            // other has several trajectories with the same label, which are not all in its index
+            return other.getSubtrajectories().stream()
+                    .allMatch(t1 -> {
+                        Subtrajectory t2 = this.getTrajectoryByName(t1.getParent().getUndirectionalLabel());
+                        return t2 != null && trajectoryHasAsLambdaSubtrajectory(t2, t1, lambda);
+                    });
+        }
+        if ((sub.signature & ~sup.signature) != 0) {
+            // some label of other does not occur in this
+            return false;
+        }
+
+        int k = 0;
+        for (int m = 0; m < sub.ids.length; m++) {
+            int id = sub.ids[m];
+            while (k < sup.ids.length && sup.ids[k] < id) {
+                k++;
+            }
+            if (k == sup.ids.length || sup.ids[k] != id) {
+                return false;
+            }
+            if (!trajectoryHasAsLambdaSubtrajectory(sup.trajectories[k], sub.trajectories[m], lambda)) {
+                return false;
+            }
+        }
+        return true;
 
 //        return other.getSubtrajectories().stream()
 //                .allMatch(t1 // forall T1
@@ -650,6 +710,15 @@ public class Bundle implements Serializable {
         return this.hasAsLambdaSubBundle(other, lambda, true);
     }
 
+    private IdIndex getIdIndex() {
+        IdIndex index = idIndex;
+        if (index == null) {
+            index = new IdIndex(namedTrajectories.values());
+            idIndex = index;
+        }
+        return index;
+    }
+
     /**
      * Whether the trajectory sup has sub as subtrajectory
      *
@@ -665,6 +734,29 @@ public class Bundle implements Serializable {
         return sup.hasAsLambdaSubtrajectory(sub, lambda);
     }
 
+    /**
+     * Subtrajectories sorted by the undirectional id of their parent, with a 64-bit signature of the ids for fast
+     * rejection.
+     */
+    private static final class IdIndex {
+        final int[] ids;
+        final Subtrajectory[] trajectories;
+        final long signature;
+
+        IdIndex(Collection<Subtrajectory> named) {
+            trajectories = named.stream()
+                    .sorted(Comparator.comparingInt(t -> t.getParent().getUndirectionalId()))
+                    .toArray(Subtrajectory[]::new);
+            ids = new int[trajectories.length];
+            long bits = 0;
+            for (int k = 0; k < trajectories.length; k++) {
+                ids[k] = trajectories[k].getParent().getUndirectionalId();
+                bits |= 1L << ids[k];
+            }
+            signature = bits;
+        }
+    }
+
     @Override
     public String toString() {
         return toLabelString();
@@ -837,6 +929,67 @@ public class Bundle implements Serializable {
         return trajectoryIndexes;
     }
 
+    /**
+     * Gets the unmerged force representative, null if it was not calculated.
+     */
+    synchronized List<Point2D> getUnmergedForceRepresentative() {
+        return unmergedForceRepresentative;
+    }
+
+    synchronized boolean isForcePropertiesCalculated() {
+        return forcePropertiesCalculated;
+    }
+
+    /**
+     * Gets the force representative with the turns merged into it, null if it was not calculated.
+     */
+    synchronized List<Point2D> getMergedForceRepresentative() {
+        return mergedForceRepresentative;
+    }
+
+    /**
+     * Gets the turns, null if they were not calculated.
+     */
+    synchronized List<Turn> getTurns() {
+        return turns;
+    }
+
+    /**
+     * Whether the turns of this bundle are calculated and merged into its current force representative.
+     */
+    @JsonIgnore
+    public synchronized boolean isTurnPropertiesCalculated() {
+        return turnPropertiesCalculated;
+    }
+
+    Integer getBundleEndsAreRoadPoints() {
+        return bundleEndsAreRoadPoints;
+    }
+
+    /**
+     * Restores the properties of a bundle stored in a {@link TrajectoryTable}. The turn related properties are
+     * restored by {@link #restoreTurnProperties(boolean, List, List)}.
+     */
+    synchronized void restoreProperties(boolean bundleRepCutOff, boolean forcePropertiesCalculated,
+                                        List<Point2D> unmergedForceRepresentative, Integer bundleEndsAreRoadPoints) {
+        this.bundleRepCutOff = bundleRepCutOff;
+        this.forcePropertiesCalculated = forcePropertiesCalculated;
+        this.unmergedForceRepresentative = unmergedForceRepresentative;
+        this.bundleEndsAreRoadPoints = bundleEndsAreRoadPoints;
+    }
+
+    /**
+     * Restores the turn related properties of a bundle stored in a {@link TrajectoryTable}, such that
+     * {@link #calculateTurnProperties()} does not calculate them again. The properties only kept for debugging are
+     * not stored.
+     */
+    synchronized void restoreTurnProperties(boolean turnPropertiesCalculated, List<Turn> turns,
+                                            List<Point2D> mergedForceRepresentative) {
+        this.turnPropertiesCalculated = turnPropertiesCalculated;
+        this.turns = turns;
+        this.mergedForceRepresentative = mergedForceRepresentative;
+    }
+
     public boolean isBundleRepCutOff() {
         return bundleRepCutOff;
     }
@@ -2,7 +2,6 @@ package mapconstruction.trajectories;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import com.google.common.math.DoubleMath;
 
 import java.awt.geom.Point2D;
@@ -21,6 +20,11 @@ import java.util.List;
  * <p>
  * Trajectories can be reversed. In that case the reversed trajectory will get
  * the negative of the identifier. In this way reversing twice yields the same trajectory.
+ * <p>
+ * The coordinates of the points are stored in a single {@code double} array, with the x and y coordinate of each
+ * point next to each other. The array may be shared with other trajectories, each trajectory using the points from
+ * its own offset. A reversed trajectory is a view on the same array that reads the points backwards, so reversing
+ * does not copy the points.
  *
  * @author Roel
  */
@@ -32,46 +36,69 @@ public class FullTrajectory extends Trajectory implements Serializable {
      */
     private long id;
     /**
-     * Points in this trajectory
+     * Coordinates of the points, x and y interleaved, possibly shared with other trajectories.
      */
-    private List<Point2D> points;
+    private double[] coordinates;
+
+    /**
+     * Index in {@code coordinates} of the x coordinate of the first stored point.
+     */
+    private int offset;
 
     /**
      * number of points in the trajectoy.
      */
     private int numPoints;
 
+    /**
+     * Whether the stored points are read backwards.
+     */
+    private boolean backwards;
+
     /**
      * Label of the trajectory
      */
     private String label;
 
     /**
-     * Creates a FullTrajectory with the given list of points and ID.
-     * The points are NOT copied, the list is used as-is.
+     * Creates a FullTrajectory as a view on the given coordinates.
+     * The coordinates are NOT copied, the array is used as-is.
      *
-     * @param points List of points in proper order representing the trajectory.
-     * @param id     Unique id for the trajectory.
-     * @throws NullPointerException if {@code points == null}
+     * @param coordinates coordinates of the points, x and y interleaved.
+     * @param offset      index in the array of the x coordinate of the first point.
+     * @param numPoints   number of points.
+     * @param backwards   whether the points are read from last to first.
+     * @param id          Unique id for the trajectory.
      */
-    private FullTrajectory(List<Point2D> points, long id) {
-        Preconditions.checkNotNull(points, "points == null");
-        this.points = points;
+    private FullTrajectory(double[] coordinates, int offset, int numPoints, boolean backwards, long id) {
+        Preconditions.checkPositionIndexes(offset, offset + 2 * numPoints, coordinates.length);
+        this.coordinates = coordinates;
+        this.offset = offset;
+        this.numPoints = numPoints;
+        this.backwards = backwards;
         this.id = id;
-        this.numPoints = points.size();
     }
 
     /**
      * Creates a fullTrajectory with the given list of points.
-     * The points are NOT copied, the list is used as-is.
+     * The coordinates of the points are copied, later changes to the list or the points are not reflected.
      *
      * @param points List of points in proper order representing the trajectory.
      * @throws NullPointerException if {@code points == null}
      */
     public FullTrajectory(List<Point2D> points) {
-        this(points, nextid++);
+        this(toCoordinates(Preconditions.checkNotNull(points, "points == null")), 0, points.size(), false, nextid++);
     }
 
+    private static double[] toCoordinates(List<Point2D> points) {
+        double[] coordinates = new double[2 * points.size()];
+        int i = 0;
+        for (Point2D p : points) {
+            coordinates[i++] = p.getX();
+            coordinates[i++] = p.getY();
+        }
+        return coordinates;
+    }
 
     @Override
     public int hashCode() {
@@ -105,16 +132,18 @@ public class FullTrajectory extends Trajectory implements Serializable {
 
     @JsonProperty
     public List<Point2D> getPoints() {
-        return points;
+        return points();
     }
 
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The reverse is a view on the same coordinates.
      */
     @Override
     public FullTrajectory reverse() {
-        FullTrajectory rev = new FullTrajectory(Lists.reverse(points), -id);
+        FullTrajectory rev = new FullTrajectory(coordinates, offset, numPoints, !backwards, -id);
         if (label != null) {
             rev.setLabel(label);
         }
@@ -123,7 +152,7 @@ public class FullTrajectory extends Trajectory implements Serializable {
 
     private void writeObject(java.io.ObjectOutputStream out) throws IOException {
         out.writeLong(id);
-        out.writeObject(new ArrayList<>(points));
+        out.writeObject(new ArrayList<>(points()));
         out.writeInt(numPoints);
         out.writeObject(label);
     }
@@ -131,11 +160,9 @@ public class FullTrajectory extends Trajectory implements Serializable {
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         id = in.readLong();
         Object object = in.readObject();
-        if (object != null) {
-            points = (List<Point2D>) object;
-        } else {
-            points = new ArrayList<>();
-        }
+        coordinates = object != null ? toCoordinates((List<Point2D>) object) : new double[0];
+        offset = 0;
+        backwards = false;
         numPoints = in.readInt();
         label = (String) in.readObject();
         nextid = Math.max(Math.abs(id) + 1, nextid);
@@ -157,11 +184,28 @@ public class FullTrajectory extends Trajectory implements Serializable {
 
     @Override
     public Point2D getPoint(int pos) {
-        Preconditions.checkPositionIndex(pos, numPoints(), "pos");
-        if (pos >= numPoints()){
-            System.out.println("Error! FullTrajectory.GetPoint out of range");
-        }
-        return points.get(pos);
+        Preconditions.checkElementIndex(pos, numPoints, "pos");
+        int i = coordinateIndex(pos);
+        return new Point2D.Double(coordinates[i], coordinates[i + 1]);
+    }
+
+    @Override
+    public double getX(int pos) {
+        Preconditions.checkElementIndex(pos, numPoints, "pos");
+        return coordinates[coordinateIndex(pos)];
+    }
+
+    @Override
+    public double getY(int pos) {
+        Preconditions.checkElementIndex(pos, numPoints, "pos");
+        return coordinates[coordinateIndex(pos) + 1];
+    }
+
+    /**
+     * Index in {@code coordinates} of the x coordinate of the point at the given position.
+     */
+    private int coordinateIndex(int pos) {
+        return offset + 2 * (backwards ? numPoints - 1 - pos : pos);
     }
 
     /**
@@ -186,5 +230,27 @@ public class FullTrajectory extends Trajectory implements Serializable {
         this.label = label;
     }
 
+    /**
+     * Returns the label as it was set, null if no label was set.
+     */
+    public String getRawLabel() {
+        return label;
+    }
+
+    /**
+     * Recreates a trajectory with the given identifier and label, as stored by a {@link TrajectoryTable}.
+     * The coordinates are NOT copied, the trajectory is a view on the array.
+     *
+     * @param coordinates coordinates of the points, x and y interleaved.
+     * @param offset      index in the array of the x coordinate of the first point.
+     * @param numPoints   number of points.
+     */
+    static FullTrajectory restore(double[] coordinates, int offset, int numPoints, long id, String label) {
+        FullTrajectory t = new FullTrajectory(coordinates, offset, numPoints, false, id);
+        t.label = label;
+        nextid = Math.max(Math.abs(id) + 1, nextid);
+        return t;
+    }
+
 
 }
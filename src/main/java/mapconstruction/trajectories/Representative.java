@@ -30,6 +30,11 @@ public class Representative extends Trajectory implements Serializable {
      */
     private Representative originalRep;
 
+    /**
+     * Index on the edges, built on first use.
+     */
+    private transient volatile SegmentIndex segmentIndex;
+
     Representative(List<Point2D> points, Bundle parentBundle) {
         this.points = points;
         this.parentBundle = parentBundle;
@@ -119,6 +124,24 @@ public class Representative extends Trajectory implements Serializable {
         return GeometryUtil.getTrajectoryDecimalPoint(this, index);
     }
 
+    /**
+     * Get the index on the edges of the representative, used by the closest point and offset queries of
+     * {@link GeometryUtil}. Short representatives are not indexed, as walking them is as fast.
+     *
+     * @return the index, or null if the representative has too few points.
+     */
+    public SegmentIndex segmentIndex() {
+        if (points.size() < 32) {
+            return null;
+        }
+        SegmentIndex index = segmentIndex;
+        if (index == null) {
+            index = new SegmentIndex(this);
+            segmentIndex = index;
+        }
+        return index;
+    }
+
     /**
      * Get the bundle this representative is part of
      */
@@ -0,0 +1,214 @@
+package mapconstruction.trajectories;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+
+/**
+ * Index on the edges of a trajectory, used to answer closest point and offset queries without walking the whole
+ * trajectory.
+ * <p>
+ * Keeps the length along the trajectory up to each point, and a hierarchy of bounding boxes on runs of consecutive
+ * edges. Consecutive edges lie close together, so the boxes are small and most of them are pruned by a closest edge
+ * query. The trajectory must not change after the index is built.
+ */
+public final class SegmentIndex {
+
+    /**
+     * Maximum number of edges in a leaf of the hierarchy.
+     */
+    private static final int LEAF_SIZE = 8;
+
+    private final double[] xs;
+    private final double[] ys;
+
+    /**
+     * Length along the trajectory from the first point up to each point.
+     */
+    private final double[] lengths;
+
+    /**
+     * Bounding boxes and edge ranges of the nodes of the hierarchy. The children of node {@code i} are
+     * {@code 2i + 1} and {@code 2i + 2}.
+     */
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+    private final int[] firstEdge;
+    private final int[] lastEdge;
+
+    /**
+     * Builds the index on the given trajectory.
+     */
+    SegmentIndex(Trajectory t) {
+        int n = t.numPoints();
+        xs = new double[n];
+        ys = new double[n];
+        lengths = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = t.getX(i);
+            ys[i] = t.getY(i);
+            if (i > 0) {
+                lengths[i] = lengths[i - 1] + Point2D.distance(xs[i - 1], ys[i - 1], xs[i], ys[i]);
+            }
+        }
+
+        int numNodes = 1;
+        while (numNodes * LEAF_SIZE < n - 1) {
+            numNodes *= 2;
+        }
+        numNodes = 2 * numNodes - 1;
+        minX = new double[numNodes];
+        minY = new double[numNodes];
+        maxX = new double[numNodes];
+        maxY = new double[numNodes];
+        firstEdge = new int[numNodes];
+        lastEdge = new int[numNodes];
+        if (n > 1) {
+            build(0, 0, n - 2);
+        }
+    }
+
+    private void build(int node, int from, int to) {
+        firstEdge[node] = from;
+        lastEdge[node] = to;
+        int left = 2 * node + 1;
+        if (left >= firstEdge.length || to - from < LEAF_SIZE) {
+            // Leaf, the children are marked empty.
+            markEmpty(left);
+            markEmpty(left + 1);
+            minX[node] = minY[node] = Double.POSITIVE_INFINITY;
+            maxX[node] = maxY[node] = Double.NEGATIVE_INFINITY;
+            for (int i = from; i <= to + 1; i++) {
+                minX[node] = Math.min(minX[node], xs[i]);
+                minY[node] = Math.min(minY[node], ys[i]);
+                maxX[node] = Math.max(maxX[node], xs[i]);
+                maxY[node] = Math.max(maxY[node], ys[i]);
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        build(left, from, mid);
+        build(left + 1, mid + 1, to);
+        minX[node] = Math.min(minX[left], minX[left + 1]);
+        minY[node] = Math.min(minY[left], minY[left + 1]);
+        maxX[node] = Math.max(maxX[left], maxX[left + 1]);
+        maxY[node] = Math.max(maxY[left], maxY[left + 1]);
+    }
+
+    private void markEmpty(int node) {
+        if (node < firstEdge.length) {
+            firstEdge[node] = 0;
+            lastEdge[node] = -1;
+            markEmpty(2 * node + 1);
+            markEmpty(2 * node + 2);
+        }
+    }
+
+    /**
+     * Gets the number of points of the indexed trajectory.
+     */
+    public int numPoints() {
+        return xs.length;
+    }
+
+    /**
+     * Gets the length along the trajectory from the first point up to the point at the given index.
+     */
+    public double getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * Gets the first index after {@code from} such that the length along the trajectory between both points is at
+     * least the given distance, or the last index if there is none.
+     */
+    public int getIndexAfterLength(int from, double distance) {
+        int lo = from;
+        int hi = xs.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lengths[mid] - lengths[from] >= distance) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Gets the last index before {@code from} such that the length along the trajectory between both points is at
+     * least the given distance, or 0 if there is none.
+     */
+    public int getIndexBeforeLength(int from, double distance) {
+        int lo = 0;
+        int hi = from;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lengths[from] - lengths[mid] >= distance) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Gets the edge closest to the given location among the edges {@code from} up to {@code to}. Ties are broken
+     * towards the lowest edge index, as a linear scan on {@link Line2D#ptSegDist} would.
+     *
+     * @return the index of the closest edge, or -1 if there are no edges in the range.
+     */
+    public int getClosestEdge(double x, double y, int from, int to) {
+        from = Math.max(from, 0);
+        to = Math.min(to, xs.length - 2);
+        if (from > to) {
+            return -1;
+        }
+
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        int[] stack = new int[64];
+        int size = 0;
+        stack[size++] = 0;
+        while (size > 0) {
+            int node = stack[--size];
+            if (lastEdge[node] < from || firstEdge[node] > to) {
+                continue;
+            }
+            // Slack for the rounding of the distances, so equally close edges are never pruned.
+            double boxDistance = boxDistance(node, x, y);
+            if (boxDistance > bestDistance + 1E-9 * (1 + bestDistance)) {
+                continue;
+            }
+
+            int left = 2 * node + 1;
+            if (left >= firstEdge.length || lastEdge[left] < firstEdge[left]) {
+                int last = Math.min(lastEdge[node], to);
+                for (int i = Math.max(firstEdge[node], from); i <= last; i++) {
+                    double distance = Line2D.ptSegDist(xs[i], ys[i], xs[i + 1], ys[i + 1], x, y);
+                    if (distance < bestDistance || (distance == bestDistance && i < best)) {
+                        bestDistance = distance;
+                        best = i;
+                    }
+                }
+            } else if (boxDistance(left, x, y) <= boxDistance(left + 1, x, y)) {
+                // Visit the nearest child first.
+                stack[size++] = left + 1;
+                stack[size++] = left;
+            } else {
+                stack[size++] = left;
+                stack[size++] = left + 1;
+            }
+        }
+        return best;
+    }
+
+    private double boxDistance(int node, double x, double y) {
+        double dx = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+        double dy = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
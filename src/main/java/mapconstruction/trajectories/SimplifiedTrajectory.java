@@ -118,6 +118,18 @@ public class SimplifiedTrajectory extends Trajectory implements Serializable {
         return original.getPoint(indices.get(pos));
     }
 
+    @Override
+    public double getX(int pos) {
+        Preconditions.checkElementIndex(pos, numPoints(), "pos");
+        return original.getX(indices.get(pos));
+    }
+
+    @Override
+    public double getY(int pos) {
+        Preconditions.checkElementIndex(pos, numPoints(), "pos");
+        return original.getY(indices.get(pos));
+    }
+
     @Override
     public int hashCode() {
         int hash = 5;
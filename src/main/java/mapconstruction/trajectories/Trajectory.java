@@ -10,6 +10,8 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -118,6 +120,32 @@ public abstract class Trajectory implements Serializable {
      */
     public abstract Point2D getPoint(int pos);
 
+    /**
+     * Returns the x coordinate of the point at the given position, without creating the point if the trajectory
+     * stores its coordinates.
+     *
+     * @param pos position in the trajectory of the point.
+     * @return x coordinate of {@code getPoint(pos)}
+     * @throws IndexOutOfBoundsException if
+     *                                   {@code pos < 0 || pos >= numPoints()}
+     */
+    public double getX(int pos) {
+        return getPoint(pos).getX();
+    }
+
+    /**
+     * Returns the y coordinate of the point at the given position, without creating the point if the trajectory
+     * stores its coordinates.
+     *
+     * @param pos position in the trajectory of the point.
+     * @return y coordinate of {@code getPoint(pos)}
+     * @throws IndexOutOfBoundsException if
+     *                                   {@code pos < 0 || pos >= numPoints()}
+     */
+    public double getY(int pos) {
+        return getPoint(pos).getY();
+    }
+
     /**
      * Returns the edge at the i-th position in the trajectory.
      *
@@ -137,7 +165,7 @@ public abstract class Trajectory implements Serializable {
         }
 
         if (edges[pos] == null) {
-            edges[pos] = new Line2D.Double(getPoint(pos), getPoint(pos + 1));
+            edges[pos] = new Line2D.Double(getX(pos), getY(pos), getX(pos + 1), getY(pos + 1));
         }
 
         return edges[pos];
@@ -222,6 +250,30 @@ public abstract class Trajectory implements Serializable {
         return undirectedLabel;
     }
 
+    /**
+     * Dense identifiers of the undirectional labels seen so far, starting at 1.
+     */
+    private static final Map<String, Integer> undirectionalIds = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextUndirectionalId = new AtomicInteger();
+
+    // caching of the identifier, 0 if not assigned yet
+    private transient int undirectionalId;
+
+    /**
+     * Returns a small positive integer identifying the undirectional label of this trajectory.
+     * <p>
+     * Two trajectories get the same identifier if and only if their undirectional labels are equal. Identifiers are
+     * assigned densely in order of first use, and are only valid within the running process.
+     *
+     * @return identifier of {@code getUndirectionalLabel()}
+     */
+    public int getUndirectionalId() {
+        if (undirectionalId == 0) {
+            undirectionalId = undirectionalIds.computeIfAbsent(getUndirectionalLabel(), l -> nextUndirectionalId.incrementAndGet());
+        }
+        return undirectionalId;
+    }
+
     public boolean hasAsLambdaEndpoints(Trajectory trajectory, double lambda) {
         double distance = Math.max(
                 Math.min(
@@ -0,0 +1,564 @@
+package mapconstruction.trajectories;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+import mapconstruction.algorithms.representative.containers.Turn;
+import mapconstruction.util.BinaryUtil;
+
+import java.awt.geom.Point2D;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Table of trajectories and bundles numbered by their position, used to store them in a binary file.
+ * <p>
+ * Trajectories and bundles are added to the table, which assigns them consecutive ids. Parents of
+ * subtrajectories, originals of simplified trajectories and subtrajectories of bundles are added before the
+ * trajectory or bundle itself, so they can refer to each other by id. Objects are identified by identity, such that
+ * objects shared before storing are shared after loading.
+ * <p>
+ * The table is stored in chunks: {@link #write(DataOutput)} writes everything added since the previous call, and
+ * {@link #read(ByteBuffer)} reads such a chunk and appends it to the table. Each chunk stores its trajectories
+ * column by column, with the coordinates of all points in two double arrays. Full trajectories read from a chunk
+ * share a single coordinate array.
+ * <p>
+ * The force representative, the turns and the merged force representative of a bundle are stored with it, such that
+ * they are not calculated again after loading. The turns are stored by the parts of the subtrajectories they consist
+ * of, their averages and regression lines are derived from these. Chunks written before the turns were stored are
+ * read by {@link #read(ByteBuffer, boolean)}.
+ */
+public class TrajectoryTable {
+
+    /**
+     * Kinds of trajectories.
+     */
+    private static final byte FULL = 0;
+    private static final byte FULL_REVERSE = 1;
+    private static final byte SIMPLIFIED = 2;
+    private static final byte SUB = 3;
+
+    /**
+     * Kinds of bundles.
+     */
+    private static final byte BUNDLE = 0;
+    private static final byte UNDIRECTIONAL_BUNDLE = 1;
+
+    /**
+     * Flags of bundles.
+     */
+    private static final byte REP_CUT_OFF = 1;
+    private static final byte FORCE_CALCULATED = 2;
+    private static final byte HAS_FORCE_REPRESENTATIVE = 4;
+    private static final byte HAS_ROAD_POINTS = 8;
+    private static final byte TURN_CALCULATED = 16;
+    private static final byte HAS_TURNS = 32;
+    private static final byte HAS_MERGED_REPRESENTATIVE = 64;
+
+    private final List<Trajectory> trajectories = new ArrayList<>();
+    private final Map<Trajectory, Integer> trajectoryIds = new IdentityHashMap<>();
+
+    /**
+     * Forward full trajectories by their identifier, such that their reverses can refer to them.
+     */
+    private final Map<Long, Integer> fullTrajectoryIds = new HashMap<>();
+
+    private final List<Bundle> bundles = new ArrayList<>();
+    private final Map<Bundle, Integer> bundleIds = new IdentityHashMap<>();
+
+    /**
+     * Number of trajectories and bundles that were written or read.
+     */
+    private int storedTrajectories;
+    private int storedBundles;
+
+    /**
+     * Number of trajectories in the table.
+     */
+    public int numTrajectories() {
+        return trajectories.size();
+    }
+
+    /**
+     * Number of bundles in the table.
+     */
+    public int numBundles() {
+        return bundles.size();
+    }
+
+    public Trajectory getTrajectory(int id) {
+        return trajectories.get(id);
+    }
+
+    public Bundle getBundle(int id) {
+        return bundles.get(id);
+    }
+
+    /**
+     * Gets the id of the given trajectory, -1 if it is not in the table.
+     */
+    public int indexOf(Trajectory t) {
+        return trajectoryIds.getOrDefault(t, -1);
+    }
+
+    /**
+     * Gets the id of the given bundle, -1 if it is not in the table.
+     */
+    public int indexOf(Bundle b) {
+        return bundleIds.getOrDefault(b, -1);
+    }
+
+    /**
+     * Adds the trajectory to the table, if it is not in there yet.
+     *
+     * @return the id of the trajectory
+     * @throws IllegalArgumentException if the type of the trajectory can not be stored.
+     */
+    public int add(Trajectory t) {
+        Integer id = trajectoryIds.get(t);
+        if (id != null) {
+            return id;
+        }
+
+        if (t instanceof Subtrajectory) {
+            add(((Subtrajectory) t).getParent());
+        } else if (t instanceof SimplifiedTrajectory) {
+            add(((SimplifiedTrajectory) t).getOriginal());
+        } else if (!(t instanceof FullTrajectory)) {
+            throw new IllegalArgumentException("Can not store trajectory of type " + t.getClass());
+        }
+        return register(t);
+    }
+
+    /**
+     * Adds the bundle and its subtrajectories to the table, if it is not in there yet.
+     *
+     * @return the id of the bundle
+     * @throws IllegalArgumentException if the type of the bundle or its trajectories can not be stored.
+     */
+    public int add(Bundle b) {
+        Integer id = bundleIds.get(b);
+        if (id != null) {
+            return id;
+        }
+        if (b.getClass() != Bundle.class && b.getClass() != UndirectionalBundle.class) {
+            throw new IllegalArgumentException("Can not store bundle of type " + b.getClass());
+        }
+
+        for (Subtrajectory sub : b.getSubtrajectories()) {
+            add(sub);
+        }
+        if (b.getOriginalRepresentative() != null) {
+            add(b.getOriginalRepresentative());
+        }
+        List<Turn> turns = b.getTurns();
+        if (turns != null) {
+            for (Turn turn : turns) {
+                for (Subtrajectory sub : turn.getTrajectoriesIncluded()) {
+                    add(sub);
+                }
+            }
+        }
+        bundleIds.put(b, bundles.size());
+        bundles.add(b);
+        return bundles.size() - 1;
+    }
+
+    private int register(Trajectory t) {
+        int id = trajectories.size();
+        trajectoryIds.put(t, id);
+        trajectories.add(t);
+        if (t instanceof FullTrajectory && !t.isReverse()) {
+            fullTrajectoryIds.putIfAbsent(((FullTrajectory) t).getId(), id);
+        }
+        return id;
+    }
+
+    /**
+     * Writes the trajectories and bundles added since the previous call.
+     *
+     * @param out output to write to
+     * @throws IOException if writing fails.
+     */
+    public void write(DataOutput out) throws IOException {
+        writeTrajectories(out, storedTrajectories, trajectories.size());
+        storedTrajectories = trajectories.size();
+        writeBundles(out, storedBundles, bundles.size());
+        storedBundles = bundles.size();
+    }
+
+    /**
+     * Reads trajectories and bundles written by {@link #write(DataOutput)}, and appends them to the table.
+     * The chunks must be read in the order they were written.
+     *
+     * @param in buffer positioned at the start of the chunk
+     * @throws IllegalStateException if the chunk refers to trajectories or bundles that are not in the table.
+     */
+    public void read(ByteBuffer in) {
+        read(in, true);
+    }
+
+    /**
+     * Reads trajectories and bundles written by {@link #write(DataOutput)}, or by an earlier version which did not
+     * store the turn related properties of bundles, and appends them to the table. The turn related properties of
+     * bundles read from such a chunk are calculated again when needed.
+     *
+     * @param in             buffer positioned at the start of the chunk
+     * @param turnProperties whether the chunk stores the turn related properties of bundles
+     * @throws IllegalStateException if the chunk refers to trajectories or bundles that are not in the table.
+     */
+    public void read(ByteBuffer in, boolean turnProperties) {
+        readTrajectories(in);
+        storedTrajectories = trajectories.size();
+        readBundles(in, turnProperties);
+        storedBundles = bundles.size();
+    }
+
+    private void writeTrajectories(DataOutput out, int from, int to) throws IOException {
+        int n = to - from;
+        byte[] kinds = new byte[n];
+        int[] refs = new int[n];
+        long[] ids = new long[n];
+        // from and to index of subtrajectories, error of simplified trajectories
+        double[] param1 = new double[n];
+        double[] param2 = new double[n];
+        // number of points of full trajectories, number of indices of simplified trajectories
+        int[] sizes = new int[n];
+        List<String> labels = new ArrayList<>();
+        int numPoints = 0;
+        int numIndices = 0;
+
+        for (int k = 0; k < n; k++) {
+            Trajectory t = trajectories.get(from + k);
+            refs[k] = -1;
+            if (t instanceof FullTrajectory) {
+                FullTrajectory full = (FullTrajectory) t;
+                ids[k] = full.getId();
+                Integer forward = t.isReverse() ? fullTrajectoryIds.get(-full.getId()) : null;
+                if (forward != null && forward < from + k) {
+                    // the reverse is recreated from the forward trajectory read before, including its label
+                    kinds[k] = FULL_REVERSE;
+                    refs[k] = forward;
+                } else {
+                    kinds[k] = FULL;
+                    labels.add(full.getRawLabel());
+                    sizes[k] = t.numPoints();
+                    numPoints += sizes[k];
+                }
+            } else if (t instanceof SimplifiedTrajectory) {
+                SimplifiedTrajectory simplified = (SimplifiedTrajectory) t;
+                kinds[k] = SIMPLIFIED;
+                refs[k] = trajectoryIds.get(simplified.getOriginal());
+                param1[k] = simplified.getError();
+                sizes[k] = simplified.numPoints();
+                numIndices += sizes[k];
+            } else {
+                Subtrajectory sub = (Subtrajectory) t;
+                kinds[k] = SUB;
+                refs[k] = trajectoryIds.get(sub.getParent());
+                param1[k] = sub.getFromIndex();
+                param2[k] = sub.getToIndex();
+            }
+        }
+
+        out.writeInt(n);
+        out.write(kinds);
+        BinaryUtil.writeInts(out, refs, 0, n);
+        for (long id : ids) {
+            out.writeLong(id);
+        }
+        BinaryUtil.writeDoubles(out, param1, 0, n);
+        BinaryUtil.writeDoubles(out, param2, 0, n);
+        BinaryUtil.writeInts(out, sizes, 0, n);
+
+        out.writeInt(labels.size());
+        for (String label : labels) {
+            BinaryUtil.writeString(out, label);
+        }
+
+        // coordinates column by column
+        out.writeInt(numPoints);
+        for (int pass = 0; pass < 2; pass++) {
+            for (int k = 0; k < n; k++) {
+                if (kinds[k] == FULL) {
+                    Trajectory t = trajectories.get(from + k);
+                    for (int i = 0; i < sizes[k]; i++) {
+                        out.writeDouble(pass == 0 ? t.getX(i) : t.getY(i));
+                    }
+                }
+            }
+        }
+
+        out.writeInt(numIndices);
+        for (int k = 0; k < n; k++) {
+            if (kinds[k] == SIMPLIFIED) {
+                for (int index : ((SimplifiedTrajectory) trajectories.get(from + k)).getIndices()) {
+                    out.writeInt(index);
+                }
+            }
+        }
+    }
+
+    private void readTrajectories(ByteBuffer in) {
+        int n = in.getInt();
+        byte[] kinds = BinaryUtil.readBytes(in, n);
+        int[] refs = BinaryUtil.readInts(in, n);
+        long[] ids = BinaryUtil.readLongs(in, n);
+        double[] param1 = BinaryUtil.readDoubles(in, n);
+        double[] param2 = BinaryUtil.readDoubles(in, n);
+        int[] sizes = BinaryUtil.readInts(in, n);
+
+        String[] labels = new String[in.getInt()];
+        for (int k = 0; k < labels.length; k++) {
+            labels[k] = BinaryUtil.readString(in);
+        }
+
+        int numPoints = in.getInt();
+        double[] xs = BinaryUtil.readDoubles(in, numPoints);
+        double[] ys = BinaryUtil.readDoubles(in, numPoints);
+        int[] indices = BinaryUtil.readInts(in, in.getInt());
+
+        // the full trajectories of the chunk are views on one array
+        double[] coordinates = new double[2 * numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            coordinates[2 * i] = xs[i];
+            coordinates[2 * i + 1] = ys[i];
+        }
+
+        int label = 0;
+        int point = 0;
+        int index = 0;
+        for (int k = 0; k < n; k++) {
+            Trajectory t;
+            switch (kinds[k]) {
+                case FULL:
+                    Preconditions.checkState(sizes[k] >= 0 && point + sizes[k] <= numPoints, "Invalid size: %s", sizes[k]);
+                    t = FullTrajectory.restore(coordinates, 2 * point, sizes[k], ids[k], labels[label++]);
+                    point += sizes[k];
+                    break;
+                case FULL_REVERSE:
+                    t = reference(refs[k]).reverse();
+                    break;
+                case SIMPLIFIED: {
+                    List<Integer> simplifiedIndices = new ArrayList<>(sizes[k]);
+                    for (int i = 0; i < sizes[k]; i++, index++) {
+                        simplifiedIndices.add(indices[index]);
+                    }
+                    t = new SimplifiedTrajectory(reference(refs[k]), simplifiedIndices, param1[k]);
+                    break;
+                }
+                case SUB:
+                    t = new Subtrajectory(reference(refs[k]), param1[k], param2[k]);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown kind of trajectory: " + kinds[k]);
+            }
+            register(t);
+        }
+    }
+
+    private void writeBundles(DataOutput out, int from, int to) throws IOException {
+        int n = to - from;
+        out.writeInt(n);
+        for (int k = from; k < to; k++) {
+            out.writeByte(bundles.get(k) instanceof UndirectionalBundle ? UNDIRECTIONAL_BUNDLE : BUNDLE);
+        }
+        for (int k = from; k < to; k++) {
+            Subtrajectory representative = bundles.get(k).getOriginalRepresentative();
+            out.writeInt(representative == null ? -1 : trajectoryIds.get(representative));
+        }
+        for (int k = from; k < to; k++) {
+            out.writeInt(bundles.get(k).size());
+        }
+        for (int k = from; k < to; k++) {
+            for (Subtrajectory sub : bundles.get(k).getSubtrajectories()) {
+                out.writeInt(trajectoryIds.get(sub));
+            }
+        }
+
+        // stored properties
+        List<List<Point2D>> forceRepresentatives = new ArrayList<>(n);
+        List<List<Point2D>> mergedRepresentatives = new ArrayList<>(n);
+        List<List<Turn>> turns = new ArrayList<>(n);
+        for (int k = from; k < to; k++) {
+            Bundle b = bundles.get(k);
+            List<Point2D> forceRepresentative;
+            List<Point2D> mergedRepresentative;
+            List<Turn> bundleTurns;
+            boolean turnCalculated;
+            synchronized (b) {
+                forceRepresentative = b.getUnmergedForceRepresentative();
+                mergedRepresentative = b.getMergedForceRepresentative();
+                bundleTurns = b.getTurns();
+                turnCalculated = b.isTurnPropertiesCalculated();
+            }
+            forceRepresentatives.add(forceRepresentative);
+            mergedRepresentatives.add(mergedRepresentative);
+            turns.add(bundleTurns);
+            out.writeByte((b.isBundleRepCutOff() ? REP_CUT_OFF : 0) |
+                    (b.isForcePropertiesCalculated() ? FORCE_CALCULATED : 0) |
+                    (forceRepresentative != null ? HAS_FORCE_REPRESENTATIVE : 0) |
+                    (b.getBundleEndsAreRoadPoints() != null ? HAS_ROAD_POINTS : 0) |
+                    (turnCalculated ? TURN_CALCULATED : 0) |
+                    (bundleTurns != null ? HAS_TURNS : 0) |
+                    (mergedRepresentative != null ? HAS_MERGED_REPRESENTATIVE : 0));
+        }
+        for (int k = from; k < to; k++) {
+            Integer roadPoints = bundles.get(k).getBundleEndsAreRoadPoints();
+            out.writeInt(roadPoints == null ? 0 : roadPoints);
+        }
+        writePolylines(out, forceRepresentatives);
+        writePolylines(out, mergedRepresentatives);
+        writeTurns(out, turns);
+    }
+
+    /**
+     * Writes the number of points of each polyline, followed by the coordinates column by column. A missing polyline
+     * is written as an empty one.
+     */
+    private static void writePolylines(DataOutput out, List<List<Point2D>> polylines) throws IOException {
+        for (List<Point2D> polyline : polylines) {
+            out.writeInt(polyline == null ? 0 : polyline.size());
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (List<Point2D> polyline : polylines) {
+                if (polyline != null) {
+                    for (Point2D p : polyline) {
+                        out.writeDouble(pass == 0 ? p.getX() : p.getY());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the turns of the bundles by the parts of the subtrajectories they consist of: the number of turns of
+     * each bundle, the number of parts of each turn, the subtrajectory and index range of each part, and the points
+     * of the parts and their largest angle points as polylines.
+     */
+    private void writeTurns(DataOutput out, List<List<Turn>> turns) throws IOException {
+        List<Turn> all = new ArrayList<>();
+        for (List<Turn> bundleTurns : turns) {
+            out.writeInt(bundleTurns == null ? 0 : bundleTurns.size());
+            if (bundleTurns != null) {
+                all.addAll(bundleTurns);
+            }
+        }
+        List<List<Point2D>> parts = new ArrayList<>();
+        List<Point2D> largestAnglePoints = new ArrayList<>();
+        for (Turn turn : all) {
+            out.writeInt(turn.numberOfTrajectoriesRepresented());
+            parts.addAll(turn.getSubtrajectoryTurnParts());
+            largestAnglePoints.addAll(turn.getLargestAnglePoints());
+        }
+        for (Turn turn : all) {
+            List<Subtrajectory> subs = turn.getTrajectoriesIncluded();
+            List<Range<Integer>> ranges = turn.getTrajectoriesRanges();
+            for (int i = 0; i < subs.size(); i++) {
+                out.writeInt(trajectoryIds.get(subs.get(i)));
+                out.writeInt(ranges.get(i).lowerEndpoint());
+                out.writeInt(ranges.get(i).upperEndpoint());
+            }
+        }
+        writePolylines(out, parts);
+        writePolylines(out, Collections.singletonList(largestAnglePoints));
+    }
+
+    private void readBundles(ByteBuffer in, boolean turnProperties) {
+        int n = in.getInt();
+        byte[] kinds = BinaryUtil.readBytes(in, n);
+        int[] representatives = BinaryUtil.readInts(in, n);
+        int[] sizes = BinaryUtil.readInts(in, n);
+        int[] members = BinaryUtil.readInts(in, Arrays.stream(sizes).sum());
+        byte[] flags = BinaryUtil.readBytes(in, n);
+        int[] roadPoints = BinaryUtil.readInts(in, n);
+        List<List<Point2D>> forceRepresentatives = readPolylines(in, n);
+        List<List<Point2D>> mergedRepresentatives = null;
+        int[] numTurns = null;
+        int[] numParts = null;
+        int[] partSubs = null;
+        List<List<Point2D>> parts = null;
+        List<Point2D> largestAnglePoints = null;
+        if (turnProperties) {
+            mergedRepresentatives = readPolylines(in, n);
+            numTurns = BinaryUtil.readInts(in, n);
+            numParts = BinaryUtil.readInts(in, Arrays.stream(numTurns).sum());
+            int totalParts = Arrays.stream(numParts).sum();
+            partSubs = BinaryUtil.readInts(in, 3 * totalParts);
+            parts = readPolylines(in, totalParts);
+            largestAnglePoints = readPolylines(in, 1).get(0);
+            Preconditions.checkState(largestAnglePoints.size() == totalParts, "Invalid turns");
+        }
+
+        int member = 0;
+        int turn = 0;
+        int part = 0;
+        for (int k = 0; k < n; k++) {
+            List<Subtrajectory> subs = new ArrayList<>(sizes[k]);
+            for (int i = 0; i < sizes[k]; i++) {
+                subs.add((Subtrajectory) reference(members[member++]));
+            }
+            Subtrajectory representative = representatives[k] < 0 ? null : (Subtrajectory) reference(representatives[k]);
+            Bundle b = kinds[k] == UNDIRECTIONAL_BUNDLE
+                    ? UndirectionalBundle.create(subs, representative)
+                    : Bundle.create(subs, representative);
+
+            List<Point2D> forceRepresentative = (flags[k] & HAS_FORCE_REPRESENTATIVE) != 0
+                    ? forceRepresentatives.get(k) : null;
+            b.restoreProperties((flags[k] & REP_CUT_OFF) != 0, (flags[k] & FORCE_CALCULATED) != 0, forceRepresentative,
+                    (flags[k] & HAS_ROAD_POINTS) != 0 ? roadPoints[k] : null);
+
+            if (turnProperties) {
+                List<Turn> turns = (flags[k] & HAS_TURNS) != 0 ? new ArrayList<>(numTurns[k]) : null;
+                for (int t = 0; t < numTurns[k]; t++, turn++) {
+                    Preconditions.checkState(numParts[turn] > 0, "Turn without parts");
+                    Turn restored = null;
+                    for (int i = 0; i < numParts[turn]; i++, part++) {
+                        Subtrajectory sub = (Subtrajectory) reference(partSubs[3 * part]);
+                        Range<Integer> range = Range.closed(partSubs[3 * part + 1], partSubs[3 * part + 2]);
+                        if (restored == null) {
+                            restored = new Turn(parts.get(part), largestAnglePoints.get(part), sub, range, b);
+                        } else {
+                            restored.addSubtrajectoryTurn(parts.get(part), largestAnglePoints.get(part), sub, range);
+                        }
+                    }
+                    if (turns != null) {
+                        turns.add(restored);
+                    }
+                }
+                b.restoreTurnProperties((flags[k] & TURN_CALCULATED) != 0, turns,
+                        (flags[k] & HAS_MERGED_REPRESENTATIVE) != 0 ? mergedRepresentatives.get(k) : null);
+            }
+
+            bundleIds.put(b, bundles.size());
+            bundles.add(b);
+        }
+    }
+
+    /**
+     * Reads polylines written by {@link #writePolylines(DataOutput, List)}.
+     */
+    private static List<List<Point2D>> readPolylines(ByteBuffer in, int n) {
+        int[] sizes = BinaryUtil.readInts(in, n);
+        int numPoints = Arrays.stream(sizes).sum();
+        double[] xs = BinaryUtil.readDoubles(in, numPoints);
+        double[] ys = BinaryUtil.readDoubles(in, numPoints);
+
+        List<List<Point2D>> polylines = new ArrayList<>(n);
+        int point = 0;
+        for (int k = 0; k < n; k++) {
+            List<Point2D> polyline = new ArrayList<>(sizes[k]);
+            for (int i = 0; i < sizes[k]; i++, point++) {
+                polyline.add(new Point2D.Double(xs[point], ys[point]));
+            }
+            polylines.add(polyline);
+        }
+        return polylines;
+    }
+
+    private Trajectory reference(int id) {
+        Preconditions.checkState(id >= 0 && id < trajectories.size(), "Unknown trajectory: %s", id);
+        return trajectories.get(id);
+    }
+}
@@ -0,0 +1,93 @@
+package mapconstruction.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reading and writing of arrays and strings in binary files.
+ * <p>
+ * Values are written big-endian by a {@link DataOutput} and read back from a {@link ByteBuffer}, for example a
+ * memory mapped part of the file. Arrays are read in bulk and advance the position of the buffer.
+ */
+public class BinaryUtil {
+
+    private BinaryUtil() {
+    }
+
+    public static void writeInts(DataOutput out, int[] values, int from, int to) throws IOException {
+        for (int k = from; k < to; k++) {
+            out.writeInt(values[k]);
+        }
+    }
+
+    public static void writeDoubles(DataOutput out, double[] values, int from, int to) throws IOException {
+        for (int k = from; k < to; k++) {
+            out.writeDouble(values[k]);
+        }
+    }
+
+    /**
+     * Writes a string as its length in UTF-8 bytes, followed by the bytes. Null is written as length -1.
+     */
+    public static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static int[] readInts(ByteBuffer in, int n) {
+        int[] result = new int[checkLength(in, n, Integer.BYTES)];
+        in.asIntBuffer().get(result);
+        in.position(in.position() + n * Integer.BYTES);
+        return result;
+    }
+
+    public static long[] readLongs(ByteBuffer in, int n) {
+        long[] result = new long[checkLength(in, n, Long.BYTES)];
+        in.asLongBuffer().get(result);
+        in.position(in.position() + n * Long.BYTES);
+        return result;
+    }
+
+    public static double[] readDoubles(ByteBuffer in, int n) {
+        double[] result = new double[checkLength(in, n, Double.BYTES)];
+        in.asDoubleBuffer().get(result);
+        in.position(in.position() + n * Double.BYTES);
+        return result;
+    }
+
+    public static byte[] readBytes(ByteBuffer in, int n) {
+        byte[] result = new byte[checkLength(in, n, 1)];
+        in.get(result);
+        return result;
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     */
+    public static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(readBytes(in, length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that the buffer has n values of the given size left, such that a corrupt length does not cause a huge
+     * allocation.
+     */
+    private static int checkLength(ByteBuffer in, int n, int size) {
+        if (n < 0 || (long) n * size > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return n;
+    }
+}
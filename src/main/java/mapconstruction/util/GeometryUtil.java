@@ -6,6 +6,8 @@ import com.google.common.math.DoubleMath;
 import mapconstruction.algorithms.distance.TrajectoryDistance;
 import mapconstruction.trajectories.Bundle;
 import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Representative;
+import mapconstruction.trajectories.SegmentIndex;
 import mapconstruction.trajectories.Subtrajectory;
 import mapconstruction.trajectories.Trajectory;
 
@@ -15,6 +17,7 @@ import java.awt.geom.Point2D;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Utility Class with convenience methods involving geometry.
@@ -249,10 +252,12 @@ public final class GeometryUtil {
      * @return
      */
     public static double getAvgInterPairwiseDistance(final TrajectoryDistance distance, final Set<? extends Trajectory> trajectories1, final Set<? extends Trajectory> trajectories2) {
-        double avg = Sets.cartesianProduct(trajectories1, trajectories2) // Cartesian product as set of lists
-                .stream()
-                .filter(pair -> pair.get(0) != pair.get(1)) // remove pairs with itself.
-                .mapToDouble(pair -> distance.compute(pair.get(0), pair.get(1))) // compute distances between each pair
+        List<Trajectory> list1 = new ArrayList<>(trajectories1);
+        List<Trajectory> list2 = new ArrayList<>(trajectories2);
+        double[][] distances = distance.computeAll(list1, list2);
+        double avg = IntStream.range(0, list1.size() * list2.size())
+                .filter(k -> list1.get(k / list2.size()) != list2.get(k % list2.size())) // remove pairs with itself.
+                .mapToDouble(k -> distances[k / list2.size()][k % list2.size()])
                 .average().orElse(0);
         return avg;
     }
@@ -283,12 +288,12 @@ public final class GeometryUtil {
      * @return
      */
     public static double getMinInterPairwiseDistance(final TrajectoryDistance distance, final Set<? extends Trajectory> trajectories1, final Set<? extends Trajectory> trajectories2) {
-        double avg = Sets.cartesianProduct(trajectories1, trajectories2) // Cartesian product as set of lists
-                .stream()
-                .mapToDouble(pair -> distance.compute(pair.get(0), pair.get(1))) // compute distances between each pair
+        double[][] distances = distance.computeAll(new ArrayList<>(trajectories1), new ArrayList<>(trajectories2));
+        double min = Arrays.stream(distances)
+                .flatMapToDouble(Arrays::stream)
                 .filter(d -> d > 0)
                 .min().orElse(0);
-        return avg;
+        return min;
     }
 
     /**
@@ -431,7 +436,16 @@ public final class GeometryUtil {
      * @return angle
      */
     public static double getDirectionInDegrees(Line2D line) {
-        double angle = (float) Math.toDegrees(Math.atan2(line.getY2() - line.getY1(), line.getX2() - line.getX1()));
+        return getDirectionInDegrees(line.getX1(), line.getY1(), line.getX2(), line.getY2());
+    }
+
+    /**
+     * Get's the angle of the line segment from (x1, y1) to (x2, y2)
+     *
+     * @return angle
+     */
+    public static double getDirectionInDegrees(double x1, double y1, double x2, double y2) {
+        double angle = (float) Math.toDegrees(Math.atan2(y2 - y1, x2 - x1));
 
         if (angle < 0) {
             angle += 360;
@@ -582,26 +596,32 @@ public final class GeometryUtil {
                                                                    Boolean possibleReverse) {
         double minDistance = Double.MAX_VALUE;
         double minIndex = 0.0;
-        for (int i = 0; i < t.numPoints() - 1; i++) {
-            double distance = t.getEdge(i).ptSegDist(location);
-            // The fuzzyEquals makes sure that if it is equally far from two edges, we take the right point index.
-            if (distance < minDistance) {
-                if (preferredAngle != null) {
-                    double headingAngle = GeometryUtil.getHeadingDirection(t.getEdge(i));
-                    double angleDiff;
-                    if (possibleReverse) {
-                        angleDiff = GeometryUtil.getAngleDifferenceForPossiblyReverseTrajectories(headingAngle, preferredAngle);
-                    } else {
-                        angleDiff = GeometryUtil.getAbsoluteAngleDifference(headingAngle, preferredAngle);
+        int indexedEdge = preferredAngle == null ? getClosestEdgeByIndex(t, location) : -1;
+        if (indexedEdge >= 0) {
+            minDistance = t.getEdge(indexedEdge).ptSegDist(location);
+            minIndex = indexedEdge;
+        } else {
+            for (int i = 0; i < t.numPoints() - 1; i++) {
+                double distance = t.getEdge(i).ptSegDist(location);
+                // The fuzzyEquals makes sure that if it is equally far from two edges, we take the right point index.
+                if (distance < minDistance) {
+                    if (preferredAngle != null) {
+                        double headingAngle = GeometryUtil.getHeadingDirection(t.getEdge(i));
+                        double angleDiff;
+                        if (possibleReverse) {
+                            angleDiff = GeometryUtil.getAngleDifferenceForPossiblyReverseTrajectories(headingAngle, preferredAngle);
+                        } else {
+                            angleDiff = GeometryUtil.getAbsoluteAngleDifference(headingAngle, preferredAngle);
+                        }
+
+                        if (angleDiff > maxAngleDiff) {
+                            continue;
+                        }
                     }
 
-                    if (angleDiff > maxAngleDiff) {
-                        continue;
-                    }
+                    minDistance = distance;
+                    minIndex = i;
                 }
-
-                minDistance = distance;
-                minIndex = i;
             }
         }
 
@@ -624,6 +644,48 @@ public final class GeometryUtil {
         return minIndex;
     }
 
+    /**
+     * Get the edge of the trajectory closest to a location using the index on the edges of a representative.
+     * The result is the same as the first closest edge found by walking the trajectory.
+     *
+     * @param t        a representative, or a subtrajectory of one
+     * @param location the location we are comparing the trajectory to
+     * @return the index of the closest edge, or -1 if the trajectory is not indexed.
+     */
+    private static int getClosestEdgeByIndex(Trajectory t, Point2D location) {
+        if (t instanceof Representative) {
+            SegmentIndex index = ((Representative) t).segmentIndex();
+            return index == null ? -1 : index.getClosestEdge(location.getX(), location.getY(), 0, t.numEdges() - 1);
+        }
+        if (!(t instanceof Subtrajectory) || !(((Subtrajectory) t).getParent() instanceof Representative)) {
+            return -1;
+        }
+        Subtrajectory sub = (Subtrajectory) t;
+        SegmentIndex index = ((Representative) sub.getParent()).segmentIndex();
+        int numEdges = sub.numEdges();
+        if (index == null || numEdges < 3) {
+            return -1;
+        }
+
+        // The first and last edge of the subtrajectory are parts of edges of the representative, the others are
+        // edges of the representative.
+        int offset = (int) Math.floor(sub.getFromIndex());
+        int innerEdge = index.getClosestEdge(location.getX(), location.getY(), offset + 1, offset + numEdges - 2);
+        int[] candidates = {0, innerEdge - offset, numEdges - 1};
+        double minDistance = Double.MAX_VALUE;
+        int minEdge = -1;
+        for (int edge : candidates) {
+            if (edge >= 0) {
+                double distance = sub.getEdge(edge).ptSegDist(location);
+                if (distance < minDistance) {
+                    minDistance = distance;
+                    minEdge = edge;
+                }
+            }
+        }
+        return minEdge;
+    }
+
     /**
      * Returns the location of the point on the trajectory which is closest to another point.
      *
@@ -657,7 +719,21 @@ public final class GeometryUtil {
         Line2D lastEdge = new Line2D.Double(startingPoint, t.getPoint((int) currentIndex));
 
         boolean incrementedIndex = false;
-        while (distanceCovered < Math.abs(offset)) {
+        SegmentIndex segmentIndex = t instanceof Representative ? ((Representative) t).segmentIndex() : null;
+        if (segmentIndex != null && distanceCovered < Math.abs(offset)) {
+            // Look up the point at which the offset is covered, instead of walking to it.
+            int from = (int) currentIndex;
+            double remaining = Math.abs(offset) - distanceCovered;
+            int to = offset >= 0 ? segmentIndex.getIndexAfterLength(from, remaining)
+                    : segmentIndex.getIndexBeforeLength(from, remaining);
+            if (to != from) {
+                distanceCovered += Math.abs(segmentIndex.getLength(to) - segmentIndex.getLength(from));
+                lastEdge = new Line2D.Double(t.getPoint(offset >= 0 ? to - 1 : to + 1), t.getPoint(to));
+                currentIndex = to;
+                incrementedIndex = true;
+            }
+        }
+        while (segmentIndex == null && distanceCovered < Math.abs(offset)) {
             if (offset >= 0) {
                 if (currentIndex + 1 <= t.numPoints() - 1) {
                     distanceCovered += t.getPoint((int) currentIndex).distance(
@@ -0,0 +1,123 @@
+package mapconstruction.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Uniform grid on the plane storing integer values at points, used to find the values near a location.
+ * <p>
+ * Values are kept per grid cell. A query visits the 3x3 cells around the query location, so it reports every value
+ * stored within distance {@code cellSize} of the location, along with some values further away. Larger areas are
+ * queried by box. Callers filter the candidates on the exact distance.
+ */
+public class GridIndex {
+
+    private final double cellSize;
+
+    private final Map<Long, Cell> cells = new HashMap<>();
+
+    /**
+     * Creates an empty grid.
+     *
+     * @param cellSize width and height of the cells, the largest query distance
+     * @throws IllegalArgumentException if {@code cellSize <= 0}
+     */
+    public GridIndex(double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Stores a value at the given location.
+     */
+    public void add(double x, double y, int value) {
+        long cx = cell(x);
+        long cy = cell(y);
+        cells.computeIfAbsent(key(cx, cy), k -> new Cell(cx, cy)).add(value);
+    }
+
+    /**
+     * Visits the values stored in the cell of the given location and its eight neighbours, in the order they were
+     * added per cell. This includes all values within distance {@code cellSize} of the location.
+     */
+    public void forEachNear(double x, double y, IntConsumer action) {
+        long cx = cell(x);
+        long cy = cell(y);
+        for (long i = cx - 1; i <= cx + 1; i++) {
+            for (long j = cy - 1; j <= cy + 1; j++) {
+                Cell c = cells.get(key(i, j));
+                if (c != null) {
+                    c.forEach(action);
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the values stored in the cells overlapping the given box. This includes all values stored in the box.
+     */
+    public void forEachInBox(double minX, double minY, double maxX, double maxY, IntConsumer action) {
+        long minCx = cell(minX);
+        long minCy = cell(minY);
+        long maxCx = cell(maxX);
+        long maxCy = cell(maxY);
+        if ((double) (maxCx - minCx + 1) * (maxCy - minCy + 1) > cells.size()) {
+            // fewer stored cells than cells in the box
+            for (Cell c : cells.values()) {
+                if (c.cx >= minCx && c.cx <= maxCx && c.cy >= minCy && c.cy <= maxCy) {
+                    c.forEach(action);
+                }
+            }
+            return;
+        }
+        for (long i = minCx; i <= maxCx; i++) {
+            for (long j = minCy; j <= maxCy; j++) {
+                Cell c = cells.get(key(i, j));
+                if (c != null) {
+                    c.forEach(action);
+                }
+            }
+        }
+    }
+
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(long cx, long cy) {
+        return (cx << 32) ^ (cy & 0xFFFFFFFFL);
+    }
+
+    private static final class Cell {
+        final long cx;
+        final long cy;
+        int[] values = new int[4];
+        int size;
+
+        Cell(long cx, long cy) {
+            this.cx = cx;
+            this.cy = cy;
+        }
+
+        void forEach(IntConsumer action) {
+            for (int k = 0; k < size; k++) {
+                action.accept(values[k]);
+            }
+        }
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = value;
+        }
+    }
+}
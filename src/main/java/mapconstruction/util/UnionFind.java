@@ -0,0 +1,63 @@
+package mapconstruction.util;
+
+/**
+ * Disjoint sets over the elements {@code 0, ..., n - 1}, with union by size and path halving.
+ */
+public class UnionFind {
+
+    private final int[] parent;
+    private final int[] size;
+
+    /**
+     * Creates n singleton sets.
+     *
+     * @param n number of elements
+     */
+    public UnionFind(int n) {
+        parent = new int[n];
+        size = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+    }
+
+    /**
+     * Gets the representative of the set containing the given element.
+     */
+    public int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Merges the sets containing the given elements.
+     *
+     * @return whether the elements were in different sets.
+     */
+    public boolean union(int i, int j) {
+        int ri = find(i);
+        int rj = find(j);
+        if (ri == rj) {
+            return false;
+        }
+        if (size[ri] < size[rj]) {
+            int tmp = ri;
+            ri = rj;
+            rj = tmp;
+        }
+        parent[rj] = ri;
+        size[ri] += size[rj];
+        return true;
+    }
+
+    /**
+     * Whether the given elements are in the same set.
+     */
+    public boolean connected(int i, int j) {
+        return find(i) == find(j);
+    }
+}
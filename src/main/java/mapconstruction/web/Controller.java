@@ -3,6 +3,7 @@ package mapconstruction.web;
 import com.google.common.math.DoubleMath;
 import mapconstruction.GUI.io.*;
 import mapconstruction.GUI.listeners.*;
+import mapconstruction.algorithms.diagram.BundleResultCache;
 import mapconstruction.algorithms.diagram.EvolutionDiagram;
 import mapconstruction.algorithms.maps.ComputeRoadNetwork;
 import mapconstruction.algorithms.preprocessing.CompositePreprocessor;
@@ -76,6 +77,10 @@ public class Controller {
     private int segmenterDistSelfSim;
     private AbortableAlgorithmWorker currentWorker;
     private ComputeRoadNetwork computeRoadNetwork;
+    /**
+     * Bundles of the epsilon levels computed so far, reused by later diagram computations.
+     */
+    private BundleResultCache bundleResultCache;
 
     public Controller(GeneralConfig generalConfig) {
         txtFilter = new FileNameExtensionFilterExt(new FileNameExtensionFilter("Text file", "txt"));
@@ -88,6 +93,8 @@ public class Controller {
         savedStatesIndexer = new SavedStatesIndexer(generalConfig.getSavedStatesDirectory());
         outputManager = new OutputManager(generalConfig.getOutputDirectory());
         benchmarkManager = new BenchmarkManager(generalConfig.getBenchmarkDirectory());
+        bundleResultCache = new BundleResultCache(BundleResultCache.DEFAULT_MAX_WEIGHT,
+                generalConfig.isBundleCacheOnDisk() ? new File(generalConfig.getSavedStatesDirectory(), "bundle-cache") : null);
 
         ignoreDirection = true;
         useSimplifier = false;
@@ -310,7 +317,7 @@ public class Controller {
     public void computeBundlesEvolutionDiagram() {
         attachListener();
         raiseErrorIfWorkerRunning();
-        currentWorker = new ComputeEvolutionDiagram();
+        currentWorker = new ComputeEvolutionDiagram(bundleResultCache);
         currentWorker.run();
 
         STORAGE.addBundleListener(new BundleChangeListener() {
@@ -394,18 +401,12 @@ public class Controller {
      * @param out, the file where we write the state too. (Note, this is not the path, this is defined somewhere else)
      */
     private void saveState(File out) {
-        try (ObjectOutputStream writer = new ObjectOutputStream(new FileOutputStream(out))) {
-
-            writer.writeObject(STORAGE.getDatasetConfig());
-            writer.writeObject(STORAGE.getOriginalTrajectories());
-            writer.writeObject(STORAGE.getTrajectories());
-            writer.writeObject(STORAGE.getEvolutionDiagram());
-            writer.writeObject(this.computeRoadNetwork);
-            ParameterSerializable params = ParameterSerializable.create();
-            writer.writeObject(params);
+        try {
+            SavedStateFile.write(out, STORAGE.getDatasetConfig(), STORAGE.getOriginalTrajectories(),
+                    STORAGE.getTrajectories(), STORAGE.getEvolutionDiagram(), this.computeRoadNetwork);
 
             Log.log(LogLevel.INFO, "Control", "State exported to: %s", out.getAbsolutePath());
-        } catch (IOException ex) {
+        } catch (IOException | IllegalArgumentException ex) {
             Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
             Log.log(LogLevel.ERROR, "Control", "Failed to export state: %s", ex.toString());
         }
@@ -427,29 +428,9 @@ public class Controller {
      * @param in, the File
      */
     public void loadState(File in) {
-        try (ObjectInputStream reader = new ObjectInputStream(new FileInputStream(in))) {
+        try {
             timer("Controller - Starting the loading state");
-            DatasetConfig datasetConfig = (DatasetConfig) reader.readObject();
-            List<Trajectory> originalTrajectories = (List<Trajectory>) reader.readObject();
-            List<Trajectory> trajectories = (List<Trajectory>) reader.readObject();
-            EvolutionDiagram diagram = (EvolutionDiagram) reader.readObject();
-            ComputeRoadNetwork roadMapComputer = (ComputeRoadNetwork) reader.readObject();
-            timer("Controller - Loaded the files into main memory");
-
-            try {
-                ((ParameterSerializable) reader.readObject()).restore(this);
-            } catch (EOFException ex) {
-                Log.log(LogLevel.WARNING, "Control", "Parameters could not be restored");
-            }
-
-            STORAGE.setDatasetConfig(datasetConfig);
-            STORAGE.setOriginalTrajectories(originalTrajectories);
-            STORAGE.setTrajectories(trajectories);
-            STORAGE.setEvolutionDiagram(diagram);
-            this.computeRoadNetwork = roadMapComputer;
-            if (this.computeRoadNetwork != null) {
-                STORAGE.setRoadMap(computeRoadNetwork.getRoadMap());
-            }
+            loadSavedStateFile(in);
 
             enableWalkingProperties(STORAGE.getDatasetConfig().isWalkingDataset());
 
@@ -466,12 +447,36 @@ public class Controller {
 
             timer("Controller - Calculated all bundle properties");
             Log.log(LogLevel.INFO, "Control", "State imported from: %s", in.getAbsolutePath());
-        } catch (IOException | ClassNotFoundException ex) {
+        } catch (IOException ex) {
             Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
             Log.log(LogLevel.ERROR, "Control", "Failed to import state: %s", ex.toString());
         }
     }
 
+    /**
+     * Loads a state written by {@link #saveState(File)}, section by section, or a state written by earlier versions.
+     * The trajectories are put in the storage before the evolution diagram is read.
+     */
+    private void loadSavedStateFile(File in) throws IOException {
+        try (SavedStateFile.Reader reader = SavedStateFile.open(in)) {
+            STORAGE.setDatasetConfig(reader.readDatasetConfig());
+            reader.readTrajectories();
+            STORAGE.setOriginalTrajectories(reader.getOriginalTrajectories());
+            STORAGE.setTrajectories(reader.getTrajectories());
+            timer("Controller - Loaded the trajectories");
+
+            EvolutionDiagram diagram = reader.readDiagram();
+            ComputeRoadNetwork roadMapComputer = reader.readRoadNetwork();
+            timer("Controller - Loaded the files into main memory");
+
+            STORAGE.setEvolutionDiagram(diagram);
+            this.computeRoadNetwork = roadMapComputer;
+            if (this.computeRoadNetwork != null) {
+                STORAGE.setRoadMap(computeRoadNetwork.getRoadMap());
+            }
+        }
+    }
+
     /**
      * Function to delete all objects and to restart as with a fresh install
      */
@@ -496,32 +501,6 @@ public class Controller {
         return benchmarkManager;
     }
 
-    /**
-     * Helper class containing all configured parameters in serializable form.
-     * <p>
-     * Can be used to easily restore parameters.
-     */
-    private static class ParameterSerializable implements Serializable {
-
-        private static final long serialVersionUID = 1L;
-
-        private double sweep_size;
-
-        private ParameterSerializable() {
-
-        }
-
-        public static ParameterSerializable create() {
-            ParameterSerializable o = new ParameterSerializable();
-            o.sweep_size = 0.0;
-            return o;
-        }
-
-        public void restore(Controller controller) {
-//            Skipp
-        }
-    }
-
 ////////////////////////////////////////////////////////////////////////////////
 //////////////////////// Utility inner classes /////////////////////////////////
 ////////////////////////////////////////////////////////////////////////////////
@@ -16,6 +16,8 @@ public class GeneralConfig {
 
     private int numOfProcesses;
 
+    private boolean bundleCacheOnDisk;
+
     public GeneralConfig() {
 //        Specific
         numOfProcesses = 4;
@@ -86,6 +88,17 @@ public class GeneralConfig {
         this.numOfProcesses = numOfProcesses;
     }
 
+    /**
+     * Whether the bundles of the epsilon levels are cached on disk, in the saved states directory.
+     */
+    public boolean isBundleCacheOnDisk() {
+        return bundleCacheOnDisk;
+    }
+
+    public void setBundleCacheOnDisk(boolean bundleCacheOnDisk) {
+        this.bundleCacheOnDisk = bundleCacheOnDisk;
+    }
+
     @Override
     public String toString() {
         return format("1. webPagePort: %s\n", webPagePort) +
@@ -95,7 +108,8 @@ public class GeneralConfig {
                format("5. savedStatesDirectory: %s\n", savedStatesDirectory) +
                format("6. outputDirectory: %s\n", outputDirectory) +
                format("7. benchmarkDirectory: %s\n", benchmarkDirectory) +
-               format("8. numberOfProcesses: %s\n", numOfProcesses);
+               format("8. numberOfProcesses: %s\n", numOfProcesses) +
+               format("9. bundleCacheOnDisk: %s\n", bundleCacheOnDisk);
     }
 
 }
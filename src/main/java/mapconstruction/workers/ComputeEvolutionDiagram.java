@@ -6,8 +6,10 @@ import mapconstruction.GUI.filter.QuantifiedTriPredicate;
 import mapconstruction.GUI.filter.TriPredicate;
 import mapconstruction.algorithms.AbstractTrajectoryAlgorithm;
 import mapconstruction.algorithms.bundles.MaximalSubbundleAlgorithm;
+import mapconstruction.algorithms.diagram.BundleResultCache;
 import mapconstruction.algorithms.diagram.EvolutionDiagram;
 import mapconstruction.algorithms.diagram.EvolutionDiagramBuilder;
+import mapconstruction.algorithms.representative.BundlePropertyCalculator;
 import mapconstruction.attributes.BundleClassAttributes;
 import mapconstruction.benchmark.Benchmark;
 import mapconstruction.exceptions.AlgorithmAbortedException;
@@ -57,6 +59,14 @@ public class ComputeEvolutionDiagram extends AbortableAlgorithmWorker<EvolutionD
         algo = EvolutionDiagramBuilder.multiplicative(deltaEps, lambdaFactor, minEps, maxEps, true, kStep);
     }
 
+    /**
+     * @param resultCache cache for the bundles of the epsilon levels, shared between runs.
+     */
+    public ComputeEvolutionDiagram(BundleResultCache resultCache) {
+        this();
+        ((EvolutionDiagramBuilder) algo).setResultCache(resultCache);
+    }
+
     @Override
     protected EvolutionDiagram doInBackground() {
         try {
@@ -82,6 +92,11 @@ public class ComputeEvolutionDiagram extends AbortableAlgorithmWorker<EvolutionD
             Benchmark.pop();
 
             Log.log(LogLevel.INFO, "ComputeEVO", "Total running time:  %d ms", end - start);
+
+            // Calculate the bundle properties before the diagram is set, such that they are part of its saved state.
+            Benchmark.push("Bundle properties");
+            BundlePropertyCalculator.calculate(result, result.bundlesWithClassesAtBest(), STORAGE::setProgressAlgorithm);
+            Benchmark.pop();
             return result;
         } catch (Exception e) {
             e.printStackTrace();
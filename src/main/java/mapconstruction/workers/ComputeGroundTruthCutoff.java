@@ -4,7 +4,7 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
 import mapconstruction.GUI.io.DatasetExplorer;
-import mapconstruction.algorithms.distance.RTree;
+import mapconstruction.algorithms.distance.SegmentRTree;
 import mapconstruction.algorithms.maps.network.MapEdge;
 import mapconstruction.algorithms.maps.network.MapVertex;
 import mapconstruction.algorithms.maps.network.RoadNetwork;
@@ -43,9 +43,11 @@ public class ComputeGroundTruthCutoff extends AbortableAlgorithmWorker<File, Voi
         List<Trajectory> trajectories = STORAGE.getTrajectories();
 
         System.out.println("Constructing an RTree for all line segments in Trajectory set");
-        Map<Line2D, Line2D> temp = new HashMap<>();
-        trajectories.forEach(t -> t.edges().forEach(e -> temp.put(e, e)));
-        RTree<Line2D, Line2D> map = new RTree<>(10, temp);
+        List<Line2D> segments = new ArrayList<>();
+        trajectories.forEach(t -> segments.addAll(t.edges()));
+        int[] indices = new int[segments.size()];
+        Arrays.setAll(indices, k -> k);
+        SegmentRTree map = new SegmentRTree(10, segments, indices);
 
         System.out.println("Filtering ground truth edges based on input trajectories");
         RoadNetwork backgroundMap = datasetExplorer.getGroundTruth(STORAGE.getDatasetConfig().getPath());
@@ -55,13 +57,14 @@ public class ComputeGroundTruthCutoff extends AbortableAlgorithmWorker<File, Voi
             MapVertex v1 = edge.getV1();
             MapVertex v2 = edge.getV2();
 
-            Set<Line2D> candidates = map.windowQuery(
+            int[] candidates = map.windowQuery(
                     Math.min(v1.getX(), v2.getX()) - epsilon,
                     Math.min(v1.getY(), v2.getY()) - epsilon,
                     Math.max(v1.getX(), v2.getX()) + epsilon,
                     Math.max(v1.getY(), v2.getY()) + epsilon);
 
-            for (Line2D candidate : candidates) {
+            for (int k : candidates) {
+                Line2D candidate = segments.get(k);
                 if (candidate.ptLineDist(v1.getX(), v1.getY()) <= epsilon || candidate.ptLineDist(v2.getX(), v2.getY()) <= epsilon) {
                     validEdges.put(edge.getV1(), edge);
                     break;
@@ -0,0 +1,319 @@
+package mapconstruction.GUI.io;
+
+import junit.framework.TestCase;
+import mapconstruction.algorithms.diagram.EvolutionDiagram;
+import mapconstruction.algorithms.diagram.EvolutionDiagramBuilder;
+import mapconstruction.algorithms.maps.ComputeRoadNetwork;
+import mapconstruction.algorithms.maps.containers.BundleStreet;
+import mapconstruction.algorithms.maps.mapping.RoadSection;
+import mapconstruction.algorithms.representative.containers.Turn;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Trajectory;
+import mapconstruction.web.config.DatasetConfig;
+
+import java.awt.geom.Point2D;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static mapconstruction.GUI.datastorage.DataStorage.STORAGE;
+
+public class SavedStateFileTest extends TestCase {
+
+    /**
+     * Size of the header with room for four sections.
+     */
+    private static final int HEADER_SIZE = 8 + 4 + 4 + 4 * 20;
+
+    private static DatasetConfig config;
+    private static List<Trajectory> trajectories;
+    private static EvolutionDiagram diagram;
+    private static ComputeRoadNetwork roadNetwork;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("savedstate", ".savst");
+        if (roadNetwork != null) {
+            return;
+        }
+
+        // Three parallel roads in both directions, each driven three times.
+        Random random = new Random(1);
+        trajectories = new ArrayList<>();
+        for (int line = 0; line < 3; line++) {
+            for (int copy = 0; copy < 3; copy++) {
+                List<Point2D> horizontal = new ArrayList<>();
+                List<Point2D> vertical = new ArrayList<>();
+                for (int i = 0; i <= 40; i++) {
+                    horizontal.add(new Point2D.Double(i * 10 + random.nextGaussian(), line * 150 + random.nextGaussian()));
+                    vertical.add(new Point2D.Double(line * 150 + random.nextGaussian(), i * 10 + random.nextGaussian()));
+                }
+                FullTrajectory t = new FullTrajectory(horizontal);
+                t.setLabel("h" + line + "_" + copy);
+                trajectories.add(t);
+                trajectories.add(new FullTrajectory(vertical));
+            }
+        }
+        // Routes turning from the first horizontal road onto the second vertical one.
+        for (int copy = 0; copy < 4; copy++) {
+            List<Point2D> turning = new ArrayList<>();
+            for (int i = 0; i <= 15; i++) {
+                turning.add(new Point2D.Double(i * 10 + random.nextGaussian(), random.nextGaussian()));
+            }
+            for (int i = 1; i <= 25; i++) {
+                turning.add(new Point2D.Double(150 + random.nextGaussian(), i * 10 + random.nextGaussian()));
+            }
+            trajectories.add(new FullTrajectory(turning));
+        }
+        diagram = EvolutionDiagramBuilder.additive(10, 2, 10, 40, true, k -> k + 1).run(trajectories);
+
+        config = new DatasetConfig();
+        config.setSystem("UTM");
+        config.setZone(31);
+        config.setHemisphere("N");
+        config.setPath("grid");
+        config.setWalkingDataset(true);
+
+        STORAGE.setDatasetConfig(config);
+        STORAGE.setTrajectories(trajectories);
+        STORAGE.setEvolutionDiagram(diagram);
+        STORAGE.setBundlesWithClasses(diagram.bundlesWithClassesAtBest());
+        roadNetwork = new ComputeRoadNetwork();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file.toPath());
+        super.tearDown();
+    }
+
+    public void testHeader() throws Exception {
+        SavedStateFile.write(file, config, trajectories, trajectories, diagram, roadNetwork);
+        assertTrue(SavedStateFile.isSavedStateFile(file));
+
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        byte[] magic = new byte[8];
+        header.get(magic);
+        assertEquals("BBMCSAVE", new String(magic, StandardCharsets.US_ASCII));
+        assertEquals(SavedStateFile.FORMAT_VERSION, header.getInt());
+        assertEquals(4, header.getInt());
+
+        // The sections follow the header in order, and end at the end of the file.
+        long end = HEADER_SIZE;
+        for (int id = 1; id <= 4; id++) {
+            assertEquals(id, header.getInt());
+            assertEquals(end, header.getLong());
+            long length = header.getLong();
+            assertTrue(length > 0);
+            end += length;
+        }
+        assertEquals(file.length(), end);
+    }
+
+    public void testRoundTrip() throws Exception {
+        List<Trajectory> original = new ArrayList<>(trajectories);
+        original.add(new FullTrajectory(Arrays.asList(new Point2D.Double(0, 0), new Point2D.Double(5, 5))));
+        SavedStateFile.write(file, config, original, trajectories, diagram, roadNetwork);
+
+        try (SavedStateFile.Reader reader = SavedStateFile.open(file)) {
+            DatasetConfig readConfig = reader.readDatasetConfig();
+            assertEquals("UTM", readConfig.getSystem());
+            assertEquals(31, readConfig.getZone(), 0);
+            assertEquals("N", readConfig.getHemisphere());
+            assertEquals("grid", readConfig.getPath());
+            assertTrue(readConfig.isWalkingDataset());
+
+            assertNull(reader.getTrajectories());
+            reader.readTrajectories();
+            assertTrajectoriesEqual(original, reader.getOriginalTrajectories());
+            assertTrajectoriesEqual(trajectories, reader.getTrajectories());
+            // A trajectory in both lists is read once.
+            for (int i = 0; i < trajectories.size(); i++) {
+                assertSame(reader.getOriginalTrajectories().get(i), reader.getTrajectories().get(i));
+            }
+
+            EvolutionDiagram readDiagram = reader.readDiagram();
+            assertDiagramsEqual(diagram, readDiagram);
+            assertSame(readDiagram, reader.readDiagram());
+            assertTurnPropertiesRestored(diagram, readDiagram);
+
+            ComputeRoadNetwork readNetwork = reader.readRoadNetwork();
+            assertEquals(roadNetwork.getRoadMap().getRoadSections().size(),
+                    readNetwork.getRoadMap().getRoadSections().size());
+            assertEquals(roadNetwork.getIntersection().size(), readNetwork.getIntersection().size());
+
+            // The bundles of the road network are the ones of the diagram, not copies.
+            Set<Bundle> diagramBundles = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (double eps : readDiagram.getEpsilons()) {
+                diagramBundles.addAll(readDiagram.getBundleClasses(eps).keySet());
+            }
+            int streets = 0;
+            for (RoadSection section : readNetwork.getRoadMap().getRoadSections()) {
+                for (BundleStreet street : section.getBundleStreets()) {
+                    assertTrue(diagramBundles.contains(street.getBundle()));
+                    streets++;
+                }
+            }
+            assertTrue(streets > 0);
+        }
+    }
+
+    public void testOptionalSections() throws Exception {
+        SavedStateFile.write(file, config, trajectories, trajectories, null, null);
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(new byte[8]);
+            assertEquals(SavedStateFile.FORMAT_VERSION, in.readInt());
+            assertEquals(2, in.readInt());
+        }
+        try (SavedStateFile.Reader reader = SavedStateFile.open(file)) {
+            assertNull(reader.readRoadNetwork());
+            assertNull(reader.readDiagram());
+            assertTrajectoriesEqual(trajectories, reader.getTrajectories());
+        }
+    }
+
+    public void testUnsupportedVersion() throws Exception {
+        SavedStateFile.write(file, config, trajectories, trajectories, null, null);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.writeInt(SavedStateFile.FORMAT_VERSION + 1);
+        }
+        assertTrue(SavedStateFile.isSavedStateFile(file));
+        assertOpenFails();
+    }
+
+    public void testCorruptDirectory() throws Exception {
+        SavedStateFile.write(file, config, trajectories, trajectories, null, null);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // Length of the second section, past the end of the file.
+            raf.seek(16 + 20 + 4 + 8);
+            raf.writeLong(file.length());
+        }
+        assertOpenFails();
+
+        SavedStateFile.write(file, config, trajectories, trajectories, null, null);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // Offset of the first section, inside the header.
+            raf.seek(16 + 4);
+            raf.writeLong(4);
+        }
+        assertOpenFails();
+    }
+
+    public void testSerializedState() throws Exception {
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+            out.writeObject(config);
+            out.writeObject(trajectories);
+            out.writeObject(trajectories);
+            out.writeObject(diagram);
+            out.writeObject(roadNetwork);
+            // Parameters written last by earlier versions.
+            out.writeObject(new double[]{0});
+        }
+        assertFalse(SavedStateFile.isSavedStateFile(file));
+
+        try (SavedStateFile.Reader reader = SavedStateFile.open(file)) {
+            assertEquals("grid", reader.readDatasetConfig().getPath());
+            reader.readTrajectories();
+            assertTrajectoriesEqual(trajectories, reader.getOriginalTrajectories());
+            assertSame(reader.getOriginalTrajectories(), reader.getTrajectories());
+            assertDiagramsEqual(diagram, reader.readDiagram());
+            assertEquals(roadNetwork.getRoadMap().getRoadSections().size(),
+                    reader.readRoadNetwork().getRoadMap().getRoadSections().size());
+        }
+    }
+
+    public void testNotSavedState() throws Exception {
+        assertFalse(SavedStateFile.isSavedStateFile(file));
+        assertOpenFails();
+
+        Files.write(file.toPath(), "not a saved state".getBytes(StandardCharsets.US_ASCII));
+        assertFalse(SavedStateFile.isSavedStateFile(file));
+        assertOpenFails();
+    }
+
+    private void assertOpenFails() {
+        try {
+            SavedStateFile.open(file).close();
+            fail("Opened a corrupt saved state");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private static void assertTrajectoriesEqual(List<Trajectory> expected, List<Trajectory> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).points(), actual.get(i).points());
+            assertEquals(expected.get(i).getLabel(), actual.get(i).getLabel());
+        }
+    }
+
+    /**
+     * Checks that the bundles of the read diagram have the turn related properties of the written ones, and that they
+     * are not calculated again.
+     */
+    private static void assertTurnPropertiesRestored(EvolutionDiagram expected, EvolutionDiagram actual) {
+        int calculated = 0;
+        int turns = 0;
+        for (double eps : expected.getEpsilons()) {
+            Map<Integer, Bundle> expectedBundles = expected.getBundleClasses(eps).inverse();
+            Map<Integer, Bundle> actualBundles = actual.getBundleClasses(eps).inverse();
+            for (int bundleClass : expectedBundles.keySet()) {
+                Bundle e = expectedBundles.get(bundleClass);
+                Bundle a = actualBundles.get(bundleClass);
+                assertEquals(e.isTurnPropertiesCalculated(), a.isTurnPropertiesCalculated());
+                assertEquals(e.getRepresentativePolyline(), a.getRepresentativePolyline());
+                if (!e.isTurnPropertiesCalculated()) {
+                    assertNull(a.getAllTurns());
+                    continue;
+                }
+                assertEquals(describeTurns(e.getAllTurns()), describeTurns(a.getAllTurns()));
+                for (Turn turn : a.getAllTurns()) {
+                    assertSame(a, turn.getBundle());
+                    assertTrue(a.getSubtrajectories().containsAll(turn.getTrajectoriesIncluded()));
+                }
+
+                List<Turn> readTurns = a.getAllTurns();
+                List<Point2D> readRepresentative = a.getRepresentativePolyline();
+                a.calculateTurnProperties();
+                assertSame(readTurns, a.getAllTurns());
+                assertSame(readRepresentative, a.getRepresentativePolyline());
+                calculated++;
+                turns += readTurns.size();
+            }
+        }
+        assertTrue(calculated > 0);
+        assertTrue(turns > 0);
+    }
+
+    private static List<String> describeTurns(List<Turn> turns) {
+        List<String> result = new ArrayList<>();
+        for (Turn turn : turns) {
+            result.add(turn.getLargestAnglePoints() + " " + turn.getTrajectoriesRanges() + " " + turn.getTurnLocation());
+        }
+        return result;
+    }
+
+    private static void assertDiagramsEqual(EvolutionDiagram expected, EvolutionDiagram actual) {
+        assertEquals(expected.getEpsilons(), actual.getEpsilons());
+        for (double eps : expected.getEpsilons()) {
+            Map<Integer, Bundle> expectedBundles = expected.getBundleClasses(eps).inverse();
+            Map<Integer, Bundle> actualBundles = actual.getBundleClasses(eps).inverse();
+            assertEquals(expectedBundles.keySet(), actualBundles.keySet());
+            for (int bundleClass : expectedBundles.keySet()) {
+                Bundle e = expectedBundles.get(bundleClass);
+                Bundle a = actualBundles.get(bundleClass);
+                assertEquals(e.size(), a.size());
+                assertEquals(e.getOriginalRepresentative().points(), a.getOriginalRepresentative().points());
+            }
+        }
+    }
+}
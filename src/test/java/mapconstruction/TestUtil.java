@@ -1,9 +1,18 @@
 package mapconstruction;
 
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Subtrajectory;
+import mapconstruction.trajectories.Trajectory;
+
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
 
 /**
  * Helper functions for testing.
@@ -16,4 +25,46 @@ public class TestUtil {
         Arrays.stream(t).forEachOrdered(xy -> points.add(new Point2D.Double(xy[0], xy[1])));
         return points;
     }
+
+    /**
+     * Describes each bundle by its subtrajectories and representative, sorted, so bundles can be compared with the
+     * bundles of an earlier version of an algorithm. The trajectories must be labelled.
+     */
+    public static List<String> describeBundles(Collection<Bundle> bundles) {
+        return bundles.stream().map(TestUtil::describeBundle).sorted().collect(Collectors.toList());
+    }
+
+    public static String describeBundle(Bundle bundle) {
+        return bundle.getSubtrajectories().stream().map(TestUtil::describeSubtrajectory).sorted()
+                .collect(Collectors.joining(" ")) + " rep " + describeSubtrajectory(bundle.getOriginalRepresentative());
+    }
+
+    public static String describeSubtrajectory(Subtrajectory s) {
+        return s.getParent().getLabel() + String.format(Locale.ROOT, "[%.3f,%.3f]", s.getFromIndex(), s.getToIndex());
+    }
+
+    /**
+     * Routes on a grid of two horizontal and two vertical streets, each following a street and turning at a crossing,
+     * with some noise.
+     */
+    public static List<Trajectory> makeRoutes() {
+        Random random = new Random(2);
+        List<Trajectory> trajectories = new ArrayList<>();
+        for (int k = 0; k < 12; k++) {
+            double street = 50 + 100 * random.nextInt(2);
+            double turn = 50 + 100 * random.nextInt(2);
+            double start = random.nextInt(5) * 10;
+            double end = 160 + random.nextInt(5) * 10;
+            boolean up = random.nextBoolean();
+            List<Point2D> points = new ArrayList<>();
+            for (double x = start; x < turn; x += 10) {
+                points.add(new Point2D.Double(x + random.nextGaussian(), street + random.nextGaussian()));
+            }
+            for (double y = street; up ? y <= end : y >= 200 - end; y += up ? 10 : -10) {
+                points.add(new Point2D.Double(turn + random.nextGaussian(), y + random.nextGaussian()));
+            }
+            trajectories.add(new FullTrajectory(points));
+        }
+        return trajectories;
+    }
 }
@@ -1,14 +1,22 @@
 package mapconstruction.algorithms.bundles;
 
 import junit.framework.TestCase;
+import mapconstruction.TestUtil;
+import mapconstruction.algorithms.bundles.graph.GeneratingSemiWeakFDLabelledGraph;
+import mapconstruction.algorithms.bundles.graph.IncrementalFreeSpace;
+import mapconstruction.algorithms.bundles.sweep.FurthestEndpointSweep;
+import mapconstruction.algorithms.bundles.sweep.KLSweepline;
+import mapconstruction.trajectories.Bundle;
 import mapconstruction.trajectories.FullTrajectory;
 import mapconstruction.trajectories.Trajectory;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.*;
 import java.util.List;
+import java.util.stream.Collectors;
+
+import static mapconstruction.GUI.datastorage.ConstantsStorage.ALGOCONSTANTS;
 
 public class KLSubbundleAlgorithmTest extends TestCase {
 
@@ -26,6 +34,25 @@ public class KLSubbundleAlgorithmTest extends TestCase {
         super.tearDown();
     }
 
+    /**
+     * Trajectories A to E, crossing and overlapping each other.
+     */
+    private static final int[][][] CROSSING = {
+        { {0, 0}, {2, 0}, {4, 0}, {6, 0} }, // A
+        { {0, 1}, {2, 1}, {4, 1}, {6, 1} }, // B
+        { {6, 2}, {4, 2}, {2, 2}, {0, 2} }, // C
+        { {2, 0}, {4, 1}, {6, 2}, {8, 3} }, // D
+        { {0, 3}, {2, 2}, {4, 1}, {6, 0} }  // E
+    };
+
+    private List<Trajectory> makeLabelledTrajectories(int[][][] coordinates) {
+        List<Trajectory> trajectories = makeTrajectories(coordinates);
+        for (int i = 0; i < trajectories.size(); i++) {
+            ((FullTrajectory) trajectories.get(i)).setLabel(String.valueOf((char) ('A' + i)));
+        }
+        return trajectories;
+    }
+
     private List<Trajectory> makeTrajectories(int[][][] coordinates) {
         List<Trajectory> trajectories = new ArrayList<>();
         for (int[][] coordinate : coordinates) {
@@ -58,4 +85,135 @@ public class KLSubbundleAlgorithmTest extends TestCase {
 
     }
 
+    public void testParallelMatchesSequential() {
+        int[][][] c = {
+            { {0, 0}, {2, 0}, {4, 0}, {6, 0} }, // A
+            { {0, 1}, {2, 1}, {4, 1}, {6, 1} }, // B
+            { {6, 2}, {4, 2}, {2, 2}, {0, 2} }, // C
+            { {2, 0}, {4, 1}, {6, 2}, {8, 3} }, // D
+            { {0, 3}, {2, 2}, {4, 1}, {6, 0} }  // E
+        };
+
+        List<Trajectory> trajectories = makeTrajectories(c);
+
+        ALGOCONSTANTS.setNumThreads(4);
+        try {
+            KLSubbundleAlgorithm sequential = new KLSubbundleAlgorithm(1d, 0d, true, false);
+            KLSubbundleAlgorithm parallel = new KLSubbundleAlgorithm(1d, 0d, true, true);
+            assertEquals(new ArrayList<>(sequential.run(trajectories)), new ArrayList<>(parallel.run(trajectories)));
+            assertEquals(sequential.getMerges(), parallel.getMerges());
+        } finally {
+            ALGOCONSTANTS.setNumThreads(0);
+        }
+    }
+
+    public void testIncrementalFreeSpaceMatchesScratch() {
+        int[][][] c = {
+            { {0, 0}, {2, 0}, {4, 0}, {6, 0} }, // A
+            { {0, 1}, {2, 1}, {4, 1}, {6, 1} }, // B
+            { {6, 2}, {4, 2}, {2, 2}, {0, 2} }, // C
+            { {2, 0}, {4, 1}, {6, 2}, {8, 3} }, // D
+            { {0, 3}, {2, 2}, {4, 1}, {6, 0} }  // E
+        };
+
+        List<Trajectory> trajectories = makeTrajectories(c);
+        IncrementalFreeSpace freeSpace = new IncrementalFreeSpace(trajectories, true, 4);
+
+        for (double eps : new double[]{0.5, 1, 2, 4}) {
+            KLSubbundleAlgorithm scratch = new KLSubbundleAlgorithm(eps, eps / 2, true, false);
+            KLSubbundleAlgorithm incremental = new KLSubbundleAlgorithm(eps, eps / 2, true, false);
+            incremental.setFreeSpace(freeSpace);
+            assertEquals(new ArrayList<>(scratch.run(trajectories)), new ArrayList<>(incremental.run(trajectories)));
+            assertEquals(scratch.getMerges(), incremental.getMerges());
+        }
+    }
+
+    public void testBundlesUnchanged() {
+        // Bundles as generated before the labelled graphs were stored in a PackedLabelledGraph.
+        List<Trajectory> trajectories = makeLabelledTrajectories(CROSSING);
+
+        assertEquals(Arrays.asList(
+                "<A>[0.000,3.000] <B>[0.000,3.000] <C>_(r)[0.000,3.000] rep <B>[0.000,3.000]",
+                "<A>[1.000,3.000] <B>[1.000,3.000] <C>_(r)[1.000,3.000] <D>[0.000,2.000] <E>[1.000,3.000] rep <B>[1.000,3.000]",
+                "<B>[2.000,3.000] <C>_(r)[2.000,3.000] <D>[1.000,2.447] rep <D>[1.000,2.000]",
+                "<B>_(r)[1.000,3.000] <C>[1.000,3.000] <E>_(r)[1.000,3.000] rep <C>[1.000,3.000]"
+        ), TestUtil.describeBundles(new KLSubbundleAlgorithm(1, 0.5, true).run(trajectories)));
+
+        assertEquals(Arrays.asList(
+                "<A>[0.000,3.000] <B>[1.000,2.000] <C>_(r)[0.000,3.000] <E>[0.000,2.000] rep <B>[0.000,3.000]",
+                "<A>[1.000,2.000] <B>[0.000,3.000] <C>_(r)[0.000,3.000] <D>[0.000,2.000] rep <A>[0.000,3.000]",
+                "<A>[1.000,2.000] <B>[1.000,3.000] <C>_(r)[1.000,3.000] <D>[0.000,2.000] <E>[1.000,3.000] rep <A>[1.000,3.000]",
+                "<A>[1.000,2.866] <B>[1.000,2.000] <C>_(r)[1.000,2.866] <D>[0.000,1.000] <E>[1.000,2.000] rep <B>[1.000,2.000]",
+                "<A>[2.000,3.000] <B>[1.000,3.000] <C>_(r)[1.000,2.000] <D>[0.000,2.894] <E>[1.000,3.000] rep <D>[0.000,2.000]",
+                "<A>_(r)[0.000,2.000] <B>_(r)[0.000,2.866] <C>[1.000,2.000] <D>_(r)[1.000,3.000] <E>_(r)[0.000,2.000] rep <C>[0.000,2.000]",
+                "<A>_(r)[0.000,3.000] <B>_(r)[0.000,3.000] <C>[1.000,2.000] <E>_(r)[0.000,2.000] rep <C>[0.000,3.000]",
+                "<A>_(r)[2.000,3.000] <B>_(r)[2.000,3.000] <C>[1.000,2.000] <E>[0.106,1.000] rep <C>[2.000,3.000]",
+                "<B>[0.000,3.000] <C>_(r)[0.000,2.866] <E>[0.000,2.894] rep <E>[0.000,2.000]"
+        ), TestUtil.describeBundles(new KLSubbundleAlgorithm(2, 1, true).run(trajectories)));
+    }
+
+    public void testRemoveLambdaSubbundlesMatchesAllPairs() {
+        List<Trajectory> trajectories = TestUtil.makeRoutes();
+        double eps = 5;
+        Set<Bundle> generated = generateBundles(trajectories, eps);
+
+        ALGOCONSTANTS.setNumThreads(2);
+        try {
+            for (double lambda : new double[]{0, eps / 2, 2 * eps}) {
+                Map<Bundle, Bundle> expectedMerges = new HashMap<>();
+                Set<Bundle> expected = new LinkedHashSet<>(generated);
+                removeLambdaSubbundlesAllPairs(expected, expectedMerges, eps, lambda);
+                assertFalse(expectedMerges.isEmpty());
+
+                for (boolean parallel : new boolean[]{false, true}) {
+                    KLSubbundleAlgorithm algo = new KLSubbundleAlgorithm(eps, lambda, true, parallel);
+                    Set<Bundle> actual = new LinkedHashSet<>(generated);
+                    algo.removeLambdaSubbundles(actual, lambda);
+                    assertEquals(expected, actual);
+                    assertEquals(expectedMerges, algo.getMerges());
+                }
+            }
+        } finally {
+            ALGOCONSTANTS.setNumThreads(0);
+        }
+    }
+
+    /**
+     * Generates the bundles of every representative, before the lambda-subbundles are removed.
+     */
+    private Set<Bundle> generateBundles(List<Trajectory> trajectories, double eps) {
+        List<Trajectory> concatenated = new ArrayList<>(trajectories);
+        concatenated.addAll(trajectories.stream().map(Trajectory::reverse).collect(Collectors.toList()));
+        Set<Bundle> bundles = new LinkedHashSet<>();
+        for (Trajectory representative : trajectories) {
+            KLSweepline sweep = new FurthestEndpointSweep(new GeneratingSemiWeakFDLabelledGraph(eps, representative, concatenated), 0);
+            sweep.initialize();
+            bundles.addAll(sweep.sweep());
+        }
+        return bundles;
+    }
+
+    /**
+     * Lambda-subbundle removal comparing all pairs of bundles, as done before the candidates were indexed.
+     */
+    private static void removeLambdaSubbundlesAllPairs(Set<Bundle> bundles, Map<Bundle, Bundle> merges, double epsilon, double lambda) {
+        Comparator<Bundle> compSizeDec = (b1, b2) -> Integer.compare(b2.size(), b1.size());
+        Comparator<Bundle> compSizeLengthLex = compSizeDec.thenComparing(Comparator.comparingDouble(Bundle::continuousLength).reversed());
+        List<Bundle> bundleList = bundles.stream()
+                .sorted(compSizeLengthLex)
+                .collect(Collectors.toCollection(ArrayList::new));
+
+        for (Bundle b1 : bundleList) {
+            if (merges.containsKey(b1)) continue;
+            for (Bundle b2 : bundleList) {
+                if (b1 == b2 || b2.size() > b1.size() || merges.containsKey(b2)) continue;
+                if (b1.getOriginalRepresentative().getParent().getUndirectionalLabel().equals(b2.getOriginalRepresentative().getParent().getUndirectionalLabel())) continue;
+                if (!b1.getOriginalRepresentative().hasAsLambdaSimilar(b2.getOriginalRepresentative(), 2 * epsilon)) continue;
+                if (b1.hasAsLambdaSubBundle(b2, lambda, false)) {
+                    merges.put(b2, b1);
+                    bundles.remove(b2);
+                }
+            }
+        }
+    }
 }
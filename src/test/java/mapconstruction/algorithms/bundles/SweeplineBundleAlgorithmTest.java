@@ -0,0 +1,59 @@
+package mapconstruction.algorithms.bundles;
+
+import junit.framework.TestCase;
+import mapconstruction.TestUtil;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Trajectory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SweeplineBundleAlgorithmTest extends TestCase {
+
+    /**
+     * Two streets 30 apart and a crossing street, driven by trajectories A to E. Most rows of the free space are far
+     * from any column.
+     */
+    private static final double[][][] STREETS = {
+        { {0, 0}, {10, 0}, {20, 0}, {30, 0}, {40, 0} },                       // A
+        { {0, 1}, {10, 2}, {20, 1}, {30, 1}, {40, 2} },                       // B
+        { {40, 30}, {30, 30}, {20, 31}, {10, 30}, {0, 30} },                  // C
+        { {20, -10}, {20, 0}, {20, 10}, {21, 20}, {20, 30}, {20, 40} },       // D
+        { {0, 31}, {10, 31}, {20, 29}, {20, 20}, {20, 10}, {30, 1}, {40, 1} } // E
+    };
+
+    private List<Trajectory> trajectories;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        trajectories = new ArrayList<>();
+        for (int i = 0; i < STREETS.length; i++) {
+            FullTrajectory t = new FullTrajectory(TestUtil.doubleArrayToTrajectory(STREETS[i]));
+            t.setLabel(String.valueOf((char) ('A' + i)));
+            trajectories.add(t);
+        }
+    }
+
+    public void testBundlesUnchanged() {
+        // Bundles as generated before the rows far from a column were pruned when adding the column.
+        assertEquals(Arrays.asList(
+                "<A>[0.000,4.000] <B>[0.000,4.000] rep <A>[0.000,4.000]",
+                "<A>[2.717,4.000] <B>[2.700,4.000] <E>[5.000,6.000] rep <E>[5.000,6.000]",
+                "<C>[2.000,4.000] <E>_(r)[3.889,6.000] rep <C>[2.000,4.000]",
+                "<C>_(r)[0.000,2.243] <E>[0.000,2.000] rep <E>[0.000,2.000]",
+                "<D>[2.000,4.000] <E>_(r)[1.777,4.297] rep <D>[2.000,4.000]",
+                "<D>_(r)[0.800,3.300] <E>[2.000,4.000] rep <E>[2.000,4.000]"
+        ), TestUtil.describeBundles(new SweeplineBundleAlgorithm(3, 2, true).run(trajectories)));
+
+        assertEquals(Arrays.asList(
+                "<A>[0.000,4.000] <B>[0.000,4.000] rep <A>[0.000,4.000]",
+                "<A>[2.206,4.000] <B>[2.200,4.000] <E>[5.000,6.000] rep <E>[5.000,6.000]",
+                "<C>[2.000,4.000] <E>_(r)[3.333,6.000] rep <C>[2.000,4.000]",
+                "<C>_(r)[0.000,2.791] <E>[0.000,2.000] rep <E>[0.000,2.000]",
+                "<D>[1.000,4.000] <E>_(r)[1.283,4.798] rep <D>[1.000,4.000]",
+                "<D>_(r)[0.300,3.800] <E>[2.000,4.000] rep <E>[2.000,4.000]"
+        ), TestUtil.describeBundles(new SweeplineBundleAlgorithm(8, 2, true).run(trajectories)));
+    }
+}
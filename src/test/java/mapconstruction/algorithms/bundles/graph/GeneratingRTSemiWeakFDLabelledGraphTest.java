@@ -0,0 +1,113 @@
+package mapconstruction.algorithms.bundles.graph;
+
+import junit.framework.TestCase;
+import mapconstruction.TestUtil;
+import mapconstruction.algorithms.bundles.graph.representation.Event;
+import mapconstruction.algorithms.distance.SegmentRTree;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Trajectory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GeneratingRTSemiWeakFDLabelledGraphTest extends TestCase {
+
+    /**
+     * Three parallel trajectories A to C, crossed by D and E.
+     */
+    private static final double[][][] CROSSING = {
+        { {0, 0}, {2, 0}, {4, 0}, {6, 0} }, // A
+        { {0, 1}, {2, 1}, {4, 1}, {6, 1} }, // B
+        { {6, 2}, {4, 2}, {2, 2}, {0, 2} }, // C
+        { {2, 0}, {4, 1}, {6, 2}, {8, 3} }, // D
+        { {0, 3}, {2, 2}, {4, 1}, {6, 0} }  // E
+    };
+
+    public void testEventsUnchanged() {
+        List<Trajectory> trajectories = new ArrayList<>();
+        for (double[][] points : CROSSING) {
+            trajectories.add(new FullTrajectory(TestUtil.doubleArrayToTrajectory(points)));
+        }
+        List<Trajectory> concatenated = concatenate(trajectories);
+        SegmentRTree rTree = GeneratingRTSemiWeakFDLabelledGraph.indexSegments(concatenated);
+
+        // Start events as found before reachability was propagated through bitsets.
+        assertEquals(Arrays.asList(
+                "(0,1)-(1,2)", "(0,1)-(1,3)", "(0,5)-(1,6)", "(0,21)-(1,22)", "(0,25)-(1,26)", "(0,34)-(1,35)",
+                "(0,5)-(2,7)", "(0,12)-(2,14)", "(0,12)-(3,15)", "(1,8)-(2,9)", "(1,24)-(2,25)", "(1,30)-(2,31)",
+                "(1,33)-(2,34)", "(2,32)-(3,33)"
+        ), startEvents(addColumn(new GeneratingRTSemiWeakFDLabelledGraph(1, trajectories.get(3), concatenated, rTree))));
+
+        assertEquals(Arrays.asList(
+                "(0,4)-(1,6)", "(0,10)-(1,11)", "(0,38)-(1,39)", "(0,4)-(2,6)", "(0,16)-(2,18)", "(0,26)-(2,27)",
+                "(0,28)-(2,30)", "(0,4)-(3,7)", "(0,16)-(3,19)", "(0,28)-(3,31)", "(1,1)-(2,2)", "(1,8)-(2,9)",
+                "(1,9)-(2,10)", "(1,25)-(2,26)", "(1,34)-(2,35)", "(1,37)-(2,38)", "(1,1)-(3,2)", "(1,1)-(3,3)",
+                "(1,8)-(3,9)", "(1,12)-(3,14)", "(1,12)-(3,15)", "(1,21)-(3,22)", "(2,20)-(3,21)", "(2,24)-(3,25)",
+                "(2,33)-(3,34)", "(2,36)-(3,37)"
+        ), startEvents(addColumn(new GeneratingRTSemiWeakFDLabelledGraph(2, trajectories.get(4), concatenated, rTree))));
+    }
+
+    public void testEventCountsUnchanged() {
+        // Routes long enough for the reachable rows to span several words.
+        List<Trajectory> trajectories = TestUtil.makeRoutes();
+        List<Trajectory> concatenated = concatenate(trajectories);
+        SegmentRTree rTree = GeneratingRTSemiWeakFDLabelledGraph.indexSegments(concatenated);
+
+        // Number of start events per representative, as found before reachability was propagated through bitsets.
+        double[] epsilons = {3, 8, 20};
+        int[][] expected = {
+            {75, 69, 41, 25, 47, 59, 31, 49, 47, 30, 35, 51},
+            {85, 77, 45, 30, 48, 67, 39, 62, 63, 43, 39, 55},
+            {176, 179, 86, 68, 100, 145, 87, 127, 128, 85, 82, 112}
+        };
+        for (int e = 0; e < epsilons.length; e++) {
+            for (int i = 0; i < trajectories.size(); i++) {
+                GeneratingRTSemiWeakFDLabelledGraph graph = addColumn(
+                        new GeneratingRTSemiWeakFDLabelledGraph(epsilons[e], trajectories.get(i), concatenated, rTree));
+                assertEquals(expected[e][i], startEvents(graph).size());
+            }
+        }
+    }
+
+    public void testSharedFreeSpace() {
+        List<Trajectory> trajectories = TestUtil.makeRoutes();
+        List<Trajectory> concatenated = concatenate(trajectories);
+        SegmentRTree rTree = GeneratingRTSemiWeakFDLabelledGraph.indexSegments(concatenated);
+        IncrementalFreeSpace freeSpace = new IncrementalFreeSpace(trajectories, true, 20);
+
+        for (double eps : new double[]{3, 8, 20}) {
+            for (Trajectory representative : trajectories) {
+                GeneratingRTSemiWeakFDLabelledGraph queried = addColumn(
+                        new GeneratingRTSemiWeakFDLabelledGraph(eps, representative, concatenated, rTree));
+                GeneratingRTSemiWeakFDLabelledGraph shared = addColumn(
+                        new GeneratingRTSemiWeakFDLabelledGraph(eps, representative, freeSpace));
+                assertEquals(queried.getGraph(), shared.getGraph());
+                assertEquals(queried.collectEvents(), shared.collectEvents());
+            }
+        }
+    }
+
+    private static List<Trajectory> concatenate(List<Trajectory> trajectories) {
+        List<Trajectory> concatenated = new ArrayList<>(trajectories);
+        for (Trajectory t : trajectories) {
+            concatenated.add(t.reverse());
+        }
+        return concatenated;
+    }
+
+    private static GeneratingRTSemiWeakFDLabelledGraph addColumn(GeneratingRTSemiWeakFDLabelledGraph graph) {
+        graph.addColumn();
+        return graph;
+    }
+
+    private static List<String> startEvents(GeneratingSemiWeakFDLabelledGraph graph) {
+        List<String> events = new ArrayList<>();
+        for (Event e : graph.collectEvents()) {
+            if (e.isStart()) {
+                events.add("(" + e.s.x() + "," + e.s.y() + ")-(" + e.t.x() + "," + e.t.y() + ")");
+            }
+        }
+        return events;
+    }
+}
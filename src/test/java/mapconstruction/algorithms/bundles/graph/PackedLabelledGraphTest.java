@@ -0,0 +1,207 @@
+package mapconstruction.algorithms.bundles.graph;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PackedLabelledGraphTest extends TestCase {
+
+    private PackedLabelledGraph graph;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        graph = new PackedLabelledGraph();
+    }
+
+    public void testAddCell() {
+        assertFalse(graph.contains(3, 4));
+        graph.addCell(3, 4);
+        graph.addCell(3, 4);
+        assertTrue(graph.contains(3, 4));
+        assertFalse(graph.contains(3, 5));
+        assertFalse(graph.contains(4, 4));
+        assertFalse(graph.contains(-1, 4));
+        assertEquals(1, graph.numCells());
+        assertEquals(PackedLabelledGraph.NONE, graph.firstEdge(3, 4));
+        assertEquals(0, graph.edgeCount(3, 4));
+    }
+
+    public void testEdgesInInsertionOrder() {
+        graph.addEdge(2, 5, 1, 5, 7, 0, 3);
+        graph.addEdge(2, 6, 1, 6, 1);
+        graph.addEdge(2, 5, 2, 4, 3, 1, 1);
+        graph.addEdge(2, 5, 1, 4, 9, 0, 0);
+
+        assertTrue(graph.contains(2, 5));
+        assertEquals(2, graph.numCells());
+        assertEquals(3, graph.edgeCount(2, 5));
+        assertEquals(1, graph.edgeCount(2, 6));
+
+        int e = graph.firstEdge(2, 5);
+        assertEdge(e, 1, 5, 7, 0, 3);
+        e = graph.nextEdge(2, e);
+        assertEdge(e, 2, 4, 3, 1, 1);
+        e = graph.nextEdge(2, e);
+        assertEdge(e, 1, 4, 9, 0, 0);
+        assertEquals(PackedLabelledGraph.NONE, graph.nextEdge(2, e));
+
+        assertEquals(graph.firstEdge(2, 5), graph.edge(2, 5, 0));
+        assertEquals(7, graph.label(2, graph.edge(2, 5, 0)));
+        assertEquals(9, graph.label(2, graph.edge(2, 5, 2)));
+        assertEquals(PackedLabelledGraph.NONE, graph.edge(2, 5, 3));
+        assertEquals(PackedLabelledGraph.NONE, graph.edge(2, 7, 0));
+    }
+
+    public void testMinLabelEdge() {
+        assertEquals(PackedLabelledGraph.NONE, graph.minLabelEdge(0, 0));
+        graph.addCell(0, 0);
+        assertEquals(PackedLabelledGraph.NONE, graph.minLabelEdge(0, 0));
+
+        graph.addEdge(0, 0, 1, 1, 5, 1, 0);
+        graph.addEdge(0, 0, 1, 2, 2, 2, 0);
+        graph.addEdge(0, 0, 1, 3, 8, 3, 0);
+        graph.addEdge(0, 0, 1, 4, 2, 4, 0);
+
+        // The first of the edges with the smallest label.
+        int e = graph.minLabelEdge(0, 0);
+        assertEquals(2, graph.label(0, e));
+        assertEquals(2, graph.originX(0, e));
+    }
+
+    public void testClearEdges() {
+        graph.addEdge(1, 1, 0, 1, 1);
+        graph.addEdge(1, 2, 0, 2, 1);
+        graph.clearEdges(1);
+        assertTrue(graph.contains(1, 1));
+        assertTrue(graph.contains(1, 2));
+        assertEquals(0, graph.edgeCount(1, 1));
+        assertEquals(0, graph.edgeCount(1, 2));
+
+        graph.addEdge(1, 2, 0, 3, 4);
+        assertEquals(1, graph.edgeCount(1, 2));
+        assertEquals(3, graph.targetY(1, graph.firstEdge(1, 2)));
+    }
+
+    public void testMarked() {
+        graph.setMarked(3, 1, true);
+        graph.setMarked(1, 2, true);
+        graph.setMarked(1, 0, true);
+        graph.setMarked(2, 2, false);
+        graph.setMarked(1, 2, false);
+        graph.addCell(2, 5);
+
+        assertEquals(Arrays.asList("1,0", "3,1"), marked());
+        assertEquals(Arrays.asList("1,2", "1,0", "2,5", "3,1"), cells());
+    }
+
+    public void testRemoveColumn() {
+        graph.addEdge(0, 1, 0, 0, 1);
+        graph.addEdge(1, 1, 0, 1, 2);
+        graph.addEdge(2, 1, 1, 1, 3);
+        graph.setMarked(0, 1, true);
+
+        graph.removeColumn(0);
+        assertFalse(graph.contains(0, 1));
+        assertEquals(PackedLabelledGraph.NONE, graph.firstEdge(0, 1));
+        assertEquals(Arrays.asList("1,1", "2,1"), cells());
+        assertTrue(marked().isEmpty());
+
+        graph.removeColumn(2);
+        graph.removeColumn(5);
+        assertEquals(Collections.singletonList("1,1"), cells());
+    }
+
+    public void testRemovedColumnIsReused() {
+        graph.addEdge(0, 1, 0, 0, 1);
+        graph.addEdge(0, 2, 0, 1, 1);
+        graph.setMarked(0, 2, true);
+        graph.removeColumn(0);
+
+        // The recycled column must not keep cells, edges or marks of the removed one.
+        graph.addEdge(16, 2, 15, 2, 4);
+        assertFalse(graph.contains(0, 2));
+        assertFalse(graph.contains(16, 1));
+        assertEquals(1, graph.edgeCount(16, 2));
+        assertEquals(4, graph.label(16, graph.firstEdge(16, 2)));
+        assertTrue(marked().isEmpty());
+        assertEquals(Collections.singletonList("16,2"), cells());
+    }
+
+    public void testSlidingWindow() {
+        // Columns are added on the right and removed on the left, as by a sweep line, far past the initial capacity.
+        for (int x = 0; x < 1000; x++) {
+            graph.addEdge(x, x % 7, x - 1, x % 7, x);
+            if (x >= 3) {
+                graph.removeColumn(x - 3);
+            }
+        }
+        assertEquals(3, graph.numCells());
+        for (int x = 997; x < 1000; x++) {
+            assertTrue(graph.contains(x, x % 7));
+            assertEquals(x, graph.label(x, graph.firstEdge(x, x % 7)));
+        }
+        assertFalse(graph.contains(996, 996 % 7));
+        assertFalse(graph.contains(997 - 16, (997 - 16) % 7));
+    }
+
+    public void testGrowColumns() {
+        // More live columns than the initial capacity, added out of order.
+        for (int x = 99; x >= 0; x -= 2) {
+            graph.addEdge(x, 0, x, 1, x);
+        }
+        for (int x = 0; x < 100; x += 2) {
+            graph.addEdge(x, 0, x, 1, x);
+        }
+        assertEquals(100, graph.numCells());
+        for (int x = 0; x < 100; x++) {
+            assertEquals(x, graph.label(x, graph.firstEdge(x, 0)));
+        }
+        List<String> expected = new ArrayList<>();
+        for (int x = 0; x < 100; x++) {
+            expected.add(x + ",0");
+        }
+        assertEquals(expected, cells());
+    }
+
+    public void testGrowCells() {
+        // More cells and edges in a column than the initial capacity of its tables.
+        for (int y = 0; y < 500; y++) {
+            graph.addEdge(4, 3 * y, 3, y, y);
+            graph.addEdge(4, 3 * y, 3, y + 1, y + 1);
+        }
+        assertEquals(500, graph.numCells());
+        for (int y = 0; y < 500; y++) {
+            assertTrue(graph.contains(4, 3 * y));
+            assertFalse(graph.contains(4, 3 * y + 1));
+            assertEquals(2, graph.edgeCount(4, 3 * y));
+            int e = graph.firstEdge(4, 3 * y);
+            assertEquals(y, graph.targetY(4, e));
+            assertEquals(y + 1, graph.targetY(4, graph.nextEdge(4, e)));
+        }
+    }
+
+    private void assertEdge(int edge, int tx, int ty, int label, int ox, int oy) {
+        assertTrue(edge != PackedLabelledGraph.NONE);
+        assertEquals(tx, graph.targetX(2, edge));
+        assertEquals(ty, graph.targetY(2, edge));
+        assertEquals(label, graph.label(2, edge));
+        assertEquals(ox, graph.originX(2, edge));
+        assertEquals(oy, graph.originY(2, edge));
+    }
+
+    private List<String> cells() {
+        List<String> result = new ArrayList<>();
+        graph.forEachCell((x, y) -> result.add(x + "," + y));
+        return result;
+    }
+
+    private List<String> marked() {
+        List<String> result = new ArrayList<>();
+        graph.forEachMarked((x, y) -> result.add(x + "," + y));
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package mapconstruction.algorithms.bundles.graph;
+
+import junit.framework.TestCase;
+import mapconstruction.trajectories.FullTrajectory;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class SemiWeakFDLabelledGraphIntBasedTest extends TestCase {
+
+    private FullTrajectory concatenated;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Three random walks, concatenated.
+        Random random = new Random(3);
+        List<Point2D> points = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            double x = random.nextDouble() * 50;
+            double y = random.nextDouble() * 50;
+            for (int i = 0; i < 60; i++) {
+                points.add(new Point2D.Double(x, y));
+                x += random.nextDouble() * 10 - 5;
+                y += random.nextDouble() * 10 - 5;
+            }
+        }
+        concatenated = new FullTrajectory(points);
+    }
+
+    public void testCandidateRowsContainFreeCells() {
+        for (double eps : new double[]{0.5, 2, 5, 20}) {
+            SemiWeakFDLabelledGraphIntBased graph = new SemiWeakFDLabelledGraphIntBased(concatenated, Collections.emptySet(), eps);
+            int n = concatenated.numPoints();
+            for (int i = 0; i < n; i++) {
+                int[] rows = graph.candidateRows(i);
+                for (int k = 1; k < rows.length; k++) {
+                    assertTrue(rows[k - 1] < rows[k]);
+                }
+
+                for (int j = 0; j < n; j++) {
+                    // free horizontal grid edge (i - 1, j), or free vertical grid edge (i, j)
+                    boolean free = (i > 0 && Line2D.ptSegDist(concatenated.getX(i - 1), concatenated.getY(i - 1),
+                            concatenated.getX(i), concatenated.getY(i), concatenated.getX(j), concatenated.getY(j)) <= eps)
+                            || (j < n - 1 && Line2D.ptSegDist(concatenated.getX(j), concatenated.getY(j),
+                            concatenated.getX(j + 1), concatenated.getY(j + 1), concatenated.getX(i), concatenated.getY(i)) <= eps);
+                    if (free) {
+                        assertTrue("row " + j + " of column " + i + " at " + eps, contains(rows, j));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean contains(int[] rows, int j) {
+        for (int row : rows) {
+            if (row == j) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
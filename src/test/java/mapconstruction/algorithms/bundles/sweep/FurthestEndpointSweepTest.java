@@ -0,0 +1,100 @@
+package mapconstruction.algorithms.bundles.sweep;
+
+import junit.framework.TestCase;
+import mapconstruction.TestUtil;
+import mapconstruction.algorithms.bundles.graph.GeneratingSemiWeakFDLabelledGraph;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Trajectory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FurthestEndpointSweepTest extends TestCase {
+
+    /**
+     * Three parallel trajectories A to C, crossed by D and E.
+     */
+    private static final double[][][] CROSSING = {
+        { {0, 0}, {2, 0}, {4, 0}, {6, 0} }, // A
+        { {0, 1}, {2, 1}, {4, 1}, {6, 1} }, // B
+        { {6, 2}, {4, 2}, {2, 2}, {0, 2} }, // C
+        { {2, 0}, {4, 1}, {6, 2}, {8, 3} }, // D
+        { {0, 3}, {2, 2}, {4, 1}, {6, 0} }  // E
+    };
+
+    private List<Trajectory> trajectories;
+    private List<Trajectory> concatenated;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        trajectories = new ArrayList<>();
+        for (int i = 0; i < CROSSING.length; i++) {
+            FullTrajectory t = new FullTrajectory(TestUtil.doubleArrayToTrajectory(CROSSING[i]));
+            t.setLabel(String.valueOf((char) ('A' + i)));
+            trajectories.add(t);
+        }
+        concatenated = new ArrayList<>(trajectories);
+        for (Trajectory t : trajectories) {
+            concatenated.add(t.reverse());
+        }
+    }
+
+    public void testBundlesUnchanged() {
+        // Bundles of all representatives as found before the results were indexed by trajectory.
+        assertEquals(Arrays.asList(
+                "<A>[0.000,3.000] <B>[0.000,3.000] <C>_(r)[0.000,3.000] rep <B>[0.000,3.000]",
+                "<A>[1.000,2.000] <B>[1.000,2.500] <D>[0.000,1.447] rep <D>[0.000,1.000]",
+                "<A>[1.000,2.500] <B>[1.000,2.000] <D>[0.000,1.000] rep <A>[1.000,2.000]",
+                "<A>[1.000,3.000] <B>[1.000,3.000] <C>_(r)[1.000,3.000] <D>[0.000,2.000] <E>[1.000,3.000] rep <B>[1.000,3.000]",
+                "<A>[2.000,3.000] <B>[2.000,3.000] <E>[2.000,3.000] rep <A>[2.000,3.000]",
+                "<A>[2.000,3.000] <B>[2.000,3.000] <E>[2.000,3.000] rep <E>[2.000,3.000]",
+                "<B>[1.000,2.500] <C>_(r)[1.000,2.000] <E>[1.000,2.447] rep <E>[1.000,2.000]",
+                "<B>[2.000,3.000] <C>_(r)[2.000,3.000] <D>[1.000,2.447] rep <D>[1.000,2.000]",
+                "<B>_(r)[0.000,1.000] <C>[0.000,1.500] <D>_(r)[1.000,2.000] rep <C>[0.000,1.000]",
+                "<B>_(r)[1.000,3.000] <C>[1.000,3.000] <E>_(r)[1.000,3.000] rep <C>[1.000,3.000]"
+        ), sweepAll(1, 0));
+
+        assertEquals(Arrays.asList(
+                "<A>[0.000,3.000] <B>[1.000,2.000] <C>_(r)[0.000,3.000] <E>[0.000,2.000] rep <B>[0.000,3.000]",
+                "<A>[1.000,2.000] <B>[0.000,3.000] <C>_(r)[0.000,3.000] <D>[0.000,2.000] rep <A>[0.000,3.000]",
+                "<A>[1.000,2.000] <B>[1.000,3.000] <C>_(r)[1.000,3.000] <D>[0.000,2.000] <E>[1.000,3.000] rep <A>[1.000,3.000]",
+                "<A>[1.000,2.000] <B>[1.000,3.000] <C>_(r)[2.000,3.000] <D>[0.000,2.000] <E>[1.000,3.000] rep <E>[1.000,3.000]",
+                "<A>[1.000,3.000] <B>[1.000,2.000] <C>_(r)[1.000,3.000] <D>[0.000,1.000] <E>[1.000,2.000] rep <B>[1.000,3.000]",
+                "<A>[2.000,3.000] <B>[1.000,3.000] <C>_(r)[1.000,2.000] <D>[0.000,2.894] <E>[1.000,3.000] rep <D>[0.000,2.000]",
+                "<A>_(r)[0.000,2.000] <B>_(r)[0.000,2.866] <C>[1.000,2.000] <D>_(r)[1.000,3.000] <E>_(r)[0.000,2.000] rep <C>[0.000,2.000]",
+                "<A>_(r)[0.000,3.000] <B>_(r)[0.000,3.000] <C>[1.000,2.000] <E>_(r)[0.000,2.000] rep <C>[0.000,3.000]",
+                "<A>_(r)[2.000,3.000] <B>_(r)[2.000,3.000] <C>[1.000,2.000] <E>[0.106,1.000] rep <C>[2.000,3.000]",
+                "<B>[0.000,3.000] <C>_(r)[0.000,3.000] <E>[0.000,3.000] rep <E>[0.000,3.000]"
+        ), sweepAll(2, 0));
+
+        assertEquals(Arrays.asList(
+                "<A>[0.000,3.000] <B>[1.000,2.000] <C>_(r)[0.000,3.000] <E>[0.000,2.000] rep <B>[0.000,3.000]",
+                "<A>[1.000,2.000] <B>[0.000,3.000] <C>_(r)[0.000,3.000] <D>[0.000,2.000] rep <A>[0.000,3.000]",
+                "<A>[1.000,2.000] <B>[1.000,3.000] <C>_(r)[1.000,3.000] <D>[0.000,2.000] <E>[1.000,3.000] rep <A>[1.000,3.000]",
+                "<A>[1.000,2.000] <B>[1.000,3.000] <C>_(r)[2.000,2.866] <D>[0.000,1.894] <E>[1.000,2.894] rep <E>[1.000,2.000]",
+                "<A>[1.000,2.866] <B>[1.000,2.000] <C>_(r)[1.000,2.866] <D>[0.000,1.000] <E>[1.000,2.000] rep <B>[1.000,2.000]",
+                "<A>[2.000,3.000] <B>[1.000,3.000] <C>_(r)[1.000,2.000] <D>[0.000,2.894] <E>[1.000,3.000] rep <D>[0.000,2.000]",
+                "<A>_(r)[0.000,2.000] <B>_(r)[0.000,2.866] <C>[1.000,2.000] <D>_(r)[1.000,3.000] <E>_(r)[0.000,2.000] rep <C>[0.000,2.000]",
+                "<A>_(r)[0.000,3.000] <B>_(r)[0.000,3.000] <C>[1.000,2.000] <E>_(r)[0.000,2.000] rep <C>[0.000,3.000]",
+                "<A>_(r)[2.000,3.000] <B>_(r)[2.000,3.000] <C>[1.000,2.000] <E>[0.106,1.000] rep <C>[2.000,3.000]",
+                "<B>[0.000,3.000] <C>_(r)[0.000,2.866] <E>[0.000,2.894] rep <E>[0.000,2.000]"
+        ), sweepAll(2, 0.5));
+    }
+
+    /**
+     * Bundles found by sweeping each trajectory as representative.
+     */
+    private List<String> sweepAll(double epsilon, double lambda) {
+        List<Bundle> bundles = new ArrayList<>();
+        for (Trajectory representative : trajectories) {
+            FurthestEndpointSweep sweep = new FurthestEndpointSweep(
+                    new GeneratingSemiWeakFDLabelledGraph(epsilon, representative, concatenated), lambda);
+            sweep.initialize();
+            bundles.addAll(sweep.sweep());
+        }
+        return TestUtil.describeBundles(bundles);
+    }
+}
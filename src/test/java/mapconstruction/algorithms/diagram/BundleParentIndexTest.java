@@ -0,0 +1,127 @@
+package mapconstruction.algorithms.diagram;
+
+import junit.framework.TestCase;
+import mapconstruction.TestUtil;
+import mapconstruction.algorithms.bundles.KLSubbundleAlgorithm;
+import mapconstruction.trajectories.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class BundleParentIndexTest extends TestCase {
+
+    private static final double LAMBDA = 5;
+
+    private List<Trajectory> trajectories;
+    private List<Bundle> previous;
+    private List<Bundle> current;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        trajectories = TestUtil.makeRoutes();
+        Trajectory t0 = trajectories.get(0);
+        Trajectory t1 = trajectories.get(1);
+
+        // Bundles of two consecutive epsilons, which contain reversed subtrajectories as direction is ignored, and
+        // bundles without subtrajectories or on reversed parents only.
+        previous = new ArrayList<>(new KLSubbundleAlgorithm(5, 0, true).run(trajectories));
+        previous.add(Bundle.create(Collections.emptyList()));
+        previous.add(UndirectionalBundle.create(Arrays.asList(new Subtrajectory(t0.reverse(), 1, 3),
+                new Subtrajectory(t1.reverse(), 2, 4))));
+        current = new ArrayList<>(new KLSubbundleAlgorithm(10, 0, true).run(trajectories));
+        current.add(UndirectionalBundle.create(Arrays.asList(new Subtrajectory(t0, 0, 5),
+                new Subtrajectory(t1, 1, 6))));
+        current.add(Bundle.create(Collections.emptyList()));
+    }
+
+    public void testContinuationCandidates() {
+        BundleParentIndex index = new BundleParentIndex(previous, true);
+
+        int matched = 0;
+        for (Bundle bunNew : current) {
+            // Old bundles matched by a full scan over the previous bundles, in order.
+            List<Integer> expected = new ArrayList<>();
+            for (int k = 0; k < previous.size(); k++) {
+                if (isContinuation(bunNew, previous.get(k))) {
+                    expected.add(k);
+                }
+            }
+            int[] candidates = index.candidates(bunNew.getSubtrajectories());
+            assertAscending(candidates);
+            List<Integer> actual = Arrays.stream(candidates).filter(k -> isContinuation(bunNew, index.get(k)))
+                    .boxed().collect(Collectors.toList());
+            assertEquals(expected, actual);
+            matched += expected.size();
+        }
+        assertTrue(matched > current.size());
+    }
+
+    public void testMergeCandidates() {
+        BundleParentIndex index = new BundleParentIndex(current, false);
+
+        int matched = 0;
+        for (Bundle mergedBundle : previous) {
+            List<Integer> expected = new ArrayList<>();
+            for (int k = 0; k < current.size(); k++) {
+                if (current.get(k).hasAsLambdaSubBundle(mergedBundle, LAMBDA)) {
+                    expected.add(k);
+                }
+            }
+            // As in tryFindMerge, only the first subtrajectory is looked up.
+            List<Subtrajectory> lookup = mergedBundle.getSubtrajectories().stream().limit(1).collect(Collectors.toList());
+            int[] candidates = index.candidates(lookup);
+            assertAscending(candidates);
+            List<Integer> actual = Arrays.stream(candidates)
+                    .filter(k -> index.get(k).hasAsLambdaSubBundle(mergedBundle, LAMBDA))
+                    .boxed().collect(Collectors.toList());
+            assertEquals(expected, actual);
+            matched += expected.size();
+        }
+        assertTrue(matched > previous.size());
+    }
+
+    public void testReversedParent() {
+        Trajectory t0 = trajectories.get(0);
+        Trajectory t2 = trajectories.get(2);
+        Bundle forward = UndirectionalBundle.create(Collections.singletonList(new Subtrajectory(t0, 0, 2)));
+        Bundle reversed = UndirectionalBundle.create(Collections.singletonList(new Subtrajectory(t0.reverse(), 0, 2)));
+        Bundle other = UndirectionalBundle.create(Collections.singletonList(new Subtrajectory(t2, 0, 2)));
+        Bundle empty = Bundle.create(Collections.emptyList());
+        BundleParentIndex index = new BundleParentIndex(Arrays.asList(forward, reversed, other, empty), false);
+
+        assertTrue(Arrays.equals(new int[]{0, 1, 3}, index.candidates(forward.getSubtrajectories())));
+        assertTrue(Arrays.equals(new int[]{0, 1, 3}, index.candidates(reversed.getSubtrajectories())));
+        assertTrue(Arrays.equals(new int[]{2, 3}, index.candidates(other.getSubtrajectories())));
+        assertSame(reversed, index.get(1));
+    }
+
+    public void testNoSubtrajectories() {
+        BundleParentIndex index = new BundleParentIndex(current, true);
+        int[] all = index.candidates(Collections.emptyList());
+        assertEquals(current.size(), all.length);
+        for (int k = 0; k < all.length; k++) {
+            assertEquals(k, all[k]);
+        }
+
+        // A bundle without subtrajectories is a candidate for every query.
+        BundleParentIndex withEmpty = new BundleParentIndex(previous, true);
+        Trajectory unrelated = new FullTrajectory(TestUtil.doubleArrayToTrajectory(new double[][]{{0, 0}, {1, 1}}));
+        int[] candidates = withEmpty.candidates(Collections.singletonList(new Subtrajectory(unrelated, 0, 1)));
+        assertTrue(Arrays.equals(new int[]{previous.size() - 2}, candidates));
+    }
+
+    /**
+     * Whether an old bundle is a continuation of a new one, as checked by tryFindContinuation, without the size and
+     * class conditions which do not depend on the index.
+     */
+    private static boolean isContinuation(Bundle bunNew, Bundle bunOld) {
+        return bunNew.hasAsSubBundle(bunOld) || bunNew.hasAsLambdaSubBundle(bunOld, LAMBDA);
+    }
+
+    private static void assertAscending(int[] positions) {
+        for (int k = 1; k < positions.length; k++) {
+            assertTrue(positions[k - 1] < positions[k]);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package mapconstruction.algorithms.diagram;
+
+import junit.framework.TestCase;
+import mapconstruction.TestUtil;
+import mapconstruction.trajectories.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+public class BundleResultCacheTest extends TestCase {
+
+    private List<Trajectory> trajectories;
+    private Set<Bundle> bundles;
+    private Map<Bundle, Bundle> merges;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FullTrajectory t1 = new FullTrajectory(TestUtil.doubleArrayToTrajectory(new double[][]{{0, 0}, {1, 0}, {2, 0}, {3, 0}}));
+        FullTrajectory t2 = new FullTrajectory(TestUtil.doubleArrayToTrajectory(new double[][]{{0, 1}, {1, 1}, {2, 1}, {3, 1}}));
+        t1.setLabel("t1");
+        t2.setLabel("t2");
+        trajectories = Arrays.asList(t1, t2);
+
+        Subtrajectory s1 = new Subtrajectory(t1, 0, 3);
+        Subtrajectory s2 = new Subtrajectory(t2.reverse(), 0.5, 2);
+        Bundle b1 = UndirectionalBundle.create(Arrays.asList(s1, s2), s1);
+        Bundle b2 = Bundle.create(Collections.singletonList(new Subtrajectory(t2, 1, 2)));
+        Bundle removed = UndirectionalBundle.create(Collections.singletonList(new Subtrajectory(t1, 1, 2)), null);
+
+        bundles = new LinkedHashSet<>(Arrays.asList(b2, b1));
+        merges = new HashMap<>();
+        merges.put(removed, b1);
+    }
+
+    public void testGet() {
+        BundleResultCache cache = new BundleResultCache(1000);
+        long fingerprint = BundleResultCache.fingerprint(trajectories);
+        cache.put(fingerprint, trajectories, 3, 1.5, true, bundles, merges);
+
+        BundleResultCache.Result actual = cache.get(fingerprint, trajectories, 3, 1.5, true);
+
+        assertEquals(new ArrayList<>(bundles), new ArrayList<>(actual.getBundles()));
+        assertEquals(merges, actual.getMerges());
+        Bundle b1 = actual.getBundles().stream().skip(1).findFirst().get();
+        assertTrue(b1 instanceof UndirectionalBundle);
+        assertEquals(bundles.stream().skip(1).findFirst().get().getOriginalRepresentative(), b1.getOriginalRepresentative());
+    }
+
+    public void testGetCanonicalKey() {
+        BundleResultCache cache = new BundleResultCache(1000);
+        long fingerprint = BundleResultCache.fingerprint(trajectories);
+        cache.put(fingerprint, trajectories, 0.1 + 0.2, 0.6, true, bundles, merges);
+
+        assertNotNull(cache.get(fingerprint, trajectories, 0.3, 0.6, true));
+        assertNull(cache.get(fingerprint, trajectories, 0.3, 0.6, false));
+        assertNull(cache.get(fingerprint, trajectories, 0.4, 0.6, true));
+        assertNull(cache.get(fingerprint + 1, trajectories, 0.3, 0.6, true));
+    }
+
+    public void testEviction() {
+        BundleResultCache cache = new BundleResultCache(10);
+        long fingerprint = BundleResultCache.fingerprint(trajectories);
+        cache.put(fingerprint, trajectories, 1, 1, true, bundles, merges);
+        cache.put(fingerprint, trajectories, 2, 1, true, bundles, merges);
+
+        assertNull(cache.get(fingerprint, trajectories, 1, 1, true));
+        assertNotNull(cache.get(fingerprint, trajectories, 2, 1, true));
+    }
+
+    public void testDisk() throws Exception {
+        File directory = Files.createTempDirectory("bundle-cache").toFile();
+        try {
+            long fingerprint = BundleResultCache.fingerprint(trajectories);
+            new BundleResultCache(1000, directory).put(fingerprint, trajectories, 3, 1.5, true, bundles, merges);
+
+            BundleResultCache.Result actual = new BundleResultCache(1000, directory).get(fingerprint, trajectories, 3, 1.5, true);
+
+            assertEquals(new ArrayList<>(bundles), new ArrayList<>(actual.getBundles()));
+            assertEquals(merges, actual.getMerges());
+        } finally {
+            for (File f : directory.listFiles()) {
+                f.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    public void testFingerprint() {
+        List<Trajectory> copy = new ArrayList<>();
+        for (Trajectory t : trajectories) {
+            FullTrajectory c = new FullTrajectory(t.points());
+            c.setLabel(((FullTrajectory) t).getLabel().replaceAll("[<>]", ""));
+            copy.add(c);
+        }
+        assertEquals(BundleResultCache.fingerprint(trajectories), BundleResultCache.fingerprint(copy));
+        assertFalse(BundleResultCache.fingerprint(trajectories) == BundleResultCache.fingerprint(copy.subList(0, 1)));
+    }
+
+    public void testFingerprintIgnoresIds() throws Exception {
+        List<Trajectory> loaded = new ArrayList<>();
+        List<Trajectory> reloaded = new ArrayList<>();
+        for (Trajectory t : trajectories) {
+            loaded.add(new FullTrajectory(t.points()));
+            reloaded.add(new FullTrajectory(t.points()));
+        }
+        assertFalse(loaded.get(0).getLabel().equals(reloaded.get(0).getLabel()));
+
+        File directory = Files.createTempDirectory("bundle-cache").toFile();
+        try {
+            Set<Bundle> loadedBundles = Collections.singleton(Bundle.create(Collections.singletonList(new Subtrajectory(loaded.get(1), 1, 2))));
+            new BundleResultCache(1000, directory).put(BundleResultCache.fingerprint(loaded), loaded, 3, 1.5, true, loadedBundles, new HashMap<>());
+
+            long fingerprint = BundleResultCache.fingerprint(reloaded);
+            BundleResultCache.Result actual = new BundleResultCache(1000, directory).get(fingerprint, reloaded, 3, 1.5, true);
+            assertNotNull(actual);
+            assertSame(reloaded.get(1), actual.getBundles().iterator().next().getSubtrajectories().iterator().next().getParent());
+        } finally {
+            for (File f : directory.listFiles()) {
+                f.delete();
+            }
+            directory.delete();
+        }
+    }
+}
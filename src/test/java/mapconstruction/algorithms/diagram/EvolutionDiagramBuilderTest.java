@@ -0,0 +1,118 @@
+package mapconstruction.algorithms.diagram;
+
+import junit.framework.TestCase;
+import mapconstruction.TestUtil;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.Trajectory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static mapconstruction.GUI.datastorage.ConstantsStorage.ALGOCONSTANTS;
+
+public class EvolutionDiagramBuilderTest extends TestCase {
+
+    private List<Trajectory> trajectories;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        trajectories = TestUtil.makeRoutes();
+        ALGOCONSTANTS.setNumThreads(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ALGOCONSTANTS.setNumThreads(0);
+        super.tearDown();
+    }
+
+    public void testPipelinedMatchesSequential() {
+        EvolutionDiagram sequential = builder().runAlgorithmSequential(trajectories);
+        EvolutionDiagram pipelined = builder().runAlgorithmPipelined(trajectories);
+
+        assertTrue(sequential.getEpsilons().size() > 1);
+        assertEquals(sequential.getEpsilons(), pipelined.getEpsilons());
+        int merges = 0;
+        for (double eps : sequential.getEpsilons()) {
+            assertEquals(describeClasses(sequential.getBundleClasses(eps)), describeClasses(pipelined.getBundleClasses(eps)));
+            assertEquals(sequential.getBirths(eps), pipelined.getBirths(eps));
+            assertEquals(sequential.getMerges(eps), pipelined.getMerges(eps));
+            merges += sequential.getMerges(eps).size();
+        }
+        assertTrue(merges > 0);
+    }
+
+    public void testAbortWithLevelsInFlight() throws Exception {
+        EvolutionDiagramBuilder builder = builder();
+        CountDownLatch inFlight = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        Set<Double> requested = ConcurrentHashMap.newKeySet();
+        builder.setResultCache(new BundleResultCache(BundleResultCache.DEFAULT_MAX_WEIGHT) {
+            @Override
+            Result get(long fingerprint, List<Trajectory> trajectories, double epsilon, double lambda, boolean ignoreDirection) {
+                requested.add(epsilon);
+                if (epsilon > 10) {
+                    // hold the levels after the first one until the builder is aborted
+                    inFlight.countDown();
+                    try {
+                        release.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.get(fingerprint, trajectories, epsilon, lambda, ignoreDirection);
+            }
+        });
+
+        ExecutorService runner = Executors.newSingleThreadExecutor();
+        try {
+            Future<EvolutionDiagram> run = runner.submit(() -> builder.runAlgorithmPipelined(trajectories));
+            assertTrue(inFlight.await(30, TimeUnit.SECONDS));
+            builder.abort();
+            release.countDown();
+
+            // The partial diagram contains only the level finished before aborting.
+            EvolutionDiagram diagram = run.get(30, TimeUnit.SECONDS);
+            assertEquals(Collections.singleton(10.0), diagram.getEpsilons());
+            assertEquals(new HashSet<>(Arrays.asList(10.0, 20.0, 30.0)), requested);
+        } finally {
+            release.countDown();
+            runner.shutdownNow();
+        }
+    }
+
+    public void testWorkerExceptionReachesCaller() {
+        EvolutionDiagramBuilder builder = builder();
+        IllegalStateException failure = new IllegalStateException("level failed");
+        builder.setResultCache(new BundleResultCache(BundleResultCache.DEFAULT_MAX_WEIGHT) {
+            @Override
+            Result get(long fingerprint, List<Trajectory> trajectories, double epsilon, double lambda, boolean ignoreDirection) {
+                if (epsilon == 30) {
+                    throw failure;
+                }
+                return super.get(fingerprint, trajectories, epsilon, lambda, ignoreDirection);
+            }
+        });
+
+        try {
+            builder.runAlgorithmPipelined(trajectories);
+            fail("The failure of a level was not reported");
+        } catch (IllegalStateException ex) {
+            assertSame(failure, ex);
+        }
+    }
+
+    private static EvolutionDiagramBuilder builder() {
+        return EvolutionDiagramBuilder.additive(10, 0.5, 10, 40, true, k -> k + 1);
+    }
+
+    /**
+     * Describes the bundles of the classes, so classes of different runs can be compared.
+     */
+    private static Map<Integer, String> describeClasses(Map<Bundle, Integer> classes) {
+        Map<Integer, String> result = new TreeMap<>();
+        classes.forEach((bundle, c) -> result.put(c, TestUtil.describeBundle(bundle)));
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package mapconstruction.algorithms.distance;
+
+import junit.framework.TestCase;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+
+public class SegmentRTreeTest extends TestCase {
+
+    public void testWindow1() {
+        List<Line2D> segments = Arrays.asList(
+                new Line2D.Double(-2, 0, 0, -2),
+                new Line2D.Double(-1, 0, 0, 0),
+                new Line2D.Double(2, -1, 2, 0));
+        SegmentRTree rTree = new SegmentRTree(2, segments, new int[]{3, 1, 2});
+
+        int[] actual = rTree.windowQuery(-1, -1, 1, 1);
+
+        TestCase.assertTrue(Arrays.equals(new int[]{1, 3}, actual));
+    }
+
+    public void testEmpty() {
+        SegmentRTree rTree = new SegmentRTree(10, Collections.emptyList(), new int[0]);
+
+        TestCase.assertEquals(0, rTree.size());
+        TestCase.assertEquals(0, rTree.windowQuery(-1, -1, 1, 1).length);
+    }
+
+    public void testWindowMatchesRTree() {
+        Random random = new Random(42);
+        List<Line2D> segments = new ArrayList<>();
+        Map<Line2D, Integer> values = new HashMap<>();
+        for (int k = 0; k < 1000; k++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            Line2D segment = new Line2D.Double(x, y, x + random.nextGaussian() * 5, y + random.nextGaussian() * 5);
+            segments.add(segment);
+            values.put(segment, k);
+        }
+        int[] indices = new int[segments.size()];
+        Arrays.setAll(indices, k -> k);
+
+        RTree<Line2D, Integer> expectedTree = new RTree<>(10, values);
+        SegmentRTree actualTree = new SegmentRTree(10, segments, indices);
+
+        for (int q = 0; q < 200; q++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            double r = random.nextDouble() * 10;
+
+            int[] expected = expectedTree.windowQuery(x - r, y - r, x + r, y + r).stream().mapToInt(Integer::intValue).sorted().toArray();
+            int[] actual = actualTree.windowQuery(x - r, y - r, x + r, y + r);
+
+            TestCase.assertTrue(Arrays.equals(expected, actual));
+        }
+    }
+
+    public void testIntersectingMatchesLinesIntersect() {
+        Random random = new Random(7);
+        List<Line2D> segments = new ArrayList<>();
+        for (int k = 0; k < 1000; k++) {
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            // include axis-parallel segments, their bounding boxes are degenerate
+            double dx = k % 3 == 1 ? 0 : random.nextGaussian() * 5;
+            double dy = k % 3 == 2 ? 0 : random.nextGaussian() * 5;
+            segments.add(new Line2D.Double(x, y, x + dx, y + dy));
+        }
+        int[] indices = new int[segments.size()];
+        Arrays.setAll(indices, k -> k);
+        SegmentRTree rTree = new SegmentRTree(10, segments, indices);
+
+        for (int q = 0; q < 200; q++) {
+            Line2D query = new Line2D.Double(random.nextDouble() * 100, random.nextDouble() * 100,
+                    random.nextDouble() * 100, random.nextDouble() * 100);
+
+            Set<Integer> expected = new HashSet<>();
+            for (int k = 0; k < segments.size(); k++) {
+                if (query.intersectsLine(segments.get(k))) {
+                    expected.add(k);
+                }
+            }
+            Set<Integer> actual = new HashSet<>();
+            rTree.forEachIntersectingSegment(query.getX1(), query.getY1(), query.getX2(), query.getY2(),
+                    k -> TestCase.assertTrue(actual.add(k)));
+
+            TestCase.assertEquals(expected, actual);
+        }
+    }
+
+
+    public void testWindowIntersectsLineMatchesRectangle() {
+        Random random = new Random(3);
+        for (int q = 0; q < 100000; q++) {
+            // small integer coordinates, so end points often lie on the window boundary
+            double x = random.nextInt(5);
+            double y = random.nextInt(5);
+            double w = random.nextInt(4);
+            double h = random.nextInt(4);
+            double x1 = random.nextInt(8) - 1;
+            double y1 = random.nextInt(8) - 1;
+            double x2 = q % 4 == 0 ? x1 : random.nextInt(8) - 1 + random.nextDouble();
+            double y2 = q % 4 == 1 ? y1 : random.nextInt(8) - 1 + random.nextDouble();
+
+            boolean expected = new Rectangle2D.Double(x, y, w, h).intersectsLine(x1, y1, x2, y2);
+            TestCase.assertEquals(expected, SegmentRTree.windowIntersectsLine(x, y, w, h, x1, y1, x2, y2));
+        }
+    }
+}
@@ -5,9 +5,16 @@ import mapconstruction.TestUtil;
 import mapconstruction.trajectories.FullTrajectory;
 import mapconstruction.trajectories.Trajectory;
 
+import mapconstruction.algorithms.distance.DistanceMatrix;
+
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+
+import static mapconstruction.GUI.datastorage.ConstantsStorage.ALGOCONSTANTS;
 
 /**
  *
@@ -47,6 +54,8 @@ public class SemiWeakFrechetDistanceTest extends TestCase {
         SemiWeakFrechetDistance instance = new SemiWeakFrechetDistance();
         double result = instance.compute(traj1, traj2);
         assertEquals(expected, result);
+        assertTrue(instance.isWithin(traj1, traj2, expected));
+        assertFalse(instance.isWithin(traj1, traj2, Math.nextDown(expected)));
     }
     
     
@@ -213,4 +222,107 @@ public class SemiWeakFrechetDistanceTest extends TestCase {
     }
     
     
+
+    /**
+     * Test of compute and isWithin against the full dynamic programming table
+     * on random trajectories.
+     */
+    public void testComputeRandom() {
+        Random random = new Random(1);
+        SemiWeakFrechetDistance instance = new SemiWeakFrechetDistance();
+        for (int k = 0; k < 200; k++) {
+            Trajectory traj1 = randomTrajectory(random, 2 + random.nextInt(12));
+            Trajectory traj2 = randomTrajectory(random, 2 + random.nextInt(12));
+
+            double expected = fullTable(traj1, traj2);
+            assertEquals(expected, instance.compute(traj1, traj2));
+            assertTrue(instance.isWithin(traj1, traj2, expected));
+            assertFalse(instance.isWithin(traj1, traj2, Math.nextDown(expected)));
+            double epsilon = random.nextDouble() * 10;
+            assertEquals(expected <= epsilon, instance.isWithin(traj1, traj2, epsilon));
+        }
+    }
+
+    /**
+     * Test of computeAll, of class SemiWeakFrechetDistance.
+     */
+    public void testComputeAll() {
+        Random random = new Random(2);
+        List<Trajectory> trajectories1 = new ArrayList<>();
+        List<Trajectory> trajectories2 = new ArrayList<>();
+        for (int k = 0; k < 6; k++) {
+            trajectories1.add(randomTrajectory(random, 2 + random.nextInt(8)));
+            trajectories2.add(randomTrajectory(random, 2 + random.nextInt(8)));
+        }
+        trajectories2.add(trajectories1.get(0));
+
+        SemiWeakFrechetDistance instance = new SemiWeakFrechetDistance();
+        double[][] result = instance.computeAll(trajectories1, trajectories2);
+        assertEquals(trajectories1.size(), result.length);
+        for (int i = 0; i < trajectories1.size(); i++) {
+            assertEquals(trajectories2.size(), result[i].length);
+            for (int j = 0; j < trajectories2.size(); j++) {
+                assertEquals(instance.compute(trajectories1.get(i), trajectories2.get(j)), result[i][j]);
+            }
+        }
+    }
+
+    /**
+     * Test of computeAll in parallel, of class SemiWeakFrechetDistance.
+     */
+    public void testComputeAllParallel() {
+        Random random = new Random(3);
+        List<Trajectory> trajectories1 = new ArrayList<>();
+        List<Trajectory> trajectories2 = new ArrayList<>();
+        for (int k = 0; k < 20; k++) {
+            trajectories1.add(randomTrajectory(random, 2 + random.nextInt(30)));
+            trajectories2.add(randomTrajectory(random, 2 + random.nextInt(30)));
+        }
+
+        int numThreads = ALGOCONSTANTS.getNumThreads();
+        ALGOCONSTANTS.setNumThreads(4);
+        try {
+            double[][] sequential = new SemiWeakFrechetDistance(Long.MAX_VALUE).computeAll(trajectories1, trajectories2);
+            double[][] parallel = new SemiWeakFrechetDistance(0).computeAll(trajectories1, trajectories2);
+            for (int i = 0; i < trajectories1.size(); i++) {
+                assertTrue(Arrays.equals(sequential[i], parallel[i]));
+            }
+        } finally {
+            ALGOCONSTANTS.setNumThreads(numThreads);
+        }
+    }
+
+    private static Trajectory randomTrajectory(Random random, int numPoints) {
+        double[][] points = new double[numPoints][];
+        for (int i = 0; i < numPoints; i++) {
+            points[i] = new double[]{random.nextInt(10), random.nextInt(10)};
+        }
+        return new FullTrajectory(TestUtil.doubleArrayToTrajectory(points));
+    }
+
+    /**
+     * Computes the distance using the recurrence on the full table, indexed by
+     * 2i for vertices and 2i + 1 for edges.
+     */
+    private static double fullTable(Trajectory t1, Trajectory t2) {
+        int n = t1.numPoints();
+        int m = t2.numPoints();
+        DistanceMatrix distanceMatrix = new DistanceMatrix(t1, t2);
+        double[][] table = new double[2 * n][2 * m];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                if (i < n - 1) {
+                    double dist = distanceMatrix.getEdgePointDistance(i, j);
+                    table[2 * i + 1][2 * j] = j == 0 ? dist
+                            : Math.max(Math.min(table[2 * i][2 * j - 1], table[2 * i + 1][2 * j - 2]), dist);
+                }
+                if (j < m - 1) {
+                    double dist = distanceMatrix.getPointEdgeDistance(i, j);
+                    table[2 * i][2 * j + 1] = i == 0 ? dist
+                            : Math.max(Math.min(table[2 * i - 2][2 * j + 1], table[2 * i - 1][2 * j]), dist);
+                }
+            }
+        }
+        return Math.min(table[2 * n - 2][2 * m - 3], table[2 * n - 3][2 * m - 2]);
+    }
 }
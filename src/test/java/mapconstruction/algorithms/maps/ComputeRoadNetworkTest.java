@@ -0,0 +1,163 @@
+package mapconstruction.algorithms.maps;
+
+import junit.framework.TestCase;
+import mapconstruction.algorithms.diagram.EvolutionDiagram;
+import mapconstruction.algorithms.diagram.EvolutionDiagramBuilder;
+import mapconstruction.algorithms.maps.intersections.containers.Intersection;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Representative;
+import mapconstruction.trajectories.Trajectory;
+import mapconstruction.util.GeometryUtil;
+import mapconstruction.util.Pair;
+import mapconstruction.web.config.DatasetConfig;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+
+import static mapconstruction.GUI.datastorage.DataStorage.STORAGE;
+import static mapconstruction.algorithms.maps.roads.BundleIntersectionMapper.BundleIntersectionMapper;
+
+public class ComputeRoadNetworkTest extends TestCase {
+
+    private DatasetConfig previousConfig;
+    private List<Bundle> bundles;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Three parallel roads in both directions, each driven three times, and routes turning at
+        // the crossings on the diagonal.
+        Random random = new Random(1);
+        List<Trajectory> trajectories = new ArrayList<>();
+        for (int line = 0; line < 3; line++) {
+            for (int copy = 0; copy < 3; copy++) {
+                List<Point2D> horizontal = new ArrayList<>();
+                List<Point2D> vertical = new ArrayList<>();
+                for (int i = 0; i <= 40; i++) {
+                    horizontal.add(new Point2D.Double(i * 10 + random.nextGaussian(), line * 150 + random.nextGaussian()));
+                    vertical.add(new Point2D.Double(line * 150 + random.nextGaussian(), i * 10 + random.nextGaussian()));
+                }
+                trajectories.add(new FullTrajectory(horizontal));
+                trajectories.add(new FullTrajectory(vertical));
+            }
+        }
+        for (int crossing = 0; crossing < 3; crossing++) {
+            // turning left at the crossing of the horizontal and vertical road with the same number
+            double at = crossing * 150;
+            for (int copy = 0; copy < 4; copy++) {
+                List<Point2D> turning = new ArrayList<>();
+                for (int i = 0; i <= 15; i++) {
+                    turning.add(new Point2D.Double(at - 150 + i * 10 + random.nextGaussian(), at + random.nextGaussian()));
+                }
+                for (int i = 1; i <= 15; i++) {
+                    turning.add(new Point2D.Double(at + random.nextGaussian(), at + i * 10 + random.nextGaussian()));
+                }
+                trajectories.add(new FullTrajectory(turning));
+            }
+        }
+        EvolutionDiagram diagram = EvolutionDiagramBuilder.additive(10, 2, 10, 40, true, k -> k + 1).run(trajectories);
+
+        DatasetConfig config = new DatasetConfig();
+        config.setSystem("UTM");
+        config.setZone(31);
+        config.setHemisphere("N");
+        config.setPath("grid");
+        config.setWalkingDataset(true);
+
+        previousConfig = STORAGE.getDatasetConfig();
+        STORAGE.setDatasetConfig(config);
+        STORAGE.setTrajectories(trajectories);
+        STORAGE.setEvolutionDiagram(diagram);
+        STORAGE.setBundlesWithClasses(diagram.bundlesWithClassesAtBest());
+        bundles = new ArrayList<>(STORAGE.getDisplayedBundles());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        STORAGE.setDatasetConfig(previousConfig);
+        super.tearDown();
+    }
+
+    public void testConnectionsAsAllPairs() {
+        ComputeRoadNetwork allPairs = new ComputeRoadNetwork(AllPairsIndex::new);
+        List<String> expectedIntersections = describeIntersections(allPairs.getIntersection());
+        List<List<String>> expected = describeConnections(allPairs.getIntersection());
+
+        ComputeRoadNetwork indexed = new ComputeRoadNetwork();
+        assertEquals(expectedIntersections, describeIntersections(indexed.getIntersection()));
+        assertEquals(expected, describeConnections(indexed.getIntersection()));
+
+        int connections = 0;
+        for (List<String> bundleConnections : expected) {
+            connections += bundleConnections.size();
+        }
+        assertTrue(indexed.getIntersection().size() > 1);
+        assertTrue(connections > 50);
+    }
+
+    private static List<String> describeIntersections(List<Intersection> intersections) {
+        List<String> result = new ArrayList<>();
+        for (Intersection intersection : intersections) {
+            result.add(intersection.getLocation().toString());
+        }
+        return result;
+    }
+
+    /**
+     * Describes for each bundle at which indexes of its representative it meets which intersections of the road
+     * network. The mapper keeps the connections of earlier road networks, these are left out.
+     */
+    private List<List<String>> describeConnections(List<Intersection> intersections) {
+        Set<Intersection> ofNetwork = Collections.newSetFromMap(new IdentityHashMap<>());
+        ofNetwork.addAll(intersections);
+        List<List<String>> result = new ArrayList<>();
+        for (Bundle b : bundles) {
+            List<String> connections = new ArrayList<>();
+            List<Pair<Double, Intersection>> indexes = BundleIntersectionMapper.getIntersectionIndexesForBundle(b);
+            if (indexes != null) {
+                for (Pair<Double, Intersection> index : indexes) {
+                    if (ofNetwork.contains(index.getSecond())) {
+                        connections.add(index.getFirst() + " " + index.getSecond().getLocation());
+                    }
+                }
+            }
+            result.add(connections);
+        }
+        return result;
+    }
+
+    /**
+     * Index returning all intersections for every query, such that the bundles are compared with all intersections
+     * as before the intersections were indexed.
+     */
+    private static class AllPairsIndex extends IntersectionIndex {
+        private final List<Intersection> intersections;
+
+        AllPairsIndex(List<Intersection> intersections) {
+            super(intersections);
+            this.intersections = new ArrayList<>(intersections);
+        }
+
+        @Override
+        List<Intersection> getIntersectionsNear(Point2D location, double distance) {
+            return intersections;
+        }
+
+        @Override
+        List<Intersection> getIntersectionsNear(Rectangle2D rectangle, double distance) {
+            return intersections;
+        }
+
+        @Override
+        List<Intersection> getIntersectionsNear(Trajectory t, double distance) {
+            return intersections;
+        }
+
+        @Override
+        double getClosestIndex(Representative rep, Intersection intersection) {
+            return GeometryUtil.getIndexOfTrajectoryClosestToPoint(rep, intersection.getLocation());
+        }
+    }
+}
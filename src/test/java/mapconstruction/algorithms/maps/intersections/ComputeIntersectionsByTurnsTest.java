@@ -0,0 +1,154 @@
+package mapconstruction.algorithms.maps.intersections;
+
+import com.google.common.collect.Range;
+import junit.framework.TestCase;
+import mapconstruction.algorithms.representative.containers.Turn;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Subtrajectory;
+import mapconstruction.util.GeometryUtil;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+
+public class ComputeIntersectionsByTurnsTest extends TestCase {
+
+    /**
+     * Turns by location and incoming and outgoing angle. The grid of getTurnClusters has cells of 20 m, these turns
+     * are close to each other across cell boundaries, also around zero and at the corners of cells.
+     */
+    private static final double[][] BOUNDARY_TURNS = {
+        {19.9, 5, 0, 90}, {20.1, 5, 0, 90},
+        {-0.1, 10, 90, 180}, {0.1, 10, 90, 180},
+        {-20.05, 0, 180, 270}, {-0.1, 0, 180, 270},
+        {59.9, 59.9, 270, 0}, {60.1, 60.1, 270, 0}, {45, 72, 270, 0},
+        {79.99, 100, 355, 90}, {99.98, 100, 5, 90},
+        // exactly the clustering distance apart
+        {100, 0, 0, 90}, {120, 0, 0, 90},
+        // between two clusters, so joining both
+        {400, 0, 0, 90}, {425, 0, 0, 90}, {412.5, 0, 0, 90},
+        {300, 39.99, 0, 90}, {300, 40.01, 20, 90}, {300, 40, 10, 90},
+        // same location, other angles
+        {140, 140, 0, 90}, {140, 140, 0, 270}, {140, 140, 90, 0}
+    };
+
+    public void testBoundaryTurnsAsLinearScan() {
+        List<Bundle> bundles = new ArrayList<>();
+        List<Turn> turns = new ArrayList<>();
+        Bundle b = bundle(bundles);
+        for (double[] turn : BOUNDARY_TURNS) {
+            turns.add(addTurn(b, turn[0], turn[1], turn[2], turn[3]));
+        }
+
+        List<List<Turn>> clusters = ComputeIntersectionsByTurns.getTurnClusters(new LinkedHashSet<>(bundles));
+        assertEquals(linearScan(bundles), clusters);
+
+        // The turns across a cell boundary are in one cluster.
+        assertEquals(Arrays.asList(turns.get(0), turns.get(1)), clusters.get(0));
+        assertEquals(Arrays.asList(turns.get(2), turns.get(3)), clusters.get(1));
+        assertEquals(Arrays.asList(turns.get(4), turns.get(5)), clusters.get(2));
+        assertEquals(Arrays.asList(turns.get(6), turns.get(7), turns.get(8)), clusters.get(3));
+        assertEquals(Arrays.asList(turns.get(9), turns.get(10)), clusters.get(4));
+        assertEquals(Collections.singletonList(turns.get(11)), clusters.get(5));
+        assertEquals(Collections.singletonList(turns.get(12)), clusters.get(6));
+        assertTrue(clusters.get(7).contains(turns.get(15)));
+        assertTrue(clusters.get(8).contains(turns.get(15)));
+        assertEquals(14, clusters.size());
+    }
+
+    public void testRandomTurnsAsLinearScan() {
+        // Turns of several bundles around a few crossings, on and next to the cell boundaries.
+        Random random = new Random(3);
+        List<Bundle> bundles = new ArrayList<>();
+        for (int k = 0; k < 20; k++) {
+            Bundle b = bundle(bundles);
+            for (int i = 0; i < 30; i++) {
+                double x = 20 * random.nextInt(6) + 8 * random.nextGaussian();
+                double y = 20 * random.nextInt(6) + 8 * random.nextGaussian();
+                addTurn(b, x, y, 90 * random.nextInt(4) + 5 * random.nextGaussian(),
+                        90 * random.nextInt(4) + 5 * random.nextGaussian());
+            }
+        }
+
+        List<List<Turn>> expected = linearScan(bundles);
+        assertEquals(expected, ComputeIntersectionsByTurns.getTurnClusters(new LinkedHashSet<>(bundles)));
+        int clustered = 0;
+        for (List<Turn> cluster : expected) {
+            clustered += cluster.size() - 1;
+        }
+        assertTrue(clustered > 100);
+    }
+
+    /**
+     * Clusters of the turns as computed before the distinguished turns were indexed, by comparing each turn with
+     * every distinguished turn, in the order the distinguished turns were found.
+     */
+    private static List<List<Turn>> linearScan(List<Bundle> bundles) {
+        List<Turn> distinguishedTurns = new ArrayList<>();
+        List<List<Turn>> clusters = new ArrayList<>();
+        for (Bundle b : bundles) {
+            for (Turn t1 : b.getAllTurns()) {
+                boolean merged = false;
+                for (int i = 0; i < distinguishedTurns.size(); i++) {
+                    Turn t2 = distinguishedTurns.get(i);
+                    if (t1.getTurnLocation().distance(t2.getTurnLocation()) < 20 &&
+                            GeometryUtil.getAbsoluteAngleDifference(
+                                    t1.getTurnIncomingAngle(), t2.getTurnIncomingAngle()) < 15 &&
+                            GeometryUtil.getAbsoluteAngleDifference(
+                                    t1.getTurnOutgoingAngle(), t2.getTurnOutgoingAngle()) < 15) {
+                        clusters.get(i).add(t1);
+                        merged = true;
+                    }
+                }
+                if (!merged) {
+                    distinguishedTurns.add(t1);
+                    clusters.add(new ArrayList<>(Collections.singletonList(t1)));
+                }
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Creates a bundle on a trajectory of its own, whose turns are added by {@link #addTurn}.
+     */
+    private static Bundle bundle(List<Bundle> bundles) {
+        List<Turn> turns = new ArrayList<>();
+        FullTrajectory t = new FullTrajectory(Arrays.asList(new Point2D.Double(0, 0),
+                new Point2D.Double(bundles.size() + 1, 0)));
+        Bundle b = new Bundle(Collections.singletonList(new Subtrajectory(t, 0, 1))) {
+            @Override
+            public List<Turn> getAllTurns() {
+                return turns;
+            }
+        };
+        bundles.add(b);
+        return b;
+    }
+
+    /**
+     * Adds a turn at the given location with the given angles to the bundle.
+     */
+    private static Turn addTurn(Bundle b, double x, double y, double incomingAngle, double outgoingAngle) {
+        Subtrajectory sub = b.getSubtrajectories().iterator().next();
+        Point2D location = new Point2D.Double(x, y);
+        Turn turn = new Turn(sub.points(), location, sub, Range.closed(0, 1), b) {
+            @Override
+            public Point2D getTurnLocation() {
+                return location;
+            }
+
+            @Override
+            public double getTurnIncomingAngle() {
+                return incomingAngle;
+            }
+
+            @Override
+            public double getTurnOutgoingAngle() {
+                return outgoingAngle;
+            }
+        };
+        b.getAllTurns().add(turn);
+        return turn;
+    }
+}
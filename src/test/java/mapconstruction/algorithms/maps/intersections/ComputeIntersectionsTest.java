@@ -0,0 +1,266 @@
+package mapconstruction.algorithms.maps.intersections;
+
+import junit.framework.TestCase;
+import mapconstruction.algorithms.maps.intersections.containers.Intersection;
+import mapconstruction.algorithms.maps.intersections.containers.IntersectionCluster;
+import mapconstruction.algorithms.maps.intersections.containers.IntersectionPointByRoadPoint;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Subtrajectory;
+import mapconstruction.util.GeometryUtil;
+import mapconstruction.web.config.DatasetConfig;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+
+import static mapconstruction.GUI.datastorage.DataStorage.STORAGE;
+
+public class ComputeIntersectionsTest extends TestCase {
+
+    private static final double MERGE_DISTANCE = 25;
+
+    private DatasetConfig previousConfig;
+    private List<Bundle> horizontal;
+    private List<Bundle> vertical;
+    private List<IntersectionCluster> clusters;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The location of an intersection is then the average location of its clusters.
+        previousConfig = STORAGE.getDatasetConfig();
+        DatasetConfig config = new DatasetConfig();
+        config.setWalkingDataset(true);
+        STORAGE.setDatasetConfig(config);
+
+        // Two horizontal and three vertical roads 150 m apart, the bundle of each road having a different size.
+        Random random = new Random(5);
+        horizontal = new ArrayList<>();
+        vertical = new ArrayList<>();
+        for (int k = 0; k < 2; k++) {
+            horizontal.add(road(random, -100, 150 * k, 1, 0, 3 + k));
+        }
+        for (int k = 0; k < 3; k++) {
+            vertical.add(road(random, 150 * k, -100, 0, 1, 5 + k));
+        }
+
+        clusters = new ArrayList<>();
+        for (int h = 0; h < horizontal.size(); h++) {
+            for (int v = 0; v < vertical.size(); v++) {
+                Set<Bundle> both = new HashSet<>(Arrays.asList(horizontal.get(h), vertical.get(v)));
+                double x = 150 * v;
+                double y = 150 * h;
+                // clusters around the crossing
+                for (int i = 0; i < 4; i++) {
+                    clusters.add(cluster(x + 8 * random.nextGaussian(), y + 8 * random.nextGaussian(), both));
+                }
+                // a cluster close by, but only on a bundle of another road
+                Bundle other = vertical.get((v + 1) % vertical.size());
+                clusters.add(cluster(x + 10, y + 10, Collections.singleton(other)));
+                // chains of clusters along the roads, each close to the next on the bundle
+                for (int i = 0; i < 5; i++) {
+                    clusters.add(cluster(x + 40 + 12 * i, y + random.nextGaussian(),
+                            Collections.singleton(horizontal.get(h))));
+                    clusters.add(cluster(x + random.nextGaussian(), y + 40 + 12 * i,
+                            Collections.singleton(vertical.get(v))));
+                }
+            }
+        }
+        Collections.shuffle(clusters, random);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        STORAGE.setDatasetConfig(previousConfig);
+        super.tearDown();
+    }
+
+    public void testCalculateIntersectionAsAllPairs() {
+        List<Intersection> expected = allPairsCalculateIntersection(clusters);
+        List<Intersection> actual = ComputeIntersections.calculateIntersection(clusters);
+
+        // the order of the intersections changed, it is not used by the callers
+        assertEquals(new HashSet<>(describe(expected, clusters)), new HashSet<>(describe(actual, clusters)));
+        assertTrue(actual.size() < clusters.size() / 2);
+        assertTrue(actual.size() > horizontal.size() * vertical.size());
+    }
+
+    public void testMergeBasedOnFinalLocationAsAllPairs() {
+        List<Intersection> expected = allPairsMergeBasedOnFinalLocation(
+                ComputeIntersections.calculateIntersection(clusters), MERGE_DISTANCE);
+        List<Intersection> intersections = ComputeIntersections.calculateIntersection(clusters);
+        List<Intersection> actual = ComputeIntersections.mergeBasedOnFinalLocation(intersections, MERGE_DISTANCE);
+
+        assertEquals(describe(expected, clusters), describe(actual, clusters));
+        assertTrue(actual.size() < intersections.size());
+    }
+
+    public void testMergeChainsAsAllPairs() {
+        // Intersections of one cluster each, along a line and scattered around it, such that merging moves the
+        // location of an intersection towards and away from the later ones.
+        Random random = new Random(6);
+        List<IntersectionCluster> scattered = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            scattered.add(cluster(8 * i + 4 * random.nextGaussian(), 10 * random.nextGaussian(),
+                    Collections.emptySet()));
+        }
+
+        List<Intersection> expected = allPairsMergeBasedOnFinalLocation(singleClusterIntersections(scattered),
+                MERGE_DISTANCE);
+        List<Intersection> actual = ComputeIntersections.mergeBasedOnFinalLocation(
+                singleClusterIntersections(scattered), MERGE_DISTANCE);
+
+        assertEquals(describe(expected, scattered), describe(actual, scattered));
+        assertTrue(actual.size() > 1);
+        assertTrue(actual.size() < scattered.size() / 3);
+    }
+
+    /**
+     * The merging of clusters into intersections as before the clusters were indexed, comparing each cluster with
+     * all clusters of the intersections found before.
+     */
+    private static List<Intersection> allPairsCalculateIntersection(List<IntersectionCluster> clusters) {
+        List<Intersection> allIntersections = new ArrayList<>();
+        for (IntersectionCluster cluster1 : clusters) {
+            Set<Bundle> bundlesAtCluster1 = cluster1.getAllBundlesAroundThisCluster();
+            Set<Intersection> intersectionsCluster1HasToMergeWith = new LinkedHashSet<>();
+            for (Intersection intersection : allIntersections) {
+                for (IntersectionCluster cluster2 : intersection.getAllIntersectionClusters()) {
+                    if (cluster1.getLocation().distance(cluster2.getLocation()) > 50) {
+                        continue;
+                    }
+                    Set<Bundle> bundlesInBothClusters = new HashSet<>(cluster2.getAllBundlesAroundThisCluster());
+                    bundlesInBothClusters.retainAll(bundlesAtCluster1);
+
+                    List<Bundle> filteredBundles = new ArrayList<>(bundlesInBothClusters);
+                    IntersectionUtil.filterOutBundlesWithAToSmallRep(filteredBundles, cluster1.getLocation(), 15.0, true);
+                    IntersectionUtil.filterOutBundlesWithAToSmallRep(filteredBundles, cluster2.getLocation(), 15.0, true);
+                    if (filteredBundles.isEmpty()) {
+                        continue;
+                    }
+
+                    Bundle largestBundle = IntersectionUtil.getLargestBundle(filteredBundles);
+                    Point2D cluster1OnLargestBundle = GeometryUtil.getPointOnTrajectoryClosestToOtherPoint(
+                            largestBundle.getRepresentative(), cluster1.getLocation());
+                    Point2D cluster2OnLargestBundle = GeometryUtil.getPointOnTrajectoryClosestToOtherPoint(
+                            largestBundle.getRepresentative(), cluster2.getLocation());
+                    if (cluster1OnLargestBundle.distance(cluster2OnLargestBundle) < 15) {
+                        intersectionsCluster1HasToMergeWith.add(intersection);
+                        break;
+                    }
+                }
+            }
+
+            if (intersectionsCluster1HasToMergeWith.isEmpty()) {
+                allIntersections.add(new Intersection(cluster1));
+            } else {
+                Iterator<Intersection> intersectionIterator = intersectionsCluster1HasToMergeWith.iterator();
+                Intersection mainIntersection = intersectionIterator.next();
+                mainIntersection.addNewIntersectionCluster(cluster1);
+                while (intersectionIterator.hasNext()) {
+                    Intersection intersection = intersectionIterator.next();
+                    mainIntersection.mergeWithAnotherIntersection(intersection, null);
+                    allIntersections.remove(intersection);
+                }
+            }
+        }
+        return allIntersections;
+    }
+
+    /**
+     * The merging of intersections on their location as before the locations were indexed, comparing each
+     * intersection with all later ones.
+     */
+    private static List<Intersection> allPairsMergeBasedOnFinalLocation(List<Intersection> intersections,
+                                                                        double mergeDistance) {
+        List<Intersection> intersectionList = new ArrayList<>(intersections);
+        for (int i = 0; i < intersectionList.size(); i++) {
+            Intersection int1 = intersectionList.get(i);
+            for (int j = i + 1; j < intersectionList.size(); j++) {
+                Intersection int2 = intersectionList.get(j);
+                if (int1.getLocation().distance(int2.getLocation()) < mergeDistance) {
+                    int1.mergeWithAnotherIntersection(int2, int2.getLocation());
+                    intersectionList.remove(j);
+                    j--;
+                }
+            }
+        }
+        return intersectionList;
+    }
+
+    /**
+     * Describes the intersections by the positions of their clusters in the list, as intersections created by
+     * different runs are not equal.
+     */
+    private static List<Set<Integer>> describe(List<Intersection> intersections, List<IntersectionCluster> clusters) {
+        Map<IntersectionCluster, Integer> positions = new IdentityHashMap<>();
+        for (IntersectionCluster cluster : clusters) {
+            positions.put(cluster, positions.size());
+        }
+        List<Set<Integer>> result = new ArrayList<>();
+        int numClusters = 0;
+        for (Intersection intersection : intersections) {
+            Set<Integer> members = new TreeSet<>();
+            for (IntersectionCluster cluster : intersection.getAllIntersectionClusters()) {
+                members.add(positions.get(cluster));
+            }
+            result.add(members);
+            numClusters += members.size();
+        }
+        // every cluster is in exactly one intersection
+        assertEquals(clusters.size(), numClusters);
+        return result;
+    }
+
+    private static List<Intersection> singleClusterIntersections(List<IntersectionCluster> clusters) {
+        List<Intersection> intersections = new ArrayList<>();
+        for (IntersectionCluster cluster : clusters) {
+            intersections.add(new Intersection(cluster));
+        }
+        return intersections;
+    }
+
+    /**
+     * Creates the bundle of a straight road of 400 m from the given start in the given direction, driven by the
+     * given number of trajectories.
+     */
+    private static Bundle road(Random random, double x, double y, double dx, double dy, int size) {
+        List<Subtrajectory> subs = new ArrayList<>();
+        for (int k = 0; k < size; k++) {
+            List<Point2D> points = new ArrayList<>();
+            for (int i = 0; i <= 40; i++) {
+                points.add(new Point2D.Double(x + 10 * i * dx + random.nextGaussian(),
+                        y + 10 * i * dy + random.nextGaussian()));
+            }
+            FullTrajectory t = new FullTrajectory(points);
+            subs.add(new Subtrajectory(t, 0, t.numPoints() - 1));
+        }
+        Bundle b = Bundle.create(subs, subs.get(0));
+        b.calculateForceProperties(5);
+        return b;
+    }
+
+    /**
+     * Creates a cluster at the given location with the given bundles around it.
+     */
+    private static IntersectionCluster cluster(double x, double y, Set<Bundle> bundles) {
+        Point2D location = new Point2D.Double(x, y);
+        IntersectionPointByRoadPoint point = new IntersectionPointByRoadPoint(null, null, null, null, location) {
+            @Override
+            public Point2D getLocation() {
+                return location;
+            }
+        };
+        return new IntersectionCluster(point) {
+            @Override
+            public Point2D getLocation() {
+                return location;
+            }
+
+            @Override
+            public Set<Bundle> getAllBundlesAroundThisCluster() {
+                return new HashSet<>(bundles);
+            }
+        };
+    }
+}
@@ -0,0 +1,150 @@
+package mapconstruction.algorithms.representative;
+
+import junit.framework.TestCase;
+import mapconstruction.TestUtil;
+import mapconstruction.algorithms.bundles.KLSubbundleAlgorithm;
+import mapconstruction.algorithms.representative.containers.Turn;
+import mapconstruction.trajectories.Bundle;
+import mapconstruction.trajectories.FullTrajectory;
+import mapconstruction.trajectories.Trajectory;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static mapconstruction.GUI.datastorage.ConstantsStorage.ALGOCONSTANTS;
+
+public class BundlePropertyCalculatorTest extends TestCase {
+
+    private static final double EPSILON = 10;
+
+    private List<Trajectory> trajectories;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Four routes turning at a crossing and two going straight on, with some noise.
+        Random random = new Random(4);
+        trajectories = new ArrayList<>();
+        for (int k = 0; k < 6; k++) {
+            List<Point2D> points = new ArrayList<>();
+            for (int x = 0; x < 100; x += 10) {
+                points.add(new Point2D.Double(x + random.nextGaussian(), random.nextGaussian()));
+            }
+            for (int d = 0; d <= 100; d += 10) {
+                if (k < 4) {
+                    points.add(new Point2D.Double(100 + random.nextGaussian(), d + random.nextGaussian()));
+                } else {
+                    points.add(new Point2D.Double(100 + d + random.nextGaussian(), random.nextGaussian()));
+                }
+            }
+            trajectories.add(new FullTrajectory(points));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ALGOCONSTANTS.setNumThreads(0);
+        super.tearDown();
+    }
+
+    public void testParallelMatchesSequential() {
+        ALGOCONSTANTS.setNumThreads(0);
+        Map<String, Bundle> sequential = calculate();
+        ALGOCONSTANTS.setNumThreads(4);
+        Map<String, Bundle> parallel = calculate();
+
+        assertEquals(sequential.keySet(), parallel.keySet());
+        int turns = 0;
+        for (String key : sequential.keySet()) {
+            Bundle s = sequential.get(key);
+            Bundle p = parallel.get(key);
+            assertNotSame(s, p);
+            assertEquals(s.getForcesRepresentativeJSON(), p.getForcesRepresentativeJSON());
+            assertEquals(s.getRepresentativePolyline(), p.getRepresentativePolyline());
+            assertEquals(describeTurns(s.getAllTurns()), describeTurns(p.getAllTurns()));
+            turns += s.getAllTurns().size();
+        }
+        assertTrue(turns > 0);
+    }
+
+    public void testCalculatedBundlesAreSkipped() {
+        ALGOCONSTANTS.setNumThreads(4);
+        Map<Bundle, Double> bestEpsilons = bestEpsilons();
+        // The force step bails out for a bundle without best epsilon, yet its turns are calculated once.
+        Bundle withoutClass = bestEpsilons.keySet().iterator().next();
+        bestEpsilons.put(withoutClass, Double.NaN);
+        BundlePropertyCalculator.calculate(bestEpsilons, p -> {});
+
+        Map<Bundle, List<Point2D>> forces = new IdentityHashMap<>();
+        Map<Bundle, List<Point2D>> merged = new IdentityHashMap<>();
+        Map<Bundle, List<Turn>> turns = new IdentityHashMap<>();
+        for (Bundle b : bestEpsilons.keySet()) {
+            assertNotNull(b.getRepresentativePolyline());
+            forces.put(b, b.getForcesRepresentativeJSON());
+            merged.put(b, b.getRepresentativePolyline());
+            turns.put(b, b.getAllTurns());
+        }
+        assertTrue(withoutClass.getForcesRepresentativeJSON().isEmpty());
+        assertTrue(withoutClass.getRepresentativePolyline().isEmpty());
+
+        BundlePropertyCalculator.calculate(bestEpsilons, p -> {});
+        for (Bundle b : bestEpsilons.keySet()) {
+            if (b != withoutClass) {
+                assertSame(forces.get(b), b.getForcesRepresentativeJSON());
+            }
+            assertSame(merged.get(b), b.getRepresentativePolyline());
+            assertSame(turns.get(b), b.getAllTurns());
+        }
+
+        // Once the force representative of the bundle is calculated, the turns are merged into it.
+        bestEpsilons.put(withoutClass, EPSILON);
+        BundlePropertyCalculator.calculate(bestEpsilons, p -> {});
+        assertFalse(withoutClass.getForcesRepresentativeJSON().isEmpty());
+        assertFalse(withoutClass.getRepresentativePolyline().isEmpty());
+    }
+
+    public void testProgress() {
+        ALGOCONSTANTS.setNumThreads(4);
+        Map<Bundle, Double> bestEpsilons = bestEpsilons();
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        BundlePropertyCalculator.calculate(bestEpsilons, p -> {
+            assertTrue(p > 0 && p <= 100);
+            calls.incrementAndGet();
+            max.accumulateAndGet(p, Math::max);
+        });
+        assertEquals(100, max.get());
+        assertEquals(Math.min(100, bestEpsilons.size()), calls.get());
+    }
+
+    /**
+     * New bundles of the trajectories, all at the same best epsilon.
+     */
+    private Map<Bundle, Double> bestEpsilons() {
+        Map<Bundle, Double> bestEpsilons = new LinkedHashMap<>();
+        for (Bundle b : new KLSubbundleAlgorithm(EPSILON, EPSILON / 2, true).run(trajectories)) {
+            bestEpsilons.put(b, EPSILON);
+        }
+        return bestEpsilons;
+    }
+
+    private Map<String, Bundle> calculate() {
+        Map<Bundle, Double> bestEpsilons = bestEpsilons();
+        BundlePropertyCalculator.calculate(bestEpsilons, p -> {});
+        Map<String, Bundle> result = new HashMap<>();
+        for (Bundle b : bestEpsilons.keySet()) {
+            result.put(TestUtil.describeBundle(b), b);
+        }
+        assertEquals(bestEpsilons.size(), result.size());
+        return result;
+    }
+
+    private static List<String> describeTurns(List<Turn> turns) {
+        List<String> result = new ArrayList<>();
+        for (Turn turn : turns) {
+            result.add(turn.getTurnLocation() + " " + turn.getLargestAnglePoints());
+        }
+        return result;
+    }
+}
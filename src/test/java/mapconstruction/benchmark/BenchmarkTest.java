@@ -0,0 +1,82 @@
+package mapconstruction.benchmark;
+
+import junit.framework.TestCase;
+import mapconstruction.GUI.io.BenchmarkManager;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BenchmarkTest extends TestCase {
+
+    public void testHistogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int k = 1; k <= 1000; k++) {
+            histogram.record(k);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 1e-9);
+        for (double p : new double[]{1, 50, 90, 99, 100}) {
+            long exact = (long) Math.ceil(p * 10);
+            long actual = histogram.getValueAtPercentile(p);
+            assertTrue(actual >= exact);
+            assertTrue(actual <= exact + exact / 16);
+        }
+    }
+
+    public void testHistogramBuckets() {
+        Random random = new Random(1);
+        for (int k = 0; k < 10000; k++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int bucket = Histogram.bucket(value);
+            assertTrue(value <= Histogram.upperBound(bucket));
+            assertTrue(bucket == 0 || value > Histogram.upperBound(bucket - 1));
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.bucket(Long.MAX_VALUE)));
+    }
+
+    public void testConcurrentTimings() throws Exception {
+        Benchmark.start(new BenchmarkManager(System.getProperty("java.io.tmpdir")), "test");
+        try {
+            Benchmark.push("outer");
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (int k = 0; k < 100; k++) {
+                    futures.add(executor.submit(Benchmark.inherit(() -> {
+                        Benchmark.push("task");
+                        Benchmark.push("inner");
+                        Benchmark.count("tasks", 1);
+                        Benchmark.pop();
+                        Benchmark.pop();
+                        return null;
+                    })));
+                }
+                for (Future<Void> f : futures) {
+                    f.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+            Benchmark.pop();
+
+            Timing root = Benchmark.getTimings();
+            assertEquals(1, root.getSubtimings().size());
+            Timing outer = root.getSubtimings().iterator().next();
+            assertEquals("outer", outer.getTitle());
+            assertEquals(1, outer.getCount());
+            assertEquals(1, outer.getSubtimings().size());
+            Timing task = outer.getSubtimings().iterator().next();
+            assertEquals("task", task.getTitle());
+            assertEquals(100, task.getCount());
+            assertEquals(100, task.getSubtimings().iterator().next().getCount());
+            assertEquals(Long.valueOf(100), Benchmark.getCounters().get("tasks"));
+            assertFalse(Benchmark.pop());
+        } finally {
+            Benchmark.stop();
+        }
+    }
+}
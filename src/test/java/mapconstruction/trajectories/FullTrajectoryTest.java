@@ -96,4 +96,40 @@ public class FullTrajectoryTest extends TrajectoryTestCases {
         assertEquals(instance2, result);
     }
 
+    public void testUndirectionalId() {
+        System.out.println("getUndirectionalId: equal for a labelled trajectory and its reverse");
+        double[][] coords = new double[][]{
+            {0, 0}, {1, 0}, {2, 0}, {3, 0}
+        };
+
+        FullTrajectory t1 = createInstance(TestUtil.doubleArrayToTrajectory(coords));
+        t1.setLabel("undirectional-id-1");
+        FullTrajectory t2 = createInstance(TestUtil.doubleArrayToTrajectory(coords));
+        t2.setLabel("undirectional-id-2");
+
+        assertEquals(t1.getUndirectionalId(), t1.reverse().getUndirectionalId());
+        assertFalse(t1.getUndirectionalId() == t2.getUndirectionalId());
+        assertTrue(t1.getUndirectionalId() > 0);
+    }
+
+    public void testReversePoints() {
+        System.out.println("reverse: points in reverse order, independent of the input list");
+        double[][] coords = new double[][]{
+            {0, 0}, {1, 0.5}, {2, 1}, {3, 0}
+        };
+
+        List<Point2D> points = TestUtil.doubleArrayToTrajectory(coords);
+        FullTrajectory t = createInstance(points);
+        FullTrajectory reverse = t.reverse();
+        points.get(0).setLocation(5, 5);
+
+        assertEquals(4, reverse.numPoints());
+        for (int i = 0; i < coords.length; i++) {
+            assertEquals(new Point2D.Double(coords[i][0], coords[i][1]), t.getPoint(i));
+            assertEquals(t.getPoint(i), reverse.getPoint(3 - i));
+            assertEquals(coords[i][1], reverse.getY(3 - i), 0);
+        }
+        assertEquals(t.getPoint(3), reverse.getEdge(0).getP1());
+    }
+
 }
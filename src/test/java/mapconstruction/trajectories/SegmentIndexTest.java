@@ -0,0 +1,75 @@
+package mapconstruction.trajectories;
+
+import junit.framework.TestCase;
+import mapconstruction.util.GeometryUtil;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SegmentIndexTest extends TestCase {
+
+    private Random random;
+    private List<Point2D> points;
+    private Representative rep;
+    private FullTrajectory walked;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        random = new Random(1);
+        points = new ArrayList<>();
+        double x = 0;
+        double y = 0;
+        for (int i = 0; i < 300; i++) {
+            points.add(new Point2D.Double(x, y));
+            if (i % 50 == 10) {
+                // duplicate point
+                continue;
+            }
+            x += random.nextDouble() * 20 - 5;
+            y += random.nextDouble() * 20 - 10;
+        }
+        rep = new Representative(points, null);
+        walked = new FullTrajectory(points);
+        assertNotNull(rep.segmentIndex());
+    }
+
+    public void testClosestPoint() {
+        for (int q = 0; q < 500; q++) {
+            Point2D location = randomLocation();
+            assertEquals(GeometryUtil.getIndexOfTrajectoryClosestToPoint(walked, location),
+                    GeometryUtil.getIndexOfTrajectoryClosestToPoint(rep, location), 0);
+
+            double from = random.nextDouble() * 150;
+            double to = from + random.nextDouble() * 149;
+            assertEquals(GeometryUtil.getIndexOfTrajectoryClosestToPoint(new Subtrajectory(walked, from, to), location),
+                    GeometryUtil.getIndexOfTrajectoryClosestToPoint(new Subtrajectory(rep, from, to), location), 0);
+        }
+    }
+
+    public void testClosestPointOnVertex() {
+        // Equally close to both edges at a point, the first edge is taken.
+        for (int i = 1; i < points.size() - 1; i++) {
+            assertEquals(GeometryUtil.getIndexOfTrajectoryClosestToPoint(walked, points.get(i)),
+                    GeometryUtil.getIndexOfTrajectoryClosestToPoint(rep, points.get(i)), 0);
+        }
+    }
+
+    public void testIndexAfterOffset() {
+        for (int q = 0; q < 500; q++) {
+            double index = q % 10 == 0 ? random.nextInt(points.size()) : random.nextDouble() * (points.size() - 1);
+            double offset = random.nextDouble() * 1000 - 500;
+            assertEquals(GeometryUtil.getTrajectoryIndexAfterOffset(walked, index, offset),
+                    GeometryUtil.getTrajectoryIndexAfterOffset(rep, index, offset), 1E-9);
+        }
+        assertEquals(points.size() - 1, GeometryUtil.getTrajectoryIndexAfterOffset(rep, 3.5, 1E9), 0);
+        assertEquals(0, GeometryUtil.getTrajectoryIndexAfterOffset(rep, 3.5, -1E9), 0);
+    }
+
+    private Point2D randomLocation() {
+        Point2D p = points.get(random.nextInt(points.size()));
+        return new Point2D.Double(p.getX() + random.nextGaussian() * 30, p.getY() + random.nextGaussian() * 30);
+    }
+}
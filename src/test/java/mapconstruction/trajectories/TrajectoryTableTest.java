@@ -0,0 +1,187 @@
+package mapconstruction.trajectories;
+
+import junit.framework.TestCase;
+import mapconstruction.TestUtil;
+import mapconstruction.algorithms.diagram.EvolutionDiagram;
+
+import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public class TrajectoryTableTest extends TestCase {
+
+    private FullTrajectory t1;
+    private FullTrajectory t2;
+    private List<Trajectory> trajectories;
+    private Bundle b1;
+    private Bundle b2;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        t1 = new FullTrajectory(TestUtil.doubleArrayToTrajectory(new double[][]{{0, 0}, {1, 0.5}, {2, 0}, {3, 0}}));
+        t2 = new FullTrajectory(TestUtil.doubleArrayToTrajectory(new double[][]{{0, 1}, {1, 1}, {2, 1.25}, {3, 1}}));
+        t1.setLabel("t1");
+        SimplifiedTrajectory simplified = new SimplifiedTrajectory(t2, Arrays.asList(0, 2, 3), 0.5);
+        trajectories = Arrays.asList(t1, t2.reverse(), simplified);
+
+        Subtrajectory s1 = new Subtrajectory(t1, 0, 3);
+        Subtrajectory s2 = new Subtrajectory(t2.reverse(), 0.5, 2);
+        b1 = UndirectionalBundle.create(Arrays.asList(s1, s2), s1);
+        b1.restoreProperties(true, true, Arrays.asList(new Point2D.Double(0, 0.5), new Point2D.Double(3, 0.5)), 2);
+        b2 = Bundle.create(Collections.singletonList(new Subtrajectory(simplified, 1, 2)));
+    }
+
+    public void testTrajectories() throws Exception {
+        TrajectoryTable table = new TrajectoryTable();
+        for (Trajectory t : trajectories) {
+            table.add(t);
+        }
+        TrajectoryTable actual = readBack(table);
+
+        assertEquals(table.numTrajectories(), actual.numTrajectories());
+        for (int k = 0; k < table.numTrajectories(); k++) {
+            Trajectory expected = table.getTrajectory(k);
+            Trajectory restored = actual.getTrajectory(k);
+            assertEquals(expected.getClass(), restored.getClass());
+            assertEquals(expected, restored);
+            assertEquals(expected.points(), restored.points());
+            assertEquals(expected.getLabel(), restored.getLabel());
+            assertEquals(expected.isReverse(), restored.isReverse());
+        }
+    }
+
+    public void testBundlesInChunks() throws Exception {
+        TrajectoryTable table = new TrajectoryTable();
+        for (Trajectory t : trajectories) {
+            table.add(t);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        table.write(out);
+        int numTrajectories = table.numTrajectories();
+        EvolutionDiagram diagram = EvolutionDiagram.createDummy(Arrays.asList(b1, b2), 1.5);
+        diagram.addBundlesTo(table);
+        table.write(out);
+        diagram.write(out, table);
+
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        TrajectoryTable actual = new TrajectoryTable();
+        actual.read(in);
+        assertEquals(numTrajectories, actual.numTrajectories());
+        actual.read(in);
+        EvolutionDiagram actualDiagram = EvolutionDiagram.read(in, actual);
+        assertFalse(in.hasRemaining());
+
+        assertEquals(2, actual.numBundles());
+        Bundle actualB1 = actual.getBundle(table.indexOf(b1));
+        assertTrue(actualB1 instanceof UndirectionalBundle);
+        assertEquals(b1, actualB1);
+        assertEquals(b1.getOriginalRepresentative(), actualB1.getOriginalRepresentative());
+        assertTrue(actualB1.isBundleRepCutOff());
+        assertTrue(actualB1.isForcePropertiesCalculated());
+        assertEquals(b1.getUnmergedForceRepresentative(), actualB1.getUnmergedForceRepresentative());
+        assertEquals(Integer.valueOf(2), actualB1.getBundleEndsAreRoadPoints());
+        Bundle actualB2 = actual.getBundle(table.indexOf(b2));
+        assertEquals(Bundle.class, actualB2.getClass());
+        assertFalse(actualB2.isForcePropertiesCalculated());
+
+        // subtrajectories are shared with the trajectories read before
+        Trajectory simplified = actual.getTrajectory(table.indexOf(trajectories.get(2)));
+        assertSame(simplified, actualB2.getSubtrajectories().iterator().next().getParent());
+
+        assertEquals(diagram.getEpsilons(), actualDiagram.getEpsilons());
+        assertEquals(diagram.getBundleClasses(1.5), actualDiagram.getBundleClasses(1.5));
+        assertEquals(diagram.getBirthMoment(1), actualDiagram.getBirthMoment(1), 0);
+    }
+
+    public void testLegacyChunks() throws Exception {
+        TrajectoryTable table = new TrajectoryTable();
+        for (Trajectory t : trajectories) {
+            table.add(t);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeLegacyChunk(table, 0, bytes);
+        table.add(b1);
+        table.add(b2);
+        writeLegacyChunk(table, 2, bytes);
+
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        TrajectoryTable actual = new TrajectoryTable();
+        actual.read(in, false);
+        actual.read(in, false);
+        assertFalse(in.hasRemaining());
+
+        assertEquals(table.numTrajectories(), actual.numTrajectories());
+        Bundle actualB1 = actual.getBundle(table.indexOf(b1));
+        assertEquals(b1, actualB1);
+        assertEquals(b1.getUnmergedForceRepresentative(), actualB1.getUnmergedForceRepresentative());
+        assertFalse(actualB1.isTurnPropertiesCalculated());
+        assertNull(actualB1.getAllTurns());
+        assertEquals(b2, actual.getBundle(table.indexOf(b2)));
+    }
+
+    public void testUnsupportedTrajectory() {
+        Trajectory t = new Trajectory() {
+            @Override
+            public int numPoints() {
+                return 0;
+            }
+
+            @Override
+            public Point2D getPoint(int pos) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            @Override
+            public Trajectory reverse() {
+                return this;
+            }
+
+            @Override
+            public boolean isReverse() {
+                return false;
+            }
+
+            @Override
+            public String getLabel() {
+                return null;
+            }
+        };
+        try {
+            new TrajectoryTable().add(t);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Writes a chunk as written before the turn related properties of bundles were stored. For bundles without turns
+     * these are the trailing columns: the sizes of the merged representatives, the numbers of turns and the number of
+     * largest angle points, all zero.
+     */
+    private static void writeLegacyChunk(TrajectoryTable table, int numBundles, ByteArrayOutputStream bytes)
+            throws Exception {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        table.write(new DataOutputStream(chunk));
+        byte[] written = chunk.toByteArray();
+        int legacyLength = written.length - 4 * (2 * numBundles + 1);
+        for (int k = legacyLength; k < written.length; k++) {
+            assertEquals(0, written[k]);
+        }
+        bytes.write(written, 0, legacyLength);
+    }
+
+    private static TrajectoryTable readBack(TrajectoryTable table) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        table.write(new DataOutputStream(bytes));
+        TrajectoryTable actual = new TrajectoryTable();
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        actual.read(in);
+        assertFalse(in.hasRemaining());
+        return actual;
+    }
+}
@@ -0,0 +1,47 @@
+package mapconstruction.util;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class GridIndexTest extends TestCase {
+
+    public void testForEachNearIncludesAllWithinCellSize() {
+        Random random = new Random(1);
+        int n = 500;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        GridIndex grid = new GridIndex(50);
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextDouble() * 1000 - 500;
+            ys[i] = random.nextDouble() * 1000 - 500;
+            grid.add(xs[i], ys[i], i);
+        }
+
+        for (int q = 0; q < 100; q++) {
+            double x = random.nextDouble() * 1100 - 550;
+            double y = random.nextDouble() * 1100 - 550;
+            Set<Integer> found = new HashSet<>();
+            grid.forEachNear(x, y, found::add);
+            for (int i = 0; i < n; i++) {
+                if (Math.hypot(xs[i] - x, ys[i] - y) <= 50) {
+                    assertTrue("Missing " + i, found.contains(i));
+                }
+            }
+        }
+    }
+
+    public void testUnionFind() {
+        UnionFind sets = new UnionFind(5);
+        assertTrue(sets.union(0, 1));
+        assertTrue(sets.union(3, 4));
+        assertFalse(sets.union(1, 0));
+        assertTrue(sets.connected(0, 1));
+        assertFalse(sets.connected(1, 3));
+        assertTrue(sets.union(1, 4));
+        assertEquals(sets.find(0), sets.find(3));
+        assertFalse(sets.connected(2, 0));
+    }
+}